@@ -0,0 +1,50 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 不同读取缓冲区下计算8MB数据的MD5和SHA校验和的耗时，数据在内存中，只测量摘要计算和读取的开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    private static final int DATA_SIZE = 8 * 1024 * 1024;
+
+    @Param({"4096", "65536", "1048576"})
+    public int bufferSize;
+
+    @Param({"MD5", "SHA"})
+    public String algorithm;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        this.data = new byte[DATA_SIZE];
+        new Random(1).nextBytes(this.data);
+    }
+
+    @Benchmark
+    public String checksum() throws Exception {
+        return Utils.calInputStreamCheckSum(new ByteArrayInputStream(this.data),
+                this.algorithm, this.bufferSize);
+    }
+}
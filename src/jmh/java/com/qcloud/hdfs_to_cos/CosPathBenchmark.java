@@ -0,0 +1,101 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.HarFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 本地文件系统上把hdfs文件和har成员的路径转换为COS路径的耗时。
+ * 按路径转换时每次都要查询FileStatus(har还要初始化HarFileSystem)，
+ * 按扫描得到的FileStatus转换时只有字符串处理，两者的差距即扫描时省去的元数据访问
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CosPathBenchmark {
+    private File workDir;
+    private ConfigReader hdfsConfigReader;
+    private ConfigReader harConfigReader;
+    private Path hdfsFilePath;
+    private String hdfsFolderPath;
+    private FileStatus hdfsFileStatus;
+    private Path harMemberPath;
+    private FileStatus harMemberStatus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("cos_path_bench");
+        File srcDir = new File(this.workDir, "src");
+        File srcFile = TestUtils.writeRandomFile(new File(srcDir, "a/b/data"), 1024, 1);
+        File archiveDir = HarTestUtils.buildHar(new File(srcDir, "a.har"), 10, 16);
+
+        this.hdfsConfigReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/");
+        FileSystem fs = this.hdfsConfigReader.getHdfsFS();
+        this.hdfsFilePath = new Path(srcFile.getAbsolutePath());
+        this.hdfsFolderPath = CommonHdfsUtils.getHdfsFolderPath(
+                fs.getFileStatus(new Path(srcDir.getAbsolutePath())));
+        this.hdfsFileStatus = fs.getFileStatus(this.hdfsFilePath);
+
+        this.harConfigReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, archiveDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.DECOMPRESS_HAR);
+        this.harMemberPath = new Path("har://" + archiveDir.getAbsolutePath()
+                + "/data/" + HarTestUtils.getMemberName(0));
+        HarFileSystem harFileSystem = new HarFileSystem(fs);
+        harFileSystem.initialize(CommonHarUtils.buildFsUri(this.harMemberPath),
+                fs.getConf());
+        this.harMemberStatus = harFileSystem.getFileStatus(
+                new Path(this.harMemberPath.toUri().getPath()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    @Benchmark
+    public Path hdfsByPath() throws Exception {
+        return CommonHdfsUtils.convertToCosPath(this.hdfsConfigReader,
+                this.hdfsFilePath);
+    }
+
+    @Benchmark
+    public Path hdfsByStatus() {
+        return CommonHdfsUtils.convertToCosPath(this.hdfsConfigReader,
+                this.hdfsFolderPath, this.hdfsFileStatus);
+    }
+
+    @Benchmark
+    public Path harByPath() throws Exception {
+        return CommonHarUtils.convertToCosPath(this.harConfigReader,
+                this.harMemberPath);
+    }
+
+    @Benchmark
+    public Path harByStatus() {
+        return CommonHarUtils.convertToCosPath(this.harConfigReader,
+                this.harMemberStatus);
+    }
+}
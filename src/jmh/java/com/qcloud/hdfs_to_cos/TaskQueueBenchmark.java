@@ -0,0 +1,125 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 扫描线程把任务交给HdfsToCosExecutor的吞吐量：一个扫描线程放入，4个上传线程按300毫秒超时取出，
+ * 和HdfsToCosExecutor一样。对比原来的LinkedBlockingQueue和按文件大小分道的LaneTaskQueue，
+ * 分道时上传线程按照splitWorkerNum分到各个车道，任务的文件大小在三个车道之间轮换
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskQueueBenchmark {
+    private static final int TASK_NUM = 1024;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int WORKER_NUM = 4;
+    private static final long[] FILE_SIZES = {1024L, 64 * 1024 * 1024L,
+            1024 * 1024 * 1024L};
+
+    @Param({"linked", "lane"})
+    public String queueType;
+
+    private File workDir;
+    private FileToCosTask[] tasks;
+    private BlockingQueue<FileToCosTask> queue;
+    private int[] workerLanes;
+    private final AtomicInteger workerIndex = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        int next = 0;
+    }
+
+    @State(Scope.Thread)
+    public static class ConsumerState {
+        int lane = -1;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("task_queue_bench");
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, this.workDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/");
+        this.tasks = new FileToCosTask[TASK_NUM];
+        for (int i = 0; i < TASK_NUM; i++) {
+            FileStatus fileStatus = new FileStatus(FILE_SIZES[i % FILE_SIZES.length],
+                    false, 1, 128 * 1024 * 1024L, 0, new Path("/src/data_" + i));
+            this.tasks[i] = new FileToCosTask(configReader, null, fileStatus,
+                    configReader.getHdfsFS(), "/dest/data_" + i);
+        }
+        if ("lane".equals(this.queueType)) {
+            int[] laneWorkerNums = LaneTaskQueue.splitWorkerNum(WORKER_NUM);
+            this.queue = new LaneTaskQueue(laneWorkerNums,
+                    new int[]{QUEUE_CAPACITY, QUEUE_CAPACITY, QUEUE_CAPACITY});
+            this.workerLanes = new int[WORKER_NUM];
+            int index = 0;
+            for (int lane = 0; lane < LaneTaskQueue.LANE_NUM; lane++) {
+                for (int i = 0; i < laneWorkerNums[lane]; i++) {
+                    this.workerLanes[index++] = lane;
+                }
+            }
+        } else {
+            this.queue = new LinkedBlockingQueue<FileToCosTask>(QUEUE_CAPACITY);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    // 放入和取出都带超时，迭代结束时另一方已经停止也不会一直阻塞
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean put(ProducerState state) throws InterruptedException {
+        FileToCosTask task = this.tasks[state.next];
+        state.next = (state.next + 1) % TASK_NUM;
+        return this.queue.offer(task, 300, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(WORKER_NUM)
+    public void take(ConsumerState state, Blackhole blackhole)
+            throws InterruptedException {
+        if (null != this.workerLanes && state.lane < 0) {
+            state.lane = this.workerLanes[this.workerIndex.getAndIncrement()
+                    % WORKER_NUM];
+        }
+        if (state.lane >= 0) {
+            blackhole.consume(((LaneTaskQueue) this.queue).poll(state.lane,
+                    300, TimeUnit.MILLISECONDS));
+        } else {
+            blackhole.consume(this.queue.poll(300, TimeUnit.MILLISECONDS));
+        }
+    }
+}
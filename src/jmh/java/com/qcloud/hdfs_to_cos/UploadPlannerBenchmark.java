@@ -0,0 +1,47 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * uploadMultipartWithRetry使用的分块大小规划的耗时。
+ * 固定规则从max_upload_part_size开始翻倍直到分块数不超过10000，文件越大循环越多；
+ * 自适应规则按文件大小、块大小、并发和吞吐量直接计算
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadPlannerBenchmark {
+    private static final long MB = 1024 * 1024L;
+
+    // 200MB、20GB和接近上限的5TB
+    @Param({"209715200", "21474836480", "5497558138880"})
+    public long fileSize;
+
+    @Param({"1048576", "8388608"})
+    public long partSize;
+
+    @Benchmark
+    public UploadPlanner.Plan fixedPlan() {
+        return UploadPlanner.fixedPlan(this.fileSize, this.partSize);
+    }
+
+    @Benchmark
+    public UploadPlanner.Plan adaptivePlan() {
+        return UploadPlanner.plan(this.fileSize, 128 * MB, 16, 20.0 * MB,
+                FileToCosTask.MAX_PART_SIZE);
+    }
+}
@@ -0,0 +1,238 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.exception.CosServiceException;
+
+/**
+ * 按照加性增、乘性减(AIMD)调整的并发上限。
+ * 每个成功的请求在并发已经用满时把上限增加1/limit，即每轮请求增加1；
+ * COS返回503/SlowDown等限流错误时上限减半，不小于1MB的请求的延迟(按1MB折算)超过基线的两倍时上限降到0.8倍，
+ * 两次下降之间至少间隔一个冷却时间，避免同一轮请求的多个限流错误连续下降。
+ * 非自适应时上限固定，只起信号量的作用。
+ */
+public class AimdController {
+    private static final Logger log = LoggerFactory.getLogger(AimdController.class);
+
+    private static final double THROTTLE_DECREASE = 0.5;    // 限流时的下降比例
+    private static final double LATENCY_DECREASE = 0.8;     // 延迟升高时的下降比例
+    private static final double LATENCY_TOLERANCE = 2.0;    // 延迟超过基线的倍数
+    private static final double LATENCY_ALPHA = 0.2;        // 平滑延迟中新测量值的权重
+    private static final double BASELINE_DRIFT = 0.01;      // 基线向上漂移的速度，适应网络的长期变化
+    private static final long LATENCY_UNIT_SIZE = 1024 * 1024L;     // 延迟按1MB折算
+    static final long DEFAULT_COOLDOWN_MILLIS = 1000;
+
+    private final String name;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long cooldownNanos;
+    private final ReentrantLock lock = new ReentrantLock(true);     // 按照等待的先后获取名额
+    private final Condition available = this.lock.newCondition();
+
+    private double limit;
+    private int inflightNum = 0;
+    private double baselineLatency = 0;     // 按1MB折算的基线延迟，单位纳秒
+    private double smoothedLatency = 0;
+    private long lastDecreaseNanos = 0;
+    private boolean decreased = false;
+    private long throttleNum = 0;
+
+    /**
+     * 自适应的并发上限
+     *
+     * @param initLimit      初始的上限
+     * @param minLimit       上限的最小值
+     * @param maxLimit       上限的最大值
+     * @param cooldownMillis 两次下降之间的最小间隔
+     */
+    public AimdController(String name, int initLimit, int minLimit,
+            int maxLimit, long cooldownMillis) {
+        this(name, true, initLimit, minLimit, maxLimit, cooldownMillis);
+    }
+
+    private AimdController(String name, boolean adaptive, int initLimit,
+            int minLimit, int maxLimit, long cooldownMillis) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException(
+                    "limit must be positive and min limit must not exceed max limit.");
+        }
+        this.name = name;
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initLimit));
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    }
+
+    /**
+     * 固定的并发上限
+     */
+    public static AimdController fixed(String name, int limit) {
+        return new AimdController(name, false, limit, limit, limit, 0);
+    }
+
+    /**
+     * 按照配置创建：开启adaptive_concurrency时从配置值的一半开始，在1和配置值之间调整
+     */
+    public static AimdController create(String name, int configuredLimit,
+            ConfigReader configReader) {
+        if (!configReader.isAdaptiveConcurrency()) {
+            return fixed(name, configuredLimit);
+        }
+        return new AimdController(name, Math.max(1, configuredLimit / 2), 1,
+                configuredLimit, DEFAULT_COOLDOWN_MILLIS);
+    }
+
+    /**
+     * COS的限流错误
+     */
+    public static boolean isThrottled(CosServiceException e) {
+        return e.getStatusCode() == 503 || e.getStatusCode() == 429
+                || "SlowDown".equals(e.getErrorCode());
+    }
+
+    /**
+     * 获取一个名额，在途请求数达到上限时阻塞
+     */
+    public void acquire() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.inflightNum >= (int) this.limit) {
+                this.available.await();
+            }
+            this.inflightNum++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void release() {
+        this.lock.lock();
+        try {
+            this.inflightNum--;
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 记录一个成功的请求
+     *
+     * @param bytes        请求上传的字节数
+     * @param latencyNanos 请求的耗时
+     */
+    public void onSuccess(long bytes, long latencyNanos) {
+        if (!this.adaptive) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            boolean latencyRises = false;
+            // 小请求的耗时主要是请求本身的开销，折算以后会把基线压得很低，只统计不小于1MB的请求
+            if (bytes >= ThroughputEstimator.MIN_SAMPLE_SIZE) {
+                double latency = (double) latencyNanos * LATENCY_UNIT_SIZE / bytes;
+                if (this.baselineLatency == 0 || latency < this.baselineLatency) {
+                    this.baselineLatency = latency;
+                } else {
+                    this.baselineLatency += (latency - this.baselineLatency)
+                            * BASELINE_DRIFT;
+                }
+                if (this.smoothedLatency == 0) {
+                    this.smoothedLatency = latency;
+                } else {
+                    this.smoothedLatency += (latency - this.smoothedLatency)
+                            * LATENCY_ALPHA;
+                }
+                latencyRises = this.smoothedLatency
+                        > this.baselineLatency * LATENCY_TOLERANCE;
+            }
+
+            if (latencyRises) {
+                decrease(LATENCY_DECREASE, "latency rises");
+            } else if (this.inflightNum >= (int) this.limit
+                    && this.limit < this.maxLimit) {
+                // 只有名额用满时才增加，请求不足时上限不会无限增长
+                int oldLimit = (int) this.limit;
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+                if ((int) this.limit > oldLimit) {
+                    log.debug("{} concurrency increases to {}", this.name,
+                            (int) this.limit);
+                    this.available.signalAll();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 记录一个被限流的请求
+     */
+    public void onThrottle() {
+        this.lock.lock();
+        try {
+            this.throttleNum++;
+            if (this.adaptive) {
+                decrease(THROTTLE_DECREASE, "throttled by cos");
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void decrease(double factor, String reason) {
+        long now = System.nanoTime();
+        if (this.decreased && now - this.lastDecreaseNanos < this.cooldownNanos) {
+            return;
+        }
+        this.limit = Math.max(this.minLimit, this.limit * factor);
+        this.lastDecreaseNanos = now;
+        this.decreased = true;
+        log.info("{} concurrency decreases to {}, reason: {}", this.name,
+                (int) this.limit, reason);
+    }
+
+    /**
+     * 当前的并发上限
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return this.maxLimit;
+    }
+
+    public int getInflightNum() {
+        this.lock.lock();
+        try {
+            return this.inflightNum;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 被限流的请求数
+     */
+    public long getThrottleNum() {
+        this.lock.lock();
+        try {
+            return this.throttleNum;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -48,6 +48,21 @@ public class App {
         return new COSClient(cred, clientConfig);
     }
 
+    /**
+     * 等待任务队列为空并且没有等待重试的文件
+     */
+    private static void waitQueueDrained() {
+        while (App.taskBlockingQueue.size() != 0
+                || RetryScheduler.instance.getPendingNum() != 0) {
+            try {
+                Thread.sleep(1 * 1000);
+            } catch (InterruptedException e) {
+                LOG.error("An exception occurred during the polling interval"
+                        , e);
+            }
+        }
+    }
+
     public static void main(String[] args) {
         CommandLineParser parser = new DefaultParser();
         CommandLine cli;
@@ -75,31 +90,47 @@ public class App {
             App.executorPool =
                     Executors.newFixedThreadPool(configReader.getMaxTaskNum());                         // 任务并发线程池
         }
+        int[] laneTaskNums = configReader.getLaneTaskNums();
         if (null == App.taskBlockingQueue) {
-            App.taskBlockingQueue =
-                    new LinkedBlockingQueue<FileToCosTask>(configReader.getMaxTaskNum() * 2);           // 暂定为任务队列为并发数的2倍
+            App.taskBlockingQueue = new LaneTaskQueue(laneTaskNums);                                    // 按文件大小分道的任务队列
         }
 
         Statistics.instance.start();
-        // 启动消费者
-        for (int i = 0; i < configReader.getMaxTaskNum(); i++) {
-            HdfsToCosExecutor executor =
-                    new HdfsToCosExecutor(App.taskBlockingQueue, true);
-            App.executorPool.submit(executor);
-            App.executors.add(executor);
+        Metrics.instance.start();
+        Metrics.instance.gauge("task_queue_depth", null, null,
+                "files waiting in the task queue", new Metrics.Gauge() {
+                    @Override
+                    public double getValue() {
+                        return App.taskBlockingQueue.size();
+                    }
+                });
+        Metrics.instance.gauge("retry_pending", null, null,
+                "parts and files waiting for a retry", new Metrics.Gauge() {
+                    @Override
+                    public double getValue() {
+                        return RetryScheduler.instance.getPendingNum();
+                    }
+                });
+        MetricsExporter metricsExporter = MetricsExporter.create(configReader);
+        metricsExporter.start();
+        ProgressReporter.instance.start(configReader.getProgressInterval() * 1000L);
+        // 启动消费者，每个车道有自己的线程
+        for (int lane = 0; lane < LaneTaskQueue.LANE_NUM; lane++) {
+            for (int i = 0; i < laneTaskNums[lane]; i++) {
+                HdfsToCosExecutor executor =
+                        new HdfsToCosExecutor(App.taskBlockingQueue, true, lane);
+                App.executorPool.submit(executor);
+                App.executors.add(executor);
+            }
         }
         App.executorPool.shutdown();                // 停止提交新的任务
         HdfsToCos hdfsToCos = new HdfsToCos(configReader,
                 App.taskBlockingQueue, App.cosClient);
         hdfsToCos.run();
-        while (App.taskBlockingQueue.size() != 0) {
-            try {
-                Thread.sleep(1 * 1000);
-            } catch (InterruptedException e) {
-                LOG.error("An exception occurred during the polling interval"
-                        , e);
-            }
-        }
+        App.waitQueueDrained();
+        // 之后失败的文件在上传线程中重试，再等待已经在延迟队列中的文件重新放入任务队列并上传完
+        RetryScheduler.instance.close();
+        App.waitQueueDrained();
         for (HdfsToCosExecutor executor : App.executors) {
             executor.stop();
         }
@@ -109,7 +140,11 @@ public class App {
             LOG.error("An exception occurred while waiting for the thread "
                     + "pool to complete", e);
         }
+        hdfsToCos.finishIncrementalSync();
+        ProgressReporter.instance.stop();
         Statistics.instance.printStatics();
+        metricsExporter.stop();
+        Metrics.instance.printSummary();
         App.cosClient.shutdown();
     }
 }
@@ -0,0 +1,145 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 小文件打包的对象布局和索引格式。
+ * 目的路径下的_hdfs_to_cos_bundles/目录中，每个bundle对象xxx.bundle由若干文件的内容直接拼接而成，
+ * 同名的xxx.index是它的索引：第一行为"HCBI 版本 bundle的key"，之后每行描述一个文件，
+ * 格式为"编码后的COS路径 偏移 长度 修改时间"。先上传bundle再上传索引，索引存在时bundle一定完整。
+ */
+public class BundleIndex {
+    public static final String BUNDLE_DIR_NAME = "_hdfs_to_cos_bundles";
+    public static final String BUNDLE_SUFFIX = ".bundle";
+    public static final String INDEX_SUFFIX = ".index";
+    static final String HEADER_MAGIC = "HCBI";
+    static final int VERSION = 1;
+
+    private static final AtomicLong bundleSeq = new AtomicLong();
+    // 同一个目的路径可能有多个进程同时上传(如按分片执行清单)，用随机数区分
+    private static final String runId = new SimpleDateFormat("yyyyMMddHHmmss")
+            .format(new Date()) + "-" + Integer.toHexString(new Random().nextInt());
+
+    /**
+     * bundle中的一个文件
+     */
+    public static class Entry {
+        private final String cosPath;
+        private final String bundleKey;
+        private final long offset;
+        private final long length;
+        private final long modificationTime;
+
+        public Entry(String cosPath, String bundleKey, long offset,
+                long length, long modificationTime) {
+            this.cosPath = cosPath;
+            this.bundleKey = bundleKey;
+            this.offset = offset;
+            this.length = length;
+            this.modificationTime = modificationTime;
+        }
+
+        public String getCosPath() {
+            return cosPath;
+        }
+
+        public String getBundleKey() {
+            return bundleKey;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+    }
+
+    /**
+     * 目的路径下存放bundle和索引的目录，以/结尾
+     */
+    public static String getBundleDir(String destCosPath) {
+        // 目的路径通常以/结尾，去掉以后再拼接，避免出现名字为空的目录层级
+        String dir = destCosPath;
+        while (dir.endsWith("/")) {
+            dir = dir.substring(0, dir.length() - 1);
+        }
+        return Utils.trimDoubleSlash(dir + "/" + BUNDLE_DIR_NAME + "/");
+    }
+
+    /**
+     * 生成一个新的bundle对象的key，去掉后缀再加上INDEX_SUFFIX即为索引的key
+     */
+    public static String newBundleKey(String destCosPath) {
+        // 序号补齐到固定长度，按key排序即为上传的先后顺序
+        return getBundleDir(destCosPath) + runId + "-"
+                + String.format("%010d", bundleSeq.incrementAndGet())
+                + BUNDLE_SUFFIX;
+    }
+
+    public static String getIndexKey(String bundleKey) {
+        return bundleKey.substring(0, bundleKey.length()
+                - BUNDLE_SUFFIX.length()) + INDEX_SUFFIX;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);     // UTF-8总是支持的
+        }
+    }
+
+    public static String formatHeader(String bundleKey) {
+        return HEADER_MAGIC + " " + VERSION + " " + encode(bundleKey);
+    }
+
+    /**
+     * 解析索引的第一行
+     *
+     * @return bundle的key
+     */
+    public static String parseHeader(String line) throws IOException {
+        String[] splits = null == line ? new String[0] : line.split(" ");
+        if (splits.length != 3 || !HEADER_MAGIC.equals(splits[0])) {
+            throw new IOException("invalid bundle index header: " + line);
+        }
+        if (Integer.parseInt(splits[1]) != VERSION) {
+            throw new IOException("unsupported bundle index version: " + splits[1]);
+        }
+        return URLDecoder.decode(splits[2], "UTF-8");
+    }
+
+    public static String formatEntry(Entry entry) {
+        return encode(entry.getCosPath()) + " "
+                + entry.getOffset() + " " + entry.getLength() + " "
+                + entry.getModificationTime();
+    }
+
+    public static Entry parseEntry(String bundleKey, String line)
+            throws IOException {
+        String[] splits = line.split(" ");
+        if (splits.length != 4) {
+            throw new IOException("invalid bundle index line: " + line);
+        }
+        try {
+            return new Entry(URLDecoder.decode(splits[0], "UTF-8"), bundleKey,
+                    Long.parseLong(splits[1]), Long.parseLong(splits[2]),
+                    Long.parseLong(splits[3]));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid bundle index line: " + line, e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.model.COSObject;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.GetObjectRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+
+/**
+ * 读取打包上传的小文件。
+ * 加载目的路径下所有bundle的索引以后，按照原来的COS路径定位到所在的bundle、偏移和长度，
+ * 通过一次范围GET读取单个文件，不需要下载整个bundle。同一个文件被多次打包时以最新的bundle为准。
+ */
+public class BundleReader {
+    private static final Logger log = LoggerFactory.getLogger(BundleReader.class);
+
+    private final COSClient cosClient;
+    private final String bucket;
+    private final Map<String, BundleIndex.Entry> entries =
+            new HashMap<String, BundleIndex.Entry>();
+
+    private BundleReader(COSClient cosClient, String bucket) {
+        this.cosClient = cosClient;
+        this.bucket = bucket;
+    }
+
+    /**
+     * 加载目的路径下所有bundle的索引
+     *
+     * @param destCosPath 上传时指定的cos_path
+     */
+    public static BundleReader load(COSClient cosClient, String bucket,
+            String destCosPath) throws IOException {
+        BundleReader reader = new BundleReader(cosClient, bucket);
+        List<String> indexKeys = new ArrayList<String>();
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
+        listObjectsRequest.setBucketName(bucket);
+        listObjectsRequest.setPrefix(CosObjectIndex.normalizeKey(
+                BundleIndex.getBundleDir(destCosPath)));
+        listObjectsRequest.setMaxKeys(1000);
+        ObjectListing objectListing;
+        do {
+            objectListing = cosClient.listObjects(listObjectsRequest);
+            for (COSObjectSummary summary : objectListing.getObjectSummaries()) {
+                if (summary.getKey().endsWith(BundleIndex.INDEX_SUFFIX)) {
+                    indexKeys.add(summary.getKey());
+                }
+            }
+            listObjectsRequest.setMarker(objectListing.getNextMarker());
+        } while (objectListing.isTruncated());
+
+        // key中包含上传时间，按key排序后后加载的索引覆盖先加载的
+        Collections.sort(indexKeys);
+        for (String indexKey : indexKeys) {
+            reader.loadIndex(indexKey);
+        }
+        log.info("load {} bundled files from {} bundle indexes.",
+                reader.entries.size(), indexKeys.size());
+        return reader;
+    }
+
+    private void loadIndex(String indexKey) throws IOException {
+        COSObject cosObject = this.cosClient.getObject(
+                new GetObjectRequest(this.bucket, indexKey));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                cosObject.getObjectContent(), "UTF-8"));
+        try {
+            String bundleKey = BundleIndex.parseHeader(reader.readLine());
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                BundleIndex.Entry entry = BundleIndex.parseEntry(bundleKey, line);
+                this.entries.put(CosObjectIndex.normalizeKey(entry.getCosPath()),
+                        entry);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * 查找一个打包上传的文件
+     *
+     * @param cosPath 不打包时该文件对应的COS路径
+     * @return 文件在bundle中的位置，不存在时返回null
+     */
+    public BundleIndex.Entry getEntry(String cosPath) {
+        return this.entries.get(CosObjectIndex.normalizeKey(cosPath));
+    }
+
+    /**
+     * 通过范围GET打开一个打包上传的文件，调用者负责关闭
+     */
+    public InputStream open(String cosPath) throws IOException {
+        BundleIndex.Entry entry = getEntry(cosPath);
+        if (null == entry) {
+            throw new IOException("file is not bundled: " + cosPath);
+        }
+        if (entry.getLength() == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        GetObjectRequest getObjectRequest = new GetObjectRequest(this.bucket,
+                CosObjectIndex.normalizeKey(entry.getBundleKey()));
+        getObjectRequest.setRange(entry.getOffset(),
+                entry.getOffset() + entry.getLength() - 1);
+        return this.cosClient.getObject(getObjectRequest).getObjectContent();
+    }
+
+    /**
+     * 读取一个打包上传的文件的全部内容
+     */
+    public byte[] read(String cosPath) throws IOException {
+        InputStream in = open(cosPath);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int nRead;
+            while ((nRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, nRead);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.PutObjectResult;
+
+/**
+ * 把多个小文件打包成一个bundle对象上传，再上传描述各文件位置的索引对象。
+ * bundle不超过分块上传的阈值，在内存中拼接以后一次PUT上传并校验MD5，
+ * 原来每个文件一次PUT和一次HEAD变成每个bundle两次PUT。
+ * 读取失败或者长度发生变化的文件不放入bundle，计为失败；bundle或者索引上传失败时其中的文件都计为失败。
+ */
+public class BundleToCosTask extends FileToCosTask {
+    private static final Logger log =
+            LoggerFactory.getLogger(BundleToCosTask.class);
+
+    private final List<FileToCosTask> members;
+    private final String bundleKey;
+
+    /**
+     * @param members   需要打包的文件，总长度不超过bundle_size
+     * @param bundleKey bundle对象的key
+     */
+    public BundleToCosTask(ConfigReader configReader, COSClient cosClient,
+            List<FileToCosTask> members, long totalLength, String bundleKey) {
+        super(configReader, cosClient, new FileStatus(totalLength, false, 0, 0,
+                        System.currentTimeMillis(), new Path(bundleKey)),
+                configReader.getHdfsFS(), bundleKey);
+        this.members = members;
+        this.bundleKey = bundleKey;
+    }
+
+    public int getMemberNum() {
+        return this.members.size();
+    }
+
+    public String getBundleKey() {
+        return this.bundleKey;
+    }
+
+    /**
+     * 读取一个文件的全部内容，长度必须与扫描时一致
+     */
+    private static byte[] readMember(FileToCosTask member) throws IOException {
+        long length = member.fileStatus.getLen();
+        byte[] data = new byte[(int) length];
+        InputStream in = CommonHdfsUtils.meterRead(CommonHdfsUtils.open(
+                member.fileSystem, member.fileStatus.getPath()));
+        try {
+            int pos = 0;
+            while (pos < data.length) {
+                int nRead = in.read(data, pos, data.length - pos);
+                if (nRead < 0) {
+                    throw new IOException("file is shorter than " + length
+                            + " bytes, it may be modified after scanning.");
+                }
+                pos += nRead;
+            }
+            if (in.read() != -1) {
+                throw new IOException("file is longer than " + length
+                        + " bytes, it may be modified after scanning.");
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private boolean putObjectWithRetry(String key, byte[] data) {
+        String md5 = DigestUtils.md5Hex(data);
+        for (int i = 0; i < this.configReader.getMaxRetryNum(); i++) {
+            try {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(data.length);
+                PutObjectRequest putObjectRequest = new PutObjectRequest(
+                        this.configReader.getBucket(), key,
+                        TrafficLimiter.limit(this.configReader,
+                                new ByteArrayInputStream(data)), metadata)
+                        .withStorageClass(this.storageClass);
+                PutObjectResult result = CommonCosUtils.putObject(this.cosClient,
+                        putObjectRequest);
+                if (md5.equalsIgnoreCase(result.getETag())) {
+                    log.info("upload bundle object: {} successfully, size: {},"
+                            + " request_id: {}", key, data.length,
+                            result.getRequestId());
+                    return true;
+                }
+                log.error("upload bundle object: {} md5 mismatch, expected: {},"
+                        + " etag: {}, retry count: {}", key, md5,
+                        result.getETag(), i);
+            } catch (CosServiceException e) {
+                log.error("upload bundle object occurs an exception. "
+                        + "retry count:" + i
+                        + " msg:" + e.getMessage()
+                        + " ret code: " + e.getErrorCode()
+                        + " xml: " + e.getErrorResponseXml());
+                if (!RetryScheduler.isRetryable(e)) {
+                    break;
+                }
+            } catch (CosClientException e) {
+                log.error("upload bundle object occurs an exception. "
+                        + "retry count:" + i + " msg:" + e.getMessage());
+            }
+            try {
+                Utils.sleep(i, this.configReader.getRetryInterval());
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void reportMember(FileToCosTask member, boolean success, long offset) {
+        String filePath = member.fileStatus.getPath().toString();
+        ProgressReporter.instance.finishFile(null, member.fileStatus.getLen());
+        if (success) {
+            log.info(String.format("[upload file successfully] [file path: %s]"
+                            + " [cos path: %s] [bundle: %s] [offset: %d]",
+                    filePath, member.cosPath, this.bundleKey, offset));
+            Statistics.instance.addUploadFileOk();
+            System.out.println(String.format("[success] [file path: %s]",
+                    filePath));
+        } else {
+            log.error(String.format("[upload file failed] [file path: %s] "
+                    + "[cos path: %s] [bundle: %s]", filePath, member.cosPath,
+                    this.bundleKey));
+            Statistics.instance.addUploadFileFail();
+            System.err.println(String.format("[failure] [file path: %s]",
+                    filePath));
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteArrayOutputStream bundleData = new ByteArrayOutputStream(
+                (int) this.fileStatus.getLen());
+        List<FileToCosTask> bundledMembers = new ArrayList<FileToCosTask>();
+        List<Long> offsets = new ArrayList<Long>();
+        StringBuilder index = new StringBuilder();
+        index.append(BundleIndex.formatHeader(this.bundleKey)).append('\n');
+        for (FileToCosTask member : this.members) {
+            byte[] data;
+            try {
+                data = readMember(member);
+            } catch (IOException e) {
+                log.error("read file: " + member.fileStatus.getPath().toString()
+                        + " for bundle failed.", e);
+                reportMember(member, false, -1);
+                continue;
+            }
+            long offset = bundleData.size();
+            bundleData.write(data, 0, data.length);
+            index.append(BundleIndex.formatEntry(new BundleIndex.Entry(
+                    member.cosPath, this.bundleKey, offset, data.length,
+                    member.fileStatus.getModificationTime()))).append('\n');
+            bundledMembers.add(member);
+            offsets.add(offset);
+        }
+        if (bundledMembers.isEmpty()) {
+            return;
+        }
+
+        boolean success = putObjectWithRetry(this.bundleKey, bundleData.toByteArray());
+        if (success) {
+            success = putObjectWithRetry(BundleIndex.getIndexKey(this.bundleKey),
+                    index.toString().getBytes(Charset.forName("UTF-8")));
+        }
+        for (int i = 0; i < bundledMembers.size(); i++) {
+            reportMember(bundledMembers.get(i), success, offsets.get(i));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.qcloud.hdfs_to_cos;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.CompleteMultipartUploadResult;
+import com.qcloud.cos.model.GetObjectMetadataRequest;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.PutObjectResult;
+import com.qcloud.cos.model.UploadPartRequest;
+import com.qcloud.cos.model.UploadPartResult;
+
+/**
+ * 发送COS请求并记录延迟、失败数和上传的字节数
+ */
+public class CommonCosUtils {
+
+    /**
+     * 用于日志的异常描述，服务端错误附带错误码和返回的xml
+     */
+    public static String describe(CosClientException e) {
+        if (e instanceof CosServiceException) {
+            CosServiceException se = (CosServiceException) e;
+            return " msg: " + se.getErrorMessage()
+                    + " ret code: " + se.getErrorCode()
+                    + " xml: " + se.getErrorResponseXml();
+        }
+        return " msg: " + e.getMessage();
+    }
+
+    /**
+     * 获取对象的元数据，统计一次HEAD请求
+     */
+    public static ObjectMetadata getObjectMetadata(COSClient cosClient,
+            GetObjectMetadataRequest request) {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            ObjectMetadata metadata = cosClient.getObjectMetadata(request);
+            success = true;
+            return metadata;
+        } finally {
+            Metrics.instance.recordCos(Metrics.OP_HEAD, startNanos, success);
+        }
+    }
+
+    /**
+     * 单文件上传，统计一次PUT请求
+     */
+    public static PutObjectResult putObject(COSClient cosClient,
+            PutObjectRequest request) {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            PutObjectResult result = cosClient.putObject(request);
+            success = true;
+            Metrics.instance.uploadBytes.add(request.getMetadata().getContentLength());
+            return result;
+        } finally {
+            Metrics.instance.recordCos(Metrics.OP_PUT, startNanos, success);
+        }
+    }
+
+    /**
+     * 上传一个分块，统计一次UploadPart请求
+     */
+    public static UploadPartResult uploadPart(COSClient cosClient,
+            UploadPartRequest request) {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            UploadPartResult result = cosClient.uploadPart(request);
+            success = true;
+            Metrics.instance.uploadBytes.add(request.getPartSize());
+            return result;
+        } finally {
+            Metrics.instance.recordCos(Metrics.OP_UPLOAD_PART, startNanos, success);
+        }
+    }
+
+    /**
+     * 合并分块，统计一次Complete请求
+     */
+    public static CompleteMultipartUploadResult completeMultipartUpload(
+            COSClient cosClient, CompleteMultipartUploadRequest request) {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            CompleteMultipartUploadResult result =
+                    cosClient.completeMultipartUpload(request);
+            success = true;
+            return result;
+        } finally {
+            Metrics.instance.recordCos(Metrics.OP_COMPLETE, startNanos, success);
+        }
+    }
+}
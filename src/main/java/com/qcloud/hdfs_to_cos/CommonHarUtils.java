@@ -34,9 +34,10 @@ public class CommonHarUtils {
         Path masterIndexFilePath = new Path(dirPath, "_masterindex");
 
         try {
-            FileStatus indexFileStatus = fs.getFileStatus(indexFilePath);
+            FileStatus indexFileStatus =
+                    CommonHdfsUtils.getFileStatus(fs, indexFilePath);
             FileStatus masterIndexFileStatus =
-                    fs.getFileStatus(masterIndexFilePath);
+                    CommonHdfsUtils.getFileStatus(fs, masterIndexFilePath);
             if (null != indexFileStatus && null != masterIndexFileStatus) {
                 return true;
             }
@@ -59,6 +60,22 @@ public class CommonHarUtils {
                 new HarFileSystem(configReader.getHdfsFS());
         harFileSystem.initialize(buildFsUri(harFilePath),
                 configReader.getHdfsFS().getConf());
+        return convertToCosPath(configReader,
+                harFileSystem.getFileStatus(new Path(harFilePath.toUri().getPath())));
+    }
+
+    /**
+     * 将har中成员的路径转换为COS上的路径，直接使用扫描得到的FileStatus，不需要再初始化HarFileSystem
+     *
+     * @param configReader 配置
+     * @param fileStatus   har中的成员
+     * @return COS上的路径，目录以/结尾
+     */
+    public static Path convertToCosPath(ConfigReader configReader,
+            FileStatus fileStatus) {
+        if (null == fileStatus) {
+            throw new NullPointerException("har file status is null");
+        }
 
         String harFileFolderPath =
                 new Path(configReader.getSrcHdfsPath()).toUri().getPath();
@@ -66,9 +83,9 @@ public class CommonHarUtils {
         if (destPath.endsWith("/")) {
             destPath = destPath.substring(0, destPath.length() - 1);
         }
-        String filePath = harFilePath.toUri().getPath();
+        String filePath = fileStatus.getPath().toUri().getPath();
         String cosPath;
-        if (harFileSystem.getFileStatus(new Path(filePath)).isFile()) {
+        if (fileStatus.isFile()) {
             cosPath = filePath.replaceFirst(harFileFolderPath, destPath);
         } else {
             cosPath = filePath.replaceFirst(harFileFolderPath,
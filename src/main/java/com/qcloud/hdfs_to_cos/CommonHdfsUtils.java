@@ -1,6 +1,8 @@
 package com.qcloud.hdfs_to_cos;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.hadoop.fs.*;
 
@@ -24,26 +26,128 @@ public class CommonHdfsUtils {
         }
     }
 
+    /**
+     * 获取一个文件的FileStatus，统计一次NameNode的RPC
+     *
+     * @param hdfsFS   hdfs filesystem 对象
+     * @param hdfsPath 文件在hdfs中路径
+     * @return 文件的FileStatus
+     */
+    public static FileStatus getFileStatus(FileSystem hdfsFS, Path hdfsPath)
+            throws IOException {
+        Statistics.instance.addNameNodeRpc();
+        return hdfsFS.getFileStatus(hdfsPath);
+    }
+
+    /**
+     * 以迭代器的方式list目录，统计一次NameNode的RPC
+     *
+     * @param hdfsFS  hdfs filesystem 对象
+     * @param dirPath 目录在hdfs中路径
+     * @return 目录成员的迭代器
+     */
+    public static RemoteIterator<FileStatus> listStatusIterator(
+            FileSystem hdfsFS, Path dirPath) throws IOException {
+        Statistics.instance.addNameNodeRpc();
+        return hdfsFS.listStatusIterator(dirPath);
+    }
+
+    /**
+     * 打开一个文件，统计一次NameNode的RPC
+     *
+     * @param hdfsFS   hdfs filesystem 对象
+     * @param hdfsPath 文件在hdfs中路径
+     * @return 文件的输入流
+     */
+    public static FSDataInputStream open(FileSystem hdfsFS, Path hdfsPath)
+            throws IOException {
+        Statistics.instance.addNameNodeRpc();
+        long startNanos = System.nanoTime();
+        try {
+            return hdfsFS.open(hdfsPath);
+        } finally {
+            Metrics.instance.hdfsLatency(Metrics.OP_OPEN).record(
+                    System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 按位置读取指定长度的数据，记录读取的耗时和字节数
+     *
+     * @param in     文件的输入流
+     * @param pos    读取的位置
+     * @param buffer 存放数据的缓冲区
+     * @param length 读取的长度
+     */
+    public static void readFully(FSDataInputStream in, long pos, byte[] buffer,
+            int length) throws IOException {
+        long startNanos = System.nanoTime();
+        in.readFully(pos, buffer, 0, length);
+        Metrics.instance.hdfsLatency(Metrics.OP_READ).record(
+                System.nanoTime() - startNanos);
+        Metrics.instance.hdfsReadBytes.add(length);
+    }
+
+    /**
+     * 包装上传时读取的输入流，记录每次读取的耗时和字节数。
+     * 边读边发送时，读取的耗时也包含在COS请求的耗时中
+     *
+     * @param in 读取hdfs文件的输入流
+     * @return 记录读取耗时的输入流
+     */
+    public static InputStream meterRead(InputStream in) {
+        return new MeteredInputStream(in);
+    }
+
+    /**
+     * 计算路径转换时的源目录：如果源路径是文件，则以其父目录作为源目录。
+     * 整个任务只需要计算一次
+     *
+     * @param srcStatus 源路径的FileStatus
+     * @return 源目录的路径
+     */
+    public static String getHdfsFolderPath(FileStatus srcStatus) {
+        String srcPath = srcStatus.getPath().toUri().getPath();
+        if (srcStatus.isFile()) {
+            return srcPath.substring(0, srcPath.lastIndexOf("/")) + "/";
+        }
+        return srcPath;
+    }
+
     public static Path convertToCosPath(ConfigReader configReader,
             Path hdfsFilePath) throws IOException {
         if (null == hdfsFilePath) {
             throw new NullPointerException("hdfs file path is null");
         }
-        String srcPath =
-                new Path(configReader.getSrcHdfsPath()).toUri().getPath();
-        String hdfsFolderPath = srcPath;
-        if (configReader.getHdfsFS().getFileStatus(new Path(srcPath)).isFile()) {
-            hdfsFolderPath =
-                    srcPath.substring(0, srcPath.lastIndexOf("/")) + "/";
+        FileStatus srcStatus = getFileStatus(configReader.getHdfsFS(),
+                new Path(new Path(configReader.getSrcHdfsPath()).toUri().getPath()));
+        FileStatus fileStatus = getFileStatus(configReader.getHdfsFS(),
+                new Path(hdfsFilePath.toUri().getPath()));
+        return convertToCosPath(configReader, getHdfsFolderPath(srcStatus),
+                fileStatus);
+    }
+
+    /**
+     * 将hdfs上的文件路径转换为COS上的路径，直接使用扫描得到的FileStatus，不再访问NameNode
+     *
+     * @param configReader   配置
+     * @param hdfsFolderPath 源目录，由getHdfsFolderPath计算得到
+     * @param fileStatus     待转换的文件
+     * @return COS上的路径，目录以/结尾
+     */
+    public static Path convertToCosPath(ConfigReader configReader,
+            String hdfsFolderPath, FileStatus fileStatus) {
+        if (null == fileStatus) {
+            throw new NullPointerException("hdfs file status is null");
         }
-        String filePath = hdfsFilePath.toUri().getPath();           // 文件的实际路径
+        String filePath = fileStatus.getPath().toUri().getPath();   // 文件的实际路径
         String destPath = configReader.getDestCosPath();            // COS上的目的路径
         if (!destPath.endsWith("/")) {
             destPath = destPath + "/";
         }
 
         String cosPath;
-        if (configReader.getHdfsFS().getFileStatus(new Path(filePath)).isFile()) {
+        if (fileStatus.isFile()) {
             cosPath = filePath.replaceFirst(hdfsFolderPath, destPath);
         } else {
             cosPath = filePath.replaceFirst(hdfsFolderPath, destPath) + "/";
@@ -51,4 +155,35 @@ public class CommonHdfsUtils {
 
         return new Path(Utils.trimDoubleSlash(cosPath));
     }
+
+    private static class MeteredInputStream extends FilterInputStream {
+        private final Metrics.Histogram readLatency =
+                Metrics.instance.hdfsLatency(Metrics.OP_READ);
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long startNanos = System.nanoTime();
+            int b = this.in.read();
+            this.readLatency.record(System.nanoTime() - startNanos);
+            if (b >= 0) {
+                Metrics.instance.hdfsReadBytes.add(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long startNanos = System.nanoTime();
+            int nRead = this.in.read(b, off, len);
+            this.readLatency.record(System.nanoTime() - startNanos);
+            if (nRead > 0) {
+                Metrics.instance.hdfsReadBytes.add(nRead);
+            }
+            return nRead;
+        }
+    }
 }
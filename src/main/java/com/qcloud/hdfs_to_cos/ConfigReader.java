@@ -4,6 +4,8 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,6 +13,8 @@ import java.io.IOException;
 import java.util.Properties;
 
 public class ConfigReader {
+    private static final Logger log =
+            LoggerFactory.getLogger(ConfigReader.class);
 
     private boolean initConfigFlag = true;
     private String initErrMsg = "";
@@ -28,9 +32,29 @@ public class ConfigReader {
     // 是否开启强制校验MD5值,如果没有开启则只校验文件长度
     private boolean forceCheckMD5Sum = false;
     private boolean decompressHarFile = false;  // 是否自动解压har文件
+    private boolean buildCosIndex = false;      // 是否预先list目的路径构建对象索引
+    private boolean incremental = false;        // 是否按照修改时间水位线增量同步
+    private boolean incrementalPruneDir = false;    // 增量同步时是否跳过没有修改的目录
+    private boolean snapshotDiff = false;       // 是否根据快照差异增量同步
+    private boolean snapshotDeleteRemoved = false;  // 是否删除源路径上已删除的文件对应的COS对象
+    private long maxCosIndexMemory = DEFAULT_MAX_COS_INDEX_MEMORY;
+    private static final long DEFAULT_MAX_COS_INDEX_MEMORY = 1024;     // 单位MB
     private int maxTaskNum = 4;
+    private int[] laneTaskNums = null;          // 小、中、大文件车道的上传线程数，为空时按照maxTaskNum划分
     private int maxMultiPartUploadTaskNum = 4;
+    private int maxInflightPartNum = 0;         // 所有文件同时上传的分块总数
+    private int maxListTaskNum = 4;
+    private int maxHarCacheNum = 16;
     private int partSize = 0;
+    private boolean adaptiveConcurrency = false;    // 是否根据限流和延迟调整并发
+    private boolean adaptiveMultipart = false;  // 是否自适应地选择分块上传和分块大小
+    private int hedgePartPercent = 0;           // 推测执行重复上传的字节数百分比上限，0表示不推测执行
+    private int partBufferNum = 0;              // 分块预读的缓冲区数，0表示不预读
+    private boolean zeroCopyRead = false;       // 是否通过短路读和增强ByteBuffer读接口读取文件
+    private boolean zeroCopySkipChecksum = false;   // 零拷贝读取时是否跳过校验
+    private long bundleFileSize = 0;            // 小于该长度的文件打包上传，0表示不打包
+    private long bundleSize = DEFAULT_BUNDLE_SIZE;
+    private static final long DEFAULT_BUNDLE_SIZE = 16 * 1024 * 1024L;
     private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;       //
     // 默认的块大小为8MB
     private CommandLine cli;
@@ -46,6 +70,17 @@ public class ConfigReader {
     private int trafficLimit = DEFAULT_TRAFFIC_LIMIT;
     private static final int DEFAULT_TRAFFIC_LIMIT = -1;
 
+    public static final String RUN_MODE_RUN = "run";            // 边扫描边上传
+    public static final String RUN_MODE_PLAN = "plan";          // 只扫描，写入传输清单
+    public static final String RUN_MODE_EXECUTE = "execute";    // 按照传输清单上传
+    private String runMode = RUN_MODE_RUN;
+    private String manifestPath;
+    private int manifestShardIndex = 0;
+    private int manifestShardNum = 1;
+    private String metricsFile = null;          // Prometheus文本格式的指标文件，为空时只通过JMX导出
+    private int metricsInterval = 10;           // 单位秒
+    private int progressInterval = 10;          // 打印进度的间隔，单位秒，0表示不打印
+
     public ConfigReader(CommandLine cli) {
         this.cli = cli;
         init();
@@ -74,17 +109,109 @@ public class ConfigReader {
                 this.region = getRequiredStringParam(OptionsArgsName.REGION,
                         "");
             }
+            this.runMode = getRequiredStringParam(OptionsArgsName.RUN_MODE,
+                    RUN_MODE_RUN).toLowerCase();
+            if (!RUN_MODE_RUN.equals(this.runMode)
+                    && !RUN_MODE_PLAN.equals(this.runMode)
+                    && !RUN_MODE_EXECUTE.equals(this.runMode)) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s must be one of run/plan/execute!",
+                        OptionsArgsName.RUN_MODE));
+            }
+            if (!RUN_MODE_RUN.equals(this.runMode)) {
+                this.manifestPath = getRequiredStringParam(
+                        OptionsArgsName.MANIFEST_PATH, null);
+            }
+            if (cli.hasOption(OptionsArgsName.MANIFEST_SHARD)) {
+                parseManifestShard(getRequiredStringParam(
+                        OptionsArgsName.MANIFEST_SHARD, "0/1"));
+            }
+            if (cli.hasOption(OptionsArgsName.METRICS_FILE)) {
+                this.metricsFile = getRequiredStringParam(
+                        OptionsArgsName.METRICS_FILE, null);
+            }
+            if (cli.hasOption(OptionsArgsName.METRICS_INTERVAL)) {
+                this.metricsInterval = formatLongStr(OptionsArgsName.METRICS_INTERVAL,
+                        getRequiredStringParam(OptionsArgsName.METRICS_INTERVAL,
+                                "10")).intValue();
+                if (this.metricsInterval <= 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s must be positive!",
+                            OptionsArgsName.METRICS_INTERVAL));
+                }
+            }
+            if (cli.hasOption(OptionsArgsName.PROGRESS_INTERVAL)) {
+                this.progressInterval = formatLongStr(OptionsArgsName.PROGRESS_INTERVAL,
+                        getRequiredStringParam(OptionsArgsName.PROGRESS_INTERVAL,
+                                "10")).intValue();
+                if (this.progressInterval < 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s must not be negative!",
+                            OptionsArgsName.PROGRESS_INTERVAL));
+                }
+            }
+            // execute模式下源路径和目的路径都记录在清单中
+            String defaultPath = isExecuteMode() ? "" : null;
             this.srcHdfsPath =
-                    getRequiredStringParam(OptionsArgsName.HDFS_PATH, null);
+                    getRequiredStringParam(OptionsArgsName.HDFS_PATH, defaultPath);
             this.destCosPath =
-                    getRequiredStringParam(OptionsArgsName.COS_PATH, null);
+                    getRequiredStringParam(OptionsArgsName.COS_PATH, defaultPath);
             this.storageClass =
                     getRequiredStringParam(OptionsArgsName.STORAGE_CLASS, "Standard");
             this.maxTaskNum = formatLongStr(OptionsArgsName.MAX_TASK_NUM,
                     getRequiredStringParam(OptionsArgsName.MAX_TASK_NUM, "4")).intValue();
+            if (cli.hasOption(OptionsArgsName.LANE_TASK_NUM)) {
+                parseLaneTaskNum(getRequiredStringParam(
+                        OptionsArgsName.LANE_TASK_NUM, null));
+            }
             this.maxMultiPartUploadTaskNum =
                     formatLongStr(OptionsArgsName.MAX_MULTIPART_UPLOAD_TASK_NUM,
                             getRequiredStringParam(OptionsArgsName.MAX_MULTIPART_UPLOAD_TASK_NUM, "4")).intValue();
+            this.maxInflightPartNum = this.maxTaskNum * this.maxMultiPartUploadTaskNum;
+            if (cli.hasOption(OptionsArgsName.MAX_INFLIGHT_PART_NUM)) {
+                this.maxInflightPartNum = formatLongStr(
+                        OptionsArgsName.MAX_INFLIGHT_PART_NUM,
+                        getRequiredStringParam(OptionsArgsName.MAX_INFLIGHT_PART_NUM,
+                                null)).intValue();
+            }
+            if (this.maxInflightPartNum <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s must be positive!",
+                        OptionsArgsName.MAX_INFLIGHT_PART_NUM));
+            }
+            this.maxListTaskNum =
+                    formatLongStr(OptionsArgsName.MAX_LIST_TASK_NUM,
+                            getRequiredStringParam(OptionsArgsName.MAX_LIST_TASK_NUM, "4")).intValue();
+            if (this.maxListTaskNum <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s must be positive!",
+                        OptionsArgsName.MAX_LIST_TASK_NUM));
+            }
+            this.maxHarCacheNum =
+                    formatLongStr(OptionsArgsName.MAX_HAR_CACHE_NUM,
+                            getRequiredStringParam(OptionsArgsName.MAX_HAR_CACHE_NUM, "16")).intValue();
+            if (this.maxHarCacheNum <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s must be positive!",
+                        OptionsArgsName.MAX_HAR_CACHE_NUM));
+            }
+            if (cli.hasOption(OptionsArgsName.BUNDLE_FILE_SIZE)) {
+                this.bundleFileSize = formatLongStr(
+                        OptionsArgsName.BUNDLE_FILE_SIZE,
+                        getRequiredStringParam(OptionsArgsName.BUNDLE_FILE_SIZE, "0"));
+            }
+            if (cli.hasOption(OptionsArgsName.BUNDLE_SIZE)) {
+                this.bundleSize = formatLongStr(OptionsArgsName.BUNDLE_SIZE,
+                        getRequiredStringParam(OptionsArgsName.BUNDLE_SIZE,
+                                String.valueOf(ConfigReader.DEFAULT_BUNDLE_SIZE)));
+            }
+            if (this.bundleFileSize > 0 && (this.bundleSize < this.bundleFileSize
+                    || this.bundleSize > FileToCosTask.MULTIPART_UPLOAD_THRESHOLD)) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s must be between %s and 128MB!",
+                        OptionsArgsName.BUNDLE_SIZE,
+                        OptionsArgsName.BUNDLE_FILE_SIZE));
+            }
             if (cli.hasOption(OptionsArgsName.SKIP_IF_LENGTH_MATCH)) {
                 this.skipIfLengthMatch = true;
             }
@@ -93,6 +220,45 @@ public class ConfigReader {
                 this.forceCheckMD5Sum = true;
             }
 
+            if (cli.hasOption(OptionsArgsName.BUILD_COS_INDEX)) {
+                this.buildCosIndex = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.INCREMENTAL)) {
+                if (!RUN_MODE_RUN.equals(this.runMode)) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s only supports the run mode!",
+                            OptionsArgsName.INCREMENTAL));
+                }
+                this.incremental = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.INCREMENTAL_PRUNE_DIR)) {
+                this.incrementalPruneDir = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.SNAPSHOT_DIFF)) {
+                if (!RUN_MODE_RUN.equals(this.runMode) || this.incremental) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s only supports the run mode and "
+                                    + "can not be used with %s!",
+                            OptionsArgsName.SNAPSHOT_DIFF,
+                            OptionsArgsName.INCREMENTAL));
+                }
+                this.snapshotDiff = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.SNAPSHOT_DELETE_REMOVED)) {
+                this.snapshotDeleteRemoved = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.MAX_COS_INDEX_MEMORY)) {
+                this.maxCosIndexMemory = formatLongStr(
+                        OptionsArgsName.MAX_COS_INDEX_MEMORY,
+                        getRequiredStringParam(OptionsArgsName.MAX_COS_INDEX_MEMORY,
+                                String.valueOf(ConfigReader.DEFAULT_MAX_COS_INDEX_MEMORY)));
+            }
+
             if (cli.hasOption(OptionsArgsName.DECOMPRESS_HAR)) {
                 this.decompressHarFile = true;
             }
@@ -104,6 +270,42 @@ public class ConfigReader {
                                 String.valueOf(ConfigReader.DEFAULT_PART_SIZE))).intValue();
             }
 
+            if (cli.hasOption(OptionsArgsName.ADAPTIVE_CONCURRENCY)) {
+                this.adaptiveConcurrency = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.ADAPTIVE_MULTIPART)) {
+                this.adaptiveMultipart = true;
+            }
+
+            if (cli.hasOption(OptionsArgsName.HEDGE_PART_PERCENT)) {
+                this.hedgePartPercent = formatLongStr(OptionsArgsName.HEDGE_PART_PERCENT,
+                        getRequiredStringParam(OptionsArgsName.HEDGE_PART_PERCENT,
+                                "0")).intValue();
+                if (this.hedgePartPercent < 0 || this.hedgePartPercent > 100) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s must be between 0 and 100!",
+                            OptionsArgsName.HEDGE_PART_PERCENT));
+                }
+            }
+
+            if (cli.hasOption(OptionsArgsName.PART_BUFFER_NUM)) {
+                this.partBufferNum = formatLongStr(OptionsArgsName.PART_BUFFER_NUM,
+                        getRequiredStringParam(OptionsArgsName.PART_BUFFER_NUM,
+                                "0")).intValue();
+                if (this.partBufferNum < 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "config error: %s must not be negative!",
+                            OptionsArgsName.PART_BUFFER_NUM));
+                }
+            }
+
+            if (cli.hasOption(OptionsArgsName.ZERO_COPY_READ)) {
+                this.zeroCopyRead = true;
+                this.zeroCopySkipChecksum =
+                        cli.hasOption(OptionsArgsName.ZERO_COPY_SKIP_CHECKSUM);
+            }
+
             if (cli.hasOption(OptionsArgsName.MAX_RETRY_NUM)) {
                 this.maxRetryNum = formatLongStr(OptionsArgsName.MAX_RETRY_NUM,
                         getRequiredStringParam(OptionsArgsName.MAX_RETRY_NUM,
@@ -151,6 +353,19 @@ public class ConfigReader {
                 + ".DistributedFileSystem");
         conf.set("fs.hdfs.impl.disable.cache", "true");
         conf.addResource(new Path(hdfsConfPath));
+        if (cli.hasOption(OptionsArgsName.ZERO_COPY_READ)) {
+            // 短路读需要DataNode配置的domain socket，没有配置时只能通过DataNode读取
+            String domainSocketPath = conf.get("dfs.domain.socket.path");
+            if (null != domainSocketPath && !domainSocketPath.isEmpty()) {
+                conf.setBoolean("dfs.client.read.shortcircuit", true);
+                if (cli.hasOption(OptionsArgsName.ZERO_COPY_SKIP_CHECKSUM)) {
+                    conf.setBoolean("dfs.client.read.shortcircuit.skip.checksum", true);
+                }
+            } else {
+                log.warn("dfs.domain.socket.path is not configured, "
+                        + "short-circuit local reads are disabled.");
+            }
+        }
 
         try {
             this.hdfsFS = FileSystem.get(conf);
@@ -228,6 +443,23 @@ public class ConfigReader {
         return value.trim();
     }
 
+    private void parseManifestShard(String shardStr) {
+        String[] items = shardStr.split("/");
+        String errMsg = String.format("config error: %s must be like i/n and "
+                + "0 <= i < n!", OptionsArgsName.MANIFEST_SHARD);
+        if (items.length != 2) {
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.manifestShardIndex = formatLongStr(OptionsArgsName.MANIFEST_SHARD,
+                items[0].trim()).intValue();
+        this.manifestShardNum = formatLongStr(OptionsArgsName.MANIFEST_SHARD,
+                items[1].trim()).intValue();
+        if (this.manifestShardNum <= 0 || this.manifestShardIndex < 0
+                || this.manifestShardIndex >= this.manifestShardNum) {
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+
     private int formatIntStr(String key, String valueStr) {
         try {
             return Integer.parseInt(valueStr);
@@ -237,6 +469,35 @@ public class ConfigReader {
         }
     }
 
+    private void parseLaneTaskNum(String laneTaskNumStr)
+            throws IllegalArgumentException {
+        String[] splits = laneTaskNumStr.split(",");
+        if (splits.length != LaneTaskQueue.LANE_NUM) {
+            throw new IllegalArgumentException(String.format(
+                    "config error: %s must be formatted as s,m,l!",
+                    OptionsArgsName.LANE_TASK_NUM));
+        }
+        int[] taskNums = new int[LaneTaskQueue.LANE_NUM];
+        int totalNum = 0;
+        for (int i = 0; i < splits.length; i++) {
+            taskNums[i] = formatLongStr(OptionsArgsName.LANE_TASK_NUM,
+                    splits[i].trim()).intValue();
+            if (taskNums[i] < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "config error: %s can not be negative!",
+                        OptionsArgsName.LANE_TASK_NUM));
+            }
+            totalNum += taskNums[i];
+        }
+        if (totalNum <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "config error: the sum of %s must be positive!",
+                    OptionsArgsName.LANE_TASK_NUM));
+        }
+        this.laneTaskNums = taskNums;
+        this.maxTaskNum = totalNum;
+    }
+
     private Long formatLongStr(String key, String valueStr) throws IllegalArgumentException {
         try {
             return Long.parseLong(valueStr);
@@ -295,10 +556,35 @@ public class ConfigReader {
         return maxTaskNum;
     }
 
+    /**
+     * 小、中、大文件车道各自的上传线程数，总数为max_task_num
+     */
+    public int[] getLaneTaskNums() {
+        if (null != this.laneTaskNums) {
+            return this.laneTaskNums.clone();
+        }
+        return LaneTaskQueue.splitWorkerNum(this.maxTaskNum);
+    }
+
     public int getMaxUploadPartTaskNum() {
         return maxMultiPartUploadTaskNum;
     }
 
+    /**
+     * 所有文件共享的在途分块数上限
+     */
+    public int getMaxInflightPartNum() {
+        return maxInflightPartNum;
+    }
+
+    public int getMaxListTaskNum() {
+        return maxListTaskNum;
+    }
+
+    public int getMaxHarCacheNum() {
+        return maxHarCacheNum;
+    }
+
     public int getTrafficLimit() {
         return trafficLimit;
     }
@@ -311,6 +597,51 @@ public class ConfigReader {
         }
     }
 
+    /**
+     * 开启时max_task_num和max_inflight_part_num为并发的上限
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public boolean isAdaptiveMultipart() {
+        return adaptiveMultipart;
+    }
+
+    /**
+     * 推测执行重复上传的分块字节数占已提交分块字节数的百分比上限，0表示不推测执行
+     */
+    public int getHedgePartPercent() {
+        return hedgePartPercent;
+    }
+
+    /**
+     * 分块预读的缓冲区数，占用的内存为它与max_upload_part_size的乘积
+     */
+    public int getPartBufferNum() {
+        return partBufferNum;
+    }
+
+    public boolean isZeroCopyRead() {
+        return zeroCopyRead;
+    }
+
+    public boolean isZeroCopySkipChecksum() {
+        return zeroCopySkipChecksum;
+    }
+
+    public boolean isBundleSmallFile() {
+        return bundleFileSize > 0;
+    }
+
+    public long getBundleFileSize() {
+        return bundleFileSize;
+    }
+
+    public long getBundleSize() {
+        return bundleSize;
+    }
+
     public FileSystem getHdfsFS() {
         return hdfsFS;
     }
@@ -323,6 +654,30 @@ public class ConfigReader {
         return this.forceCheckMD5Sum;
     }
 
+    public boolean isBuildCosIndex() {
+        return buildCosIndex;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public boolean isIncrementalPruneDir() {
+        return incrementalPruneDir;
+    }
+
+    public boolean isSnapshotDiff() {
+        return snapshotDiff;
+    }
+
+    public boolean isSnapshotDeleteRemoved() {
+        return snapshotDeleteRemoved;
+    }
+
+    public long getMaxCosIndexMemoryBytes() {
+        return maxCosIndexMemory * 1024 * 1024;
+    }
+
     public boolean isDecompressHarFile() {
         return decompressHarFile;
     }
@@ -334,4 +689,36 @@ public class ConfigReader {
     public long getRetryInterval() {
         return retryInterval;
     }
+
+    public boolean isPlanMode() {
+        return RUN_MODE_PLAN.equals(this.runMode);
+    }
+
+    public boolean isExecuteMode() {
+        return RUN_MODE_EXECUTE.equals(this.runMode);
+    }
+
+    public String getManifestPath() {
+        return manifestPath;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    public int getProgressInterval() {
+        return progressInterval;
+    }
+
+    public int getManifestShardIndex() {
+        return manifestShardIndex;
+    }
+
+    public int getManifestShardNum() {
+        return manifestShardNum;
+    }
 }
@@ -0,0 +1,387 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+
+/**
+ * COS目的路径下已有对象的索引。
+ * 通过分页的listObjects批量获取对象的长度和ETag，按目的路径下的第一级目录分片并发list，
+ * 之后跳过检查直接在本地查询，不需要对每个文件发起一次HEAD请求。
+ *
+ * 每个分片内的key按list返回的字典序(UTF-8字节序)紧凑地存放在基本类型数组中：
+ * 去掉分片前缀后的key字节、偏移、长度以及16字节的ETag，查询时二分查找。
+ * 索引占用的内存超过上限时放弃构建，调用方回退到逐个HEAD的方式。
+ */
+public class CosObjectIndex {
+    private static final Logger log =
+            LoggerFactory.getLogger(CosObjectIndex.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int LIST_MAX_KEYS = 1000;
+    private static final int ETAG_BYTES = 16;
+    // 每个key除去key本身以外的固定开销：偏移(4) + 长度(8) + ETag(16)
+    private static final int FIXED_BYTES_PER_KEY = 4 + 8 + ETAG_BYTES;
+
+    public static final long NOT_FOUND = -1L;
+
+    private String keyPrefix;
+    // 分片前缀(含目的路径前缀) -> 分片，目的路径下直接存放的对象在key为keyPrefix的分片中
+    private TreeMap<String, Shard> shards = new TreeMap<String, Shard>();
+    private long keyNum = 0;
+    private long memoryBytes = 0;
+
+    private CosObjectIndex(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * list目的路径下的所有对象，构建索引
+     *
+     * @param cosClient      COS客户端
+     * @param bucket         bucket
+     * @param cosPath        目的路径
+     * @param parallelism    并发list的线程数
+     * @param maxMemoryBytes 索引最多占用的内存
+     * @param maxRetryNum    每次list请求的重试次数
+     * @param retryInterval  重试间隔
+     * @return 构建完成的索引，如果list失败或超出内存上限，返回null
+     */
+    public static CosObjectIndex build(final COSClient cosClient,
+            final String bucket, String cosPath, int parallelism,
+            long maxMemoryBytes, final int maxRetryNum,
+            final long retryInterval) {
+        String keyPrefix = normalizeKey(cosPath);
+        if (keyPrefix.length() > 0 && !keyPrefix.endsWith("/")) {
+            keyPrefix = keyPrefix + "/";
+        }
+        final CosObjectIndex index = new CosObjectIndex(keyPrefix);
+        final AtomicLong usedBytes = new AtomicLong();
+        final long memoryLimit = maxMemoryBytes;
+        long startTime = System.currentTimeMillis();
+
+        try {
+            // 第一级list，得到目的路径下直接存放的对象和所有的子目录作为分片
+            final List<String> subPrefixes = new ArrayList<String>();
+            Shard rootShard = listShard(cosClient, bucket, keyPrefix, "/",
+                    subPrefixes, usedBytes, memoryLimit, maxRetryNum,
+                    retryInterval);
+            index.shards.put(keyPrefix, rootShard);
+
+            ExecutorService service = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(parallelism, subPrefixes.size())));
+            try {
+                List<Future<Shard>> futures = new ArrayList<Future<Shard>>();
+                for (final String subPrefix : subPrefixes) {
+                    futures.add(service.submit(new Callable<Shard>() {
+                        @Override
+                        public Shard call() throws Exception {
+                            return listShard(cosClient, bucket, subPrefix,
+                                    null, null, usedBytes, memoryLimit,
+                                    maxRetryNum, retryInterval);
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    index.shards.put(subPrefixes.get(i), futures.get(i).get());
+                }
+            } finally {
+                service.shutdownNow();
+            }
+        } catch (ExecutionException e) {
+            log.error("build cos object index for cos path: " + cosPath
+                    + " failed.", e.getCause());
+            return null;
+        } catch (Exception e) {
+            log.error("build cos object index for cos path: " + cosPath
+                    + " failed.", e);
+            return null;
+        }
+
+        for (Shard shard : index.shards.values()) {
+            index.keyNum += shard.size;
+            index.memoryBytes += shard.memoryBytes();
+        }
+        log.info("build cos object index for cos path: {} successfully. "
+                        + "shard num: {}, key num: {}, memory: {} bytes, "
+                        + "{} bytes per key, used time: {} ms",
+                cosPath, index.shards.size(), index.keyNum, index.memoryBytes,
+                index.keyNum == 0 ? 0 : index.memoryBytes / index.keyNum,
+                System.currentTimeMillis() - startTime);
+        return index;
+    }
+
+    private static Shard listShard(COSClient cosClient, String bucket,
+            String prefix, String delimiter, List<String> commonPrefixes,
+            AtomicLong usedBytes, long memoryLimit, int maxRetryNum,
+            long retryInterval) throws Exception {
+        Shard shard = new Shard(prefix.getBytes(UTF8).length);
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
+        listObjectsRequest.setBucketName(bucket);
+        listObjectsRequest.setPrefix(prefix);
+        listObjectsRequest.setDelimiter(delimiter);
+        listObjectsRequest.setMaxKeys(LIST_MAX_KEYS);
+
+        String marker = null;
+        while (true) {
+            listObjectsRequest.setMarker(marker);
+            ObjectListing objectListing = listObjectsWithRetry(cosClient,
+                    listObjectsRequest, maxRetryNum, retryInterval);
+            long pageBytes = 0;
+            for (COSObjectSummary summary : objectListing.getObjectSummaries()) {
+                pageBytes += shard.add(summary.getKey(), summary.getSize(),
+                        summary.getETag());
+            }
+            if (usedBytes.addAndGet(pageBytes) > memoryLimit) {
+                throw new IllegalStateException("cos object index exceeds the"
+                        + " memory limit: " + memoryLimit + " bytes");
+            }
+            if (null != commonPrefixes) {
+                commonPrefixes.addAll(objectListing.getCommonPrefixes());
+            }
+            if (!objectListing.isTruncated()) {
+                break;
+            }
+            marker = objectListing.getNextMarker();
+        }
+        shard.trim();
+        return shard;
+    }
+
+    private static ObjectListing listObjectsWithRetry(COSClient cosClient,
+            ListObjectsRequest listObjectsRequest, int maxRetryNum,
+            long retryInterval) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return cosClient.listObjects(listObjectsRequest);
+            } catch (CosClientException e) {
+                if (i + 1 >= maxRetryNum) {
+                    throw e;
+                }
+                log.warn("list objects occurs an exception. prefix: "
+                        + listObjectsRequest.getPrefix()
+                        + " retry count: " + String.valueOf(i)
+                        + " msg: " + e.getMessage());
+                Utils.sleep(i, retryInterval);
+            }
+        }
+    }
+
+    /**
+     * 查询对象的长度
+     *
+     * @param cosPath 对象在COS上的路径
+     * @return 对象的长度，如果构建索引时该对象不存在，则返回NOT_FOUND
+     */
+    public long getLength(String cosPath) {
+        String key = normalizeKey(cosPath);
+        Shard shard = findShard(key);
+        if (null == shard) {
+            return NOT_FOUND;
+        }
+        int i = shard.find(key.getBytes(UTF8));
+        return i < 0 ? NOT_FOUND : shard.lengths[i];
+    }
+
+    /**
+     * 查询对象的ETag，分块上传的对象只保留ETag中"-"之前的部分
+     *
+     * @param cosPath 对象在COS上的路径
+     * @return 对象的ETag，如果对象不存在或者ETag无法解析，则返回null
+     */
+    public String getETag(String cosPath) {
+        String key = normalizeKey(cosPath);
+        Shard shard = findShard(key);
+        if (null == shard) {
+            return null;
+        }
+        int i = shard.find(key.getBytes(UTF8));
+        if (i < 0 || !shard.hasETag(i)) {
+            return null;
+        }
+        return Hex.encodeHexString(Arrays.copyOfRange(shard.etags,
+                i * ETAG_BYTES, (i + 1) * ETAG_BYTES));
+    }
+
+    public long getKeyNum() {
+        return keyNum;
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private Shard findShard(String key) {
+        if (!key.startsWith(this.keyPrefix)) {
+            return null;
+        }
+        Map.Entry<String, Shard> entry = this.shards.floorEntry(key);
+        if (null != entry && key.startsWith(entry.getKey())) {
+            return entry.getValue();
+        }
+        return this.shards.get(this.keyPrefix);
+    }
+
+    /**
+     * COS上的key不以/开头
+     */
+    static String normalizeKey(String cosPath) {
+        String key = cosPath;
+        while (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+        return key;
+    }
+
+    /**
+     * 一个前缀下所有对象的紧凑存储，key按字节序有序
+     */
+    private static class Shard {
+        private int prefixLength;
+        private int size = 0;
+        private byte[] keyBytes = new byte[1024];
+        private int[] keyOffsets = new int[65];
+        private long[] lengths = new long[64];
+        private byte[] etags = new byte[64 * ETAG_BYTES];
+        private long[] etagFlags = new long[1];          // 每个key一位，标识ETag是否可用
+
+        Shard(int prefixLength) {
+            this.prefixLength = prefixLength;
+        }
+
+        /**
+         * @return 新增该key占用的内存
+         */
+        long add(String key, long length, String etag) {
+            byte[] fullKey = key.getBytes(UTF8);
+            int suffixLength = fullKey.length - this.prefixLength;
+            // 查找依赖有序，list的结果不是字节序时放弃构建索引
+            if (this.size > 0 && compare(this.size - 1, fullKey) >= 0) {
+                throw new IllegalStateException("list objects result is not "
+                        + "in order, key: " + key);
+            }
+            ensureCapacity(suffixLength);
+
+            int offset = this.keyOffsets[this.size];
+            System.arraycopy(fullKey, this.prefixLength, this.keyBytes, offset,
+                    suffixLength);
+            this.keyOffsets[this.size + 1] = offset + suffixLength;
+            this.lengths[this.size] = length;
+            if (parseETag(etag, this.etags, this.size * ETAG_BYTES)) {
+                this.etagFlags[this.size >>> 6] |= 1L << (this.size & 63);
+            }
+            this.size++;
+            return suffixLength + FIXED_BYTES_PER_KEY;
+        }
+
+        boolean hasETag(int i) {
+            return (this.etagFlags[i >>> 6] & (1L << (i & 63))) != 0;
+        }
+
+        /**
+         * 二分查找key
+         *
+         * @return key的下标，如果不存在则返回-1
+         */
+        int find(byte[] key) {
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int i, byte[] key) {
+            int start = this.keyOffsets[i];
+            int length = this.keyOffsets[i + 1] - start;
+            int keyLength = key.length - this.prefixLength;
+            int n = Math.min(length, keyLength);
+            for (int j = 0; j < n; j++) {
+                int a = this.keyBytes[start + j] & 0xff;
+                int b = key[this.prefixLength + j] & 0xff;
+                if (a != b) {
+                    return a - b;
+                }
+            }
+            return length - keyLength;
+        }
+
+        private void ensureCapacity(int suffixLength) {
+            int needBytes = this.keyOffsets[this.size] + suffixLength;
+            if (needBytes > this.keyBytes.length) {
+                this.keyBytes = Arrays.copyOf(this.keyBytes,
+                        Math.max(needBytes, this.keyBytes.length * 2));
+            }
+            if (this.size == this.lengths.length) {
+                int capacity = this.lengths.length * 2;
+                this.lengths = Arrays.copyOf(this.lengths, capacity);
+                this.keyOffsets = Arrays.copyOf(this.keyOffsets, capacity + 1);
+                this.etags = Arrays.copyOf(this.etags, capacity * ETAG_BYTES);
+                this.etagFlags = Arrays.copyOf(this.etagFlags, (capacity + 63) / 64);
+            }
+        }
+
+        void trim() {
+            this.keyBytes = Arrays.copyOf(this.keyBytes, this.keyOffsets[this.size]);
+            this.keyOffsets = Arrays.copyOf(this.keyOffsets, this.size + 1);
+            this.lengths = Arrays.copyOf(this.lengths, this.size);
+            this.etags = Arrays.copyOf(this.etags, this.size * ETAG_BYTES);
+            this.etagFlags = Arrays.copyOf(this.etagFlags, (this.size + 63) / 64);
+        }
+
+        long memoryBytes() {
+            return this.keyBytes.length + 4L * this.keyOffsets.length
+                    + 8L * this.lengths.length + this.etags.length
+                    + 8L * this.etagFlags.length;
+        }
+
+        private static boolean parseETag(String etag, byte[] dest, int offset) {
+            if (null == etag) {
+                return false;
+            }
+            String hex = etag.replace("\"", "");
+            int dashIndex = hex.indexOf('-');
+            if (dashIndex >= 0) {
+                hex = hex.substring(0, dashIndex);
+            }
+            if (hex.length() != ETAG_BYTES * 2) {
+                return false;
+            }
+            try {
+                byte[] bytes = Hex.decodeHex(hex.toCharArray());
+                System.arraycopy(bytes, 0, dest, offset, ETAG_BYTES);
+                return true;
+            } catch (DecoderException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.qcloud.hdfs_to_cos;
+
+/**
+ * COS使用的CRC64-ECMA校验(ECMA-182多项式，反射输入输出，初值和结果异或全1)。
+ * 按照8字节分片查表计算；combine按照各段的长度把分段的CRC合并成整体的CRC，不需要再次读取数据，
+ * 分块上传时由各分块的CRC得到整个对象的CRC。
+ */
+public class Crc64 {
+    private static final long POLY = 0xC96C5795D7870F42L;     // 反射后的ECMA-182多项式
+    private static final int GF2_DIM = 64;
+    private static final long[][] TABLES = new long[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            long crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            long crc = TABLES[0][n];
+            for (int k = 1; k < 8; k++) {
+                crc = TABLES[0][(int) (crc & 0xff)] ^ (crc >>> 8);
+                TABLES[k][n] = crc;
+            }
+        }
+    }
+
+    private long value = 0;
+
+    public void update(int b) {
+        long crc = ~this.value;
+        crc = TABLES[0][(int) ((crc ^ b) & 0xff)] ^ (crc >>> 8);
+        this.value = ~crc;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        long crc = ~this.value;
+        while (len >= 8) {
+            crc ^= (b[off] & 0xffL)
+                    | (b[off + 1] & 0xffL) << 8
+                    | (b[off + 2] & 0xffL) << 16
+                    | (b[off + 3] & 0xffL) << 24
+                    | (b[off + 4] & 0xffL) << 32
+                    | (b[off + 5] & 0xffL) << 40
+                    | (b[off + 6] & 0xffL) << 48
+                    | (b[off + 7] & 0xffL) << 56;
+            crc = TABLES[7][(int) (crc & 0xff)]
+                    ^ TABLES[6][(int) ((crc >>> 8) & 0xff)]
+                    ^ TABLES[5][(int) ((crc >>> 16) & 0xff)]
+                    ^ TABLES[4][(int) ((crc >>> 24) & 0xff)]
+                    ^ TABLES[3][(int) ((crc >>> 32) & 0xff)]
+                    ^ TABLES[2][(int) ((crc >>> 40) & 0xff)]
+                    ^ TABLES[1][(int) ((crc >>> 48) & 0xff)]
+                    ^ TABLES[0][(int) (crc >>> 56)];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            crc = TABLES[0][(int) ((crc ^ b[off++]) & 0xff)] ^ (crc >>> 8);
+        }
+        this.value = ~crc;
+    }
+
+    public long getValue() {
+        return this.value;
+    }
+
+    public void reset() {
+        this.value = 0;
+    }
+
+    /**
+     * 恢复到之前通过getValue保存的状态，之后的数据接着该状态计算
+     */
+    public void setValue(long value) {
+        this.value = value;
+    }
+
+    /**
+     * 与COS返回的x-cos-hash-crc64ecma头相同的格式，即无符号的十进制数
+     */
+    public static String toUnsignedString(long crc) {
+        if (crc >= 0) {
+            return String.valueOf(crc);
+        }
+        // 最高位为1时先无符号右移一位再除以5，得到除以10的商
+        long quotient = (crc >>> 1) / 5;
+        long remainder = crc - quotient * 10;
+        return String.valueOf(quotient) + remainder;
+    }
+
+    /**
+     * 合并两段连续数据的CRC
+     *
+     * @param crc1 前一段数据的CRC
+     * @param crc2 后一段数据的CRC
+     * @param len2 后一段数据的长度
+     * @return 两段数据拼接以后的CRC
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[GF2_DIM];     // 偶数次幂的0比特运算矩阵
+        long[] odd = new long[GF2_DIM];      // 奇数次幂的0比特运算矩阵
+
+        // 一个0比特的运算矩阵
+        odd[0] = POLY;
+        long row = 1;
+        for (int n = 1; n < GF2_DIM; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);         // 两个0比特
+        gf2MatrixSquare(odd, even);         // 四个0比特
+
+        // 在crc1后面追加len2个0字节，每次把矩阵平方，对len2中为1的比特应用矩阵
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < GF2_DIM; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 在上传读取数据的同时计算CRC64，不需要再次读取数据。
+ * SDK重试时会reset到mark的位置重新读取，mark时保存CRC的状态，reset时恢复。
+ */
+public class Crc64InputStream extends FilterInputStream {
+    private final Crc64 crc64 = new Crc64();
+    private long bytesRead = 0;
+    private long markCrc = 0;
+    private long markBytesRead = 0;
+
+    public Crc64InputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b >= 0) {
+            this.crc64.update(b);
+            this.bytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int nRead = this.in.read(b, off, len);
+        if (nRead > 0) {
+            this.crc64.update(b, off, nRead);
+            this.bytesRead += nRead;
+        }
+        return nRead;
+    }
+
+    /**
+     * 跳过的数据也要计入CRC，因此通过读取来跳过
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(64 * 1024, Math.max(n, 1))];
+        long remaining = n;
+        while (remaining > 0) {
+            int nRead = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (nRead < 0) {
+                break;
+            }
+            remaining -= nRead;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.in.mark(readLimit);
+        this.markCrc = this.crc64.getValue();
+        this.markBytesRead = this.bytesRead;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        this.in.reset();
+        this.crc64.setValue(this.markCrc);
+        this.bytesRead = this.markBytesRead;
+    }
+
+    /**
+     * 已经读取并计入CRC的字节数
+     */
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    public long getCrc64() {
+        return this.crc64.getValue();
+    }
+}
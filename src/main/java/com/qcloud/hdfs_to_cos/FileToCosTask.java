@@ -1,17 +1,21 @@
 package com.qcloud.hdfs_to_cos;
 
 import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
 import com.qcloud.cos.exception.CosServiceException;
 import com.qcloud.cos.model.*;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -19,14 +23,16 @@ import java.util.concurrent.*;
 public class FileToCosTask implements Runnable {
     private static final Logger log =
             LoggerFactory.getLogger(FileToCosTask.class);
-    private static final long MAX_PART_SIZE =
+    static final long MAX_PART_SIZE =
             2 * 1024 * 1024 * 1024L;            // 2G
-    private static final long MAX_PART_NUM =
+    static final long MAX_PART_NUM =
             10000L;                              // 最多10000块
     private static final long MAX_FILE_SIZE =
             MAX_PART_SIZE * MAX_PART_NUM;       // 能够支持的最大文件大小
-    private static final long MULTIPART_UPLOAD_THRESHOLD =
-            128 * 1024 * 1024L;    // 超过128MB以后采用分块上传
+    static final long MULTIPART_UPLOAD_THRESHOLD =
+            128 * 1024 * 1024L;    // 没有开启自适应分块时，超过128MB以后采用分块上传
+    static final String CRC64_HEADER = "x-cos-hash-crc64ecma";  // COS返回的对象CRC64
+    private static final long HEDGE_CHECK_INTERVAL = 10;   // 推测执行时检查分块进度的间隔，单位毫秒
 
     private int kMaxRetryNum = 3;
     private long kRetryInterval = 3000;   // 重试间隔时间，3秒
@@ -36,8 +42,17 @@ public class FileToCosTask implements Runnable {
     protected FileStatus fileStatus = null;
     protected FileSystem fileSystem = null;
     protected String md5sum = null;         // 文件的md5sum
+    protected Long crc64 = null;            // 分块上传时由各分块合并得到的CRC64，未知时为空
     protected String cosPath = null;
     protected String storageClass = null;
+    protected CosObjectIndex cosObjectIndex = null;     // 预先list得到的COS对象索引，可以为空
+    private AimdController fileController = null;   // 同时上传的文件数的控制器，没有开启自适应并发时为空
+    private BlockingQueue<FileToCosTask> retryQueue = null;    // 单文件上传失败后等待重试时重新放入的任务队列
+    private int singleAttemptNum = 0;       // 单文件上传已经尝试的次数
+    private boolean parked = false;         // 是否已经放入延迟队列等待重试
+    private ProgressReporter.FileProgress progress = null;     // 开始上传以后记录已经发送的字节
+
+    private static AimdController sharedFileController = null;
 
     public FileToCosTask(
             ConfigReader configReader,
@@ -66,6 +81,17 @@ public class FileToCosTask implements Runnable {
         this.kRetryInterval = configReader.getRetryInterval();
     }
 
+    /**
+     * 由上传线程执行时设置任务队列，单文件上传失败以后不在线程中等待，而是延迟以后重新放入该队列
+     */
+    public void setRetryQueue(BlockingQueue<FileToCosTask> retryQueue) {
+        this.retryQueue = retryQueue;
+    }
+
+    public void setCosObjectIndex(CosObjectIndex cosObjectIndex) {
+        this.cosObjectIndex = cosObjectIndex;
+    }
+
     private void checkInternalMember() throws NullPointerException,
             IllegalArgumentException {
         if (null == this.configReader) {
@@ -99,6 +125,20 @@ public class FileToCosTask implements Runnable {
      */
     protected boolean checkFileExistsWithLength() {
         this.checkInternalMember();
+        return this.checkFileExistsWithLength(false);
+    }
+
+    /**
+     * 根据文件长度判断COS文件是否存在
+     *
+     * @param useIndex 是否使用预先构建的对象索引判断，只适用于上传之前的检查
+     * @return 如果COS文件存在，则返回true，否则返回false
+     */
+    protected boolean checkFileExistsWithLength(boolean useIndex) {
+        if (useIndex && null != this.cosObjectIndex) {
+            return this.cosObjectIndex.getLength(this.cosPath)
+                    == this.fileStatus.getLen();
+        }
         log.debug("check if file:{} exists with length.",
                 this.fileStatus.getPath().toString());
         try {
@@ -106,7 +146,8 @@ public class FileToCosTask implements Runnable {
                     new GetObjectMetadataRequest(configReader.getBucket(),
                             cosPath);
             ObjectMetadata metadata =
-                    this.cosClient.getObjectMetadata(metadataRequest);
+                    CommonCosUtils.getObjectMetadata(this.cosClient,
+                            metadataRequest);
             long cosFileSize = metadata.getContentLength();
             long localFileSize = this.fileStatus.getLen();
 
@@ -121,6 +162,50 @@ public class FileToCosTask implements Runnable {
         return false;
     }
 
+    /**
+     * 根据文件的长度和CRC64判断COS文件是否存在。
+     * 没有合并得到CRC64(例如续传了之前上传的分块)或者COS没有返回CRC64时只校验长度
+     *
+     * @return 如果COS文件存在，则返回true，否则返回false
+     */
+    protected boolean checkFileExistsWithCrc64() {
+        this.checkInternalMember();
+        if (null == this.crc64) {
+            return this.checkFileExistsWithLength(false);
+        }
+        log.debug("check if file:{} exists with crc64.",
+                this.fileStatus.getPath().toString());
+        try {
+            GetObjectMetadataRequest metadataRequest =
+                    new GetObjectMetadataRequest(configReader.getBucket(),
+                            cosPath);
+            ObjectMetadata metadata =
+                    CommonCosUtils.getObjectMetadata(this.cosClient,
+                            metadataRequest);
+            if (metadata.getContentLength() != this.fileStatus.getLen()) {
+                return false;
+            }
+            Object cosCrc64 = metadata.getRawMetadataValue(CRC64_HEADER);
+            if (null == cosCrc64) {
+                log.warn("cos doesn't return the crc64 of {}, only check the "
+                        + "length.", this.cosPath);
+                return true;
+            }
+            if (new BigInteger(cosCrc64.toString()).longValue() == this.crc64) {
+                return true;
+            }
+            log.error("crc64 mismatch, file path: {}, cos path: {}, "
+                            + "expected: {}, cos: {}",
+                    this.fileStatus.getPath().toString(), this.cosPath,
+                    Crc64.toUnsignedString(this.crc64), cosCrc64);
+        } catch (Exception e) {
+            log.debug("file is not exist. bucket: " + configReader.getBucket()
+                    + "," + "cos path: " + cosPath + "msg: " + e.getMessage());
+        }
+
+        return false;
+    }
+
     /**
      * 根据文件的长度和MD5值来判断COS文件是否存在
      *
@@ -135,7 +220,8 @@ public class FileToCosTask implements Runnable {
                     new GetObjectMetadataRequest(configReader.getBucket(),
                             cosPath);
             ObjectMetadata metadata =
-                    this.cosClient.getObjectMetadata(metadataRequest);
+                    CommonCosUtils.getObjectMetadata(this.cosClient,
+                            metadataRequest);
             long cosFileSize = metadata.getContentLength();
             long localFileSize = this.fileStatus.getLen();
             // 首先要满足长度是一致的
@@ -172,8 +258,8 @@ public class FileToCosTask implements Runnable {
             return false;
         }
 
-        // 根据文件长度判断是否需要跳过文件
-        return this.checkFileExistsWithLength();
+        // 根据文件长度判断是否需要跳过文件，有对象索引时直接在本地判断
+        return this.checkFileExistsWithLength(true);
     }
 
     protected void UploadFile() throws Exception {
@@ -184,22 +270,49 @@ public class FileToCosTask implements Runnable {
             log.info("file:{} already exists on COS. Skip to upload it.",
                     this.fileStatus.getPath().toString());
             Statistics.instance.addSkipFile();
+            ProgressReporter.instance.finishFile(this.progress,
+                    this.fileStatus.getLen());
             return;
         }
 
-        long fileSize =
-                this.fileSystem.getFileStatus(this.fileStatus.getPath()).getLen();
+        long fileSize = this.fileStatus.getLen();           // 直接使用扫描时得到的文件长度
+        if (null == this.progress) {
+            // 等待重试的文件再次上传时继续使用原来的进度
+            this.progress = ProgressReporter.instance.startFile(fileSize);
+        }
         if (fileSize > FileToCosTask.MAX_FILE_SIZE) {
             throw new IOException("exceed max support file size, current file"
                     + " size:" + fileSize + " max file size: " + FileToCosTask.MAX_FILE_SIZE);
         }
 
+        // 开启自适应并发时，同时上传的文件数由控制器调整，超出的上传线程在这里等待
+        this.fileController = getFileController(this.configReader);
+        if (null != this.fileController) {
+            this.fileController.acquire();
+        }
+        try {
+            this.uploadAndCheck();
+        } finally {
+            if (null != this.fileController) {
+                this.fileController.release();
+            }
+        }
+    }
+
+    private void uploadAndCheck() throws Exception {
         // 文件完整性校验
         boolean isUploadSuccess = false;
-        if (fileSize <= FileToCosTask.MULTIPART_UPLOAD_THRESHOLD) {
+        this.parked = false;
+        UploadPlanner.Plan plan = this.planUpload();
+        if (!plan.isMultipart()) {
             log.debug("upload file:{} by using single file mode.",
                     this.fileStatus.getPath().toString());
             isUploadSuccess = this.uploadSingleFileWithRetry();
+            if (this.parked) {
+                log.info("upload file: {} failed, wait to retry. retry count: {}",
+                        this.fileStatus.getPath().toString(), this.singleAttemptNum);
+                return;
+            }
             // 单文件上传需要校验文件的MD5值
             if (configReader.isForceCheckMD5Sum()) {
                 isUploadSuccess &= this.checkFileExistsWithMD5Sum();
@@ -208,11 +321,11 @@ public class FileToCosTask implements Runnable {
                 isUploadSuccess &= this.checkFileExistsWithLength();
             }
         } else {
-            log.debug("upload file:{} by using multipart upload mode.",
-                    this.fileStatus.getPath().toString());
-            isUploadSuccess = this.uploadMultipartWithRetry();
-            // 分块上传文件需要校验文件的长度
-            isUploadSuccess &= this.checkFileExistsWithLength();
+            log.debug("upload file:{} by using multipart upload mode. part size: {}",
+                    this.fileStatus.getPath().toString(), plan.getPartSize());
+            isUploadSuccess = this.uploadMultipartWithRetry(plan.getPartSize());
+            // 分块上传文件需要校验文件的长度，能够得到CRC64时同时校验CRC64
+            isUploadSuccess &= this.checkFileExistsWithCrc64();
         }
 
         if (isUploadSuccess) {
@@ -223,6 +336,8 @@ public class FileToCosTask implements Runnable {
                     this.cosPath.toString());
             log.info(taskInfo);
             Statistics.instance.addUploadFileOk();
+            ProgressReporter.instance.finishFile(this.progress,
+                    this.fileStatus.getLen());
             String printlnStr =
                     String.format("[success] [file path: %s]",
                             this.fileStatus.getPath().toString());
@@ -233,69 +348,98 @@ public class FileToCosTask implements Runnable {
                     this.fileStatus.getPath().toString(), this.cosPath);
             log.error(taskInfo);
             Statistics.instance.addUploadFileFail();
+            ProgressReporter.instance.finishFile(this.progress,
+                    this.fileStatus.getLen());
             String printlnStr = String.format("[failure] [file path: %s]",
                     this.fileStatus.getPath(), this.cosPath);
             System.err.println(printlnStr);
         }
     }
 
+    /**
+     * 获取进程内共享的文件并发控制器，没有开启adaptive_concurrency时返回null，文件并发就是上传线程数
+     */
+    static synchronized AimdController getFileController(ConfigReader configReader) {
+        if (null == sharedFileController && configReader.isAdaptiveConcurrency()) {
+            sharedFileController = AimdController.create("file",
+                    configReader.getMaxTaskNum(), configReader);
+        }
+        return sharedFileController;
+    }
+
+    /**
+     * 选择单文件上传还是分块上传以及分块大小
+     */
+    protected UploadPlanner.Plan planUpload() {
+        return UploadPlanner.plan(this.configReader, this.fileStatus);
+    }
+
+    /**
+     * 打开单文件上传时读取的输入流，每次重试都会重新打开
+     */
+    protected InputStream openInputStream() throws IOException {
+        FSDataInputStream fStream = CommonHdfsUtils.open(this.fileSystem,
+                this.fileStatus.getPath());
+        if (this.configReader.isZeroCopyRead()) {
+            return new ZeroCopyInputStream(fStream, 0, this.fileStatus.getLen(),
+                    this.configReader.isZeroCopySkipChecksum(), true);
+        }
+        fStream.skip(0);
+        return fStream;
+    }
+
     private boolean uploadSingleFileWithRetry() throws Exception {
         this.checkInternalMember();
         boolean isUploadSuccess = false;
-        for (int i = 0; i < this.kMaxRetryNum; i++) {
+        for (; this.singleAttemptNum < this.kMaxRetryNum; this.singleAttemptNum++) {
+            int i = this.singleAttemptNum;
+            if (i == 0) {
+                RetryScheduler.instance.recordRequest();
+            }
             InputStream fStream = null;
             try {
-                // 如果开启了强制校验MD5，那么首先要检查文件的MD5值
+                fStream = CommonHdfsUtils.meterRead(this.openInputStream());
+                // 开启了强制校验MD5时，在上传读取数据的同时计算MD5，不需要先单独读取一遍文件
+                Md5DigestInputStream digestStream = null;
                 if (configReader.isForceCheckMD5Sum() && null == this.md5sum) {
-                    fStream = this.fileSystem.open(this.fileStatus.getPath());
-                    fStream.skip(0);
-                    try {
-                        this.md5sum = Utils.calInputStreamCheckSum(fStream,
-                                "MD5");
-                        log.debug("The file: {} 's MD5 checksum is {}",
-                                this.fileStatus.getPath().toString(),
-                                this.md5sum);
-                    } catch (Exception e) {
-                        log.error("Calculate the checksum of the original "
-                                        + "file: {} occurs an exception: {}.",
-                                this.fileStatus.getPath().toString(), e);
-                        this.md5sum = null;         // MD5校验和无效
-                        isUploadSuccess = false;
-                        break;
-                    } finally {
-                        if (null != fStream) {
-                            try {
-                                fStream.close();
-                                fStream = null;
-                            } catch (IOException e2) {
-                                log.warn("close file input stream failed. "
-                                        + "exception: " + e2.getMessage());
-                            }
-                        }
-                    }
+                    digestStream = new Md5DigestInputStream(fStream);
+                    fStream = digestStream;
                 }
-
-                fStream = this.fileSystem.open(this.fileStatus.getPath());      // 重新打开文件，正式开始上传
-                fStream.skip(0);
+                // 开启了限速时，按照实际发送的字节从共享的令牌桶取得令牌
+                fStream = TrafficLimiter.limit(this.configReader, fStream);
+                fStream = ProgressReporter.track(this.progress, fStream);
                 ObjectMetadata metadata = new ObjectMetadata();
-                long fileSize =
-                        this.fileSystem.getFileStatus(this.fileStatus.getPath()).getLen();
-                metadata.setContentLength(fileSize);
+                metadata.setContentLength(this.fileStatus.getLen());
                 PutObjectRequest putObjectRequest =
                         new PutObjectRequest(configReader.getBucket(),
                                 this.cosPath, fStream, metadata)
                                 .withStorageClass(this.storageClass);
-                if (this.configReader.getTrafficLimit() > 0) {
-                    int singleTrafficLimit = (int) Math.ceil(
-                        (double) this.configReader.getTrafficLimit() / (double) this.configReader.getMaxTaskNum());
-                    if(singleTrafficLimit < 819200) {
-                      singleTrafficLimit = 819200;
-                    }
-                    putObjectRequest.setTrafficLimit(singleTrafficLimit);
-                }
+                long startNanos = System.nanoTime();
                 PutObjectResult result =
-                        this.cosClient.putObject(putObjectRequest);
+                        CommonCosUtils.putObject(this.cosClient, putObjectRequest);
+                long costNanos = System.nanoTime() - startNanos;
+                ThroughputEstimator.instance.record(this.fileStatus.getLen(),
+                        costNanos);
+                if (null != this.fileController) {
+                    this.fileController.onSuccess(this.fileStatus.getLen(), costNanos);
+                }
                 isUploadSuccess = true;
+                if (null != digestStream) {
+                    if (digestStream.getBytesRead() == this.fileStatus.getLen()) {
+                        this.md5sum = digestStream.getMd5Hex();
+                        log.debug("The file: {} 's MD5 checksum is {}",
+                                this.fileStatus.getPath().toString(),
+                                this.md5sum);
+                    } else {
+                        // 没有读完整个文件，得到的MD5校验和无效
+                        log.error("Calculate the checksum of the original "
+                                        + "file: {} failed, only {} of {} bytes "
+                                        + "are read.",
+                                this.fileStatus.getPath().toString(),
+                                digestStream.getBytesRead(),
+                                this.fileStatus.getLen());
+                    }
+                }
                 // 如果开启了强制校验MD5值，则会强制校验一遍MD5
                 if (configReader.isForceCheckMD5Sum()) {
                     if (null != this.md5sum && this.md5sum.compareToIgnoreCase(result.getETag()) == 0) {
@@ -320,15 +464,29 @@ public class FileToCosTask implements Runnable {
                             kMaxRetryNum, result.getRequestId());
                     continue;
                 }
-            } catch (CosServiceException e) {
+            } catch (CosClientException e) {
+                // 连接重置、超时等客户端异常同样重试
+                if (null != this.fileController && e instanceof CosServiceException
+                        && AimdController.isThrottled((CosServiceException) e)) {
+                    this.fileController.onThrottle();
+                }
                 log.error("upload single file occurs an exception. "
                         + "retry count:" + String.valueOf(i)
-                        + " msg:" + e.getMessage()
-                        + " ret code: "
-                        + e.getErrorCode()
-                        + " xml: " + e.getErrorResponseXml());
+                        + CommonCosUtils.describe(e));
+                long delay = RetryScheduler.instance.getRetryDelay(i,
+                        this.kMaxRetryNum, this.kRetryInterval, e);
+                if (delay < 0) {
+                    break;          // 客户端错误、重试次数或者重试预算用完，不再重试
+                }
+                // 由上传线程执行时放入延迟队列，线程去上传其他文件，退避时间到了以后重新进入任务队列
+                if (null != this.retryQueue && RetryScheduler.instance.parkFile(
+                        this, this.retryQueue, delay)) {
+                    this.singleAttemptNum++;
+                    this.parked = true;
+                    return false;
+                }
                 try {
-                    Thread.sleep(this.kRetryInterval);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
                     break;
                 }
@@ -349,6 +507,10 @@ public class FileToCosTask implements Runnable {
     }
 
     protected boolean uploadMultipartWithRetry() throws Exception {
+        return this.uploadMultipartWithRetry(this.planUpload().getPartSize());
+    }
+
+    protected boolean uploadMultipartWithRetry(long partSize) throws Exception {
         this.checkInternalMember();
 
         boolean isUploadSuccess = false;
@@ -356,25 +518,40 @@ public class FileToCosTask implements Runnable {
         Map<Integer, PartSummary> existedParts =
                 this.identifyExistingPartsForResume(uploadId);
 
-        // 先规整partSize
-        long fileSize =
-                this.fileSystem.getFileStatus(this.fileStatus.getPath()).getLen();
-        long partSize = this.configReader.getPartSize();
-        while (partSize * MAX_PART_NUM < fileSize) {
-            partSize *= 2;
-            if (partSize > MAX_PART_SIZE) {
-                partSize = MAX_PART_SIZE;
-            }
-        }
-        // 然后开始上传
+        long fileSize = this.fileStatus.getLen();
         List<Future<PartETag>> allUploadPartTasks =
                 new ArrayList<Future<PartETag>>();
-        int threadNum = this.configReader.getMaxUploadPartTaskNum();
-        ExecutorService service = Executors.newFixedThreadPool(threadNum);
-        Semaphore tmpSemaphore = new Semaphore(threadNum);
+        List<UploadPartTask> submittedPartTasks = new ArrayList<UploadPartTask>();
+        List<Long> submittedPartPositions = new ArrayList<Long>();
+        // 所有文件的分块提交到同一个调度器，共享全局的在途分块数
+        PartUploadScheduler scheduler =
+                PartUploadScheduler.getInstance(this.configReader);
+        // 开启预读时，本线程把分块读入缓冲区后交给调度器发送，接着读取下一个分块。
+        // 分块大小因为文件过大被调整以后放不进缓冲区，仍然流式读取
+        PartBufferPool bufferPool = PartBufferPool.getInstance(this.configReader);
+        if (null != bufferPool && partSize > bufferPool.getBufferSize()) {
+            bufferPool = null;
+        }
+        // 开启推测执行时，落后的分块从输入流再上传一份
+        PartHedger hedger = PartHedger.getInstance(this.configReader);
+        // 所有分块共享一个打开的输入流，通过positional read读取各自的数据
+        FSDataInputStream fStream = CommonHdfsUtils.open(this.fileSystem,
+                this.fileStatus.getPath());
+        Exception partException = null;
         long pos = 0;
-        for (int partNum = 1; pos < fileSize; partNum++) {
+        int partNum = 1;
+        for (; pos < fileSize; partNum++) {
             partSize = Math.min(partSize, fileSize - pos);
+            // 上次上传时规划的分块大小可能不同，大小不一致的分块需要重新上传
+            PartSummary existedPart = existedParts.get(partNum);
+            if (null != existedPart && existedPart.getSize() != partSize) {
+                log.info("part size changed since last upload, upload it again. "
+                        + "cos path: " + cosPath
+                        + " part num: " + partNum
+                        + " uploaded size: " + existedPart.getSize()
+                        + " part size: " + partSize);
+                existedParts.remove(partNum);
+            }
             if (existedParts.containsKey(partNum)) {
                 log.info("part has already been uploaded, "
                         + "cos path: " + cosPath
@@ -385,35 +562,92 @@ public class FileToCosTask implements Runnable {
                 continue;
             }
 
+            UploadPartTask uploadPartTask;
+            if (null != bufferPool) {
+                byte[] partBuffer = this.acquirePartBuffer(bufferPool);
+                try {
+                    CommonHdfsUtils.readFully(fStream, pos, partBuffer, (int) partSize);
+                } catch (IOException e) {
+                    bufferPool.release(partBuffer);
+                    log.error("read part failed, cos path: " + cosPath
+                            + " part num: " + partNum + " pos: " + pos, e);
+                    partException = e;
+                    break;
+                }
+                uploadPartTask = new UploadPartTask(partBuffer, bufferPool,
+                        this.cosPath,
+                        uploadId, partNum, partSize, this.cosClient,
+                        scheduler, this.configReader);
+            } else {
+                uploadPartTask = new UploadPartTask(
+                        fStream,
+                        this.cosPath,
+                        uploadId, partNum, pos, partSize, this.cosClient,
+                        scheduler, this.configReader);
+            }
+            uploadPartTask.setProgress(this.progress);
             while (true) {
                 try {
-                    tmpSemaphore.acquire();
+                    allUploadPartTasks.add(scheduler.submitWithRetry(uploadPartTask));
+                    submittedPartTasks.add(uploadPartTask);
+                    submittedPartPositions.add(pos);
                     break;
                 } catch (InterruptedException e) {
-                    log.error("upload multipart with retry acquire occurs an "
+                    log.error("upload multipart with retry submit occurs an "
                             + "exception: " + e.getMessage());
                     continue;
                 }
             }
-
-            UploadPartTask uploadPartTask = new UploadPartTask(
-                    this.fileSystem,
-                    this.fileStatus.getPath(),
-                    this.cosPath,
-                    uploadId, partNum, pos, partSize, this.cosClient,
-                    tmpSemaphore, this.configReader);
-            allUploadPartTasks.add(service.submit(uploadPartTask));
+            if (null != hedger) {
+                hedger.recordSubmittedPart(partSize);
+            }
             pos += partSize;
             log.debug("pos : " + pos);
         }
+        // 分块数比上次少时，多出的分块不能参与合并
+        Iterator<Integer> existedPartNumbers = existedParts.keySet().iterator();
+        while (existedPartNumbers.hasNext()) {
+            if (existedPartNumbers.next() >= partNum) {
+                existedPartNumbers.remove();
+            }
+        }
 
+        // 等待本文件的所有分块结束以后才能关闭输入流，第一个失败的分块的异常在关闭以后抛出
+        List<PartETag> uploadedPartETags = new ArrayList<PartETag>();
+        if (null != hedger) {
+            Exception hedgeException = this.waitPartsWithHedging(hedger,
+                    scheduler, fStream, uploadId, allUploadPartTasks,
+                    submittedPartTasks, submittedPartPositions, uploadedPartETags);
+            if (null == partException) {
+                partException = hedgeException;
+            }
+        } else {
+            for (Future<PartETag> uploadPartTask : allUploadPartTasks) {
+                while (true) {
+                    try {
+                        uploadedPartETags.add(uploadPartTask.get());
+                        break;
+                    } catch (InterruptedException e) {
+                        log.error("wait part end occurs an exception: " + e.getMessage());
+                    } catch (ExecutionException e) {
+                        if (null == partException) {
+                            partException = e;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
         try {
-            service.shutdown();
-            service.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-            service.shutdownNow();
-        } catch (Exception e) {
-            log.error("shutdown and wait part end occur an exception: " + e.toString());
+            fStream.close();
+        } catch (IOException e) {
+            log.warn("close file input stream failed. exception: "
+                    + e.getMessage());
         }
+        if (null != partException) {
+            throw partException;
+        }
+        this.crc64 = combinePartCrc64(existedParts, submittedPartTasks);
 
         log.info("Upload all part successfully, localPath:{} cosPath: {}",
                 this.fileStatus.getPath(), this.cosPath);
@@ -424,16 +658,15 @@ public class FileToCosTask implements Runnable {
             partETags.add(new PartETag(entry.getKey(),
                     entry.getValue().getETag()));
         }
-        for (int i = 0; i < allUploadPartTasks.size(); i++) {
-            partETags.add(allUploadPartTasks.get(i).get());
-        }
+        partETags.addAll(uploadedPartETags);
         CompleteMultipartUploadRequest completeMultipartUploadRequest
                 = new CompleteMultipartUploadRequest(configReader.getBucket()
                 , this.cosPath, uploadId, partETags);
         for (int i = 0; i < this.kMaxRetryNum; i++) {
             try {
                 CompleteMultipartUploadResult result =
-                        this.cosClient.completeMultipartUpload(completeMultipartUploadRequest);
+                        CommonCosUtils.completeMultipartUpload(this.cosClient,
+                                completeMultipartUploadRequest);
                 this.delScpFile(this.cosPath, uploadId);
                 isUploadSuccess = true;
                 log.info("complete multipart file successfully, "
@@ -443,15 +676,18 @@ public class FileToCosTask implements Runnable {
                         + " etag: " + result.getETag()
                         + " request id: " + result.getRequestId());
                 break;
-            } catch (CosServiceException e) {
+            } catch (CosClientException e) {
                 isUploadSuccess = false;
                 log.error("complete multi-part upload failed, "
                         + "retry num: " + String.valueOf(i)
-                        + " msg: " + e.getErrorMessage()
-                        + " ret_code: " + e.getErrorCode()
-                        + " xml: " + e.getErrorResponseXml());
+                        + CommonCosUtils.describe(e));
+                long delay = RetryScheduler.instance.getRetryDelay(i,
+                        this.kMaxRetryNum, this.kRetryInterval, e);
+                if (delay < 0) {
+                    break;
+                }
                 try {
-                    Thread.sleep(this.kRetryInterval);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
                     break;
                 }
@@ -462,6 +698,156 @@ public class FileToCosTask implements Runnable {
         return isUploadSuccess;
     }
 
+    /**
+     * 等待所有分块结束，本次尝试的运行时间明显超过最近分块p95耗时的分块从输入流再上传一份，先成功的一份提供ETag，
+     * 并替换partTasks中的分块用于合并CRC64。两份的数据相同，ETag也相同。不再等待落后的一份，
+     * 而是把它取消，它在输入流关闭以后失败并且不再重试，不影响结果。返回第一个两份都失败的分块的异常
+     */
+    private Exception waitPartsWithHedging(PartHedger hedger,
+            PartUploadScheduler scheduler, FSDataInputStream fStream,
+            String uploadId, List<Future<PartETag>> partFutures,
+            List<UploadPartTask> partTasks, List<Long> partPositions,
+            List<PartETag> uploadedPartETags) {
+        int partCount = partFutures.size();
+        PartETag[] partETags = new PartETag[partCount];
+        boolean[] partFailed = new boolean[partCount];
+        List<Future<PartETag>> hedgeFutures = new ArrayList<Future<PartETag>>();
+        List<UploadPartTask> hedgeTasks = new ArrayList<UploadPartTask>();
+        for (int i = 0; i < partCount; i++) {
+            hedgeFutures.add(null);
+            hedgeTasks.add(null);
+        }
+        Exception partException = null;
+        int doneNum = 0;
+        while (doneNum < partCount) {
+            for (int i = 0; i < partCount; i++) {
+                if (null != partETags[i] || partFailed[i]) {
+                    continue;
+                }
+                Future<PartETag> partFuture = partFutures.get(i);
+                Future<PartETag> hedgeFuture = hedgeFutures.get(i);
+                UploadPartTask partTask = partTasks.get(i);
+                UploadPartTask hedgeTask = hedgeTasks.get(i);
+                // 一份成功以后取消另一份，它在输入流关闭以后不再重试，尽快释放在途名额
+                PartETag etag = getIfSucceeded(partFuture);
+                if (null != etag) {
+                    if (null != hedgeTask) {
+                        hedgeTask.cancel();
+                    }
+                } else if (null != (etag = getIfSucceeded(hedgeFuture))) {
+                    partTask.cancel();
+                    partTasks.set(i, hedgeTask);
+                }
+                if (null != etag) {
+                    partETags[i] = etag;
+                    doneNum++;
+                    continue;
+                }
+                if (partFuture.isDone()
+                        && (null == hedgeFuture || hedgeFuture.isDone())) {
+                    if (null == partException) {
+                        partException = getException(partFuture);
+                    }
+                    partFailed[i] = true;
+                    doneNum++;
+                    continue;
+                }
+                if (null == hedgeFuture && !partFuture.isDone()
+                        && partTask.getRunningNanos()
+                        > hedger.getHedgeDelayNanos(partTask.getPartSize())
+                        && hedger.tryAcquire(partTask.getPartSize())) {
+                    hedgeTask = new UploadPartTask(fStream,
+                            this.cosPath, uploadId, partTask.getPartNumber(),
+                            partPositions.get(i), partTask.getPartSize(),
+                            this.cosClient, scheduler, this.configReader);
+                    hedgeTask.setProgress(this.progress);
+                    try {
+                        hedgeFutures.set(i, scheduler.submitWithRetry(hedgeTask));
+                        hedgeTasks.set(i, hedgeTask);
+                        log.info("part is running for {} ms, upload a duplicate. "
+                                        + "cos path: {} part num: {}",
+                                TimeUnit.NANOSECONDS.toMillis(partTask.getRunningNanos()),
+                                this.cosPath, partTask.getPartNumber());
+                    } catch (InterruptedException e) {
+                        log.error("submit the duplicate part occurs an exception: "
+                                + e.getMessage());
+                    }
+                }
+            }
+            if (doneNum < partCount) {
+                try {
+                    Thread.sleep(HEDGE_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    log.error("wait part end occurs an exception: " + e.getMessage());
+                }
+            }
+        }
+        for (PartETag etag : partETags) {
+            if (null != etag) {
+                uploadedPartETags.add(etag);
+            }
+        }
+        return partException;
+    }
+
+    /**
+     * 已经成功结束时返回分块的ETag，否则返回null
+     */
+    private static PartETag getIfSucceeded(Future<PartETag> future) {
+        if (null == future || !future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private static Exception getException(Future<PartETag> future) {
+        try {
+            future.get();
+            return null;
+        } catch (InterruptedException e) {
+            return e;
+        } catch (ExecutionException e) {
+            return e;
+        }
+    }
+
+    /**
+     * 所有分块都是本次上传的时，按照分块的顺序合并各分块的CRC64得到整个对象的CRC64。
+     * 续传的分块没有CRC64，返回null
+     */
+    private Long combinePartCrc64(Map<Integer, PartSummary> existedParts,
+            List<UploadPartTask> partTasks) {
+        if (!existedParts.isEmpty()) {
+            return null;
+        }
+        long crc = 0;       // 空数据的CRC64为0
+        for (UploadPartTask partTask : partTasks) {
+            Long partCrc = partTask.getCrc64();
+            if (null == partCrc) {
+                return null;
+            }
+            crc = Crc64.combine(crc, partCrc, partTask.getPartSize());
+        }
+        return crc;
+    }
+
+    private byte[] acquirePartBuffer(PartBufferPool bufferPool) {
+        while (true) {
+            try {
+                return bufferPool.acquire();
+            } catch (InterruptedException e) {
+                log.error("acquire part buffer occurs an exception: "
+                        + e.getMessage());
+            }
+        }
+    }
+
     protected boolean createFolderWithRetry() throws Exception {
         this.checkInternalMember();
         boolean isCreateSuccess = false;
@@ -478,22 +864,25 @@ public class FileToCosTask implements Runnable {
                         configReader.getBucket(), this.cosPath, inputStream,
                         metadata);
                 PutObjectResult result =
-                        this.cosClient.putObject(putObjectRequest);
+                        CommonCosUtils.putObject(this.cosClient, putObjectRequest);
                 isCreateSuccess = true;
                 log.info("create folder: {} successfully, cos path: {}, "
                                 + "request id: {}",
                         this.fileStatus.getPath().toString(), this.cosPath,
                         result.getRequestId());
                 break;
-            } catch (CosServiceException e) {
+            } catch (CosClientException e) {
                 isCreateSuccess = false;
                 log.error("create folder failed, "
                         + "retry num: " + String.valueOf(i)
-                        + " msg: " + e.getErrorMessage()
-                        + " ret code: " + e.getErrorCode()
-                        + " xml: " + e.getErrorResponseXml());
+                        + CommonCosUtils.describe(e));
+                long delay = RetryScheduler.instance.getRetryDelay(i,
+                        this.kMaxRetryNum, this.kRetryInterval, e);
+                if (delay < 0) {
+                    break;
+                }
                 try {
-                    Thread.sleep(this.kRetryInterval);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
                     break;
                 }
@@ -515,8 +904,9 @@ public class FileToCosTask implements Runnable {
 
     private boolean checkFolderExist() {
         try {
-            this.cosClient.getObjectMetadata(this.configReader.getBucket(),
-                    this.cosPath);
+            CommonCosUtils.getObjectMetadata(this.cosClient,
+                    new GetObjectMetadataRequest(this.configReader.getBucket(),
+                            this.cosPath));
         } catch (Exception e) {
             return false;
         }
@@ -644,15 +1034,18 @@ public class FileToCosTask implements Runnable {
                         this.cosClient.initiateMultipartUpload(initiateMultipartUploadRequest);
                 this.saveUploadId(initiateMultipartUploadResult.getUploadId());
                 break;
-            } catch (CosServiceException e) {
+            } catch (CosClientException e) {
                 log.error("init multipart upload failed. "
                         + "cos path: " + this.cosPath
                         + " try num: " + String.valueOf(i)
-                        + " msg: " + e.getErrorMessage()
-                        + " ret code: " + e.getErrorCode()
-                        + " xml: " + e.getErrorResponseXml());
+                        + CommonCosUtils.describe(e));
+                long delay = RetryScheduler.instance.getRetryDelay(i,
+                        this.kMaxRetryNum, this.kRetryInterval, e);
+                if (delay < 0) {
+                    break;
+                }
                 try {
-                    Thread.sleep(this.kRetryInterval);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e1) {
                     break;
                 }
@@ -705,6 +1098,10 @@ public class FileToCosTask implements Runnable {
                     this.cosPath);
             System.out.println(printlnStr);
             Statistics.instance.addUploadFileFail();
+            if (this.fileStatus.isFile()) {
+                ProgressReporter.instance.finishFile(this.progress,
+                        this.fileStatus.getLen());
+            }
         } finally {
         }
     }
@@ -0,0 +1,115 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.HarFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按归档缓存已经初始化的HarFileSystem。
+ * 每次initialize都要检查并stat _masterindex和_index，缓存未命中时还要重新解析整个_index，
+ * 同一个归档下的成员共用一个HarFileSystem以后，扫描、路径转换和上传都不再重复这些开销。
+ * 缓存按照LRU淘汰，淘汰的实例不调用close，因为HarFileSystem的close会关闭底层的文件系统，
+ * 仍在使用它的上传任务不受影响，由GC回收。
+ */
+public class HarFileSystemCache {
+    private static final Logger log =
+            LoggerFactory.getLogger(HarFileSystemCache.class);
+    private static final String HAR_SUFFIX = ".har";
+
+    private final FileSystem underlyingFS;
+    private final Map<URI, HarFileSystem> cache;
+    private long initNum = 0;
+
+    /**
+     * @param underlyingFS  归档所在的文件系统
+     * @param maxArchiveNum 最多缓存的归档数，每个归档会在内存中保留解析后的_index
+     */
+    public HarFileSystemCache(FileSystem underlyingFS, final int maxArchiveNum) {
+        if (maxArchiveNum <= 0) {
+            throw new IllegalArgumentException("max archive num must be "
+                    + "positive, current: " + maxArchiveNum);
+        }
+        this.underlyingFS = underlyingFS;
+        this.cache = new LinkedHashMap<URI, HarFileSystem>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, HarFileSystem> eldest) {
+                if (size() > maxArchiveNum) {
+                    log.debug("evict har file system {}", eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 获取路径所在归档的HarFileSystem，不存在时初始化一个
+     *
+     * @param harPath 归档本身或者归档中成员的路径，可以是hdfs路径或者har路径
+     */
+    public HarFileSystem get(Path harPath) throws IOException,
+            URISyntaxException {
+        URI archiveUri = getArchiveUri(harPath);
+        synchronized (this.cache) {
+            HarFileSystem harFileSystem = this.cache.get(archiveUri);
+            if (null != harFileSystem) {
+                return harFileSystem;
+            }
+        }
+
+        // 初始化需要读取索引，不持有锁，并发初始化同一个归档时以先放入缓存的为准
+        HarFileSystem harFileSystem = new HarFileSystem(this.underlyingFS);
+        harFileSystem.initialize(archiveUri, this.underlyingFS.getConf());
+        synchronized (this.cache) {
+            this.initNum++;
+            HarFileSystem existed = this.cache.get(archiveUri);
+            if (null != existed) {
+                return existed;
+            }
+            this.cache.put(archiveUri, harFileSystem);
+        }
+        return harFileSystem;
+    }
+
+    /**
+     * @return 初始化HarFileSystem的次数，即缓存未命中的次数
+     */
+    public long getInitNum() {
+        synchronized (this.cache) {
+            return this.initNum;
+        }
+    }
+
+    public int size() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    /**
+     * 计算路径所在归档的har URI，与HarFileSystem一致，取最深的以.har结尾的路径
+     */
+    static URI getArchiveUri(Path harPath) throws URISyntaxException {
+        URI harUri = CommonHarUtils.buildFsUri(harPath);
+        Path archivePath = new Path(harUri.getPath());
+        while (null != archivePath && !archivePath.getName().endsWith(HAR_SUFFIX)) {
+            archivePath = archivePath.getParent();
+        }
+        if (null == archivePath) {
+            throw new URISyntaxException(harUri.toString(),
+                    "no har archive in the path");
+        }
+        String authority = null == harUri.getAuthority()
+                ? "" : harUri.getAuthority();
+        return new URI(harUri.getScheme() + "://" + authority
+                + archivePath.toUri().getPath());
+    }
+}
@@ -0,0 +1,216 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.HarFileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * har归档的_index，记录每个成员所在的part文件以及在part文件中的偏移和长度。
+ * HarFileSystem没有对外暴露这些信息，这里按照hadoop的格式(版本1到3)自行顺序读取并解析整个_index。
+ */
+public class HarIndex {
+    private static final String INDEX_NAME = "_index";
+    private static final String MASTER_INDEX_NAME = "_masterindex";
+    private static final String HAR_SUFFIX = ".har";
+    private static final int MAX_SUPPORT_VERSION = 3;
+
+    /**
+     * 归档中的一个文件成员
+     */
+    public static class Member {
+        private final String name;             // 归档内的绝对路径，以/开头
+        private final String partName;
+        private final long offset;
+        private final long length;
+        private final long modificationTime;
+
+        Member(String name, String partName, long offset, long length,
+                long modificationTime) {
+            this.name = name;
+            this.partName = partName;
+            this.offset = offset;
+            this.length = length;
+            this.modificationTime = modificationTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPartName() {
+            return partName;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        /**
+         * 构造与HarFileSystem列出的路径一致的成员状态，用于转换COS路径和日志
+         */
+        public FileStatus toFileStatus(HarFileSystem harFs) {
+            URI archiveUri = harFs.getUri();
+            return new FileStatus(this.length, false, 0, 0,
+                    this.modificationTime, new Path(archiveUri.getScheme(),
+                    archiveUri.getAuthority(), archiveUri.getPath() + this.name));
+        }
+    }
+
+    private final List<Member> fileMembers = new ArrayList<Member>();
+    private boolean nestedHar = false;
+
+    private HarIndex() {
+    }
+
+    /**
+     * 读取并解析归档的_index
+     *
+     * @param fs                      归档所在的文件系统
+     * @param archivePath             归档目录
+     * @param defaultModificationTime 版本3以前的_index不记录修改时间，使用该值
+     */
+    public static HarIndex load(FileSystem fs, Path archivePath,
+            long defaultModificationTime) throws IOException {
+        int version = readVersion(fs, new Path(archivePath, MASTER_INDEX_NAME));
+        if (version < 1 || version > MAX_SUPPORT_VERSION) {
+            throw new IOException("unsupported har version " + version
+                    + ", archive: " + archivePath.toString());
+        }
+
+        HarIndex harIndex = new HarIndex();
+        Set<String> dirNames = new HashSet<String>();
+        Set<String> fileNames = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                CommonHdfsUtils.open(fs, new Path(archivePath, INDEX_NAME)), "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] splits = line.split(" ");
+                if (splits.length < 3) {
+                    throw new IOException("invalid har index line: " + line);
+                }
+                String name = version > 1 ? decode(splits[0]) : splits[0];
+                if ("dir".equals(splits[1])) {
+                    dirNames.add(name);
+                    continue;
+                }
+                if (splits.length < 5) {
+                    throw new IOException("invalid har index line: " + line);
+                }
+                long modificationTime = defaultModificationTime;
+                if (version == 3 && splits.length > 5) {
+                    String[] propSplits = decode(splits[5]).split(" ");
+                    if (propSplits.length >= 4) {
+                        modificationTime = Long.parseLong(propSplits[0]);
+                    }
+                }
+                fileNames.add(name);
+                harIndex.fileMembers.add(new Member(name, splits[2],
+                        Long.parseLong(splits[3]), Long.parseLong(splits[4]),
+                        modificationTime));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid har index of archive: "
+                    + archivePath.toString(), e);
+        } finally {
+            reader.close();
+        }
+
+        for (String dirName : dirNames) {
+            if (dirName.endsWith(HAR_SUFFIX)
+                    && fileNames.contains(dirName + "/" + INDEX_NAME)
+                    && fileNames.contains(dirName + "/" + MASTER_INDEX_NAME)) {
+                harIndex.nestedHar = true;
+                break;
+            }
+        }
+        return harIndex;
+    }
+
+    private static int readVersion(FileSystem fs, Path masterIndexPath)
+            throws IOException {
+        FSDataInputStream in = CommonHdfsUtils.open(fs, masterIndexPath);
+        try {
+            String line = new BufferedReader(new InputStreamReader(in,
+                    "UTF-8")).readLine();
+            if (null == line) {
+                throw new IOException("empty har master index: "
+                        + masterIndexPath.toString());
+            }
+            return Integer.parseInt(line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid har master index: "
+                    + masterIndexPath.toString(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String decode(String value) throws IOException {
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+    public List<Member> getFileMembers() {
+        return fileMembers;
+    }
+
+    /**
+     * 归档中是否嵌套了其他har归档
+     */
+    public boolean hasNestedHar() {
+        return nestedHar;
+    }
+
+    /**
+     * 按照part文件对文件成员分组，每组内按照偏移升序排列，可以顺序读取
+     */
+    public Map<String, List<Member>> getFileMembersByPart() {
+        Map<String, List<Member>> membersByPart =
+                new TreeMap<String, List<Member>>();
+        for (Member member : this.fileMembers) {
+            List<Member> members = membersByPart.get(member.getPartName());
+            if (null == members) {
+                members = new ArrayList<Member>();
+                membersByPart.put(member.getPartName(), members);
+            }
+            members.add(member);
+        }
+        for (List<Member> members : membersByPart.values()) {
+            Collections.sort(members, new Comparator<Member>() {
+                @Override
+                public int compare(Member o1, Member o2) {
+                    return o1.getOffset() < o2.getOffset() ? -1
+                            : (o1.getOffset() == o2.getOffset() ? 0 : 1);
+                }
+            });
+        }
+        return membersByPart;
+    }
+}
@@ -0,0 +1,210 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.HarFileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.COSClient;
+
+/**
+ * 上传har归档中同一个part文件里的成员。
+ * 成员按照_index中的偏移升序排列，只打开一次part文件顺序读取，边读边切分成各个成员对象上传，
+ * 相邻成员之间不需要重新定位，把大量小的随机读变成一次顺序读。多个part文件由不同的任务并行处理。
+ * 每个成员的跳过、重试、校验和统计与普通的单文件上传一致，重试时重新定位到成员的起始偏移。
+ */
+public class HarPartToCosTask extends FileToCosTask {
+    private static final Logger log =
+            LoggerFactory.getLogger(HarPartToCosTask.class);
+
+    private final HarFileSystem harFileSystem;
+    private final List<HarIndex.Member> members;
+
+    /**
+     * @param partStatus    part文件
+     * @param hdfsFS        part文件所在的文件系统
+     * @param harFileSystem 成员所在归档的HarFileSystem，用于构造成员路径
+     * @param members       该part文件中的成员，需要按照偏移升序排列
+     */
+    public HarPartToCosTask(ConfigReader configReader, COSClient cosClient,
+            FileStatus partStatus, FileSystem hdfsFS,
+            HarFileSystem harFileSystem, List<HarIndex.Member> members) {
+        super(configReader, cosClient, partStatus, hdfsFS,
+                partStatus.getPath().toString());
+        this.harFileSystem = harFileSystem;
+        this.members = members;
+    }
+
+    public int getMemberNum() {
+        return this.members.size();
+    }
+
+    /**
+     * 打包在该任务中的成员的总长度，不包括单独上传的大成员
+     */
+    public long getMemberBytes() {
+        long bytes = 0;
+        for (HarIndex.Member member : this.members) {
+            bytes += member.getLength();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void run() {
+        FSDataInputStream partStream = null;
+        int finishedNum = 0;
+        try {
+            partStream = CommonHdfsUtils.open(this.fileSystem,
+                    this.fileStatus.getPath());
+            for (HarIndex.Member member : this.members) {
+                FileStatus memberStatus = member.toFileStatus(this.harFileSystem);
+                FileToCosTask memberTask = new PackedMemberToCosTask(
+                        this.configReader, this.cosClient, memberStatus,
+                        this.harFileSystem,
+                        CommonHarUtils.convertToCosPath(this.configReader,
+                                memberStatus).toString(),
+                        partStream, member.getOffset());
+                memberTask.setCosObjectIndex(this.cosObjectIndex);
+                memberTask.run();
+                finishedNum++;
+            }
+        } catch (Exception e) {
+            log.error("upload members of har part file: "
+                    + this.fileStatus.getPath().toString()
+                    + " occurs an exception.", e);
+            for (int i = finishedNum; i < this.members.size(); i++) {
+                // 和FileToCosTask.uploadAndCheck的输出一致
+                String printlnStr = String.format("[failure] [file path: %s]",
+                        this.members.get(i).toFileStatus(this.harFileSystem)
+                                .getPath().toString());
+                System.err.println(printlnStr);
+                Statistics.instance.addUploadFileFail();
+                ProgressReporter.instance.finishFile(null,
+                        this.members.get(i).getLength());
+            }
+        } finally {
+            if (null != partStream) {
+                try {
+                    partStream.close();
+                } catch (IOException e) {
+                    log.warn("close har part file input stream failed. "
+                            + "exception: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * part文件中的一个成员，从共享的part文件输入流中读取数据
+     */
+    private static class PackedMemberToCosTask extends FileToCosTask {
+        private final FSDataInputStream partStream;
+        private final long offset;
+
+        PackedMemberToCosTask(ConfigReader configReader, COSClient cosClient,
+                FileStatus memberStatus, FileSystem harFileSystem,
+                String cosPath, FSDataInputStream partStream, long offset) {
+            super(configReader, cosClient, memberStatus, harFileSystem, cosPath);
+            this.partStream = partStream;
+            this.offset = offset;
+        }
+
+        /**
+         * 成员从共享的part文件输入流顺序读取，总是单文件上传
+         */
+        @Override
+        protected UploadPlanner.Plan planUpload() {
+            return new UploadPlanner.Plan(false, this.configReader.getPartSize());
+        }
+
+        @Override
+        protected InputStream openInputStream() throws IOException {
+            // 顺序处理成员时目标偏移就是当前位置，seek不会重新打开底层的块
+            if (this.partStream.getPos() != this.offset) {
+                this.partStream.seek(this.offset);
+            }
+            return new MemberInputStream(this.partStream,
+                    this.fileStatus.getLen());
+        }
+    }
+
+    /**
+     * 限定长度的成员输入流，关闭时不关闭共享的part文件输入流
+     */
+    private static class MemberInputStream extends FilterInputStream {
+        private long remaining;
+
+        MemberInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int nRead = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (nRead > 0) {
+                this.remaining -= nRead;
+            }
+            return nRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long nSkip = super.skip(Math.min(n, this.remaining));
+            if (nSkip > 0) {
+                this.remaining -= nSkip;
+            }
+            return nSkip;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        @Override
+        public void close() {
+            // 共享的part文件输入流由HarPartToCosTask统一关闭
+        }
+    }
+}
@@ -2,18 +2,26 @@ package com.qcloud.hdfs_to_cos;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.HarFileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
 import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.model.COSObjectSummary;
 import com.qcloud.cos.model.GetObjectMetadataRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
 
 
 public class HdfsToCos {
@@ -25,6 +33,24 @@ public class HdfsToCos {
     private COSClient cosClient;
 
     private String configCheckMsg;
+    // 源路径转换为COS路径时的源目录，整个任务只计算一次
+    private String hdfsFolderPath;
+    // 预先list得到的COS对象索引，没有开启或者构建失败时为空
+    private CosObjectIndex cosObjectIndex;
+    // plan模式下扫描到的文件写入清单，不提交到任务队列
+    private TransferManifestWriter manifestWriter;
+    // 扫描过程中list失败的目录数和处理失败的成员数，据此判断扫描是否完整
+    private long scanFailedNum = 0;
+    // 增量同步的水位线，没有开启增量同步时为空
+    private IncrementalWatermark watermark;
+    // 快照差异模式下的快照管理，没有开启时为空
+    private SnapshotDiffScanner snapshotScanner;
+    // 同一个归档下的成员共用的HarFileSystem
+    private HarFileSystemCache harFileSystemCache;
+    private SmallFileBundler smallFileBundler;
+    private boolean scanSucceeded = false;
+    // 扫描开始前已有的失败数，只有本次运行新增的失败才影响增量同步的状态
+    private long failedNumBeforeScan = 0;
 
     public HdfsToCos(ConfigReader configReader,
             BlockingQueue<FileToCosTask> taskBlockingQueue,
@@ -32,6 +58,8 @@ public class HdfsToCos {
         this.configReader = configReader;
         this.taskBlockingQueue = taskBlockingQueue;
         this.cosClient = cosClient;
+        this.harFileSystemCache = new HarFileSystemCache(
+                configReader.getHdfsFS(), configReader.getMaxHarCacheNum());
     }
 
     private void submitTask(FileToCosTask task) throws Exception {
@@ -43,9 +71,69 @@ public class HdfsToCos {
             throw new NullPointerException("can not submit a task to null "
                     + "blocking queue.");
         }
+        if (null != this.manifestWriter) {
+            this.manifestWriter.append(new TransferManifest.Record(
+                    task.fileStatus.getPath().toString(), task.cosPath,
+                    task.fileStatus.getLen(),
+                    task.fileStatus.getModificationTime(),
+                    task.fileStatus.isDirectory(),
+                    task.fileSystem instanceof HarFileSystem));
+            return;
+        }
+        if (task instanceof HarPartToCosTask) {
+            // har part文件中的每个成员都是一个文件，超过分块阈值的成员单独提交，这里只计打包的成员
+            HarPartToCosTask partTask = (HarPartToCosTask) task;
+            ProgressReporter.instance.addDiscovered(partTask.getMemberNum(),
+                    partTask.getMemberBytes());
+        } else if (task.fileStatus.isFile()) {
+            ProgressReporter.instance.addDiscovered(1, task.fileStatus.getLen());
+        }
+        if (null != this.smallFileBundler && this.smallFileBundler.accept(task)) {
+            BundleToCosTask bundleTask = this.smallFileBundler.add(task);
+            if (null != bundleTask) {
+                this.taskBlockingQueue.put(bundleTask);
+            }
+            return;
+        }
+        task.setCosObjectIndex(this.cosObjectIndex);
         this.taskBlockingQueue.put(task);
     }
 
+    /**
+     * 开启了小文件打包时创建打包器，需要跳过已经上传的文件时加载已有bundle的索引
+     *
+     * @param destCosPath 目的路径，execute模式下从清单中读取
+     */
+    void initSmallFileBundler(String destCosPath) {
+        if (!configReader.isBundleSmallFile()) {
+            return;
+        }
+        this.smallFileBundler = new SmallFileBundler(this.configReader,
+                this.cosClient, destCosPath);
+        if (configReader.isSkipIfLengthMatch()) {
+            try {
+                this.smallFileBundler.setExistingBundles(BundleReader.load(
+                        this.cosClient, configReader.getBucket(), destCosPath));
+            } catch (Exception e) {
+                log.warn("load existing bundle indexes failed, the bundled "
+                        + "files will be uploaded again.", e);
+            }
+        }
+    }
+
+    /**
+     * 扫描结束以后把剩余不足一个bundle的小文件提交上传
+     */
+    void flushSmallFileBundler() throws InterruptedException {
+        if (null == this.smallFileBundler) {
+            return;
+        }
+        BundleToCosTask bundleTask = this.smallFileBundler.flush();
+        if (null != bundleTask) {
+            this.taskBlockingQueue.put(bundleTask);
+        }
+    }
+
     private void scanHarMember(Path filePath, HarFileSystem harFs) throws Exception {
         FileStatus targetPathStatus = harFs.getFileStatus(filePath);
         if (targetPathStatus.isFile()) {
@@ -57,8 +145,8 @@ public class HdfsToCos {
         FileStatus[] pathStatus = harFs.listStatus(filePath);
         for (FileStatus fileStatus : pathStatus) {
             if (CommonHarUtils.isHarFile(fileStatus, harFs)) {
-                harFs.initialize(CommonHarUtils.buildFsUri(fileStatus.getPath()), harFs.getConf());
-                scanHarMember(fileStatus.getPath(), harFs);
+                scanHarMember(fileStatus.getPath(),
+                        this.harFileSystemCache.get(fileStatus.getPath()));
             }
 
             if (fileStatus.isFile()) {
@@ -71,27 +159,92 @@ public class HdfsToCos {
         }
     }
 
-    private void scanHdfsMember(Path hdfsPath, FileSystem hdfsFS) throws Exception {
-        FileStatus targetPathStatus = hdfsFS.getFileStatus(hdfsPath);
-        if (targetPathStatus.isFile()) {
-            this.submitTask(this.buildHdfsFileToCosTask(targetPathStatus));
+    /**
+     * 展开一个har归档。同一个part文件中的成员由一个任务按偏移顺序读取并上传，
+     * 超过分块上传阈值的成员仍然单独上传。规划清单时需要逐个记录成员，
+     * 归档中嵌套了其他归档时需要继续展开，这两种情况下按成员逐个处理
+     */
+    private void scanHarArchive(FileStatus archiveStatus) throws Exception {
+        Path archivePath = archiveStatus.getPath();
+        HarFileSystem harFs = this.harFileSystemCache.get(archivePath);
+        HarIndex harIndex = null;
+        if (null == this.manifestWriter) {
+            harIndex = HarIndex.load(this.configReader.getHdfsFS(),
+                    archivePath, archiveStatus.getModificationTime());
+        }
+        if (null == harIndex || harIndex.hasNestedHar()) {
+            scanHarMember(archivePath, harFs);
             return;
         }
-        FileStatus[] memberArray = hdfsFS.listStatus(hdfsPath);
-        for (FileStatus member : memberArray) {
-            if (CommonHarUtils.isHarFile(member, hdfsFS)
-                    && configReader.isDecompressHarFile()) {
-                HarFileSystem harFS =
-                        new HarFileSystem(configReader.getHdfsFS());
-                harFS.initialize(CommonHarUtils.buildFsUri(member.getPath()),
-                        hdfsFS.getConf());
-                scanHarMember(member.getPath(), harFS);
-            } else {
-                this.submitTask(this.buildHdfsFileToCosTask(member));
-                if (member.isDirectory()) {
-                    scanHdfsMember(member.getPath(), hdfsFS);
+
+        for (Map.Entry<String, List<HarIndex.Member>> entry
+                : harIndex.getFileMembersByPart().entrySet()) {
+            List<HarIndex.Member> packedMembers = new ArrayList<HarIndex.Member>();
+            for (HarIndex.Member member : entry.getValue()) {
+                if (member.getLength() > FileToCosTask.MULTIPART_UPLOAD_THRESHOLD) {
+                    this.submitTask(this.buildHarFileToCosTask(
+                            member.toFileStatus(harFs)));
+                } else {
+                    packedMembers.add(member);
                 }
             }
+            if (packedMembers.isEmpty()) {
+                continue;
+            }
+            FileStatus partStatus = CommonHdfsUtils.getFileStatus(
+                    this.configReader.getHdfsFS(),
+                    new Path(archivePath, entry.getKey()));
+            this.submitTask(new HarPartToCosTask(this.configReader,
+                    this.cosClient, partStatus, this.configReader.getHdfsFS(),
+                    harFs, packedMembers));
+        }
+    }
+
+    /**
+     * 处理扫描到的一个hdfs成员，会被多个扫描线程并发调用
+     *
+     * @return 如果需要继续展开该成员(目录)则返回true
+     */
+    private boolean visitHdfsMember(FileStatus member, FileSystem hdfsFS)
+            throws Exception {
+        boolean modified = null == this.watermark
+                || this.watermark.isModified(member);
+        if (configReader.isDecompressHarFile()
+                && CommonHarUtils.isHarFile(member, hdfsFS)) {
+            if (!modified) {
+                return false;       // har归档创建以后不会再修改，整体跳过
+            }
+            scanHarArchive(member);
+            return false;
+        }
+        if (modified) {
+            submitTask(buildHdfsFileToCosTask(member));
+        } else if (member.isFile()) {
+            Statistics.instance.addSkipFile();
+        }
+        // 目录的修改时间只反映直接子成员的变化，只有用户确认目录结构满足条件时才剪枝
+        return member.isDirectory() && (modified
+                || !configReader.isIncrementalPruneDir());
+    }
+
+    private void scanHdfsMember(FileStatus rootStatus, final FileSystem hdfsFS) throws Exception {
+        HdfsTreeWalker walker = new HdfsTreeWalker(hdfsFS,
+                this.configReader.getMaxListTaskNum(),
+                new HdfsTreeWalker.MemberVisitor() {
+                    @Override
+                    public boolean visit(FileStatus member) throws Exception {
+                        return visitHdfsMember(member, hdfsFS);
+                    }
+                });
+        walker.walk(rootStatus);
+        this.scanFailedNum += walker.getFailedDirNum() + walker.getFailedMemberNum();
+        if (walker.getFailedMemberNum() > 0) {
+            log.error("{} members failed to be scanned under {}.",
+                    walker.getFailedMemberNum(), rootStatus.getPath().toString());
+        }
+        if (walker.getFailedDirNum() > 0) {
+            log.error("{} directories failed to be listed under {}.",
+                    walker.getFailedDirNum(), rootStatus.getPath().toString());
         }
     }
 
@@ -107,8 +260,8 @@ public class HdfsToCos {
                     this.cosClient, fileStatus,
                     this.configReader.getHdfsFS(),
                     CommonHdfsUtils.convertToCosPath(configReader,
-                            fileStatus.getPath()).toString());
-        } catch (IOException e) {
+                            this.hdfsFolderPath, fileStatus).toString());
+        } catch (IllegalArgumentException e) {
             log.error("build a hdfsFileToCosTask for " + fileStatus.toString()
                     + " failed. exception: " + e.getMessage());
             return null;
@@ -124,17 +277,13 @@ public class HdfsToCos {
 
         FileToCosTask task;
         try {
-            HarFileSystem harFileSystem =
-                    new HarFileSystem(configReader.getHdfsFS());
-            harFileSystem.initialize(CommonHarUtils.buildFsUri(fileStatus.getPath()),
-                    configReader.getHdfsFS().getConf());
             task = new FileToCosTask(
                     this.configReader,
                     this.cosClient,
                     fileStatus,
-                    harFileSystem,
+                    this.harFileSystemCache.get(fileStatus.getPath()),
                     CommonHarUtils.convertToCosPath(configReader,
-                            fileStatus.getPath()).toString());
+                            fileStatus).toString());
         } catch (IOException e) {
             log.error("build harFileToCosTask for " + fileStatus.toString()
                     + " failed.", e);
@@ -148,6 +297,29 @@ public class HdfsToCos {
         return task;
     }
 
+    /**
+     * 根据清单中的记录构建上传任务，har中的成员使用单独的HarFileSystem读取
+     */
+    private FileToCosTask buildManifestFileToCosTask(TransferManifest.Record record) {
+        FileStatus fileStatus = record.toFileStatus();
+        FileSystem fileSystem = configReader.getHdfsFS();
+        if (record.isHarMember()) {
+            try {
+                fileSystem = this.harFileSystemCache.get(fileStatus.getPath());
+            } catch (IOException e) {
+                log.error("build harFileToCosTask for " + fileStatus.toString()
+                        + " failed.", e);
+                return null;
+            } catch (URISyntaxException e) {
+                log.error("build harFileToCosTask for " + fileStatus.toString()
+                        + " failed.", e);
+                return null;
+            }
+        }
+        return new FileToCosTask(this.configReader, this.cosClient,
+                fileStatus, fileSystem, record.getCosPath());
+    }
+
     private boolean checkCosClientLegal() {
         GetObjectMetadataRequest statRequest =
                 new GetObjectMetadataRequest(this.configReader.getBucket(),
@@ -184,7 +356,229 @@ public class HdfsToCos {
     }
 
 
+    /**
+     * 开启了build_cos_index时预先list目的路径下的所有对象，跳过检查时直接查询索引。
+     * 构建失败时回退到逐个HEAD的方式
+     */
+    void buildCosObjectIndex(String destCosPath) {
+        if (!configReader.isSkipIfLengthMatch() || !configReader.isBuildCosIndex()) {
+            return;
+        }
+        this.cosObjectIndex = CosObjectIndex.build(this.cosClient,
+                configReader.getBucket(), destCosPath,
+                configReader.getMaxListTaskNum(),
+                configReader.getMaxCosIndexMemoryBytes(),
+                configReader.getMaxRetryNum(), configReader.getRetryInterval());
+        if (null == this.cosObjectIndex) {
+            log.warn("build cos object index failed, check each file by HEAD "
+                    + "request instead.");
+        }
+    }
+
+    /**
+     * 扫描源路径，将扫描到的文件和目录构建成任务提交到任务队列
+     */
+    void scanSrcPath() throws Exception {
+        this.scanFailedNum = 0;
+        this.scanSucceeded = false;
+        this.failedNumBeforeScan = getTaskFailedNum();
+        if (configReader.getSrcHdfsPath().startsWith("har://")) {
+            Path srcPath = new Path(configReader.getSrcHdfsPath());
+            this.scanHarMember(srcPath, this.harFileSystemCache.get(srcPath));
+        } else {
+            FileSystem hdfsFS = configReader.getHdfsFS();
+            FileStatus srcStatus = CommonHdfsUtils.getFileStatus(hdfsFS,
+                    new Path(configReader.getSrcHdfsPath()));
+            this.hdfsFolderPath = CommonHdfsUtils.getHdfsFolderPath(srcStatus);
+            this.scanHdfsMember(srcStatus, hdfsFS);
+        }
+        this.scanSucceeded = this.scanFailedNum == 0;
+    }
+
+    /**
+     * 快照差异模式：在源目录上创建快照，只提交与上一次成功同步的快照相比新建或修改的文件，
+     * 第一次运行时全量扫描新快照。文件从新快照中读取
+     */
+    void scanSnapshotDiff() throws Exception {
+        this.scanFailedNum = 0;
+        this.scanSucceeded = false;
+        this.failedNumBeforeScan = getTaskFailedNum();
+        final FileSystem hdfsFS = configReader.getHdfsFS();
+        if (!(hdfsFS instanceof DistributedFileSystem)) {
+            throw new IllegalArgumentException("snapshot diff mode only "
+                    + "supports hdfs, current file system: " + hdfsFS.getUri());
+        }
+        this.snapshotScanner = new SnapshotDiffScanner(
+                (DistributedFileSystem) hdfsFS,
+                new Path(configReader.getSrcHdfsPath()));
+        this.snapshotScanner.createSnapshot();
+        FileStatus snapshotStatus = CommonHdfsUtils.getFileStatus(hdfsFS,
+                this.snapshotScanner.getCurrentSnapshotPath());
+        this.hdfsFolderPath = CommonHdfsUtils.getHdfsFolderPath(snapshotStatus);
+        if (null == this.snapshotScanner.getPrevSnapshotName()) {
+            log.info("no previous snapshot found, scan the whole snapshot.");
+            this.scanHdfsMember(snapshotStatus, hdfsFS);
+        } else {
+            this.scanFailedNum += this.snapshotScanner.scan(
+                    new SnapshotDiffScanner.DiffVisitor() {
+                        @Override
+                        public void created(FileStatus member) throws Exception {
+                            if (visitHdfsMember(member, hdfsFS)) {
+                                scanHdfsMember(member, hdfsFS);
+                            }
+                        }
+
+                        @Override
+                        public void modified(FileStatus member) throws Exception {
+                            if (member.isFile()) {
+                                submitTask(buildHdfsFileToCosTask(member));
+                            }
+                        }
+
+                        @Override
+                        public void deleted(FileStatus member) throws Exception {
+                            if (configReader.isSnapshotDeleteRemoved()) {
+                                deleteCosPath(CommonHdfsUtils.convertToCosPath(
+                                        configReader, hdfsFolderPath, member)
+                                        .toString(), member.isDirectory());
+                            }
+                        }
+                    });
+        }
+        this.scanSucceeded = this.scanFailedNum == 0;
+    }
+
+    /**
+     * 删除源路径上已经删除的文件对应的COS对象，目录会删除其下的所有对象
+     */
+    private void deleteCosPath(String cosPath, boolean isDirectory)
+            throws Exception {
+        String bucket = configReader.getBucket();
+        if (!isDirectory) {
+            this.deleteCosObject(bucket, CosObjectIndex.normalizeKey(cosPath));
+            return;
+        }
+        String prefix = CosObjectIndex.normalizeKey(cosPath);
+        if (!prefix.endsWith("/")) {
+            prefix = prefix + "/";
+        }
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
+        listObjectsRequest.setBucketName(bucket);
+        listObjectsRequest.setPrefix(prefix);
+        listObjectsRequest.setMaxKeys(1000);
+        ObjectListing objectListing;
+        do {
+            objectListing = this.cosClient.listObjects(listObjectsRequest);
+            for (COSObjectSummary summary : objectListing.getObjectSummaries()) {
+                this.deleteCosObject(bucket, summary.getKey());
+            }
+            listObjectsRequest.setMarker(objectListing.getNextMarker());
+        } while (objectListing.isTruncated());
+    }
+
+    private void deleteCosObject(String bucket, String key) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                this.cosClient.deleteObject(bucket, key);
+                Statistics.instance.addDeleteObjectOk();
+                log.info("delete cos object {} which is removed from hdfs.", key);
+                return;
+            } catch (CosClientException e) {
+                if (i + 1 >= configReader.getMaxRetryNum()) {
+                    Statistics.instance.addDeleteObjectFail();
+                    throw e;
+                }
+                log.warn("delete cos object " + key + " failed, retry num: " + i, e);
+                Utils.sleep(i, configReader.getRetryInterval());
+            }
+        }
+    }
+
+    HarFileSystemCache getHarFileSystemCache() {
+        return this.harFileSystemCache;
+    }
+
+    void setWatermark(IncrementalWatermark watermark) {
+        this.watermark = watermark;
+    }
+
+    /**
+     * plan模式：扫描源路径，把需要上传的文件写入传输清单，不访问COS。
+     * 扫描不完整时删除清单，避免之后按照不完整的清单执行
+     */
+    void plan() throws Exception {
+        Path manifestPath = new Path(configReader.getManifestPath());
+        FileSystem manifestFS = manifestPath.getFileSystem(
+                configReader.getHdfsFS().getConf());
+        this.manifestWriter = new TransferManifestWriter(
+                manifestFS.create(manifestPath, true),
+                configReader.getSrcHdfsPath(), configReader.getDestCosPath());
+        boolean success = false;
+        try {
+            this.scanSrcPath();
+            success = this.scanSucceeded;
+        } finally {
+            this.manifestWriter.close();
+            if (!success) {
+                manifestFS.delete(manifestPath, false);
+            }
+        }
+        if (!success) {
+            throw new IOException(this.scanFailedNum + " directories or "
+                    + "members failed to be scanned, the manifest is "
+                    + "incomplete and has been deleted.");
+        }
+        String infoMsg = String.format("[Manifest: %d records written to %s]",
+                this.manifestWriter.getRecordNum(), manifestPath.toString());
+        log.info(infoMsg);
+        System.out.println(infoMsg);
+    }
+
+    /**
+     * execute模式：顺序读取传输清单，把属于当前分片的记录提交到任务队列，不再访问NameNode做list
+     */
+    void executeManifest() throws Exception {
+        Path manifestPath = new Path(configReader.getManifestPath());
+        FileSystem manifestFS = manifestPath.getFileSystem(
+                configReader.getHdfsFS().getConf());
+        int shardIndex = configReader.getManifestShardIndex();
+        int shardNum = configReader.getManifestShardNum();
+        TransferManifestReader reader = new TransferManifestReader(
+                manifestFS.open(manifestPath));
+        try {
+            log.info("execute manifest {} shard {}/{}, src: {}, dest: {}",
+                    manifestPath.toString(), shardIndex, shardNum,
+                    reader.getSrcPath(), reader.getDestCosPath());
+            // 只给出清单时目的路径来自清单
+            this.buildCosObjectIndex(reader.getDestCosPath());
+            this.initSmallFileBundler(reader.getDestCosPath());
+            long recordIndex = 0;
+            TransferManifest.Record record;
+            while (null != (record = reader.next())) {
+                if (recordIndex++ % shardNum != shardIndex) {
+                    continue;
+                }
+                FileToCosTask task = this.buildManifestFileToCosTask(record);
+                if (null == task) {
+                    continue;
+                }
+                this.submitTask(task);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     public void run() {
+        if (configReader.isPlanMode()) {
+            try {
+                this.plan();
+            } catch (Exception e) {
+                log.error("Planning hdfs/har files occurs an exception.", e);
+            }
+            return;
+        }
+
         if (!checkCosClientLegal()) {
             String errMsgBuilder = "Configuration information verification"
                 + " error:\n" + this.configCheckMsg;
@@ -192,20 +586,64 @@ public class HdfsToCos {
         }
 
         try {
-            if (configReader.getSrcHdfsPath().startsWith("har://")) {
-                HarFileSystem harFs =
-                        new HarFileSystem(configReader.getHdfsFS());
-                harFs.initialize(CommonHarUtils.buildFsUri(new Path(configReader.getSrcHdfsPath())),
-                        configReader.getHdfsFS().getConf());
-                String srcPath = configReader.getSrcHdfsPath();
-                this.scanHarMember(new Path(srcPath), harFs);
+            if (configReader.isExecuteMode()) {
+                this.executeManifest();
             } else {
-                FileSystem hdfsFS = configReader.getHdfsFS();
-                String srcPath = configReader.getSrcHdfsPath();
-                this.scanHdfsMember(new Path(srcPath), hdfsFS);
+                this.buildCosObjectIndex(configReader.getDestCosPath());
+                this.initSmallFileBundler(configReader.getDestCosPath());
+                if (configReader.isSnapshotDiff()) {
+                    this.scanSnapshotDiff();
+                } else {
+                    if (configReader.isIncremental()) {
+                        this.watermark = IncrementalWatermark.load(
+                                configReader.getSrcHdfsPath(),
+                                configReader.getDestCosPath());
+                    }
+                    this.scanSrcPath();
+                }
             }
         } catch (Exception e) {             // 这里直接捕获一个基类的异常，就不判断了
             log.error("Scanning hdfs/har files occurs an exception.", e);
+        } finally {
+            try {
+                this.flushSmallFileBundler();
+            } catch (InterruptedException e) {
+                log.error("submit the last bundle task is interrupted.");
+            }
+            ProgressReporter.instance.setScanFinished();
+        }
+    }
+
+    private static long getTaskFailedNum() {
+        return Statistics.instance.getUploadFileFailedNum()
+                + Statistics.instance.getCreateFolderFailedNum()
+                + Statistics.instance.getDeleteObjectFailedNum();
+    }
+
+    /**
+     * 所有任务执行完成以后调用。扫描完整并且没有失败的文件时才推进增量同步的水位线，
+     * 快照差异模式下据此决定保留新快照还是旧快照
+     */
+    public void finishIncrementalSync() {
+        if (null == this.watermark && null == this.snapshotScanner) {
+            return;
+        }
+        long failedNum = getTaskFailedNum() - this.failedNumBeforeScan;
+        boolean success = this.scanSucceeded && failedNum == 0;
+        if (!success) {
+            log.warn("the run is not fully successful, keep the previous "
+                    + "incremental state. scan succeeded: {}, failed num: {}",
+                    this.scanSucceeded, failedNum);
+        }
+        try {
+            if (null != this.watermark && success) {
+                this.watermark.commit();
+            }
+            if (null != this.snapshotScanner) {
+                this.snapshotScanner.finish(success);
+            }
+        } catch (IOException e) {
+            log.error("save incremental sync state failed.", e);
         }
     }
 }
@@ -12,10 +12,24 @@ public class HdfsToCosExecutor implements Runnable{
 
     private AtomicBoolean stop = null;
     private BlockingQueue<FileToCosTask> taskBlockingQueue = null;
+    private int lane = -1;          // 分道队列中所属的车道，小于0表示不区分
 
     public HdfsToCosExecutor(BlockingQueue<FileToCosTask> taskBlockingQueue, boolean isStart) {
+        this(taskBlockingQueue, isStart, -1);
+    }
+
+    public HdfsToCosExecutor(BlockingQueue<FileToCosTask> taskBlockingQueue, boolean isStart, int lane) {
         this.taskBlockingQueue = taskBlockingQueue;
         this.stop = new AtomicBoolean(!isStart);
+        this.lane = lane;
+    }
+
+    private FileToCosTask pollTask() throws InterruptedException {
+        if (this.lane >= 0 && this.taskBlockingQueue instanceof LaneTaskQueue) {
+            return ((LaneTaskQueue) this.taskBlockingQueue).poll(this.lane,
+                    300, TimeUnit.MILLISECONDS);
+        }
+        return this.taskBlockingQueue.poll(300, TimeUnit.MILLISECONDS);
     }
 
     public void run() {
@@ -26,8 +40,9 @@ public class HdfsToCosExecutor implements Runnable{
 
         while(!this.stop.get()){
             try {
-                FileToCosTask task = this.taskBlockingQueue.poll(300, TimeUnit.MILLISECONDS);             // 等待取出一个待执行的任务
+                FileToCosTask task = this.pollTask();                                               // 等待取出一个待执行的任务
                 if(null != task){
+                    task.setRetryQueue(this.taskBlockingQueue);                                      // 失败的文件延迟以后重新放回队列
                     task.run();                                                                                     // 开始执行任务
                 }
             } catch (InterruptedException e) {
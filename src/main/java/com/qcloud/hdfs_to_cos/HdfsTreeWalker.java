@@ -0,0 +1,168 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 并行遍历目录树。
+ * 每个目录的list作为一个ForkJoin任务，子目录fork出新的任务，由ForkJoinPool的work-stealing调度，
+ * 因此多个目录的listStatus可以同时向NameNode发起，扫描到的成员立即交给visitor处理。
+ * 目录通过listStatusIterator分批流式读取，不会一次性构造整个目录的FileStatus数组，
+ * 所以内存占用与单个目录的大小无关。
+ */
+public class HdfsTreeWalker {
+    private static final Logger log =
+            LoggerFactory.getLogger(HdfsTreeWalker.class);
+    // 一个目录下最多同时挂起的子目录任务数，超过以后先等待这一批完成，避免子目录过多时占用大量内存
+    private static final int MAX_PENDING_SUB_DIR_NUM = 1024;
+
+    /**
+     * 目录成员的处理回调，会被多个扫描线程并发调用
+     */
+    public interface MemberVisitor {
+        /**
+         * 处理扫描到的一个成员
+         *
+         * @param member 目录下的成员
+         * @return 如果需要继续展开该成员(目录)则返回true，否则返回false
+         */
+        boolean visit(FileStatus member) throws Exception;
+    }
+
+    private FileSystem fileSystem;
+    private int parallelism;
+    private MemberVisitor visitor;
+    private AtomicLong failedDirNum = new AtomicLong();
+    private AtomicLong failedMemberNum = new AtomicLong();
+
+    public HdfsTreeWalker(FileSystem fileSystem, int parallelism,
+            MemberVisitor visitor) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive"
+                    + ", current: " + parallelism);
+        }
+        this.fileSystem = fileSystem;
+        this.parallelism = parallelism;
+        this.visitor = visitor;
+    }
+
+    /**
+     * 从指定路径开始遍历，直到所有目录都展开完毕才返回。
+     * 如果指定路径是文件，则只处理该文件本身；如果是目录，则只处理其下的成员。
+     *
+     * @param rootPath 遍历的起始路径
+     */
+    public void walk(Path rootPath) throws Exception {
+        walk(CommonHdfsUtils.getFileStatus(this.fileSystem, rootPath));
+    }
+
+    /**
+     * 从指定的FileStatus开始遍历，调用方已经获取过起始路径的FileStatus时，可以省去一次RPC
+     *
+     * @param rootStatus 遍历的起始路径的FileStatus
+     */
+    public void walk(FileStatus rootStatus) throws Exception {
+        if (rootStatus.isFile()) {
+            this.visitor.visit(rootStatus);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new ListDirTask(rootStatus.getPath()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return 遍历过程中list失败的目录数
+     */
+    public long getFailedDirNum() {
+        return this.failedDirNum.get();
+    }
+
+    /**
+     * @return 遍历过程中visitor处理失败的成员数
+     */
+    public long getFailedMemberNum() {
+        return this.failedMemberNum.get();
+    }
+
+    private class ListDirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Path dirPath;
+
+        ListDirTask(Path dirPath) {
+            this.dirPath = dirPath;
+        }
+
+        @Override
+        protected void compute() {
+            RemoteIterator<FileStatus> members;
+            try {
+                members = CommonHdfsUtils.listStatusIterator(fileSystem,
+                        this.dirPath);
+            } catch (IOException e) {
+                failedDirNum.incrementAndGet();
+                log.error("list directory: " + this.dirPath.toString()
+                        + " occurs an exception.", e);
+                return;
+            }
+
+            List<ListDirTask> subTasks = new ArrayList<ListDirTask>();
+            try {
+                while (members.hasNext()) {
+                    FileStatus member = members.next();
+                    try {
+                        if (visitor.visit(member)) {
+                            ListDirTask subTask = new ListDirTask(member.getPath());
+                            subTask.fork();                  // 子目录交给其他空闲线程去窃取
+                            subTasks.add(subTask);
+                        }
+                    } catch (InterruptedException e) {
+                        // 目录中剩余的成员没有扫描，扫描不完整
+                        failedDirNum.incrementAndGet();
+                        log.error("scanning directory: " + this.dirPath.toString()
+                                + " is interrupted.");
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (Exception e) {
+                        failedMemberNum.incrementAndGet();
+                        log.error("visit member: " + member.getPath().toString()
+                                + " occurs an exception.", e);
+                    }
+
+                    if (subTasks.size() >= MAX_PENDING_SUB_DIR_NUM) {
+                        joinAll(subTasks);
+                    }
+                }
+            } catch (IOException e) {
+                failedDirNum.incrementAndGet();
+                log.error("iterate directory: " + this.dirPath.toString()
+                        + " occurs an exception.", e);
+            }
+
+            joinAll(subTasks);
+        }
+
+        private void joinAll(List<ListDirTask> subTasks) {
+            for (ListDirTask subTask : subTasks) {
+                subTask.join();
+            }
+            subTasks.clear();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 增量同步的修改时间水位线。
+ * 上一次成功同步时记录的水位线保存在scp目录下，本次只上传修改时间比水位线新的文件。
+ * 扫描期间记录看到的最大修改时间，只有整个任务没有失败时才推进水位线，
+ * 失败的文件在下一次运行时仍然比旧的水位线新，因此会被重新上传。
+ */
+public class IncrementalWatermark {
+    private static final Logger log =
+            LoggerFactory.getLogger(IncrementalWatermark.class);
+    private static final long NO_WATERMARK = -1;
+    // 新水位线相对本次扫描开始时间的安全余量，用于容忍扫描期间写入完成的文件以及客户端和NameNode的时钟偏差
+    static final long SAFETY_MARGIN_MS = 10 * 60 * 1000L;
+
+    private File watermarkFile;
+    private long prevWatermark;
+    private long scanStartTime;
+    private AtomicLong maxModificationTime = new AtomicLong(NO_WATERMARK);
+
+    IncrementalWatermark(File watermarkFile, long prevWatermark,
+            long scanStartTime) {
+        this.watermarkFile = watermarkFile;
+        this.prevWatermark = prevWatermark;
+        this.scanStartTime = scanStartTime;
+    }
+
+    /**
+     * 加载源路径和目的路径对应的水位线，不存在时从头开始全量同步
+     */
+    public static IncrementalWatermark load(String srcPath, String destCosPath)
+            throws IOException {
+        return load(new File("./scp/"), srcPath, destCosPath);
+    }
+
+    static IncrementalWatermark load(File watermarkDir, String srcPath,
+            String destCosPath) throws IOException {
+        String fileName = DigestUtils.md5Hex(destCosPath + "_" + srcPath)
+                + ".watermark";
+        File watermarkFile = new File(watermarkDir, fileName);
+        long prevWatermark = NO_WATERMARK;
+        if (watermarkFile.exists()) {
+            BufferedReader br = new BufferedReader(new FileReader(watermarkFile));
+            try {
+                String line = br.readLine();
+                if (null == line) {
+                    throw new IOException("watermark file "
+                            + watermarkFile.getPath() + " is empty.");
+                }
+                prevWatermark = Long.parseLong(line.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("watermark file "
+                        + watermarkFile.getPath() + " is corrupted.", e);
+            } finally {
+                br.close();
+            }
+        }
+        log.info("load incremental watermark {} from {}", prevWatermark,
+                watermarkFile.getPath());
+        return new IncrementalWatermark(watermarkFile, prevWatermark,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * 判断成员在上一次同步之后是否有修改，同时记录本次看到的最大修改时间。
+     * 对目录而言，修改时间只反映直接子成员的增删和重命名
+     *
+     * @return 修改时间比水位线新时返回true
+     */
+    public boolean isModified(FileStatus member) {
+        long modificationTime = member.getModificationTime();
+        long current = this.maxModificationTime.get();
+        while (modificationTime > current) {
+            if (this.maxModificationTime.compareAndSet(current,
+                    modificationTime)) {
+                break;
+            }
+            current = this.maxModificationTime.get();
+        }
+        return modificationTime > this.prevWatermark;
+    }
+
+    public long getPrevWatermark() {
+        return prevWatermark;
+    }
+
+    /**
+     * 本次成功以后的新水位线，不超过扫描到的最大修改时间，并且相对扫描开始时间留有安全余量
+     */
+    public long getNextWatermark() {
+        long next = Math.min(this.maxModificationTime.get(),
+                this.scanStartTime - SAFETY_MARGIN_MS);
+        return Math.max(next, this.prevWatermark);
+    }
+
+    /**
+     * 保存新水位线，先写临时文件再重命名，避免中途退出时留下不完整的水位线文件
+     */
+    public void commit() throws IOException {
+        long nextWatermark = this.getNextWatermark();
+        File parentDir = this.watermarkFile.getAbsoluteFile().getParentFile();
+        if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+            throw new IOException("create directory " + parentDir + " failed.");
+        }
+        File tmpFile = new File(parentDir, this.watermarkFile.getName() + ".tmp");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(tmpFile));
+        try {
+            bw.write(String.valueOf(nextWatermark));
+            bw.newLine();
+        } finally {
+            bw.close();
+        }
+        if (!tmpFile.renameTo(this.watermarkFile)) {
+            this.watermarkFile.delete();
+            if (!tmpFile.renameTo(this.watermarkFile)) {
+                throw new IOException("rename " + tmpFile + " to "
+                        + this.watermarkFile + " failed.");
+            }
+        }
+        log.info("commit incremental watermark {} to {}", nextWatermark,
+                this.watermarkFile.getPath());
+    }
+}
@@ -0,0 +1,386 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按照文件大小分道的任务队列。
+ * 小文件、中等文件和大文件分别进入三个车道，每个车道有自己的上传线程，
+ * 扫描后期才发现的大文件不会排在大量小文件后面成为整个作业的长尾，小文件也不会被大文件的上传阻塞。
+ * 中等和大文件车道按照文件长度从大到小出队(最长处理时间优先)，小文件车道先进先出。
+ * 中等文件车道的线程是通用线程，大文件车道有排队的任务时先帮助大文件车道，让大文件尽早开始。
+ * 车道为空时线程可以帮助其他车道，但小文件车道的线程不接大文件，保证小文件的请求并发。
+ */
+public class LaneTaskQueue extends AbstractQueue<FileToCosTask>
+        implements BlockingQueue<FileToCosTask> {
+    public static final int SMALL_LANE = 0;
+    public static final int MEDIUM_LANE = 1;
+    public static final int LARGE_LANE = 2;
+    public static final int LANE_NUM = 3;
+    private static final String[] LANE_NAMES = {"small", "medium", "large"};
+
+    public static final long SMALL_FILE_SIZE = 8 * 1024 * 1024L;    // 小于8MB为小文件
+    public static final long LARGE_FILE_SIZE =
+            FileToCosTask.MULTIPART_UPLOAD_THRESHOLD;               // 分块上传的为大文件
+
+    // 默认的车道容量，小文件车道较大，扫描可以越过大量小文件尽早发现大文件
+    private static final int[] DEFAULT_CAPACITIES = {4096, 1024, 1024};
+
+    // 每个车道的线程依次尝试的车道，第一个车道之外都是帮助其他车道
+    private static final int[][] PICK_ORDER = {
+            {SMALL_LANE, MEDIUM_LANE},
+            {LARGE_LANE, MEDIUM_LANE, SMALL_LANE},
+            {LARGE_LANE, MEDIUM_LANE, SMALL_LANE}};
+
+    private final Queue<Entry>[] lanes;
+    private final int[] capacities;
+    private final int[] workerNums;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long seq = 0;
+    private int count = 0;
+
+    private static class Entry {
+        final FileToCosTask task;
+        final long length;
+        final long seq;
+
+        Entry(FileToCosTask task, long seq) {
+            this.task = task;
+            this.length = task.fileStatus.getLen();
+            this.seq = seq;
+        }
+    }
+
+    private static final Comparator<Entry> LARGEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            if (o1.length != o2.length) {
+                return o1.length > o2.length ? -1 : 1;
+            }
+            return o1.seq < o2.seq ? -1 : (o1.seq == o2.seq ? 0 : 1);
+        }
+    };
+
+    /**
+     * @param workerNums 每个车道的线程数，没有线程的车道由其他所有车道的线程帮助处理
+     */
+    public LaneTaskQueue(int[] workerNums) {
+        this(workerNums, DEFAULT_CAPACITIES);
+    }
+
+    /**
+     * @param workerNums 每个车道的线程数，没有线程的车道由其他所有车道的线程帮助处理
+     * @param capacities 每个车道最多排队的任务数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LaneTaskQueue(int[] workerNums, int[] capacities) {
+        if (workerNums.length != LANE_NUM || capacities.length != LANE_NUM) {
+            throw new IllegalArgumentException("there must be " + LANE_NUM + " lanes.");
+        }
+        this.workerNums = workerNums.clone();
+        this.capacities = capacities.clone();
+        this.lanes = new Queue[LANE_NUM];
+        this.lanes[SMALL_LANE] = new ArrayDeque<Entry>();
+        this.lanes[MEDIUM_LANE] = new PriorityQueue<Entry>(16, LARGEST_FIRST);
+        this.lanes[LARGE_LANE] = new PriorityQueue<Entry>(16, LARGEST_FIRST);
+    }
+
+    /**
+     * 按照总的上传线程数划分各个车道的线程：大文件和小文件车道各占四分之一，其余给中等文件车道。
+     * 线程数少于3个时只设中等文件车道，它会帮助其他两个车道
+     */
+    public static int[] splitWorkerNum(int maxTaskNum) {
+        if (maxTaskNum < LANE_NUM) {
+            return new int[]{0, maxTaskNum, 0};
+        }
+        int edgeNum = Math.max(1, maxTaskNum / 4);
+        return new int[]{edgeNum, maxTaskNum - 2 * edgeNum, edgeNum};
+    }
+
+    public static String getLaneName(int lane) {
+        return LANE_NAMES[lane];
+    }
+
+    public int getWorkerNum(int lane) {
+        return this.workerNums[lane];
+    }
+
+    public static int getLane(FileToCosTask task) {
+        long length = task.fileStatus.getLen();
+        if (length < SMALL_FILE_SIZE) {
+            return SMALL_LANE;
+        }
+        return length < LARGE_FILE_SIZE ? MEDIUM_LANE : LARGE_LANE;
+    }
+
+    private boolean canSteal(int homeLane, int lane) {
+        if (this.workerNums[lane] == 0) {
+            return true;
+        }
+        for (int pickLane : PICK_ORDER[homeLane]) {
+            if (pickLane == lane) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为某个车道的线程取出一个任务，调用时必须持有锁
+     *
+     * @param homeLane 线程所属的车道，小于0时不区分车道，按照大文件优先的顺序取
+     */
+    private FileToCosTask dequeue(int homeLane) {
+        int lane = -1;
+        if (homeLane < 0) {
+            for (int i = LANE_NUM - 1; i >= 0; i--) {
+                if (!this.lanes[i].isEmpty()) {
+                    lane = i;
+                    break;
+                }
+            }
+        } else {
+            for (int pickLane : PICK_ORDER[homeLane]) {
+                if (!this.lanes[pickLane].isEmpty()) {
+                    lane = pickLane;
+                    break;
+                }
+            }
+            // 没有线程的车道由所有线程处理
+            for (int i = LANE_NUM - 1; lane < 0 && i >= 0; i--) {
+                if (!this.lanes[i].isEmpty() && canSteal(homeLane, i)) {
+                    lane = i;
+                }
+            }
+        }
+        if (lane < 0) {
+            return null;
+        }
+        Entry entry = this.lanes[lane].poll();
+        this.count--;
+        this.notFull.signalAll();
+        return entry.task;
+    }
+
+    private void enqueue(FileToCosTask task, int lane) {
+        this.lanes[lane].offer(new Entry(task, this.seq++));
+        this.count++;
+        this.notEmpty.signalAll();
+    }
+
+    /**
+     * 上传线程按照所属车道的顺序取一个任务，没有可取的任务时等待
+     */
+    public FileToCosTask poll(int homeLane, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            FileToCosTask task;
+            while (null == (task = dequeue(homeLane))) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(FileToCosTask task) throws InterruptedException {
+        int lane = getLane(task);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.lanes[lane].size() >= this.capacities[lane]) {
+                this.notFull.await();
+            }
+            enqueue(task, lane);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(FileToCosTask task, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        int lane = getLane(task);
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.lanes[lane].size() >= this.capacities[lane]) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            enqueue(task, lane);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(FileToCosTask task) {
+        int lane = getLane(task);
+        this.lock.lock();
+        try {
+            if (this.lanes[lane].size() >= this.capacities[lane]) {
+                return false;
+            }
+            enqueue(task, lane);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FileToCosTask take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            FileToCosTask task;
+            while (null == (task = dequeue(-1))) {
+                this.notEmpty.await();
+            }
+            return task;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FileToCosTask poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            FileToCosTask task;
+            while (null == (task = dequeue(-1))) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FileToCosTask poll() {
+        this.lock.lock();
+        try {
+            return dequeue(-1);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FileToCosTask peek() {
+        this.lock.lock();
+        try {
+            for (int i = LANE_NUM - 1; i >= 0; i--) {
+                Entry entry = this.lanes[i].peek();
+                if (null != entry) {
+                    return entry.task;
+                }
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        this.lock.lock();
+        try {
+            int remaining = 0;
+            for (int i = 0; i < LANE_NUM; i++) {
+                remaining += this.capacities[i] - this.lanes[i].size();
+            }
+            return remaining;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileToCosTask> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileToCosTask> c, int maxElements) {
+        this.lock.lock();
+        try {
+            int n = 0;
+            FileToCosTask task;
+            while (n < maxElements && null != (task = dequeue(-1))) {
+                c.add(task);
+                n++;
+            }
+            return n;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int size(int lane) {
+        this.lock.lock();
+        try {
+            return this.lanes[lane].size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 返回当前排队任务的快照，不反映之后的修改
+     */
+    @Override
+    public Iterator<FileToCosTask> iterator() {
+        this.lock.lock();
+        try {
+            List<FileToCosTask> tasks = new ArrayList<FileToCosTask>(this.count);
+            for (int i = LANE_NUM - 1; i >= 0; i--) {
+                for (Entry entry : this.lanes[i]) {
+                    tasks.add(entry.task);
+                }
+            }
+            return Collections.unmodifiableList(tasks).iterator();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * 在上传读取数据的同时计算MD5，文件只需要读取一遍。
+ * SDK重试时会reset到mark的位置重新读取，mark时保存摘要的状态，reset时恢复，保证摘要只包含一份数据。
+ */
+public class Md5DigestInputStream extends FilterInputStream {
+    private MessageDigest digest;
+    private MessageDigest markDigest;
+    private long bytesRead = 0;
+    private long markBytesRead = 0;
+
+    public Md5DigestInputStream(InputStream in) {
+        super(in);
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported.", e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b >= 0) {
+            this.digest.update((byte) b);
+            this.bytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int nRead = this.in.read(b, off, len);
+        if (nRead > 0) {
+            this.digest.update(b, off, nRead);
+            this.bytesRead += nRead;
+        }
+        return nRead;
+    }
+
+    /**
+     * 跳过的数据也要计入摘要，因此通过读取来跳过
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(64 * 1024, Math.max(n, 1))];
+        long remaining = n;
+        while (remaining > 0) {
+            int nRead = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (nRead < 0) {
+                break;
+            }
+            remaining -= nRead;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.in.mark(readLimit);
+        try {
+            this.markDigest = (MessageDigest) this.digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("MD5 digest can't be cloned.", e);
+        }
+        this.markBytesRead = this.bytesRead;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (null == this.markDigest) {
+            throw new IOException("mark has not been called.");
+        }
+        this.in.reset();
+        try {
+            this.digest = (MessageDigest) this.markDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("MD5 digest can't be cloned.", e);
+        }
+        this.bytesRead = this.markBytesRead;
+    }
+
+    /**
+     * 已经读取并计入摘要的字节数
+     */
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * 返回已读取数据的MD5，之后不能再继续读取
+     */
+    public String getMd5Hex() {
+        return Hex.encodeHexString(this.digest.digest());
+    }
+}
@@ -0,0 +1,397 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程内的指标注册表，补充Statistics只统计文件结果的不足：字节数、吞吐量、各类请求的延迟和队列深度。
+ * 计数器按线程分散到多个槽位累加，读取时求和，多线程更新时不争用同一个缓存行；延迟直方图使用固定的分桶。
+ * 指标以Prometheus文本格式导出，同时通过JMX暴露，见MetricsExporter
+ */
+public class Metrics {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String PREFIX = "hdfs_to_cos_";
+    public static final String OP_HEAD = "head";
+    public static final String OP_PUT = "put";
+    public static final String OP_UPLOAD_PART = "upload_part";
+    public static final String OP_COMPLETE = "complete";
+    public static final String OP_OPEN = "open";
+    public static final String OP_READ = "read";
+
+    private static final String COS_LATENCY = "cos_request_seconds";
+    private static final String COS_ERRORS = "cos_request_errors_total";
+    private static final String HDFS_LATENCY = "hdfs_seconds";
+
+    // 注册表要在下面的指标之前初始化
+    private final ConcurrentMap<String, Metric> metrics =
+            new ConcurrentSkipListMap<String, Metric>();
+    // 每个请求都要用到的指标按操作缓存，记录时不需要拼接key，也不需要创建新的指标再丢弃
+    private final ConcurrentMap<String, Histogram> cosLatencies =
+            new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Counter> cosErrors =
+            new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Histogram> hdfsLatencies =
+            new ConcurrentHashMap<String, Histogram>();
+    private volatile long startNanos = System.nanoTime();
+
+    public static final Metrics instance = new Metrics();
+
+    public final Counter uploadBytes = counter("upload_bytes_total", null, null,
+            "bytes sent to cos by successful put and upload part requests");
+    public final Counter hdfsReadBytes = counter("hdfs_read_bytes_total", null,
+            null, "bytes read from hdfs");
+
+    private Metrics() {
+    }
+
+    public void start() {
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取或者创建一个计数器，label为空时没有标签
+     */
+    public Counter counter(String name, String labelName, String labelValue,
+            String help) {
+        Metric existed = this.metrics.get(Metric.key(name, labelValue));
+        if (null != existed) {
+            return (Counter) existed;
+        }
+        return (Counter) register(new Counter(name, labelName, labelValue, help));
+    }
+
+    public Histogram histogram(String name, String labelName, String labelValue,
+            String help) {
+        Metric existed = this.metrics.get(Metric.key(name, labelValue));
+        if (null != existed) {
+            return (Histogram) existed;
+        }
+        return (Histogram) register(new Histogram(name, labelName, labelValue, help));
+    }
+
+    public void gauge(String name, String labelName, String labelValue,
+            String help, Gauge gauge) {
+        this.metrics.put(Metric.key(name, labelValue),
+                new GaugeMetric(name, labelName, labelValue, help, gauge));
+    }
+
+    private Metric register(Metric metric) {
+        Metric existed = this.metrics.putIfAbsent(metric.getKey(), metric);
+        return null == existed ? metric : existed;
+    }
+
+    public Histogram cosLatency(String op) {
+        Histogram histogram = this.cosLatencies.get(op);
+        if (null == histogram) {
+            // 并发时register返回同一个实例，重复放入没有影响
+            histogram = histogram(COS_LATENCY, "op", op, "latency of cos requests");
+            this.cosLatencies.put(op, histogram);
+        }
+        return histogram;
+    }
+
+    public Histogram hdfsLatency(String op) {
+        Histogram histogram = this.hdfsLatencies.get(op);
+        if (null == histogram) {
+            histogram = histogram(HDFS_LATENCY, "op", op,
+                    "latency of hdfs open and read calls");
+            this.hdfsLatencies.put(op, histogram);
+        }
+        return histogram;
+    }
+
+    private Counter cosErrors(String op) {
+        Counter counter = this.cosErrors.get(op);
+        if (null == counter) {
+            counter = counter(COS_ERRORS, "op", op, "failed cos requests");
+            this.cosErrors.put(op, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * 记录一个COS请求的延迟，失败的请求另外计数
+     */
+    public void recordCos(String op, long startNanos, boolean success) {
+        cosLatency(op).record(System.nanoTime() - startNanos);
+        if (!success) {
+            cosErrors(op).add(1);
+        }
+    }
+
+    /**
+     * 以Prometheus文本格式输出所有指标
+     */
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : this.metrics.values()) {
+            if (!metric.name.equals(lastName)) {
+                sb.append("# HELP ").append(PREFIX).append(metric.name)
+                        .append(' ').append(metric.help).append('\n');
+                sb.append("# TYPE ").append(PREFIX).append(metric.name)
+                        .append(' ').append(metric.getType()).append('\n');
+                lastName = metric.name;
+            }
+            metric.writePrometheus(sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 所有指标的当前值，用于JMX
+     */
+    public Map<String, Object> getValues() {
+        Map<String, Object> values = new TreeMap<String, Object>();
+        for (Metric metric : this.metrics.values()) {
+            metric.collect(values);
+        }
+        return values;
+    }
+
+    public void printSummary() {
+        double seconds = Math.max(1e-3, (System.nanoTime() - this.startNanos) / 1e9);
+        String infoMsg = String.format(Locale.US, "[Throughput: %.2f MB/s(upload) "
+                        + "/ %.2f MB/s(hdfs read)]",
+                this.uploadBytes.get() / seconds / 1024 / 1024,
+                this.hdfsReadBytes.get() / seconds / 1024 / 1024);
+        log.info(infoMsg);
+        System.out.println(infoMsg);
+        for (Metric metric : this.metrics.values()) {
+            if (!(metric instanceof Histogram)) {
+                continue;
+            }
+            Histogram histogram = (Histogram) metric;
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            // 各线程耗时的总和，对比COS和HDFS的耗时可以看出时间花在哪里
+            infoMsg = String.format(Locale.US, "[Latency %s %s: %d(count) / "
+                            + "%.1f ms(avg) / %.1f ms(p99) / %.1f s(sum)]",
+                    histogram.name, histogram.labelValue, histogram.getCount(),
+                    histogram.getSumNanos() / 1e6 / histogram.getCount(),
+                    histogram.getQuantileNanos(0.99) / 1e6,
+                    histogram.getSumNanos() / 1e9);
+            log.info(infoMsg);
+            System.out.println(infoMsg);
+        }
+    }
+
+    public interface Gauge {
+        double getValue();
+    }
+
+    abstract static class Metric {
+        final String name;
+        final String labelName;
+        final String labelValue;
+        final String help;
+
+        Metric(String name, String labelName, String labelValue, String help) {
+            this.name = name;
+            this.labelName = labelName;
+            this.labelValue = labelValue;
+            this.help = help;
+        }
+
+        static String key(String name, String labelValue) {
+            return null == labelValue ? name : name + "." + labelValue;
+        }
+
+        String getKey() {
+            return key(this.name, this.labelValue);
+        }
+
+        /**
+         * Prometheus的标签，extra为额外的标签，例如直方图的le
+         */
+        String labels(String extra) {
+            StringBuilder sb = new StringBuilder();
+            if (null != this.labelName) {
+                sb.append(this.labelName).append("=\"").append(this.labelValue)
+                        .append('"');
+            }
+            if (null != extra) {
+                sb.append(sb.length() > 0 ? "," : "").append(extra);
+            }
+            return sb.length() == 0 ? "" : "{" + sb + "}";
+        }
+
+        abstract String getType();
+
+        abstract void writePrometheus(StringBuilder sb);
+
+        abstract void collect(Map<String, Object> values);
+    }
+
+    /**
+     * 分槽位累加的计数器
+     */
+    public static class Counter extends Metric {
+        private static final int CELL_NUM = 16;
+        private static final int CELL_STRIDE = 8;   // 相邻槽位间隔64字节，避免伪共享
+        private final AtomicLongArray cells =
+                new AtomicLongArray(CELL_NUM * CELL_STRIDE);
+
+        Counter(String name, String labelName, String labelValue, String help) {
+            super(name, labelName, labelValue, help);
+        }
+
+        public void add(long delta) {
+            int cell = (int) (Thread.currentThread().getId() % CELL_NUM);
+            this.cells.addAndGet(cell * CELL_STRIDE, delta);
+        }
+
+        public long get() {
+            long sum = 0;
+            for (int i = 0; i < CELL_NUM; i++) {
+                sum += this.cells.get(i * CELL_STRIDE);
+            }
+            return sum;
+        }
+
+        @Override
+        String getType() {
+            return "counter";
+        }
+
+        @Override
+        void writePrometheus(StringBuilder sb) {
+            sb.append(PREFIX).append(this.name).append(labels(null)).append(' ')
+                    .append(get()).append('\n');
+        }
+
+        @Override
+        void collect(Map<String, Object> values) {
+            values.put(getKey(), get());
+        }
+    }
+
+    /**
+     * 固定分桶的延迟直方图，分桶从1毫秒到60秒
+     */
+    public static class Histogram extends Metric {
+        private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100,
+                250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MILLIS[i]);
+            }
+        }
+
+        // 最后一个桶是+Inf
+        private final AtomicLongArray buckets =
+                new AtomicLongArray(BOUNDS_NANOS.length + 1);
+        private final Counter sumNanos;
+
+        Histogram(String name, String labelName, String labelValue, String help) {
+            super(name, labelName, labelValue, help);
+            this.sumNanos = new Counter(name, labelName, labelValue, help);
+        }
+
+        public void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            this.buckets.incrementAndGet(bucket);
+            this.sumNanos.add(nanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < this.buckets.length(); i++) {
+                count += this.buckets.get(i);
+            }
+            return count;
+        }
+
+        public long getSumNanos() {
+            return this.sumNanos.get();
+        }
+
+        /**
+         * 分位数所在的桶的上界，落在+Inf桶时返回最大的上界
+         */
+        public long getQuantileNanos(double quantile) {
+            long count = getCount();
+            long rank = (long) Math.ceil(count * quantile);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+                seen += this.buckets.get(i);
+                if (seen >= rank) {
+                    return BOUNDS_NANOS[i];
+                }
+            }
+            return BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+        }
+
+        @Override
+        String getType() {
+            return "histogram";
+        }
+
+        @Override
+        void writePrometheus(StringBuilder sb) {
+            long cumulative = 0;
+            for (int i = 0; i <= BOUNDS_NANOS.length; i++) {
+                cumulative += this.buckets.get(i);
+                String le = i < BOUNDS_NANOS.length
+                        ? String.valueOf(BOUNDS_MILLIS[i] / 1000.0) : "+Inf";
+                sb.append(PREFIX).append(this.name).append("_bucket")
+                        .append(labels("le=\"" + le + "\"")).append(' ')
+                        .append(cumulative).append('\n');
+            }
+            sb.append(PREFIX).append(this.name).append("_sum").append(labels(null))
+                    .append(' ').append(getSumNanos() / 1e9).append('\n');
+            sb.append(PREFIX).append(this.name).append("_count").append(labels(null))
+                    .append(' ').append(cumulative).append('\n');
+        }
+
+        @Override
+        void collect(Map<String, Object> values) {
+            values.put(getKey() + ".count", getCount());
+            values.put(getKey() + ".sum", getSumNanos() / 1e9);
+            values.put(getKey() + ".p50", getQuantileNanos(0.5) / 1e9);
+            values.put(getKey() + ".p99", getQuantileNanos(0.99) / 1e9);
+        }
+    }
+
+    static class GaugeMetric extends Metric {
+        private final Gauge gauge;
+
+        GaugeMetric(String name, String labelName, String labelValue,
+                String help, Gauge gauge) {
+            super(name, labelName, labelValue, help);
+            this.gauge = gauge;
+        }
+
+        @Override
+        String getType() {
+            return "gauge";
+        }
+
+        @Override
+        void writePrometheus(StringBuilder sb) {
+            sb.append(PREFIX).append(this.name).append(labels(null)).append(' ')
+                    .append(this.gauge.getValue()).append('\n');
+        }
+
+        @Override
+        void collect(Map<String, Object> values) {
+            values.put(getKey(), this.gauge.getValue());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 导出指标：注册名为com.qcloud.hdfs_to_cos:type=Metrics的JMX MBean，
+ * 并按照固定间隔计算上传和读取的字节速率，指定了metrics_file时把Prometheus文本格式的指标写入该文件，
+ * 可以由node_exporter的textfile collector采集
+ */
+public class MetricsExporter {
+    private static final Logger log = LoggerFactory.getLogger(MetricsExporter.class);
+    private static final String JMX_NAME = "com.qcloud.hdfs_to_cos:type=Metrics";
+
+    private final Metrics metrics;
+    private final String metricsFile;
+    private final long intervalMillis;
+    private final RateGauge uploadRate;
+    private final RateGauge hdfsReadRate;
+    private ScheduledExecutorService timer = null;
+    private ObjectName jmxName = null;
+
+    public MetricsExporter(Metrics metrics, String metricsFile,
+            long intervalMillis) {
+        this.metrics = metrics;
+        this.metricsFile = metricsFile;
+        this.intervalMillis = intervalMillis;
+        this.uploadRate = new RateGauge(metrics.uploadBytes);
+        this.hdfsReadRate = new RateGauge(metrics.hdfsReadBytes);
+        metrics.gauge("upload_bytes_per_second", null, null,
+                "upload rate over the last export interval", this.uploadRate);
+        metrics.gauge("hdfs_read_bytes_per_second", null, null,
+                "hdfs read rate over the last export interval", this.hdfsReadRate);
+    }
+
+    public static MetricsExporter create(ConfigReader configReader) {
+        return new MetricsExporter(Metrics.instance,
+                configReader.getMetricsFile(),
+                configReader.getMetricsInterval() * 1000L);
+    }
+
+    public synchronized void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(this.metrics), name);
+                this.jmxName = name;
+            }
+        } catch (JMException e) {
+            log.warn("register the metrics mbean failed.", e);
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                export();
+            }
+        }, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时导出，最后再导出一次
+     */
+    public synchronized void stop() {
+        if (null != this.timer) {
+            this.timer.shutdownNow();
+            this.timer = null;
+        }
+        export();
+        if (null != this.jmxName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.jmxName);
+            } catch (JMException e) {
+                log.warn("unregister the metrics mbean failed.", e);
+            }
+            this.jmxName = null;
+        }
+    }
+
+    /**
+     * 更新速率并写入指标文件
+     */
+    public void export() {
+        this.uploadRate.update();
+        this.hdfsReadRate.update();
+        if (null == this.metricsFile) {
+            return;
+        }
+        try {
+            writeFile(this.metricsFile, this.metrics.toPrometheusText());
+        } catch (IOException e) {
+            log.warn("write the metrics file: {} failed.", this.metricsFile, e);
+        }
+    }
+
+    /**
+     * 先写临时文件再重命名，采集方不会读到写了一半的文件
+     */
+    private static void writeFile(String path, String content) throws IOException {
+        File file = new File(path);
+        File tmpFile = new File(path + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            out.write(content.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("rename " + tmpFile + " to " + file + " failed.");
+            }
+        }
+    }
+
+    /**
+     * 计数器在上一个导出间隔内的每秒增量
+     */
+    private static class RateGauge implements Metrics.Gauge {
+        private final Metrics.Counter counter;
+        private long lastValue;
+        private long lastNanos;
+        private volatile double rate = 0;
+
+        RateGauge(Metrics.Counter counter) {
+            this.counter = counter;
+            this.lastValue = counter.get();
+            this.lastNanos = System.nanoTime();
+        }
+
+        synchronized void update() {
+            long value = this.counter.get();
+            long now = System.nanoTime();
+            if (now > this.lastNanos) {
+                this.rate = (value - this.lastValue) * 1e9 / (now - this.lastNanos);
+            }
+            this.lastValue = value;
+            this.lastNanos = now;
+        }
+
+        @Override
+        public double getValue() {
+            return this.rate;
+        }
+    }
+
+    /**
+     * 把所有指标作为只读属性的MBean，直方图展开为count、sum、p50和p99
+     */
+    private static class MetricsMBean implements DynamicMBean {
+        private final Metrics metrics;
+
+        MetricsMBean(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = this.metrics.getValues().get(attribute);
+            if (null == value) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read only: "
+                    + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = this.metrics.getValues();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature)
+                throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Object> values = this.metrics.getValues();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(),
+                        entry.getValue().getClass().getName(), entry.getKey(),
+                        true, false, false);
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(),
+                    "hdfs_to_cos metrics", attributes, null, null, null);
+        }
+    }
+}
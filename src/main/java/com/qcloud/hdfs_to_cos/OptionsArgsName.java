@@ -31,17 +31,65 @@ public class OptionsArgsName {
             "skip_if_len_match";      // 是否本地和COS上的文件名相同且长度一致，就跳过
     public static final String FORCE_CHECK_MD5SUM =
             "force_check_md5sum";       // 上传文件检查时，是否强制检查md5sum
+    public static final String BUILD_COS_INDEX =
+            "build_cos_index";         // 是否预先list目的路径，在本地判断文件是否可以跳过
+    public static final String MAX_COS_INDEX_MEMORY =
+            "max_cos_index_memory";   // COS对象索引最多占用的内存，单位MB
     public static final String DECOMPRESS_HAR =
             "decompress_har";           // 迁移过程中，是否解压har文件
     public static final String MAX_TASK_NUM =
             "max_task_num";                   // 并发线程数
+    public static final String LANE_TASK_NUM =
+            "lane_task_num";                 // 小、中、大文件车道各自的上传线程数
+    public static final String MAX_LIST_TASK_NUM =
+            "max_list_task_num";         // 并发扫描目录的线程数
     public static final String MAX_MULTIPART_UPLOAD_TASK_NUM =
-            "max_multipart_upload_task_num"; // 分块上传的线程数
+            "max_multipart_upload_task_num"; // 每个上传线程平均的分块并发数
+    public static final String MAX_INFLIGHT_PART_NUM =
+            "max_inflight_part_num";   // 所有文件同时上传的分块总数
     public static final String UPLOAD_PART_SIZE = "max_upload_part_size";
+    public static final String ADAPTIVE_CONCURRENCY =
+            "adaptive_concurrency";   // 是否根据限流和延迟调整文件和分块的并发
+    public static final String ADAPTIVE_MULTIPART =
+            "adaptive_multipart";       // 是否按照文件大小和测量的吞吐量选择分块上传和分块大小
+    public static final String HEDGE_PART_PERCENT =
+            "hedge_part_percent";       // 推测执行重复上传的分块字节数占分块总字节数的上限，0表示不推测执行
+    public static final String PART_BUFFER_NUM =
+            "part_buffer_num";             // 分块预读的缓冲区数，0表示不预读
+    public static final String ZERO_COPY_READ =
+            "zero_copy_read";               // 是否通过短路读和增强ByteBuffer读接口读取文件
+    public static final String ZERO_COPY_SKIP_CHECKSUM =
+            "zero_copy_skip_checksum"; // 零拷贝读取时是否跳过校验，使本地块可以内存映射
     public static final String MAX_RETRY_NUM = "max_retry_num"; // 失败重试的次数
     public static final String RETRY_INTERVAL = "retry_interval";
     public static final String STORAGE_CLASS = "storage_class";
     public static final String TRAFFIC_LIMIT = "traffic_limit";
+    public static final String INCREMENTAL =
+            "incremental";                    // 是否只上传上一次成功同步之后修改过的文件
+    public static final String INCREMENTAL_PRUNE_DIR =
+            "incremental_prune_dir";    // 增量同步时是否跳过修改时间没有变化的目录
+    public static final String SNAPSHOT_DIFF =
+            "snapshot_diff";                // 是否根据hdfs快照的差异增量同步
+    public static final String SNAPSHOT_DELETE_REMOVED =
+            "snapshot_delete_removed";   // 快照差异模式下是否删除源路径上已删除的文件对应的COS对象
+    public static final String MAX_HAR_CACHE_NUM =
+            "max_har_cache_num";         // 最多缓存的已初始化的har归档数
+    public static final String BUNDLE_FILE_SIZE =
+            "bundle_file_size";           // 小于该长度的文件打包成bundle对象上传
+    public static final String BUNDLE_SIZE =
+            "bundle_size";                     // 每个bundle对象的目标大小
+    public static final String RUN_MODE =
+            "mode";                               // 运行模式: run/plan/execute
+    public static final String MANIFEST_PATH =
+            "manifest_path";                // plan模式写入、execute模式读取的传输清单路径
+    public static final String MANIFEST_SHARD =
+            "manifest_shard";              // execute模式只执行清单的一个分片，格式为i/n
+    public static final String METRICS_FILE =
+            "metrics_file";                  // 定期写入Prometheus文本格式指标的文件
+    public static final String METRICS_INTERVAL =
+            "metrics_interval";          // 计算速率和写入指标文件的间隔，单位秒
+    public static final String PROGRESS_INTERVAL =
+            "progress_interval";        // 打印上传进度的间隔，单位秒，0表示不打印
 
     public static Options getAllSupportOption() {
         Options options = new Options();
@@ -58,14 +106,38 @@ public class OptionsArgsName {
         options.addOption(getHdfsInfoFileOption());
         options.addOption(getSkipIfLenMatch());
         options.addOption(getForceCheckMD5Sum());
+        options.addOption(getBuildCosIndex());
+        options.addOption(getMaxCosIndexMemory());
         options.addOption(getDecompressHar());
         options.addOption(getMaxTaskNumOption());
+        options.addOption(getLaneTaskNumOption());
+        options.addOption(getMaxListTaskNumOption());
         options.addOption(getMaxMultiPartUploadTaskNumOption());
+        options.addOption(getMaxInflightPartNumOption());
         options.addOption(getPartSize());
+        options.addOption(getAdaptiveConcurrency());
+        options.addOption(getAdaptiveMultipart());
+        options.addOption(getHedgePartPercent());
+        options.addOption(getPartBufferNum());
+        options.addOption(getZeroCopyRead());
+        options.addOption(getZeroCopySkipChecksum());
         options.addOption(getMaxRetryNum());
         options.addOption(getRetryInterval());
         options.addOption(getStorageClass());
         options.addOption(getTrafficLimit());
+        options.addOption(getIncremental());
+        options.addOption(getIncrementalPruneDir());
+        options.addOption(getSnapshotDiff());
+        options.addOption(getSnapshotDeleteRemoved());
+        options.addOption(getMaxHarCacheNum());
+        options.addOption(getBundleFileSize());
+        options.addOption(getBundleSize());
+        options.addOption(getRunMode());
+        options.addOption(getManifestPath());
+        options.addOption(getManifestShard());
+        options.addOption(getMetricsFile());
+        options.addOption(getMetricsInterval());
+        options.addOption(getProgressInterval());
         return options;
     }
 
@@ -117,10 +189,31 @@ public class OptionsArgsName {
                 .desc("max parallel task num to upload file default 4").build();
     }
 
+    public static Option getLaneTaskNumOption() {
+        return Option.builder(LANE_TASK_NUM).longOpt(LANE_TASK_NUM).hasArg()
+                .desc("the upload thread num of the small(<8MB), medium and "
+                        + "large(>128MB) file lanes, format as s,m,l, and "
+                        + "max_task_num becomes their sum. default a quarter of "
+                        + "max_task_num for the small and large lane each")
+                .build();
+    }
+
+    public static Option getMaxListTaskNumOption() {
+        return Option.builder(MAX_LIST_TASK_NUM).longOpt(MAX_LIST_TASK_NUM).hasArg()
+                .desc("max parallel task num to list hdfs directories default 4").build();
+    }
+
     public static Option getMaxMultiPartUploadTaskNumOption() {
         return Option.builder(MAX_MULTIPART_UPLOAD_TASK_NUM).longOpt(MAX_MULTIPART_UPLOAD_TASK_NUM).hasArg()
-                .desc("max parallel multipart upload task num to upload file "
-                        + "default 4").build();
+                .desc("parallel part num per upload thread, used to compute the "
+                        + "default max_inflight_part_num. default 4").build();
+    }
+
+    public static Option getMaxInflightPartNumOption() {
+        return Option.builder(MAX_INFLIGHT_PART_NUM).longOpt(MAX_INFLIGHT_PART_NUM).hasArg()
+                .desc("max parts uploading at the same time across all files, "
+                        + "shared by all multipart uploads. default "
+                        + "max_task_num * max_multipart_upload_task_num").build();
     }
 
     public static Option getSecretKeyOption() {
@@ -160,6 +253,21 @@ public class OptionsArgsName {
                         + "disable.").build();
     }
 
+    public static Option getBuildCosIndex() {
+        return Option.builder(BUILD_COS_INDEX).longOpt(BUILD_COS_INDEX)
+                .desc("List the objects under cos_path in parallel before "
+                        + "uploading, and answer the skip_if_len_match check "
+                        + "from the listed index instead of one HEAD request per"
+                        + " file.").build();
+    }
+
+    public static Option getMaxCosIndexMemory() {
+        return Option.builder(MAX_COS_INDEX_MEMORY).longOpt(MAX_COS_INDEX_MEMORY).hasArg()
+                .desc("the maximum memory in MB used by the cos object index, "
+                        + "fall back to HEAD requests if exceeded. default 1024")
+                .build();
+    }
+
     public static Option getDecompressHar() {
         return Option.builder(DECOMPRESS_HAR).longOpt(DECOMPRESS_HAR)
                 .desc("Enable the decompression of the har file during the "
@@ -172,6 +280,53 @@ public class OptionsArgsName {
                         + "multipart upload").build();
     }
 
+    public static Option getAdaptiveConcurrency() {
+        return Option.builder(ADAPTIVE_CONCURRENCY).longOpt(ADAPTIVE_CONCURRENCY)
+                .desc("adjust the file and part concurrency by additive "
+                        + "increase and multiplicative decrease on cos "
+                        + "throttling and latency, max_task_num and "
+                        + "max_inflight_part_num become the upper limits").build();
+    }
+
+    public static Option getAdaptiveMultipart() {
+        return Option.builder(ADAPTIVE_MULTIPART).longOpt(ADAPTIVE_MULTIPART)
+                .desc("choose between single and multipart upload and the part "
+                        + "size per file by file size, hdfs block size, idle "
+                        + "part concurrency and measured upload throughput. "
+                        + "default multipart above 128MB").build();
+    }
+
+    public static Option getHedgePartPercent() {
+        return Option.builder(HEDGE_PART_PERCENT).longOpt(HEDGE_PART_PERCENT).hasArg()
+                .desc("upload a duplicate of the parts running much longer "
+                        + "than the recent p95 part latency, the first one to "
+                        + "finish supplies the etag. duplicate bytes are at "
+                        + "most this percent of the part bytes. default 0, "
+                        + "no duplicate parts").build();
+    }
+
+    public static Option getPartBufferNum() {
+        return Option.builder(PART_BUFFER_NUM).longOpt(PART_BUFFER_NUM).hasArg()
+                .desc("read parts ahead into this many pooled buffers of "
+                        + "max_upload_part_size while earlier parts are being "
+                        + "sent, retries resend from the buffer. default 0, "
+                        + "parts are streamed from the file").build();
+    }
+
+    public static Option getZeroCopyRead() {
+        return Option.builder(ZERO_COPY_READ).longOpt(ZERO_COPY_READ)
+                .desc("read files by short-circuit local reads and the "
+                        + "enhanced byte buffer read api when running on a "
+                        + "DataNode, falls back to normal reads for remote "
+                        + "blocks").build();
+    }
+
+    public static Option getZeroCopySkipChecksum() {
+        return Option.builder(ZERO_COPY_SKIP_CHECKSUM).longOpt(ZERO_COPY_SKIP_CHECKSUM)
+                .desc("skip hdfs checksum verification in zero copy reads so "
+                        + "that local blocks can be memory mapped").build();
+    }
+
     public static Option getMaxRetryNum() {
         return Option.builder(MAX_RETRY_NUM).longOpt(MAX_RETRY_NUM).hasArg()
                 .desc("the maximum retry count when uploading failed.").build();
@@ -189,6 +344,102 @@ public class OptionsArgsName {
 
     public static Option getTrafficLimit() {
         return Option.builder(TRAFFIC_LIMIT).longOpt("TRAFFIC_LIMIT").hasArg()
-                .desc("the traffic limit for transfer data").build();
+                .desc("the total upload bandwidth in bit/s, shared by all "
+                        + "files and parts through a client side token "
+                        + "bucket").build();
+    }
+
+    public static Option getIncremental() {
+        return Option.builder(INCREMENTAL).longOpt(INCREMENTAL)
+                .desc("only upload the files modified after the last "
+                        + "successful run of the same hdfs_path and cos_path, "
+                        + "the watermark is saved under ./scp").build();
+    }
+
+    public static Option getIncrementalPruneDir() {
+        return Option.builder(INCREMENTAL_PRUNE_DIR).longOpt(INCREMENTAL_PRUNE_DIR)
+                .desc("with incremental, do not list the directories whose "
+                        + "modification time is older than the watermark. Only "
+                        + "safe when existing directories never get new files in"
+                        + " their sub directories, e.g. partitions are added by "
+                        + "rename and never changed afterwards").build();
+    }
+
+    public static Option getSnapshotDiff() {
+        return Option.builder(SNAPSHOT_DIFF).longOpt(SNAPSHOT_DIFF)
+                .desc("create a snapshot on hdfs_path (snapshot must be allowed"
+                        + " by the administrator) and only upload the files "
+                        + "created or modified since the snapshot of the last "
+                        + "successful run").build();
+    }
+
+    public static Option getSnapshotDeleteRemoved() {
+        return Option.builder(SNAPSHOT_DELETE_REMOVED).longOpt(SNAPSHOT_DELETE_REMOVED)
+                .desc("with snapshot_diff, delete the cos objects whose hdfs "
+                        + "files are deleted or renamed since the last "
+                        + "successful run").build();
+    }
+
+    public static Option getMaxHarCacheNum() {
+        return Option.builder(MAX_HAR_CACHE_NUM).longOpt(MAX_HAR_CACHE_NUM).hasArg()
+                .desc("the maximum number of initialized har archives kept in "
+                        + "memory while decompressing har files. default 16").build();
+    }
+
+    public static Option getBundleFileSize() {
+        return Option.builder(BUNDLE_FILE_SIZE).longOpt(BUNDLE_FILE_SIZE).hasArg()
+                .desc("pack the files smaller than this size in bytes into "
+                        + "bundle objects under cos_path/"
+                        + "_hdfs_to_cos_bundles/ together with an index, "
+                        + "read them back by BundleReader. default 0, disabled")
+                .build();
+    }
+
+    public static Option getBundleSize() {
+        return Option.builder(BUNDLE_SIZE).longOpt(BUNDLE_SIZE).hasArg()
+                .desc("the target size in bytes of each bundle object, at "
+                        + "most 128MB. default 16MB").build();
+    }
+
+    public static Option getRunMode() {
+        return Option.builder(RUN_MODE).longOpt(RUN_MODE).hasArg()
+                .desc("run mode as one of [run/plan/execute]. plan only lists "
+                        + "hdfs_path and writes the files into manifest_path, "
+                        + "execute uploads the files recorded in manifest_path "
+                        + "without listing hdfs. default run").build();
+    }
+
+    public static Option getManifestPath() {
+        return Option.builder(MANIFEST_PATH).longOpt(MANIFEST_PATH).hasArg()
+                .desc("the transfer manifest path used by plan and execute "
+                        + "mode, like file:///data/manifest or "
+                        + "hdfs:///tmp/manifest").build();
+    }
+
+    public static Option getManifestShard() {
+        return Option.builder(MANIFEST_SHARD).longOpt(MANIFEST_SHARD).hasArg()
+                .desc("only execute the i-th of n shards of the manifest, "
+                        + "format as i/n, i starts from 0").build();
+    }
+
+    public static Option getMetricsFile() {
+        return Option.builder(METRICS_FILE).longOpt(METRICS_FILE).hasArg()
+                .desc("write the counters, latency histograms, rates and "
+                        + "queue depths in the prometheus text format to "
+                        + "this local file every metrics_interval seconds, "
+                        + "the same metrics are exported over jmx").build();
+    }
+
+    public static Option getMetricsInterval() {
+        return Option.builder(METRICS_INTERVAL).longOpt(METRICS_INTERVAL).hasArg()
+                .desc("the interval in seconds to compute the rates and "
+                        + "write the metrics file. default 10").build();
+    }
+
+    public static Option getProgressInterval() {
+        return Option.builder(PROGRESS_INTERVAL).longOpt(PROGRESS_INTERVAL).hasArg()
+                .desc("print the bytes and files done versus discovered, the "
+                        + "moving average throughput and the eta every this "
+                        + "many seconds. default 10, 0 to disable").build();
     }
 }
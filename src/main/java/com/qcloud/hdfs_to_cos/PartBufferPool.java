@@ -0,0 +1,68 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.ArrayDeque;
+
+/**
+ * 分块上传使用的缓冲区池，所有文件共享。
+ * 每个缓冲区的大小为max_upload_part_size，最多创建part_buffer_num个，占用的内存不超过两者的乘积。
+ * 上传线程把下一个分块读入缓冲区的同时，调度器中的线程在发送之前读好的分块，重试时直接从缓冲区重新发送。
+ */
+public class PartBufferPool {
+    private static PartBufferPool instance = null;
+
+    private final int bufferSize;
+    private final int maxBufferNum;
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<byte[]>();
+    private int allocatedNum = 0;
+
+    public PartBufferPool(int bufferSize, int maxBufferNum) {
+        if (bufferSize <= 0 || maxBufferNum <= 0) {
+            throw new IllegalArgumentException(
+                    "buffer size and buffer num must be positive.");
+        }
+        this.bufferSize = bufferSize;
+        this.maxBufferNum = maxBufferNum;
+    }
+
+    /**
+     * 获取进程内共享的缓冲区池，没有指定part_buffer_num时返回null，分块直接从文件流式读取
+     */
+    public static synchronized PartBufferPool getInstance(ConfigReader configReader) {
+        if (null == instance && configReader.getPartBufferNum() > 0) {
+            instance = new PartBufferPool(configReader.getPartSize(),
+                    configReader.getPartBufferNum());
+        }
+        return instance;
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * 取出一个缓冲区，所有缓冲区都在使用时阻塞，直到有缓冲区归还
+     */
+    public synchronized byte[] acquire() throws InterruptedException {
+        while (this.freeBuffers.isEmpty() && this.allocatedNum >= this.maxBufferNum) {
+            this.wait();
+        }
+        if (!this.freeBuffers.isEmpty()) {
+            return this.freeBuffers.pop();
+        }
+        byte[] buffer = new byte[this.bufferSize];
+        this.allocatedNum++;
+        return buffer;
+    }
+
+    public synchronized void release(byte[] buffer) {
+        this.freeBuffers.push(buffer);
+        this.notifyAll();
+    }
+
+    /**
+     * 已经创建的缓冲区数
+     */
+    public synchronized int getAllocatedNum() {
+        return this.allocatedNum;
+    }
+}
@@ -0,0 +1,104 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块的推测执行。
+ * 记录最近成功的分块按照1MB折算的耗时，一个分块的本次尝试已经超过同样大小的p95耗时的两倍时，认为它落后了，
+ * 再发起一个相同的分块上传，先完成的一个提供ETag。同一个分块的数据相同，两个上传得到的ETag和CRC64也相同。
+ * 重复发送的字节数不超过已提交分块字节数的hedge_part_percent%。
+ */
+public class PartHedger {
+    private static final int SAMPLE_NUM = 256;              // 保留最近的耗时样本数
+    private static final int MIN_SAMPLE_NUM = 20;           // 样本太少时不推测执行
+    private static final double HEDGE_LATENCY_FACTOR = 2.0; // 超过p95的倍数
+    private static final long MIN_HEDGE_DELAY_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(100);             // 至少运行100毫秒以后才推测执行
+    private static final long LATENCY_UNIT_SIZE = 1024 * 1024L;
+    private static PartHedger instance = null;
+
+    private final int maxHedgePercent;
+    private final long[] samples = new long[SAMPLE_NUM];
+    private int sampleNum = 0;
+    private int nextSample = 0;
+    private long p95 = -1;              // 缓存的p95，样本变化后重新计算
+    private long submittedBytes = 0;
+    private long hedgedBytes = 0;
+    private long hedgedPartNum = 0;
+
+    public PartHedger(int maxHedgePercent) {
+        if (maxHedgePercent <= 0) {
+            throw new IllegalArgumentException("hedge part percent must be positive.");
+        }
+        this.maxHedgePercent = maxHedgePercent;
+    }
+
+    /**
+     * 获取进程内共享的推测执行器，没有指定hedge_part_percent时返回null
+     */
+    public static synchronized PartHedger getInstance(ConfigReader configReader) {
+        if (configReader.getHedgePartPercent() <= 0) {
+            return null;
+        }
+        if (null == instance) {
+            instance = new PartHedger(configReader.getHedgePartPercent());
+        }
+        return instance;
+    }
+
+    /**
+     * 记录一个成功的分块的耗时
+     */
+    public synchronized void recordLatency(long partSize, long latencyNanos) {
+        this.samples[this.nextSample] = latencyNanos * LATENCY_UNIT_SIZE
+                / Math.max(partSize, LATENCY_UNIT_SIZE);
+        this.nextSample = (this.nextSample + 1) % SAMPLE_NUM;
+        this.sampleNum = Math.min(this.sampleNum + 1, SAMPLE_NUM);
+        this.p95 = -1;
+    }
+
+    /**
+     * 记录提交的分块，重复发送的字节按照它的比例限制
+     */
+    public synchronized void recordSubmittedPart(long partSize) {
+        this.submittedBytes += partSize;
+    }
+
+    /**
+     * 分块运行超过这个时间以后可以推测执行，样本不足时返回Long.MAX_VALUE
+     */
+    public synchronized long getHedgeDelayNanos(long partSize) {
+        if (this.sampleNum < MIN_SAMPLE_NUM) {
+            return Long.MAX_VALUE;
+        }
+        if (this.p95 < 0) {
+            long[] sorted = Arrays.copyOf(this.samples, this.sampleNum);
+            Arrays.sort(sorted);
+            this.p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        }
+        long expected = this.p95 * Math.max(partSize, LATENCY_UNIT_SIZE)
+                / LATENCY_UNIT_SIZE;
+        return Math.max(MIN_HEDGE_DELAY_NANOS, (long) (expected * HEDGE_LATENCY_FACTOR));
+    }
+
+    /**
+     * 为一个重复的分块取得额度，重复发送的字节超过上限时返回false
+     */
+    public synchronized boolean tryAcquire(long partSize) {
+        if ((this.hedgedBytes + partSize) * 100 > this.submittedBytes * this.maxHedgePercent) {
+            return false;
+        }
+        this.hedgedBytes += partSize;
+        this.hedgedPartNum++;
+        return true;
+    }
+
+    public synchronized long getHedgedBytes() {
+        return this.hedgedBytes;
+    }
+
+    public synchronized long getHedgedPartNum() {
+        return this.hedgedPartNum;
+    }
+}
@@ -0,0 +1,221 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 进程内所有文件共享的分块上传调度器。
+ * 分块在一个work stealing的线程池中执行，空闲线程可以处理任何文件的分块，线程只在需要时创建，空闲后自动回收。
+ * 全局的在途分块数不超过max_inflight_part_num，多个文件按照提交的先后公平地分享这些名额，
+ * 只剩一个大文件时它可以用满所有名额。开启adaptive_concurrency时在途分块数的上限由AIMD控制器按照限流和延迟调整。
+ */
+public class PartUploadScheduler {
+    private static PartUploadScheduler instance = null;
+
+    private final ForkJoinPool pool;
+    private final AimdController controller;
+
+    public PartUploadScheduler(int maxInflightNum) {
+        this(AimdController.fixed("part", checkInflightNum(maxInflightNum)));
+    }
+
+    public PartUploadScheduler(AimdController controller) {
+        this.controller = controller;
+        // 分块之间没有依赖，使用FIFO模式，先提交的分块先上传
+        this.pool = new ForkJoinPool(controller.getMaxLimit(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    private static int checkInflightNum(int maxInflightNum) {
+        if (maxInflightNum <= 0) {
+            throw new IllegalArgumentException("max inflight part num must be positive.");
+        }
+        return maxInflightNum;
+    }
+
+    /**
+     * 获取进程内共享的调度器，第一次调用时按照配置的在途分块数创建
+     */
+    public static synchronized PartUploadScheduler getInstance(
+            ConfigReader configReader) {
+        if (null == instance) {
+            int maxInflightNum = checkInflightNum(configReader.getMaxInflightPartNum());
+            instance = new PartUploadScheduler(AimdController.create("part",
+                    maxInflightNum, configReader));
+            final AimdController controller = instance.controller;
+            Metrics.instance.gauge("inflight_parts", null, null,
+                    "parts being uploaded or waiting for retry",
+                    new Metrics.Gauge() {
+                        @Override
+                        public double getValue() {
+                            return controller.getInflightNum();
+                        }
+                    });
+            Metrics.instance.gauge("part_concurrency_limit", null, null,
+                    "current limit of inflight parts", new Metrics.Gauge() {
+                        @Override
+                        public double getValue() {
+                            return controller.getLimit();
+                        }
+                    });
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一个分块，在途的分块数达到上限时阻塞，直到有分块完成
+     */
+    public <T> Future<T> submit(final Callable<T> part) throws InterruptedException {
+        this.controller.acquire();
+        try {
+            return this.pool.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return part.call();
+                    } finally {
+                        controller.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            this.controller.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 提交一个可以重试的分块，在途的分块数达到上限时阻塞。
+     * 失败的尝试不在线程中睡眠等待，而是放入RetryScheduler的延迟队列，线程继续上传其他分块；
+     * 等待重试期间分块仍然占用在途名额，COS异常时不会因此提交更多的新分块
+     */
+    public <T> Future<T> submitWithRetry(RetryableTask<T> part)
+            throws InterruptedException {
+        this.controller.acquire();
+        ResultFuture<T> result = new ResultFuture<T>();
+        try {
+            this.runAttempt(part, result, 0);
+        } catch (RuntimeException e) {
+            this.controller.release();
+            throw e;
+        }
+        return result;
+    }
+
+    private <T> void runAttempt(final RetryableTask<T> part,
+            final ResultFuture<T> result, final int attemptIndex) {
+        this.pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                T value = null;
+                Exception exception = null;
+                try {
+                    value = part.attempt(attemptIndex);
+                } catch (Exception e) {
+                    long delay = part.getRetryDelay(attemptIndex, e);
+                    if (delay >= 0) {
+                        RetryScheduler.instance.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                runAttempt(part, result, attemptIndex + 1);
+                            }
+                        }, delay);
+                        return;
+                    }
+                    exception = e;
+                }
+                controller.release();
+                try {
+                    part.onFinish();
+                } finally {
+                    result.set(value, exception);
+                }
+            }
+        });
+    }
+
+    /**
+     * 分块最终的结果
+     */
+    private static class ResultFuture<T> implements Future<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T value;
+        private Exception exception;
+
+        void set(T value, Exception exception) {
+            this.value = value;
+            this.exception = exception;
+            this.done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            this.done.await();
+            return this.getResult();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (!this.done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return this.getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if (null != this.exception) {
+                throw new ExecutionException(this.exception);
+            }
+            return this.value;
+        }
+    }
+
+    /**
+     * 在途分块数的控制器，分块上传请求的结果反馈给它用于调整上限
+     */
+    public AimdController getController() {
+        return this.controller;
+    }
+
+    /**
+     * 正在上传的分块数
+     */
+    public int getInflightNum() {
+        return this.controller.getInflightNum();
+    }
+
+    /**
+     * 当前的在途分块数上限
+     */
+    public int getMaxInflightNum() {
+        return this.controller.getLimit();
+    }
+
+    /**
+     * 当前线程池中的线程数
+     */
+    public int getPoolSize() {
+        return this.pool.getPoolSize();
+    }
+}
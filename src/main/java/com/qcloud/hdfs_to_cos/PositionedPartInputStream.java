@@ -0,0 +1,81 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+/**
+ * 基于positional read读取文件中的一段数据。
+ * 同一个文件的多个分块可以共享一个打开的输入流并发读取，不需要为每个分块重新打开文件。
+ * 关闭该流不会关闭底层共享的输入流。
+ */
+public class PositionedPartInputStream extends InputStream {
+    private PositionedReadable in;
+    private long end;
+    private long pos;
+    private long markPos;
+
+    public PositionedPartInputStream(PositionedReadable in, long start,
+            long length) {
+        this.in = in;
+        this.pos = start;
+        this.markPos = start;
+        this.end = start + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] oneByte = new byte[1];
+        int nRead = read(oneByte, 0, 1);
+        return nRead <= 0 ? -1 : (oneByte[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.pos >= this.end) {
+            return -1;
+        }
+        int nToRead = (int) Math.min(len, this.end - this.pos);
+        int nRead = this.in.read(this.pos, b, off, nToRead);
+        if (nRead > 0) {
+            this.pos += nRead;
+        }
+        return nRead;
+    }
+
+    @Override
+    public long skip(long n) {
+        long nSkip = Math.max(0, Math.min(n, this.end - this.pos));
+        this.pos += nSkip;
+        return nSkip;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, this.end - this.pos);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.markPos = this.pos;
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.pos = this.markPos;
+    }
+
+    @Override
+    public void close() {
+        // 底层输入流由文件上传任务统一关闭
+    }
+}
@@ -0,0 +1,256 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 定期打印上传进度：扫描发现的文件数和字节数、已经完成的文件数和字节数、滑动平均的吞吐量和预计剩余时间。
+ * 完成的字节包括已经结束的文件和正在上传的文件已经发送的部分，正在发送的分块按照已经读取的字节计入。
+ * 每个发送中的输入流只由发送线程更新自己的计数，打印时再汇总，上传路径上没有共享的写入。
+ * 扫描还没有结束时，剩余时间只按照已经发现的文件估算
+ */
+public class ProgressReporter {
+    private static final Logger log = LoggerFactory.getLogger(ProgressReporter.class);
+    private static final double RATE_ALPHA = 0.3;       // 吞吐量滑动平均的权重
+
+    public static final ProgressReporter instance = new ProgressReporter();
+
+    private final Metrics.Counter discoveredFiles = new Metrics.Counter(
+            "discovered_files", null, null, "files found by the scanner");
+    private final Metrics.Counter discoveredBytes = new Metrics.Counter(
+            "discovered_bytes", null, null, "bytes of the files found by the scanner");
+    private final Metrics.Counter finishedFiles = new Metrics.Counter(
+            "finished_files", null, null, "uploaded, skipped and failed files");
+    private final Metrics.Counter finishedBytes = new Metrics.Counter(
+            "finished_bytes", null, null,
+            "bytes of the uploaded, skipped and failed files");
+    private final Set<FileProgress> activeFiles =
+            Collections.newSetFromMap(new ConcurrentHashMap<FileProgress, Boolean>());
+    private volatile boolean scanFinished = false;
+    private ScheduledExecutorService timer = null;
+
+    // 只在打印线程中访问
+    private long lastDoneBytes = -1;
+    private long lastNanos = 0;
+    private double rate = 0;
+
+    ProgressReporter() {
+    }
+
+    /**
+     * 扫描到一个需要上传的文件或者打包的har part文件
+     */
+    public void addDiscovered(long fileNum, long bytes) {
+        this.discoveredFiles.add(fileNum);
+        this.discoveredBytes.add(bytes);
+    }
+
+    public void setScanFinished() {
+        this.scanFinished = true;
+    }
+
+    /**
+     * 开始上传一个文件，上传过程中读取的数据通过track记录
+     */
+    public FileProgress startFile(long length) {
+        FileProgress progress = new FileProgress(length);
+        this.activeFiles.add(progress);
+        return progress;
+    }
+
+    /**
+     * 一个文件上传成功、跳过或者失败，progress为空时表示没有开始上传
+     */
+    public void finishFile(FileProgress progress, long length) {
+        if (null != progress) {
+            if (!progress.finished.compareAndSet(false, true)) {
+                return;
+            }
+            this.activeFiles.remove(progress);
+        }
+        this.finishedFiles.add(1);
+        this.finishedBytes.add(length);
+    }
+
+    /**
+     * 记录从输入流读取的字节，progress为空时直接返回原来的输入流
+     */
+    public static InputStream track(FileProgress progress, InputStream in) {
+        return null == progress ? in : new ProgressInputStream(in, progress);
+    }
+
+    public long getDiscoveredBytes() {
+        return this.discoveredBytes.get();
+    }
+
+    public long getFinishedFiles() {
+        return this.finishedFiles.get();
+    }
+
+    /**
+     * 已经结束的文件的字节加上正在上传的文件已经读取的字节
+     */
+    public long getDoneBytes() {
+        long done = this.finishedBytes.get();
+        for (FileProgress progress : this.activeFiles) {
+            done += progress.getSentBytes();
+        }
+        return done;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (intervalMillis <= 0 || null != this.timer) {
+            return;
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                print(report(System.nanoTime()));
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (null != this.timer) {
+            this.timer.shutdownNow();
+            this.timer = null;
+            print(report(System.nanoTime()));
+        }
+    }
+
+    private static void print(String line) {
+        log.info(line);
+        System.out.println(line);
+    }
+
+    /**
+     * 更新滑动平均的吞吐量并生成进度
+     */
+    synchronized String report(long nowNanos) {
+        long doneBytes = getDoneBytes();
+        if (this.lastDoneBytes >= 0 && nowNanos > this.lastNanos) {
+            double currentRate = Math.max(0, doneBytes - this.lastDoneBytes)
+                    * 1e9 / (nowNanos - this.lastNanos);
+            this.rate = this.rate <= 0 ? currentRate
+                    : RATE_ALPHA * currentRate + (1 - RATE_ALPHA) * this.rate;
+        }
+        this.lastDoneBytes = doneBytes;
+        this.lastNanos = nowNanos;
+
+        long totalBytes = Math.max(doneBytes, this.discoveredBytes.get());
+        long remainingBytes = totalBytes - doneBytes;
+        String eta;
+        if (remainingBytes == 0) {
+            eta = "00:00:00";
+        } else if (this.rate <= 0) {
+            eta = "unknown";
+        } else {
+            long seconds = (long) Math.ceil(remainingBytes / this.rate);
+            eta = String.format(Locale.US, "%02d:%02d:%02d", seconds / 3600,
+                    seconds / 60 % 60, seconds % 60);
+        }
+        return String.format(Locale.US, "[Progress: %s / %s(%.1f%%), %d / %d "
+                        + "files, %.2f MB/s, ETA %s%s]", formatBytes(doneBytes),
+                formatBytes(totalBytes),
+                totalBytes == 0 ? 100.0 : doneBytes * 100.0 / totalBytes,
+                this.finishedFiles.get(), this.discoveredFiles.get(),
+                this.rate / 1024 / 1024, eta, this.scanFinished ? "" : ", scanning");
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        } else if (bytes < 1024 * 1024 * 1024L) {
+            return String.format(Locale.US, "%.1f MB", bytes / 1024.0 / 1024);
+        }
+        return String.format(Locale.US, "%.2f GB", bytes / 1024.0 / 1024 / 1024);
+    }
+
+    /**
+     * 一个正在上传的文件的进度
+     */
+    public static class FileProgress {
+        private final long length;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private final AtomicLong closedBytes = new AtomicLong();    // 已经关闭的输入流读取的字节
+        private final Set<ProgressInputStream> openStreams = Collections.newSetFromMap(
+                new ConcurrentHashMap<ProgressInputStream, Boolean>());
+
+        FileProgress(long length) {
+            this.length = length;
+        }
+
+        /**
+         * 已经读取的字节，重试和推测执行重复读取的数据可能多算，不超过文件的长度
+         */
+        long getSentBytes() {
+            long bytes = this.closedBytes.get();
+            for (ProgressInputStream stream : this.openStreams) {
+                bytes += stream.bytesRead;
+            }
+            return Math.min(bytes, this.length);
+        }
+    }
+
+    private static class ProgressInputStream extends FilterInputStream {
+        private final FileProgress progress;
+        private volatile long bytesRead = 0;    // 只由读取的线程写入
+        private boolean closed = false;
+
+        ProgressInputStream(InputStream in, FileProgress progress) {
+            super(in);
+            this.progress = progress;
+            progress.openStreams.add(this);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = this.in.read();
+            if (b >= 0) {
+                this.bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int nRead = this.in.read(b, off, len);
+            if (nRead > 0) {
+                this.bytesRead += nRead;
+            }
+            return nRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                this.progress.closedBytes.addAndGet(this.bytesRead);
+                this.progress.openStreams.remove(this);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+
+/**
+ * 进程内共享的重试调度。
+ * 失败的分块和文件放入延迟队列，退避时间到了以后再交给调度器或者任务队列，等待期间上传线程可以处理其他任务。
+ * 所有重试共享一个预算：每个请求为预算增加0.2次，每秒至少补充10次，预算用完以后不再重试，
+ * 避免COS故障期间大量重试进一步放大压力。4xx的客户端错误(限流除外)重试也不会成功，直接失败；
+ * 连接重置、超时等客户端异常和5xx一样按照退避间隔重试。
+ */
+public class RetryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private static final double BUDGET_PER_REQUEST = 0.2;
+    private static final double MIN_RETRIES_PER_SECOND = 10;
+    private static final double MAX_BUDGET = 1000;
+    private static final long REQUEUE_INTERVAL = 100;     // 任务队列已满时再次放入的间隔，单位毫秒
+
+    public static final RetryScheduler instance = new RetryScheduler();
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicInteger pendingNum = new AtomicInteger(0);
+    private double budget = MAX_BUDGET;
+    private long lastRefillNanos = System.nanoTime();
+    private long rejectedNum = 0;
+    private boolean closing = false;
+
+    private RetryScheduler() {
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "retry-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 重试可能成功的错误：5xx、限流和请求超时
+     */
+    public static boolean isRetryable(CosServiceException e) {
+        int statusCode = e.getStatusCode();
+        return statusCode >= 500 || statusCode == 408 || statusCode == 0
+                || AimdController.isThrottled(e);
+    }
+
+    /**
+     * 重试可能成功的异常：可以重试的服务端错误，以及连接重置、超时等客户端异常
+     */
+    public static boolean isRetryable(Exception e) {
+        if (e instanceof CosServiceException) {
+            return isRetryable((CosServiceException) e);
+        }
+        return e instanceof CosClientException;
+    }
+
+    /**
+     * 记录一个新的请求(非重试)
+     */
+    public synchronized void recordRequest() {
+        this.budget = Math.min(MAX_BUDGET, this.budget + BUDGET_PER_REQUEST);
+    }
+
+    /**
+     * 从预算中取出一次重试，预算用完时返回false
+     */
+    public synchronized boolean tryAcquireRetry() {
+        long now = System.nanoTime();
+        this.budget = Math.min(MAX_BUDGET, this.budget
+                + (now - this.lastRefillNanos) * MIN_RETRIES_PER_SECOND / 1e9);
+        this.lastRefillNanos = now;
+        if (this.budget < 1) {
+            this.rejectedNum++;
+            if (this.rejectedNum % 100 == 1) {
+                log.warn("retry budget is exhausted, {} retries are rejected.",
+                        this.rejectedNum);
+            }
+            return false;
+        }
+        this.budget -= 1;
+        return true;
+    }
+
+    /**
+     * 可以重试时返回第attemptIndex次失败以后的退避间隔，不能重试时返回-1
+     */
+    public long getRetryDelay(int attemptIndex, int maxAttemptNum,
+            long retryInterval, Exception e) {
+        if (!isRetryable(e)
+                || attemptIndex + 1 >= maxAttemptNum
+                || !tryAcquireRetry()) {
+            return -1;
+        }
+        return Utils.getBackoffInterval(attemptIndex, retryInterval);
+    }
+
+    /**
+     * 延迟delayMillis以后执行
+     */
+    public void schedule(final Runnable runnable, long delayMillis) {
+        this.pendingNum.incrementAndGet();
+        this.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    log.error("run the retry occurs an exception.", e);
+                } finally {
+                    pendingNum.decrementAndGet();
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把失败的文件延迟以后重新放入任务队列，正在退出时返回false，由调用者在当前线程重试
+     */
+    public synchronized boolean parkFile(final FileToCosTask task,
+            final BlockingQueue<FileToCosTask> taskQueue, long delayMillis) {
+        if (this.closing) {
+            return false;
+        }
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!taskQueue.offer(task)) {
+                    schedule(this, REQUEUE_INTERVAL);
+                }
+            }
+        }, delayMillis);
+        return true;
+    }
+
+    /**
+     * 准备退出，之后失败的文件在上传线程中重试，不再放入延迟队列
+     */
+    public synchronized void close() {
+        this.closing = true;
+    }
+
+    /**
+     * 等待重试的分块和文件数
+     */
+    public int getPendingNum() {
+        return this.pendingNum.get();
+    }
+}
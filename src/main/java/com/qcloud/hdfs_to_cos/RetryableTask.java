@@ -0,0 +1,23 @@
+package com.qcloud.hdfs_to_cos;
+
+/**
+ * 可以分多次尝试的任务，两次尝试之间不占用线程，由RetryScheduler在退避时间到了以后重新提交
+ */
+public interface RetryableTask<T> {
+    /**
+     * 执行一次尝试
+     *
+     * @param attemptIndex 第几次尝试，从0开始
+     */
+    T attempt(int attemptIndex) throws Exception;
+
+    /**
+     * 第attemptIndex次尝试失败以后的退避间隔，单位毫秒，小于0表示不再重试
+     */
+    long getRetryDelay(int attemptIndex, Exception e);
+
+    /**
+     * 任务成功或者最终失败以后调用，用于释放资源
+     */
+    void onFinish();
+}
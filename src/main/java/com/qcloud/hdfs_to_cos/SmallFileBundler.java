@@ -0,0 +1,88 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.qcloud.cos.COSClient;
+
+/**
+ * 收集扫描到的小文件，累计到bundle_size时生成一个打包上传的任务，会被多个扫描线程并发调用。
+ * 开启skip_if_len_match时，已经打包上传过并且长度一致的文件直接跳过。
+ */
+public class SmallFileBundler {
+    private final ConfigReader configReader;
+    private final COSClient cosClient;
+    private final String destCosPath;
+    private BundleReader existingBundles = null;
+    private List<FileToCosTask> pendingMembers = new ArrayList<FileToCosTask>();
+    private long pendingLength = 0;
+
+    /**
+     * @param destCosPath 目的路径，bundle存放在它的_hdfs_to_cos_bundles/目录下
+     */
+    public SmallFileBundler(ConfigReader configReader, COSClient cosClient,
+            String destCosPath) {
+        this.configReader = configReader;
+        this.cosClient = cosClient;
+        this.destCosPath = destCosPath;
+    }
+
+    /**
+     * 设置已经上传的bundle的索引，用于跳过已经打包上传过的文件
+     */
+    public void setExistingBundles(BundleReader existingBundles) {
+        this.existingBundles = existingBundles;
+    }
+
+    /**
+     * 是否需要打包上传。只接受对应单个文件的任务，har part文件任务的fileStatus是整个part文件，
+     * 打包时上传的是part文件本身而不是其中的成员
+     */
+    public boolean accept(FileToCosTask task) {
+        return task.getClass() == FileToCosTask.class
+                && task.fileStatus.isFile()
+                && task.fileStatus.getLen() < this.configReader.getBundleFileSize();
+    }
+
+    /**
+     * 加入一个需要打包上传的文件
+     *
+     * @return 累计到bundle_size时返回需要提交的打包任务，否则返回null
+     */
+    public synchronized BundleToCosTask add(FileToCosTask task) {
+        long length = task.fileStatus.getLen();
+        if (this.configReader.isSkipIfLengthMatch() && null != this.existingBundles) {
+            BundleIndex.Entry entry = this.existingBundles.getEntry(task.cosPath);
+            if (null != entry && entry.getLength() == length) {
+                Statistics.instance.addSkipFile();
+                ProgressReporter.instance.finishFile(null, length);
+                return null;
+            }
+        }
+
+        BundleToCosTask bundleTask = null;
+        if (this.pendingLength + length > this.configReader.getBundleSize()) {
+            bundleTask = flush();
+        }
+        this.pendingMembers.add(task);
+        this.pendingLength += length;
+        return bundleTask;
+    }
+
+    /**
+     * 把还没有打包的文件生成一个打包任务
+     *
+     * @return 没有待打包的文件时返回null
+     */
+    public synchronized BundleToCosTask flush() {
+        if (this.pendingMembers.isEmpty()) {
+            return null;
+        }
+        BundleToCosTask bundleTask = new BundleToCosTask(this.configReader,
+                this.cosClient, this.pendingMembers, this.pendingLength,
+                BundleIndex.newBundleKey(this.destCosPath));
+        this.pendingMembers = new ArrayList<FileToCosTask>();
+        this.pendingLength = 0;
+        return bundleTask;
+    }
+}
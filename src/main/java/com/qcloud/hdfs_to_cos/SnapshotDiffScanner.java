@@ -0,0 +1,212 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于HDFS快照差异的增量扫描。
+ * 每次运行在源目录上创建一个新快照，与上一次成功同步留下的快照做diff，只回调新建、修改和删除的路径，
+ * 不需要遍历整棵目录树。上传时读取新快照中的文件，保证读到的是一致的视图。
+ * 运行成功后删除旧快照，新快照作为下一次的基准；失败时删除新快照，下一次仍然从旧快照开始。
+ */
+public class SnapshotDiffScanner {
+    private static final Logger log =
+            LoggerFactory.getLogger(SnapshotDiffScanner.class);
+    static final String SNAPSHOT_PREFIX = "hdfs_to_cos_";
+    private static final String SNAPSHOT_DIR_NAME = ".snapshot";
+
+    /**
+     * 快照差异的处理回调。删除的路径先于新建的路径回调，避免删除后又新建的同名路径被误删
+     */
+    public interface DiffVisitor {
+        /**
+         * 新建的路径，或者重命名以后的目标路径。新建的目录只会回调目录本身，不包括其中的成员
+         *
+         * @param member 新快照中的FileStatus
+         */
+        void created(FileStatus member) throws Exception;
+
+        /**
+         * 修改过的路径，目录的修改只表示其直接成员有变化
+         *
+         * @param member 新快照中的FileStatus
+         */
+        void modified(FileStatus member) throws Exception;
+
+        /**
+         * 删除的路径，或者重命名之前的源路径
+         *
+         * @param member 旧快照中的FileStatus，路径换算成在新快照中的位置，便于统一转换为COS路径
+         */
+        void deleted(FileStatus member) throws Exception;
+    }
+
+    private DistributedFileSystem dfs;
+    private Path snapshotRoot;
+    private String prevSnapshotName;
+    private String currentSnapshotName;
+
+    public SnapshotDiffScanner(DistributedFileSystem dfs, Path snapshotRoot) {
+        this.dfs = dfs;
+        this.snapshotRoot = snapshotRoot;
+    }
+
+    /**
+     * 查找上一次成功同步留下的快照，并创建本次的快照
+     */
+    public void createSnapshot() throws IOException {
+        this.prevSnapshotName = this.findLatestSnapshot();
+        String snapshotName = SNAPSHOT_PREFIX
+                + new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date());
+        if (null != this.prevSnapshotName
+                && snapshotName.compareTo(this.prevSnapshotName) <= 0) {
+            throw new IOException("the new snapshot " + snapshotName
+                    + " is not newer than the previous snapshot "
+                    + this.prevSnapshotName + ", please check the clock.");
+        }
+        Statistics.instance.addNameNodeRpc();
+        this.dfs.createSnapshot(this.snapshotRoot, snapshotName);
+        this.currentSnapshotName = snapshotName;
+        log.info("create snapshot {} on {}, previous snapshot: {}",
+                snapshotName, this.snapshotRoot, this.prevSnapshotName);
+    }
+
+    private String findLatestSnapshot() throws IOException {
+        Path snapshotDir = new Path(this.snapshotRoot, SNAPSHOT_DIR_NAME);
+        String latest = null;
+        Statistics.instance.addNameNodeRpc();
+        for (FileStatus snapshot : this.dfs.listStatus(snapshotDir)) {
+            String name = snapshot.getPath().getName();
+            if (name.startsWith(SNAPSHOT_PREFIX)
+                    && (null == latest || name.compareTo(latest) > 0)) {
+                latest = name;
+            }
+        }
+        return latest;
+    }
+
+    private Path getSnapshotPath(String snapshotName) {
+        return new Path(this.snapshotRoot, SNAPSHOT_DIR_NAME + "/" + snapshotName);
+    }
+
+    private static Path resolve(Path snapshotPath, byte[] relativePath) {
+        String relative = DFSUtil.bytes2String(relativePath);
+        if (relative.isEmpty()) {
+            return snapshotPath;
+        }
+        return new Path(snapshotPath, relative);
+    }
+
+    /**
+     * @return 本次快照的路径，上传时从这里读取文件
+     */
+    public Path getCurrentSnapshotPath() {
+        return this.getSnapshotPath(this.currentSnapshotName);
+    }
+
+    /**
+     * @return 上一次成功同步留下的快照名，第一次运行时为空，需要全量扫描
+     */
+    public String getPrevSnapshotName() {
+        return this.prevSnapshotName;
+    }
+
+    /**
+     * 计算两个快照的差异并回调，先回调所有删除，再回调新建和修改
+     *
+     * @return 处理失败的差异条目数
+     */
+    public long scan(DiffVisitor visitor) throws IOException {
+        if (null == this.prevSnapshotName || null == this.currentSnapshotName) {
+            throw new IllegalStateException("no snapshot to diff.");
+        }
+        Statistics.instance.addNameNodeRpc();
+        SnapshotDiffReport report = this.dfs.getSnapshotDiffReport(
+                this.snapshotRoot, this.prevSnapshotName, this.currentSnapshotName);
+        List<DiffReportEntry> entries = report.getDiffList();
+        log.info("{} diff entries between snapshot {} and {}", entries.size(),
+                this.prevSnapshotName, this.currentSnapshotName);
+
+        Path prevPath = this.getSnapshotPath(this.prevSnapshotName);
+        Path currentPath = this.getCurrentSnapshotPath();
+        long failedNum = 0;
+        for (DiffReportEntry entry : entries) {
+            SnapshotDiffReport.DiffType type = entry.getType();
+            if (type != SnapshotDiffReport.DiffType.DELETE
+                    && type != SnapshotDiffReport.DiffType.RENAME) {
+                continue;
+            }
+            Path memberPath = resolve(prevPath, entry.getSourcePath());
+            try {
+                FileStatus prevStatus = CommonHdfsUtils.getFileStatus(this.dfs,
+                        memberPath);
+                visitor.deleted(new FileStatus(prevStatus.getLen(),
+                        prevStatus.isDirectory(), 0, 0,
+                        prevStatus.getModificationTime(),
+                        resolve(currentPath, entry.getSourcePath())));
+            } catch (FileNotFoundException e) {
+                log.info("{} does not exist in the previous snapshot, skip.",
+                        memberPath);
+            } catch (Exception e) {
+                failedNum++;
+                log.error("handle deleted path " + memberPath + " occurs an "
+                        + "exception.", e);
+            }
+        }
+
+        for (DiffReportEntry entry : entries) {
+            SnapshotDiffReport.DiffType type = entry.getType();
+            if (type == SnapshotDiffReport.DiffType.DELETE) {
+                continue;
+            }
+            byte[] relativePath = type == SnapshotDiffReport.DiffType.RENAME
+                    ? entry.getTargetPath() : entry.getSourcePath();
+            Path memberPath = resolve(currentPath, relativePath);
+            try {
+                FileStatus status = CommonHdfsUtils.getFileStatus(this.dfs,
+                        memberPath);
+                if (type == SnapshotDiffReport.DiffType.MODIFY) {
+                    visitor.modified(status);
+                } else {
+                    visitor.created(status);
+                }
+            } catch (FileNotFoundException e) {
+                // 被重命名的目录下的成员会以旧路径出现，这些成员已经随着新目录一起处理
+                log.info("{} does not exist in the current snapshot, skip.",
+                        memberPath);
+            } catch (Exception e) {
+                failedNum++;
+                log.error("handle " + type + " path " + memberPath
+                        + " occurs an exception.", e);
+            }
+        }
+        return failedNum;
+    }
+
+    /**
+     * 所有任务结束以后调用。成功时删除旧快照，失败时删除新快照，保证下一次从最后一次成功的快照开始diff
+     */
+    public void finish(boolean success) throws IOException {
+        String obsoleteSnapshot = success
+                ? this.prevSnapshotName : this.currentSnapshotName;
+        if (null == obsoleteSnapshot) {
+            return;
+        }
+        Statistics.instance.addNameNodeRpc();
+        this.dfs.deleteSnapshot(this.snapshotRoot, obsoleteSnapshot);
+        log.info("delete snapshot {} on {}, run success: {}", obsoleteSnapshot,
+                this.snapshotRoot, success);
+    }
+}
@@ -14,6 +14,9 @@ public class Statistics {
     private AtomicLong uploadFileOkNum = new AtomicLong();
     private AtomicLong uploadFileFailedNum = new AtomicLong();
     private AtomicLong skipFileNum = new AtomicLong();
+    private AtomicLong nameNodeRpcNum = new AtomicLong();
+    private AtomicLong deleteObjectOkNum = new AtomicLong();
+    private AtomicLong deleteObjectFailedNum = new AtomicLong();
     private Date startTime;
 
     public static final Statistics instance = new Statistics();
@@ -45,6 +48,34 @@ public class Statistics {
         this.skipFileNum.incrementAndGet();
     }
 
+    public void addNameNodeRpc() {
+        this.nameNodeRpcNum.incrementAndGet();
+    }
+
+    public void addDeleteObjectOk() {
+        this.deleteObjectOkNum.incrementAndGet();
+    }
+
+    public void addDeleteObjectFail() {
+        this.deleteObjectFailedNum.incrementAndGet();
+    }
+
+    public long getDeleteObjectFailedNum() {
+        return this.deleteObjectFailedNum.get();
+    }
+
+    public long getUploadFileFailedNum() {
+        return this.uploadFileFailedNum.get();
+    }
+
+    public long getCreateFolderFailedNum() {
+        return this.createFolderFailedNum.get();
+    }
+
+    public long getNameNodeRpcNum() {
+        return this.nameNodeRpcNum.get();
+    }
+
     public void printStatics() {
         Date endTime = new Date();
         String infoMsg = String.format("[Folder Operation Result: [%d(sum)/ %d(ok) / %d(fail)]",
@@ -59,6 +90,21 @@ public class Statistics {
                 this.uploadFileOkNum.get(), this.uploadFileFailedNum.get(), this.skipFileNum.get());
         log.info(infoMsg);
         System.out.println(infoMsg);
+
+        if (this.deleteObjectOkNum.get() + this.deleteObjectFailedNum.get() > 0) {
+            infoMsg = String.format("[Delete Object Result: [%d(sum)/ %d(ok) / %d(fail)]",
+                    this.deleteObjectOkNum.get() + this.deleteObjectFailedNum.get(),
+                    this.deleteObjectOkNum.get(), this.deleteObjectFailedNum.get());
+            log.info(infoMsg);
+            System.out.println(infoMsg);
+        }
+
+        long fileNum = this.uploadFileOkNum.get() + this.uploadFileFailedNum.get() + this.skipFileNum.get();
+        infoMsg = String.format("[NameNode RPC: %d(sum) / %.2f(per file)]",
+                this.nameNodeRpcNum.get(),
+                fileNum == 0 ? 0.0 : (double) this.nameNodeRpcNum.get() / fileNum);
+        log.info(infoMsg);
+        System.out.println(infoMsg);
         System.out.println(String.format("[Used Time: %d s]", (endTime.getTime() - startTime.getTime()) / 1000));
     }
 }
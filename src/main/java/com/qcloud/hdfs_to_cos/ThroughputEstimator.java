@@ -0,0 +1,50 @@
+package com.qcloud.hdfs_to_cos;
+
+/**
+ * 单个连接的上传吞吐量估计，所有文件共享。
+ * 每次成功上传的分块或者单文件按照耗时计算吞吐量，以指数加权移动平均的方式更新，太小的请求主要是请求开销，不参与估计。
+ * 还没有测量值时使用默认值。
+ */
+public class ThroughputEstimator {
+    static final double DEFAULT_BYTES_PER_SECOND = 8 * 1024 * 1024;     // 默认每个连接8MB/s
+    static final long MIN_SAMPLE_SIZE = 1024 * 1024L;       // 小于1MB的请求不参与估计
+    private static final double ALPHA = 0.2;                // 新测量值的权重
+
+    private double bytesPerSecond = 0;
+    private long sampleNum = 0;
+
+    public static final ThroughputEstimator instance = new ThroughputEstimator();
+
+    ThroughputEstimator() {
+    }
+
+    /**
+     * 记录一次成功的上传
+     *
+     * @param bytes      上传的字节数
+     * @param costNanos  上传的耗时，单位纳秒
+     */
+    public synchronized void record(long bytes, long costNanos) {
+        if (bytes < MIN_SAMPLE_SIZE || costNanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / costNanos;
+        if (this.sampleNum == 0) {
+            this.bytesPerSecond = sample;
+        } else {
+            this.bytesPerSecond = ALPHA * sample + (1 - ALPHA) * this.bytesPerSecond;
+        }
+        this.sampleNum++;
+    }
+
+    /**
+     * 单个连接的吞吐量，单位字节每秒
+     */
+    public synchronized double getBytesPerSecond() {
+        return this.sampleNum == 0 ? DEFAULT_BYTES_PER_SECOND : this.bytesPerSecond;
+    }
+
+    public synchronized long getSampleNum() {
+        return this.sampleNum;
+    }
+}
@@ -0,0 +1,117 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内所有上传共享的令牌桶限速。
+ * 令牌按照traffic_limit的速率生成，上传的输入流每读取一段数据先取得同样字节数的令牌，不够时预支并等待到令牌补足，
+ * 后来的读取排在已经预支的令牌之后，因此所有文件和分块按照实际流过的字节公平地分享总带宽，空闲的线程不占用份额。
+ * 桶的容量限制空闲之后的突发流量。
+ */
+public class TrafficLimiter {
+    private static final long MIN_BURST_BYTES = 64 * 1024L;
+    private static final double BURST_SECONDS = 0.05;     // 最多积累50毫秒的令牌
+    private static TrafficLimiter instance = null;
+
+    private final double bytesPerSecond;
+    private final double capacity;
+    private double tokens = 0;          // 为负时表示已经预支的令牌
+    private long lastRefillNanos;
+
+    public TrafficLimiter(double bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("traffic limit must be positive.");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = Math.max(MIN_BURST_BYTES, bytesPerSecond * BURST_SECONDS);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取进程内共享的限速器，traffic_limit的单位为bit/s，没有指定traffic_limit时返回null
+     */
+    public static synchronized TrafficLimiter getInstance(ConfigReader configReader) {
+        if (null == instance && configReader.getTrafficLimit() > 0) {
+            instance = new TrafficLimiter(configReader.getTrafficLimit() / 8.0);
+        }
+        return instance;
+    }
+
+    /**
+     * 没有开启限速时直接返回原来的输入流
+     */
+    public static InputStream limit(ConfigReader configReader, InputStream in) {
+        TrafficLimiter limiter = getInstance(configReader);
+        return null == limiter ? in : limiter.wrap(in);
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new LimitedInputStream(in, this);
+    }
+
+    public double getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * 取得bytes个令牌，令牌不够时等待
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            this.tokens = Math.min(this.capacity, this.tokens
+                    + (now - this.lastRefillNanos) * this.bytesPerSecond / 1e9);
+            this.lastRefillNanos = now;
+            this.tokens -= bytes;
+            waitNanos = this.tokens >= 0 ? 0
+                    : (long) (-this.tokens * 1e9 / this.bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 按照读取的字节数取得令牌的输入流，SDK重试时重新读取的数据同样计入
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final TrafficLimiter limiter;
+
+        LimitedInputStream(InputStream in, TrafficLimiter limiter) {
+            super(in);
+            this.limiter = limiter;
+        }
+
+        private void acquire(long bytes) throws IOException {
+            try {
+                this.limiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("waiting for traffic limit is interrupted.");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = this.in.read();
+            if (b >= 0) {
+                acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int nRead = this.in.read(b, off, len);
+            if (nRead > 0) {
+                acquire(nRead);
+            }
+            return nRead;
+        }
+    }
+}
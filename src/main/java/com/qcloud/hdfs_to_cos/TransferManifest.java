@@ -0,0 +1,122 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 传输清单的格式定义。plan模式把扫描到的文件写入清单，execute模式读取清单上传，不再访问NameNode。
+ *
+ * 文件格式：
+ * header: magic(4字节) version(1字节) 源路径(UTF) 目的路径(UTF)
+ * record: flags(1字节) path(前缀压缩) cosPath(前缀压缩) length(VLong) mtime(与上一条记录的差值, VLong)
+ * trailer: flags(END) 记录数(VLong)
+ * 前缀压缩的字符串以与上一条记录相同的前缀字节数和剩余的字节表示，同一目录下的文件只需要存储文件名部分。
+ */
+public class TransferManifest {
+    static final byte[] MAGIC = new byte[]{'H', 'C', 'M', 'F'};
+    static final byte VERSION = 1;
+
+    static final int FLAG_DIRECTORY = 0x01;
+    static final int FLAG_HAR_MEMBER = 0x02;
+    static final int FLAG_END = 0x80;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * 清单中的一条记录
+     */
+    public static class Record {
+        private String path;
+        private String cosPath;
+        private long length;
+        private long modificationTime;
+        private boolean directory;
+        private boolean harMember;
+
+        public Record(String path, String cosPath, long length,
+                long modificationTime, boolean directory, boolean harMember) {
+            this.path = path;
+            this.cosPath = cosPath;
+            this.length = length;
+            this.modificationTime = modificationTime;
+            this.directory = directory;
+            this.harMember = harMember;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getCosPath() {
+            return cosPath;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public boolean isHarMember() {
+            return harMember;
+        }
+
+        /**
+         * 根据记录还原出上传任务需要的FileStatus
+         */
+        public FileStatus toFileStatus() {
+            return new FileStatus(this.length, this.directory, 0, 0,
+                    this.modificationTime, new Path(this.path));
+        }
+    }
+
+    /**
+     * 以前缀压缩的方式写入一个字符串
+     *
+     * @return 本次写入的字符串的字节，作为下一次写入的前缀
+     */
+    static byte[] writePrefixCompressed(DataOutput out, byte[] prev,
+            String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        int shared = 0;
+        int maxShared = Math.min(prev.length, bytes.length);
+        while (shared < maxShared && prev[shared] == bytes[shared]) {
+            shared++;
+        }
+        WritableUtils.writeVInt(out, shared);
+        WritableUtils.writeVInt(out, bytes.length - shared);
+        out.write(bytes, shared, bytes.length - shared);
+        return bytes;
+    }
+
+    /**
+     * 读取一个前缀压缩的字符串
+     *
+     * @return 字符串的字节，作为下一次读取的前缀
+     */
+    static byte[] readPrefixCompressed(DataInput in, byte[] prev)
+            throws IOException {
+        int shared = WritableUtils.readVInt(in);
+        int suffixLength = WritableUtils.readVInt(in);
+        if (shared < 0 || shared > prev.length || suffixLength < 0) {
+            throw new IOException("corrupted manifest record, shared: "
+                    + shared + " suffix length: " + suffixLength);
+        }
+        byte[] bytes = Arrays.copyOf(prev, shared + suffixLength);
+        in.readFully(bytes, shared, suffixLength);
+        return bytes;
+    }
+}
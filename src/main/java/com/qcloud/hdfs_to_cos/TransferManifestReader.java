@@ -0,0 +1,94 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 顺序读取传输清单
+ */
+public class TransferManifestReader implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private DataInputStream in;
+    private String srcPath;
+    private String destCosPath;
+    private byte[] prevPath = new byte[0];
+    private byte[] prevCosPath = new byte[0];
+    private long prevModificationTime = 0;
+    private long recordNum = 0;
+    private boolean finished = false;
+
+    public TransferManifestReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        byte[] magic = new byte[TransferManifest.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, TransferManifest.MAGIC)) {
+            throw new IOException("not a transfer manifest file.");
+        }
+        byte version = this.in.readByte();
+        if (version != TransferManifest.VERSION) {
+            throw new IOException("unsupported manifest version: " + version);
+        }
+        this.srcPath = this.in.readUTF();
+        this.destCosPath = this.in.readUTF();
+    }
+
+    /**
+     * 读取下一条记录
+     *
+     * @return 下一条记录，读取完毕时返回null
+     * @throws IOException 清单不完整或者已损坏
+     */
+    public TransferManifest.Record next() throws IOException {
+        if (this.finished) {
+            return null;
+        }
+        int flags = this.in.readUnsignedByte();
+        if (flags == TransferManifest.FLAG_END) {
+            long expectedNum = WritableUtils.readVLong(this.in);
+            if (expectedNum != this.recordNum) {
+                throw new IOException("manifest record num mismatch, expected: "
+                        + expectedNum + " actual: " + this.recordNum);
+            }
+            this.finished = true;
+            return null;
+        }
+
+        this.prevPath = TransferManifest.readPrefixCompressed(this.in,
+                this.prevPath);
+        this.prevCosPath = TransferManifest.readPrefixCompressed(this.in,
+                this.prevCosPath);
+        long length = WritableUtils.readVLong(this.in);
+        this.prevModificationTime += WritableUtils.readVLong(this.in);
+        this.recordNum++;
+        return new TransferManifest.Record(
+                new String(this.prevPath, TransferManifest.UTF8),
+                new String(this.prevCosPath, TransferManifest.UTF8),
+                length, this.prevModificationTime,
+                (flags & TransferManifest.FLAG_DIRECTORY) != 0,
+                (flags & TransferManifest.FLAG_HAR_MEMBER) != 0);
+    }
+
+    public String getSrcPath() {
+        return srcPath;
+    }
+
+    public String getDestCosPath() {
+        return destCosPath;
+    }
+
+    public long getRecordNum() {
+        return recordNum;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
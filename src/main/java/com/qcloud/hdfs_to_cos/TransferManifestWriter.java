@@ -0,0 +1,70 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 写入传输清单，多个扫描线程可以并发调用append
+ */
+public class TransferManifestWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private DataOutputStream out;
+    private byte[] prevPath = new byte[0];
+    private byte[] prevCosPath = new byte[0];
+    private long prevModificationTime = 0;
+    private long recordNum = 0;
+
+    public TransferManifestWriter(OutputStream out, String srcPath,
+            String destCosPath) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out,
+                BUFFER_SIZE));
+        this.out.write(TransferManifest.MAGIC);
+        this.out.writeByte(TransferManifest.VERSION);
+        this.out.writeUTF(null == srcPath ? "" : srcPath);
+        this.out.writeUTF(null == destCosPath ? "" : destCosPath);
+    }
+
+    public synchronized void append(TransferManifest.Record record)
+            throws IOException {
+        int flags = 0;
+        if (record.isDirectory()) {
+            flags |= TransferManifest.FLAG_DIRECTORY;
+        }
+        if (record.isHarMember()) {
+            flags |= TransferManifest.FLAG_HAR_MEMBER;
+        }
+        this.out.writeByte(flags);
+        this.prevPath = TransferManifest.writePrefixCompressed(this.out,
+                this.prevPath, record.getPath());
+        this.prevCosPath = TransferManifest.writePrefixCompressed(this.out,
+                this.prevCosPath, record.getCosPath());
+        WritableUtils.writeVLong(this.out, record.getLength());
+        WritableUtils.writeVLong(this.out,
+                record.getModificationTime() - this.prevModificationTime);
+        this.prevModificationTime = record.getModificationTime();
+        this.recordNum++;
+    }
+
+    public synchronized long getRecordNum() {
+        return recordNum;
+    }
+
+    /**
+     * 写入结尾的记录数并关闭，没有结尾的清单被认为是不完整的
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.out.writeByte(TransferManifest.FLAG_END);
+            WritableUtils.writeVLong(this.out, this.recordNum);
+        } finally {
+            this.out.close();
+        }
+    }
+}
@@ -1,106 +1,227 @@
 package com.qcloud.hdfs_to_cos;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CancellationException;
 
 import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.qcloud.cos.COSClient;
+import com.qcloud.cos.exception.CosClientException;
 import com.qcloud.cos.exception.CosServiceException;
 import com.qcloud.cos.model.PartETag;
 import com.qcloud.cos.model.UploadPartRequest;
 
 
-public class UploadPartTask implements Callable<PartETag> {
+public class UploadPartTask implements Callable<PartETag>,
+        RetryableTask<PartETag> {
     private static final Logger log =
             LoggerFactory.getLogger(UploadPartTask.class);
     private int kMaxRetryNum = 3;
     private long retryInterval = 500;
 
-    public UploadPartTask(FileSystem fileSystem, Path filePath, String key,
+    public UploadPartTask(FSDataInputStream inputStream, String key,
                           String uploadId, int partNumber, long pos,
-                          long partSize, COSClient cosClient, Semaphore semaphore,
+                          long partSize, COSClient cosClient,
+                          PartUploadScheduler scheduler,
                           ConfigReader configReader) {
+        this(inputStream, null, null, key, uploadId, partNumber, pos,
+                partSize, cosClient, scheduler, configReader);
+    }
+
+    /**
+     * 分块的数据已经读入缓冲区，上传结束后缓冲区归还给缓冲区池
+     */
+    public UploadPartTask(byte[] partBuffer, PartBufferPool bufferPool,
+                          String key, String uploadId, int partNumber,
+                          long partSize, COSClient cosClient,
+                          PartUploadScheduler scheduler,
+                          ConfigReader configReader) {
+        this(null, partBuffer, bufferPool, key, uploadId, partNumber, 0,
+                partSize, cosClient, scheduler, configReader);
+    }
+
+    private UploadPartTask(FSDataInputStream inputStream, byte[] partBuffer,
+                           PartBufferPool bufferPool, String key,
+                           String uploadId, int partNumber, long pos,
+                           long partSize, COSClient cosClient,
+                           PartUploadScheduler scheduler,
+                           ConfigReader configReader) {
         super();
-        this.fileSystem = fileSystem;
-        this.filePath = filePath;
+        this.inputStream = inputStream;
+        this.partBuffer = partBuffer;
+        this.bufferPool = bufferPool;
         this.key = key;
         this.uploadId = uploadId;
         this.partNumber = partNumber;
         this.pos = pos;
         this.partSize = partSize;
         this.cosClient = cosClient;
-        this.semaphore = semaphore;
+        this.scheduler = scheduler;
         this.configReader = configReader;
         this.kMaxRetryNum = configReader.getMaxRetryNum();
         this.retryInterval = configReader.getRetryInterval();
     }
 
+    /**
+     * 在当前线程中上传，失败时按照退避间隔睡眠以后重试
+     */
     public PartETag call() throws Exception {
         try {
-            return uploadPartWithRetry();
-        } finally {
-            if (null != this.semaphore) {
-                semaphore.release();
+            for (int i = 0; ; i++) {
+                try {
+                    return attempt(i);
+                } catch (Exception e) {
+                    long delay = getRetryDelay(i, e);
+                    if (delay < 0) {
+                        throw e;
+                    }
+                    Thread.sleep(delay);
+                }
             }
+        } finally {
+            onFinish();
         }
     }
 
-    private PartETag uploadPartWithRetry() throws Exception {
-        for (int i = 0; i < kMaxRetryNum; ++i) {
-            FSDataInputStream fStream = null;
-            try {
-                fStream = this.fileSystem.open(this.filePath);
-                fStream.skip(this.pos);
-                UploadPartRequest uploadRequest =
-                        new UploadPartRequest().withBucketName(configReader.getBucket())
-                                .withUploadId(uploadId).withKey(key).withPartNumber(partNumber)
-                                .withInputStream(fStream).withPartSize(partSize);
-                if (this.configReader.getTrafficLimit() > 0) {
-                    int singleTrafficLimit =
-                        (int) Math.ceil(
-                            (double) this.configReader.getTrafficLimit()
-                                / (double) this.configReader.getMaxTaskNum()
-                                / (this.configReader.getMaxUploadPartTaskNum()  - semaphore.availablePermits()));
-                    if (singleTrafficLimit < 819200) {
-                      singleTrafficLimit = 819200;
-                    }
-                    uploadRequest.setTrafficLimit(singleTrafficLimit);
-                }
-                PartETag etag =
-                        cosClient.uploadPart(uploadRequest).getPartETag();
-                log.info("upload part successfully, etag: " + etag.getETag() + ", part_number: "
-                        + etag.getPartNumber() + ", bucket: " + configReader.getBucket() + ", key:"
-                        + key);
-                return etag;
-            } catch (CosServiceException e) {
-                log.error("upload part occurs an exception. "
-                        + "retry count:" + String.valueOf(i)
-                        + " msg:" + e.getMessage()
-                        + " ret code: "
-                        + e.getErrorCode()
-                        + " xml: " + e.getErrorResponseXml());
+    @Override
+    public long getRetryDelay(int attemptIndex, Exception e) {
+        if (this.cancelled) {
+            return -1;
+        }
+        return RetryScheduler.instance.getRetryDelay(attemptIndex,
+                this.kMaxRetryNum, this.retryInterval, e);
+    }
+
+    @Override
+    public void onFinish() {
+        if (null != this.partBuffer) {
+            this.bufferPool.release(this.partBuffer);
+            this.partBuffer = null;
+        }
+    }
+
+    @Override
+    public PartETag attempt(int attemptIndex) throws Exception {
+        if (this.cancelled) {
+            throw new CancellationException("part is cancelled. " + this.toString());
+        }
+        if (attemptIndex == 0) {
+            RetryScheduler.instance.recordRequest();
+        }
+        InputStream fStream = null;
+        try {
+            if (null != this.partBuffer) {
+                // 数据已经预读到缓冲区，重试时不需要重新读取文件
+                fStream = new ByteArrayInputStream(this.partBuffer, 0,
+                        (int) this.partSize);
+            } else if (this.configReader.isZeroCopyRead()) {
+                fStream = CommonHdfsUtils.meterRead(new ZeroCopyInputStream(
+                        this.inputStream, this.pos, this.partSize,
+                        this.configReader.isZeroCopySkipChecksum(), false));
+            } else {
+                // 同一个文件的所有分块共享一个输入流，这里只按位置读取本分块的数据
+                fStream = CommonHdfsUtils.meterRead(new PositionedPartInputStream(
+                        this.inputStream, this.pos, this.partSize));
+            }
+            // 发送的同时计算本分块的CRC64，用于合并出整个对象的CRC64
+            Crc64InputStream crcStream = new Crc64InputStream(fStream);
+            // 开启了限速时，所有文件和分块共享一个令牌桶
+            fStream = TrafficLimiter.limit(this.configReader, crcStream);
+            fStream = ProgressReporter.track(this.progress, fStream);
+            UploadPartRequest uploadRequest =
+                    new UploadPartRequest().withBucketName(configReader.getBucket())
+                            .withUploadId(uploadId).withKey(key).withPartNumber(partNumber)
+                            .withInputStream(fStream).withPartSize(partSize);
+            long startNanos = System.nanoTime();
+            this.attemptStartNanos = startNanos;
+            PartETag etag = CommonCosUtils.uploadPart(this.cosClient,
+                    uploadRequest).getPartETag();
+            long costNanos = System.nanoTime() - startNanos;
+            ThroughputEstimator.instance.record(this.partSize, costNanos);
+            this.scheduler.getController().onSuccess(this.partSize, costNanos);
+            PartHedger hedger = PartHedger.getInstance(this.configReader);
+            if (null != hedger) {
+                hedger.recordLatency(this.partSize, costNanos);
+            }
+            if (crcStream.getBytesRead() == this.partSize) {
+                this.crc64 = crcStream.getCrc64();
+            } else {
+                log.warn("only " + crcStream.getBytesRead() + " of "
+                        + this.partSize + " bytes are read by the sdk, crc64"
+                        + " of the part is unknown. " + this.toString());
+            }
+            log.info("upload part successfully, etag: " + etag.getETag() + ", part_number: "
+                    + etag.getPartNumber() + ", bucket: " + configReader.getBucket() + ", key:"
+                    + key);
+            return etag;
+        } catch (CosClientException e) {
+            if (this.cancelled) {
+                // 另一份已经成功，输入流关闭导致的失败是预期的
+                log.info("cancelled part stops: " + e.getMessage() + " "
+                        + this.toString());
+                throw e;
+            }
+            if (e instanceof CosServiceException
+                    && AimdController.isThrottled((CosServiceException) e)) {
+                this.scheduler.getController().onThrottle();
+            }
+            log.error("upload part occurs an exception. "
+                    + "retry count:" + String.valueOf(attemptIndex)
+                    + CommonCosUtils.describe(e)
+                    + " " + this.toString());
+            throw e;
+        } finally {
+            this.attemptStartNanos = 0;
+            if (fStream != null) {
                 try {
-                    Utils.sleep(i, this.retryInterval);
-                } catch (InterruptedException e1) {
-                    break;
-                }
-            } finally {
-                if (fStream != null) {
-                    try {
-                        fStream.close();
-                    } catch (IOException e) {
-                        log.warn("close hdfs file input stream failed");
-                    }
+                    fStream.close();
+                } catch (IOException e) {
+                    log.warn("close hdfs file input stream failed");
                 }
             }
         }
-        throw new Exception("upload part failed, msg: " + this.toString());
+    }
+
+    public int getPartNumber() {
+        return this.partNumber;
+    }
+
+    public long getPartSize() {
+        return this.partSize;
+    }
+
+    /**
+     * 本次尝试已经发送的时间，没有正在发送(排队或者等待重试)时返回0
+     */
+    public long getRunningNanos() {
+        long startNanos = this.attemptStartNanos;
+        return 0 == startNanos ? 0 : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * 推测执行的另一份已经成功，本分块不再尝试和重试，尽快释放在途名额
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * 上传成功的分块的CRC64，没有上传成功或者无法计算时返回null
+     */
+    public Long getCrc64() {
+        return this.crc64;
+    }
+
+    /**
+     * 发送时按照读取的字节更新文件的上传进度
+     */
+    public void setProgress(ProgressReporter.FileProgress progress) {
+        this.progress = progress;
     }
 
     public void setkMaxRetryNum(int kMaxRetryNum) {
@@ -116,14 +237,19 @@ public class UploadPartTask implements Callable<PartETag> {
         return sb.toString();
     }
 
-    private FileSystem fileSystem;
-    private Path filePath;
+    private FSDataInputStream inputStream;
+    private byte[] partBuffer;
+    private PartBufferPool bufferPool;
+    private ProgressReporter.FileProgress progress = null;
+    private volatile Long crc64 = null;
+    private volatile long attemptStartNanos = 0;
+    private volatile boolean cancelled = false;
     private String key;
     private String uploadId;
     private int partNumber;
     private long pos;
     private long partSize;
     private COSClient cosClient;
-    private Semaphore semaphore;
+    private PartUploadScheduler scheduler;
     private ConfigReader configReader;
 }
@@ -0,0 +1,171 @@
+package com.qcloud.hdfs_to_cos;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * 为每个文件选择单文件上传还是分块上传，以及分块的大小。
+ * 默认沿用固定的规则：超过128MB分块上传，分块大小从max_upload_part_size开始翻倍直到分块数不超过10000。
+ * 开启adaptive_multipart后按照文件大小、HDFS块大小、可用的分块并发和测量到的单连接吞吐量估算两种方式的耗时：
+ * 分块大小取单连接约2秒的数据量，同时保证文件至少能分给所有可用的连接；分块大小向HDFS块对齐，
+ * 一个分块不会跨越多余的块；分块上传预计至少快20%时才使用分块上传。
+ */
+public class UploadPlanner {
+    static final long MIN_PART_SIZE = 1024 * 1024L;                     // 分块最小1MB
+    static final long MAX_SINGLE_FILE_SIZE = 5 * 1024 * 1024 * 1024L;  // 单文件上传最大5GB
+    static final long MIN_MULTIPART_FILE_SIZE =
+            LaneTaskQueue.SMALL_FILE_SIZE;      // 小文件总是单文件上传
+    private static final double TARGET_PART_SECONDS = 2.0;  // 每个分块的目标上传时间
+    private static final double REQUEST_OVERHEAD_SECONDS = 0.05;    // 每个请求的固定开销
+    private static final double MIN_SPEEDUP = 0.2;          // 分块上传至少要快20%
+
+    /**
+     * 上传方式和分块大小
+     */
+    public static class Plan {
+        private final boolean multipart;
+        private final long partSize;
+
+        Plan(boolean multipart, long partSize) {
+            this.multipart = multipart;
+            this.partSize = partSize;
+        }
+
+        public boolean isMultipart() {
+            return this.multipart;
+        }
+
+        /**
+         * 分块上传时的分块大小，单文件上传时为选择分块上传时将会使用的分块大小
+         */
+        public long getPartSize() {
+            return this.partSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[multipart: %s] [part size: %d]",
+                    this.multipart, this.partSize);
+        }
+    }
+
+    private UploadPlanner() {
+    }
+
+    /**
+     * 按照配置为文件选择上传方式
+     */
+    public static Plan plan(ConfigReader configReader, FileStatus fileStatus) {
+        long fileSize = fileStatus.getLen();
+        if (!configReader.isAdaptiveMultipart()) {
+            return fixedPlan(fileSize, configReader.getPartSize());
+        }
+        // 当前空闲的分块名额都可以用于这个文件，至少有max_multipart_upload_task_num个
+        PartUploadScheduler scheduler = PartUploadScheduler.getInstance(configReader);
+        int concurrency = Math.max(configReader.getMaxUploadPartTaskNum(),
+                scheduler.getMaxInflightNum() - scheduler.getInflightNum());
+        concurrency = Math.min(concurrency, scheduler.getMaxInflightNum());
+        // 开启预读时分块要能放进缓冲区
+        long maxPartSize = FileToCosTask.MAX_PART_SIZE;
+        PartBufferPool bufferPool = PartBufferPool.getInstance(configReader);
+        if (null != bufferPool) {
+            maxPartSize = bufferPool.getBufferSize();
+        }
+        return plan(fileSize, fileStatus.getBlockSize(), concurrency,
+                ThroughputEstimator.instance.getBytesPerSecond(), maxPartSize);
+    }
+
+    /**
+     * 固定的规则，超过128MB分块上传
+     */
+    static Plan fixedPlan(long fileSize, long partSize) {
+        while (partSize * FileToCosTask.MAX_PART_NUM < fileSize) {
+            partSize *= 2;
+            if (partSize > FileToCosTask.MAX_PART_SIZE) {
+                partSize = FileToCosTask.MAX_PART_SIZE;
+            }
+        }
+        return new Plan(fileSize > FileToCosTask.MULTIPART_UPLOAD_THRESHOLD,
+                partSize);
+    }
+
+    /**
+     * 自适应的规则
+     *
+     * @param fileSize       文件大小
+     * @param blockSize      文件的HDFS块大小，未知时为0
+     * @param concurrency    可以同时上传的分块数
+     * @param bytesPerSecond 单个连接的吞吐量
+     * @param maxPartSize    分块大小的上限
+     */
+    static Plan plan(long fileSize, long blockSize, int concurrency,
+            double bytesPerSecond, long maxPartSize) {
+        concurrency = Math.max(1, concurrency);
+        // 分块数不能超过10000
+        long minPartSize = Math.max(MIN_PART_SIZE,
+                ceilDiv(fileSize, FileToCosTask.MAX_PART_NUM));
+        long targetPartSize = (long) (bytesPerSecond * TARGET_PART_SECONDS);
+        targetPartSize = Math.min(targetPartSize, ceilDiv(fileSize, concurrency));
+        targetPartSize = Math.min(targetPartSize,
+                Math.min(maxPartSize, FileToCosTask.MAX_PART_SIZE));
+        long partSize = alignDown(targetPartSize, blockSize);
+        if (partSize < minPartSize) {
+            partSize = Math.min(alignUp(minPartSize, blockSize),
+                    FileToCosTask.MAX_PART_SIZE);
+            partSize = Math.max(partSize, minPartSize);
+        }
+
+        boolean multipart;
+        if (fileSize > MAX_SINGLE_FILE_SIZE) {
+            multipart = true;
+        } else if (fileSize < MIN_MULTIPART_FILE_SIZE) {
+            multipart = false;
+        } else {
+            double singleSeconds = REQUEST_OVERHEAD_SECONDS + fileSize / bytesPerSecond;
+            long partNum = ceilDiv(fileSize, partSize);
+            long rounds = ceilDiv(partNum, concurrency);
+            // 初始化和完成分块上传各有一次请求
+            double multipartSeconds = 2 * REQUEST_OVERHEAD_SECONDS
+                    + rounds * (REQUEST_OVERHEAD_SECONDS + partSize / bytesPerSecond);
+            multipart = multipartSeconds <= singleSeconds * (1 - MIN_SPEEDUP);
+        }
+        return new Plan(multipart, partSize);
+    }
+
+    /**
+     * 向下对齐：不小于块大小时取块大小的整数倍，否则取块大小的2的幂分之一，块大小未知时按MB对齐
+     */
+    static long alignDown(long size, long blockSize) {
+        if (blockSize <= 0) {
+            return size / MIN_PART_SIZE * MIN_PART_SIZE;
+        }
+        if (size >= blockSize) {
+            return size / blockSize * blockSize;
+        }
+        long unit = blockSize;
+        while (unit > size && unit / 2 >= MIN_PART_SIZE) {
+            unit /= 2;
+        }
+        return unit <= size ? unit : 0;
+    }
+
+    /**
+     * 向上对齐，规则与alignDown相同
+     */
+    static long alignUp(long size, long blockSize) {
+        if (blockSize <= 0) {
+            return ceilDiv(size, MIN_PART_SIZE) * MIN_PART_SIZE;
+        }
+        if (size >= blockSize) {
+            return ceilDiv(size, blockSize) * blockSize;
+        }
+        long unit = blockSize;
+        while (unit / 2 >= size && unit / 2 >= MIN_PART_SIZE) {
+            unit /= 2;
+        }
+        return unit;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -7,6 +7,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ThreadLocalRandom;
 
 public final class Utils {
+    static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;     // 计算校验和时默认的读取缓冲区
+
     /**
      * 计算输入流的校验和，支持MD5和SHA
      *
@@ -16,8 +18,19 @@ public final class Utils {
      */
     public static String calInputStreamCheckSum(InputStream inputStream,
             String algorithm) throws NoSuchAlgorithmException, IOException {
+        return calInputStreamCheckSum(inputStream, algorithm, CHECKSUM_BUFFER_SIZE);
+    }
+
+    /**
+     * 使用指定大小的读取缓冲区计算输入流的校验和
+     *
+     * @param bufferSize 每次从输入流读取的字节数
+     */
+    public static String calInputStreamCheckSum(InputStream inputStream,
+            String algorithm, int bufferSize)
+            throws NoSuchAlgorithmException, IOException {
         MessageDigest digest = MessageDigest.getInstance(algorithm);
-        byte[] databytes = new byte[1024];
+        byte[] databytes = new byte[bufferSize];
         int nRead = 0;
         while ((nRead = inputStream.read(databytes)) != -1) {
             digest.update(databytes, 0, nRead);
@@ -33,12 +46,26 @@ public final class Utils {
     }
 
 
+    private static final long MAX_BACKOFF_INTERVAL = 30 * 1000L;    // 退避间隔最长30秒
+
+    /**
+     * 第retryIndex次重试前的退避间隔：从defaultInterval开始每次翻倍，不超过30秒，
+     * 并在一半到全部之间随机取值，避免大量请求同时失败以后同时重试
+     */
+    public static long getBackoffInterval(int retryIndex, long defaultInterval) {
+        long interval = defaultInterval;
+        for (int i = 0; i < retryIndex && interval < MAX_BACKOFF_INTERVAL; i++) {
+            interval *= 2;
+        }
+        interval = Math.min(interval, MAX_BACKOFF_INTERVAL);
+        if (interval <= 1) {
+            return Math.max(interval, 0);
+        }
+        return ThreadLocalRandom.current().nextLong(interval / 2, interval + 1);
+    }
+
     public static void sleep(int retryIndex, long defaultInterval) throws InterruptedException {
-//        long sleepLeast = retryIndex * 300L;
-//        long sleepBound = retryIndex * 500L;
-//        long interval = ThreadLocalRandom.current().nextLong(sleepLeast,
-//        sleepBound);
-        Thread.sleep(defaultInterval);
+        Thread.sleep(getBackoffInterval(retryIndex, defaultInterval));
     }
 
     /**
@@ -0,0 +1,141 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+
+/**
+ * 通过HDFS的增强ByteBuffer读接口读取文件中的一段数据。
+ * 工具部署在DataNode上并开启短路读时，本地块直接映射到内存(跳过校验或者块已被HDFS缓存时)或者读入堆外缓冲区，
+ * 不经过DataNode的socket和客户端的堆内拷贝；块在远端或者文件系统不支持时，HDFS客户端自动退回普通读取。
+ * 同一个文件的多个分块可以共享一个输入流，seek和读取在输入流上同步完成。
+ */
+public class ZeroCopyInputStream extends InputStream {
+    private static final ByteBufferPool BUFFER_POOL = new ElasticByteBufferPool();
+    private static final int MAX_READ_SIZE = 4 * 1024 * 1024;    // 每次最多读取4MB
+
+    private final FSDataInputStream in;
+    private final boolean closeInput;
+    private final EnumSet<ReadOption> readOptions;
+    private final long end;
+    private long pos;
+    private long markPos;
+    private ByteBuffer buffer = null;
+
+    /**
+     * @param skipChecksums 是否跳过校验，只有跳过校验或者块已被缓存时才能内存映射
+     * @param closeInput    关闭时是否同时关闭底层输入流，共享的输入流由文件上传任务统一关闭
+     */
+    public ZeroCopyInputStream(FSDataInputStream in, long start, long length,
+            boolean skipChecksums, boolean closeInput) {
+        this.in = in;
+        this.closeInput = closeInput;
+        this.readOptions = skipChecksums ? EnumSet.of(ReadOption.SKIP_CHECKSUMS)
+                : EnumSet.noneOf(ReadOption.class);
+        this.pos = start;
+        this.markPos = start;
+        this.end = start + length;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        if (null != this.buffer && this.buffer.hasRemaining()) {
+            return true;
+        }
+        releaseBuffer();
+        if (this.pos >= this.end) {
+            return false;
+        }
+        int maxLength = (int) Math.min(MAX_READ_SIZE, this.end - this.pos);
+        ByteBuffer next;
+        synchronized (this.in) {
+            this.in.seek(this.pos);
+            next = this.in.read(BUFFER_POOL, maxLength, this.readOptions);
+        }
+        if (null == next) {
+            throw new EOFException("unexpected end of file at " + this.pos
+                    + ", the file may be modified after scanning.");
+        }
+        this.buffer = next;
+        return true;
+    }
+
+    private void releaseBuffer() {
+        if (null != this.buffer) {
+            synchronized (this.in) {
+                this.in.releaseBuffer(this.buffer);
+            }
+            this.buffer = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        this.pos++;
+        return this.buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int nRead = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, nRead);
+        this.pos += nRead;
+        return nRead;
+    }
+
+    @Override
+    public long skip(long n) {
+        long nSkip = Math.max(0, Math.min(n, this.end - this.pos));
+        if (null != this.buffer && nSkip <= this.buffer.remaining()) {
+            this.buffer.position(this.buffer.position() + (int) nSkip);
+        } else {
+            releaseBuffer();
+        }
+        this.pos += nSkip;
+        return nSkip;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, this.end - this.pos);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.markPos = this.pos;
+    }
+
+    @Override
+    public synchronized void reset() {
+        releaseBuffer();
+        this.pos = this.markPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseBuffer();
+        if (this.closeInput) {
+            this.in.close();
+        }
+    }
+}
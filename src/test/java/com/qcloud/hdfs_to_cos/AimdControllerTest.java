@@ -0,0 +1,154 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.qcloud.cos.model.InitiateMultipartUploadRequest;
+import com.qcloud.cos.model.PartETag;
+
+/**
+ * AIMD并发控制的测试，并在模拟限流的COS上对比固定并发和自适应并发
+ */
+public class AimdControllerTest extends TestCase {
+    private static final int MB = 1024 * 1024;
+    private static final int PART_SIZE = 64 * 1024;
+    private static final int PART_NUM = 200;
+    private static final int SERVER_CAPACITY = 4;       // 模拟的COS同时接受的分块数
+    private static final int MAX_INFLIGHT_NUM = 16;
+
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("aimd_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+        AimdController controller = new AimdController("test", 4, 1, 8, 60000);
+        assertEquals(4, controller.getLimit());
+        // 名额用满时，每个成功的请求增加1/limit，大约每轮请求增加1
+        for (int i = 0; i < 4; i++) {
+            controller.acquire();
+        }
+        for (int i = 0; i < 5; i++) {
+            controller.onSuccess(PART_SIZE, 1000000);
+        }
+        assertEquals(5, controller.getLimit());
+
+        // 限流时减半，冷却时间内的其他限流不再下降
+        controller.onThrottle();
+        assertEquals(2, controller.getLimit());
+        controller.onThrottle();
+        assertEquals(2, controller.getLimit());
+        assertEquals(2, controller.getThrottleNum());
+
+        // 名额没有用满时不增加
+        for (int i = 0; i < 4; i++) {
+            controller.release();
+        }
+        for (int i = 0; i < 100; i++) {
+            controller.onSuccess(PART_SIZE, 1000000);
+        }
+        assertEquals(2, controller.getLimit());
+
+        // 固定的上限不受限流影响
+        AimdController fixed = AimdController.fixed("fixed", 3);
+        fixed.onThrottle();
+        assertEquals(3, fixed.getLimit());
+    }
+
+    public void testLatencyRiseDecreases() throws Exception {
+        AimdController controller = new AimdController("test", 10, 1, 10, 0);
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(MB, 10000000);
+        }
+        assertEquals(10, controller.getLimit());
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(MB, 50000000);
+        }
+        assertTrue(controller.getLimit() < 10);
+    }
+
+    public void testSmallRequestsDoNotSetBaseline() throws Exception {
+        AimdController controller = new AimdController("test", 9, 1, 16, 0);
+        // 4KB的请求耗时10ms，按1MB折算远低于大文件的实际延迟
+        for (int i = 0; i < 20; i++) {
+            controller.onSuccess(4 * 1024, 10000000);
+        }
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(8 * MB, 1000000000L);
+            controller.onSuccess(4 * 1024, 10000000);
+        }
+        assertEquals(9, controller.getLimit());
+    }
+
+    /**
+     * 上传所有分块，返回发出的分块请求数
+     */
+    private int uploadParts(PartUploadScheduler scheduler) throws Exception {
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/data"), PART_SIZE * PART_NUM, 7);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcFile.getParent(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.MAX_RETRY_NUM, "100",
+                "-" + OptionsArgsName.RETRY_INTERVAL, "10");
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPartThrottle(SERVER_CAPACITY, 10);
+        String uploadId = cosClient.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(configReader.getBucket(),
+                        "/dest/data")).getUploadId();
+
+        FileSystem fs = configReader.getHdfsFS();
+        FSDataInputStream in = fs.open(new Path(srcFile.getAbsolutePath()));
+        try {
+            List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
+            for (int partNum = 1; partNum <= PART_NUM; partNum++) {
+                futures.add(scheduler.submit(new UploadPartTask(in, "/dest/data",
+                        uploadId, partNum, (long) (partNum - 1) * PART_SIZE,
+                        PART_SIZE, cosClient, scheduler, configReader)));
+            }
+            for (Future<PartETag> future : futures) {
+                future.get();
+            }
+        } finally {
+            in.close();
+        }
+        return cosClient.getRequestNum(FakeCosClient.UPLOAD_PART);
+    }
+
+    public void testCompareWithFixedConcurrency() throws Exception {
+        long start = System.nanoTime();
+        int fixedRequestNum = uploadParts(new PartUploadScheduler(MAX_INFLIGHT_NUM));
+        long fixedMs = (System.nanoTime() - start) / 1000000;
+
+        AimdController controller = new AimdController("part",
+                MAX_INFLIGHT_NUM / 2, 1, MAX_INFLIGHT_NUM, 50);
+        start = System.nanoTime();
+        int adaptiveRequestNum = uploadParts(new PartUploadScheduler(controller));
+        long adaptiveMs = (System.nanoTime() - start) / 1000000;
+
+        System.out.println(String.format("[AIMD Bench: %d parts, cos accepts %d "
+                + "parts at a time, fixed %d inflight: %d requests %d ms, "
+                + "adaptive: %d requests %d ms, final limit %d]", PART_NUM,
+                SERVER_CAPACITY, MAX_INFLIGHT_NUM, fixedRequestNum, fixedMs,
+                adaptiveRequestNum, adaptiveMs, controller.getLimit()));
+        // 固定并发一直超过COS的承受能力，大量请求被限流，退避等待拉长了总耗时；自适应并发收敛到COS的承受能力附近
+        assertTrue(adaptiveRequestNum * 5 / 4 < fixedRequestNum);
+        assertTrue(adaptiveMs * 2 < fixedMs);
+        assertTrue(controller.getLimit() <= SERVER_CAPACITY * 2);
+    }
+}
@@ -0,0 +1,82 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import junit.framework.TestCase;
+
+public class CosObjectIndexTest extends TestCase {
+    private static final String BUCKET = "examplebucket-1250000000";
+
+    private FakeCosClient buildCosClient() {
+        FakeCosClient cosClient = new FakeCosClient();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 300; j++) {
+                cosClient.putObjectData("dest/dt=" + i + "/part-" + j,
+                        new byte[i + j]);
+            }
+        }
+        cosClient.putObjectData("dest/_SUCCESS", new byte[0]);
+        cosClient.putObjectData("dest/数据/文件", new byte[3]);
+        cosClient.putObjectData("other/part-0", new byte[1]);
+        return cosClient;
+    }
+
+    public void testLookupAcrossShards() {
+        FakeCosClient cosClient = buildCosClient();
+        CosObjectIndex index = CosObjectIndex.build(cosClient, BUCKET,
+                "/dest/", 4, 64 * 1024 * 1024L, 3, 0);
+
+        assertNotNull(index);
+        assertEquals(10 * 300 + 2, index.getKeyNum());
+        assertEquals(7 + 123, index.getLength("/dest/dt=7/part-123"));
+        assertEquals(3, index.getLength("dest/数据/文件"));
+        assertEquals(0, index.getLength("/dest/_SUCCESS"));
+        assertEquals(CosObjectIndex.NOT_FOUND, index.getLength("/dest/dt=7/part-300"));
+        assertEquals(CosObjectIndex.NOT_FOUND, index.getLength("/dest/dt=10/part-0"));
+        assertEquals(CosObjectIndex.NOT_FOUND, index.getLength("/other/part-0"));
+        assertEquals(DigestUtils.md5Hex(new byte[3]),
+                index.getETag("/dest/数据/文件"));
+        // 每个key的固定开销为28字节，加上去掉分片前缀的key
+        assertTrue(index.getMemoryBytes() / index.getKeyNum() < 64);
+    }
+
+    public void testExceedMemoryLimit() {
+        FakeCosClient cosClient = buildCosClient();
+        assertNull(CosObjectIndex.build(cosClient, BUCKET, "/dest/", 4,
+                1024, 3, 0));
+    }
+
+    public void testSkipCheckWithoutHeadRequest() throws Exception {
+        File workDir = TestUtils.createTempDir("cos_object_index_test");
+        try {
+            File srcDir = new File(workDir, "dt=7");
+            for (int j = 0; j < 300; j++) {
+                TestUtils.writeRandomFile(new File(srcDir, "part-" + j),
+                        7 + j, j);
+            }
+            ConfigReader configReader = TestUtils.buildConfigReader(workDir,
+                    "-" + OptionsArgsName.HDFS_PATH, srcDir.getAbsolutePath(),
+                    "-" + OptionsArgsName.COS_PATH, "/dest/dt=7/",
+                    "-" + OptionsArgsName.SKIP_IF_LENGTH_MATCH,
+                    "-" + OptionsArgsName.BUILD_COS_INDEX);
+            FakeCosClient cosClient = buildCosClient();
+            LinkedBlockingQueue<FileToCosTask> taskQueue =
+                    new LinkedBlockingQueue<FileToCosTask>();
+            HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue,
+                    cosClient);
+            hdfsToCos.buildCosObjectIndex(configReader.getDestCosPath());
+            hdfsToCos.scanSrcPath();
+            for (FileToCosTask task : taskQueue) {
+                task.run();
+            }
+
+            assertEquals(0, cosClient.getRequestNum(FakeCosClient.HEAD_OBJECT));
+            assertEquals(0, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        } finally {
+            TestUtils.deleteRecursively(workDir);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * CRC64计算、合并以及分块上传后CRC64校验的测试
+ */
+public class Crc64Test extends TestCase {
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("crc64_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private static long crc64(byte[] data, int off, int len) {
+        Crc64 crc64 = new Crc64();
+        crc64.update(data, off, len);
+        return crc64.getValue();
+    }
+
+    public void testCheckValueAndSliceByEight() {
+        byte[] check = "123456789".getBytes(Charset.forName("UTF-8"));
+        assertEquals(0x995DC9BBDF1939FAL, crc64(check, 0, check.length));
+
+        Random random = new Random(1);
+        for (int len = 0; len < 100; len++) {
+            byte[] data = new byte[len];
+            random.nextBytes(data);
+            assertEquals(FakeCosClient.bitwiseCrc64(data), crc64(data, 0, len));
+        }
+        long crc = 0x995DC9BBDF1939FAL;
+        assertEquals(new BigInteger(1, new byte[]{(byte) 0x99, 0x5D,
+                (byte) 0xC9, (byte) 0xBB, (byte) 0xDF, 0x19, 0x39,
+                (byte) 0xFA}).toString(), Crc64.toUnsignedString(crc));
+        assertEquals("12345", Crc64.toUnsignedString(12345L));
+    }
+
+    public void testCombine() {
+        Random random = new Random(2);
+        byte[] data = new byte[1 << 20];
+        random.nextBytes(data);
+        long whole = crc64(data, 0, data.length);
+        for (int i = 0; i < 20; i++) {
+            int split = random.nextInt(data.length + 1);
+            long first = crc64(data, 0, split);
+            long second = crc64(data, split, data.length - split);
+            assertEquals(whole, Crc64.combine(first, second, data.length - split));
+        }
+        assertEquals(whole, Crc64.combine(0, whole, data.length));
+    }
+
+    public void testMultipartUploadVerifiesCrc64() throws Exception {
+        int length = 5 * 1024 * 1024 + 3;
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/big"), length, 4);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcFile.getParent(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.UPLOAD_PART_SIZE, String.valueOf(1024 * 1024));
+        FileSystem fs = configReader.getHdfsFS();
+        FakeCosClient cosClient = new FakeCosClient();
+        FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs,
+                "/dest/big");
+        assertTrue(task.uploadMultipartWithRetry());
+        assertEquals(6, cosClient.getRequestNum(FakeCosClient.UPLOAD_PART));
+
+        byte[] data = Files.readAllBytes(srcFile.toPath());
+        assertEquals(FakeCosClient.bitwiseCrc64(data), task.crc64.longValue());
+        assertTrue(task.checkFileExistsWithCrc64());
+
+        // 长度相同但内容损坏的对象只有CRC64能发现
+        data[length / 2] ^= 1;
+        cosClient.putObjectData("/dest/big", data);
+        assertTrue(task.checkFileExistsWithLength());
+        assertFalse(task.checkFileExistsWithCrc64());
+    }
+}
@@ -0,0 +1,269 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.ClientConfig;
+import com.qcloud.cos.auth.BasicCOSCredentials;
+import com.qcloud.cos.endpoint.EndpointBuilder;
+import com.qcloud.cos.http.HttpProtocol;
+import com.qcloud.cos.region.Region;
+
+/**
+ * 端到端的吞吐量测试：在本地启动FakeCosServer，以合成的目录树作为源，在子进程中运行App，
+ * 每次运行都和命令行一样从全新的静态状态开始，COSClient通过EndpointBuilder指向FakeCosServer。
+ * 统计文件数/秒、MB/秒、各类请求数和单个文件耗时的p99，作为性能改动前后对比的基线。
+ * 默认以本地文件系统为源，-De2e.bench.fs=minidfs时使用MiniDFSCluster；
+ * -De2e.bench.scale按倍数放大文件数，-De2e.bench.args向App传递额外的参数，如"-adaptive_multipart"
+ */
+public class EndToEndBenchmarkTest extends TestCase {
+    private static final String FS_PROPERTY = "e2e.bench.fs";
+    private static final String SCALE_PROPERTY = "e2e.bench.scale";
+    private static final String ARGS_PROPERTY = "e2e.bench.args";
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+    private static final long HUGE_FILE_SIZE =
+            FileToCosTask.MULTIPART_UPLOAD_THRESHOLD + 8 * MB;   // 刚好分块上传
+
+    private File workDir;
+    private MiniDFSCluster cluster;
+    private FileSystem fs;
+    private String defaultFS;
+    private Path srcPath;
+    private FakeCosServer server;
+    private final Map<String, Long> expectedFiles = new HashMap<String, Long>();
+    private long expectedBytes = 0;
+
+    /**
+     * 子进程的入口：第一个参数为FakeCosServer的endpoint，其余参数传给App。
+     * App异常退出时上传线程仍在运行，这里直接结束进程
+     */
+    public static void main(String[] args) {
+        App.cosClient = buildCosClient(args[0]);
+        try {
+            App.main(Arrays.copyOfRange(args, 1, args.length));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    static COSClient buildCosClient(final String endpoint) {
+        ClientConfig clientConfig = new ClientConfig(new Region("ap-guangzhou"));
+        clientConfig.setHttpProtocol(HttpProtocol.http);
+        clientConfig.setEndpointBuilder(new EndpointBuilder() {
+            @Override
+            public String buildGeneralApiEndpoint(String bucketName) {
+                return endpoint;
+            }
+
+            @Override
+            public String buildGetServiceApiEndpoint() {
+                return endpoint;
+            }
+        });
+        return new COSClient(new BasicCOSCredentials("test_ak", "test_sk"),
+                clientConfig);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("e2e_bench");
+        if ("minidfs".equals(System.getProperty(FS_PROPERTY))) {
+            Configuration conf = new HdfsConfiguration();
+            conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR,
+                    new File(this.workDir, "dfs").getAbsolutePath());
+            this.cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+            this.cluster.waitActive();
+            this.fs = this.cluster.getFileSystem();
+            this.defaultFS = this.fs.getUri().toString();
+            this.srcPath = new Path("/bench_src");
+        } else {
+            // 不写.crc校验文件，否则会和数据文件一起被上传
+            this.fs = FileSystem.getLocal(new Configuration()).getRaw();
+            this.defaultFS = "file:///";
+            this.srcPath = new Path(new File(this.workDir, "src").getAbsolutePath());
+        }
+        this.server = new FakeCosServer();
+        this.server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.server.stop();
+        if (null != this.cluster) {
+            this.cluster.shutdown();
+        }
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private static int getScale() {
+        return Math.max(1, Integer.getInteger(SCALE_PROPERTY, 1));
+    }
+
+    /**
+     * 大量小文件，请求延迟决定吞吐量
+     */
+    public void testTinyFiles() throws Exception {
+        Random random = new Random(1);
+        int fileNum = 1000 * getScale();
+        for (int i = 0; i < fileNum; i++) {
+            writeFile("dt=" + i % 20 + "/part-" + i, KB + random.nextInt(7 * KB), random);
+        }
+        this.server.setLatencyMillis(2);
+        runBenchmark("tiny files");
+    }
+
+    /**
+     * 少量超过分块阈值的大文件，分块并发决定吞吐量
+     */
+    public void testHugeFiles() throws Exception {
+        Random random = new Random(2);
+        int fileNum = 2 * getScale();
+        for (int i = 0; i < fileNum; i++) {
+            writeFile("huge/data-" + i, HUGE_FILE_SIZE, random);
+        }
+        runBenchmark("huge files");
+    }
+
+    /**
+     * 大中小文件混合，连接带宽受限，并有1%的请求返回503
+     */
+    public void testMixedSizesWithErrors() throws Exception {
+        Random random = new Random(3);
+        int scale = getScale();
+        for (int i = 0; i < 500 * scale; i++) {
+            writeFile("small/dt=" + i % 10 + "/part-" + i, KB + random.nextInt(63 * KB),
+                    random);
+        }
+        for (int i = 0; i < 20 * scale; i++) {
+            writeFile("medium/part-" + i, MB + random.nextInt(7 * MB), random);
+        }
+        for (int i = 0; i < scale; i++) {
+            writeFile("large/part-" + i, HUGE_FILE_SIZE, random);
+        }
+        this.server.setLatencyMillis(5);
+        this.server.setBandwidth(64L * MB);
+        this.server.setErrorRate(0.01);
+        runBenchmark("mixed sizes, 1% errors");
+        assertTrue(this.server.getInjectedErrorNum() > 0);
+    }
+
+    /**
+     * 写入一个合成的文件，每MB的数据各不相同
+     */
+    private void writeFile(String relativePath, long length, Random random)
+            throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, MB)];
+        random.nextBytes(buffer);
+        FSDataOutputStream out = this.fs.create(new Path(this.srcPath, relativePath), true);
+        try {
+            long remaining = length;
+            int block = 0;
+            while (remaining > 0) {
+                buffer[0] = (byte) block++;
+                int nWrite = (int) Math.min(remaining, buffer.length);
+                out.write(buffer, 0, nWrite);
+                remaining -= nWrite;
+            }
+        } finally {
+            out.close();
+        }
+        this.expectedFiles.put("bench/" + relativePath, length);
+        this.expectedBytes += length;
+    }
+
+    private void runBenchmark(String name) throws Exception {
+        // 生成core-site.xml和cos_info.conf，并检查参数有效
+        TestUtils.buildConfigReaderWithFS(this.workDir, this.defaultFS,
+                "-" + OptionsArgsName.HDFS_PATH, this.srcPath.toString(),
+                "-" + OptionsArgsName.COS_PATH, "/bench/");
+        List<String> command = new ArrayList<String>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                "-Xmx512m", "-cp", System.getProperty("java.class.path"),
+                EndToEndBenchmarkTest.class.getName(), this.server.getEndpoint(),
+                "-" + OptionsArgsName.HDFS_CONF_FILE,
+                new File(this.workDir, "core-site.xml").getAbsolutePath(),
+                "-" + OptionsArgsName.COS_CONF_FILE,
+                new File(this.workDir, "cos_info.conf").getAbsolutePath(),
+                "-" + OptionsArgsName.HDFS_PATH, this.srcPath.toString(),
+                "-" + OptionsArgsName.COS_PATH, "/bench/"));
+        String extraArgs = System.getProperty(ARGS_PROPERTY, "").trim();
+        if (!extraArgs.isEmpty()) {
+            command.addAll(Arrays.asList(extraArgs.split("\\s+")));
+        }
+        File logFile = new File(this.workDir, "app.log");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(this.workDir);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(logFile);
+        long start = System.nanoTime();
+        int exitCode = builder.start().waitFor();
+        long wallNanos = System.nanoTime() - start;
+
+        String logTail = readTail(logFile, 30);
+        assertEquals(logTail, 0, exitCode);
+        assertEquals(logTail, this.expectedFiles.size(), this.server.getFileKeys().size());
+        for (Map.Entry<String, Long> entry : this.expectedFiles.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().longValue(),
+                    this.server.getObjectLength(entry.getKey()));
+        }
+
+        double seconds = this.server.getActiveNanos() / 1e9;
+        System.out.println(String.format(Locale.US, "[E2E Bench: %s, %s, %d files, "
+                        + "%.1f MB, %.1f files/s, %.2f MB/s, p50/p99 file latency "
+                        + "%d/%d ms, %d injected errors, requests %s, wall %.1f s]",
+                name, null == this.cluster ? "local" : "minidfs",
+                this.expectedFiles.size(), this.expectedBytes / 1024.0 / 1024,
+                this.expectedFiles.size() / seconds,
+                this.expectedBytes / 1024.0 / 1024 / seconds,
+                this.server.getFileLatencyQuantileMillis(0.5),
+                this.server.getFileLatencyQuantileMillis(0.99),
+                this.server.getInjectedErrorNum(), this.server.getRequestNums(),
+                wallNanos / 1e9));
+    }
+
+    private static String readTail(File file, int lineNum) throws IOException {
+        LinkedList<String> lines = new LinkedList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                lines.add(line);
+                if (lines.size() > lineNum) {
+                    lines.removeFirst();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        StringBuilder tail = new StringBuilder("app log tail:\n");
+        for (String line : lines) {
+            tail.append(line).append('\n');
+        }
+        return tail.toString();
+    }
+}
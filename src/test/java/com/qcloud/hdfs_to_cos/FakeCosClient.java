@@ -0,0 +1,438 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.client.methods.HttpGet;
+
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.ClientConfig;
+import com.qcloud.cos.auth.BasicCOSCredentials;
+import com.qcloud.cos.exception.CosClientException;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.model.COSObject;
+import com.qcloud.cos.model.COSObjectInputStream;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.CompleteMultipartUploadResult;
+import com.qcloud.cos.model.GetObjectMetadataRequest;
+import com.qcloud.cos.model.GetObjectRequest;
+import com.qcloud.cos.model.InitiateMultipartUploadRequest;
+import com.qcloud.cos.model.InitiateMultipartUploadResult;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ListPartsRequest;
+import com.qcloud.cos.model.ObjectListing;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PartETag;
+import com.qcloud.cos.model.PartListing;
+import com.qcloud.cos.model.PartSummary;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.PutObjectResult;
+import com.qcloud.cos.model.UploadPartRequest;
+import com.qcloud.cos.model.UploadPartResult;
+import com.qcloud.cos.region.Region;
+
+/**
+ * 内存中模拟的COS，不发起任何网络请求，并统计各类请求的次数
+ */
+public class FakeCosClient extends COSClient {
+    public static final String PUT_OBJECT = "PutObject";
+    public static final String HEAD_OBJECT = "HeadObject";
+    public static final String INIT_MULTIPART = "InitiateMultipartUpload";
+    public static final String UPLOAD_PART = "UploadPart";
+    public static final String LIST_PARTS = "ListParts";
+    public static final String COMPLETE_MULTIPART = "CompleteMultipartUpload";
+    public static final String LIST_OBJECTS = "ListObjects";
+    public static final String DELETE_OBJECT = "DeleteObject";
+    public static final String GET_OBJECT = "GetObject";
+
+    private ConcurrentMap<String, byte[]> objects =
+            new ConcurrentHashMap<String, byte[]>();
+    private ConcurrentMap<String, Map<Integer, byte[]>> uploads =
+            new ConcurrentHashMap<String, Map<Integer, byte[]>>();
+    private ConcurrentMap<String, AtomicInteger> requestNums =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private AtomicInteger uploadIdSeq = new AtomicInteger();
+    private AtomicInteger concurrentPartNum = new AtomicInteger();
+    private volatile int maxConcurrentPartNum = Integer.MAX_VALUE;
+    private volatile long partLatencyMillis = 0;
+    private ConcurrentMap<String, Long> slowParts =
+            new ConcurrentHashMap<String, Long>();
+    private Set<String> resetParts =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private ConcurrentMap<String, CosClientException> putFailures =
+            new ConcurrentHashMap<String, CosClientException>();
+    private ConcurrentMap<String, AtomicInteger> putFailureNums =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    public FakeCosClient() {
+        super(new BasicCOSCredentials("test_ak", "test_sk"),
+                new ClientConfig(new Region("ap-guangzhou")));
+    }
+
+    /**
+     * 模拟COS的限流：同时上传的分块超过maxConcurrentPartNum时返回503 SlowDown，每个分块耗时partLatencyMillis
+     */
+    public void setPartThrottle(int maxConcurrentPartNum, long partLatencyMillis) {
+        this.maxConcurrentPartNum = maxConcurrentPartNum;
+        this.partLatencyMillis = partLatencyMillis;
+    }
+
+    /**
+     * 模拟慢连接：对象key的第partNumber个分块的第一次上传额外耗时delayMillis
+     */
+    public void setSlowPart(String key, int partNumber, long delayMillis) {
+        this.slowParts.put(normalizeKey(key) + "#" + partNumber, delayMillis);
+    }
+
+    /**
+     * 模拟慢连接最终被重置：额外耗时delayMillis以后抛出CosClientException
+     */
+    public void setResetPart(String key, int partNumber, long delayMillis) {
+        setSlowPart(key, partNumber, delayMillis);
+        this.resetParts.add(normalizeKey(key) + "#" + partNumber);
+    }
+
+    /**
+     * 对象key的前failNum次PutObject返回指定的错误
+     */
+    public void setPutFailure(String key, int failNum, int statusCode,
+            String errorCode) {
+        this.putFailures.put(normalizeKey(key),
+                buildServiceException(statusCode, errorCode));
+        this.putFailureNums.put(normalizeKey(key), new AtomicInteger(failNum));
+    }
+
+    /**
+     * 模拟连接重置、超时等没有收到响应的失败，SDK抛出CosClientException
+     */
+    public void setPutClientFailure(String key, int failNum, String message) {
+        this.putFailures.put(normalizeKey(key), new CosClientException(message));
+        this.putFailureNums.put(normalizeKey(key), new AtomicInteger(failNum));
+    }
+
+    public int getRequestNum(String operation) {
+        AtomicInteger num = this.requestNums.get(operation);
+        return null == num ? 0 : num.get();
+    }
+
+    public byte[] getObjectData(String key) {
+        return this.objects.get(normalizeKey(key));
+    }
+
+    public void putObjectData(String key, byte[] data) {
+        this.objects.put(normalizeKey(key), data);
+    }
+
+    /**
+     * COS上的key不以/开头
+     */
+    protected static String normalizeKey(String key) {
+        while (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+        return key;
+    }
+
+    public int getObjectNum() {
+        return this.objects.size();
+    }
+
+    protected void countRequest(String operation) {
+        AtomicInteger num = this.requestNums.get(operation);
+        if (null == num) {
+            this.requestNums.putIfAbsent(operation, new AtomicInteger());
+            num = this.requestNums.get(operation);
+        }
+        num.incrementAndGet();
+    }
+
+    protected static CosServiceException buildServiceException(int statusCode,
+            String errorCode) {
+        CosServiceException e = new CosServiceException(errorCode);
+        e.setStatusCode(statusCode);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+
+    private static byte[] readFully(InputStream in, long length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                int nRead = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, remaining));
+                if (nRead < 0) {
+                    break;
+                }
+                out.write(buffer, 0, nRead);
+                remaining -= nRead;
+            }
+        } catch (IOException e) {
+            throw new CosClientException("read request body failed", e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+        countRequest(PUT_OBJECT);
+        String key = normalizeKey(putObjectRequest.getKey());
+        AtomicInteger failNum = this.putFailureNums.get(key);
+        if (null != failNum && failNum.getAndDecrement() > 0) {
+            throw this.putFailures.get(key);
+        }
+        byte[] data = readFully(putObjectRequest.getInputStream(),
+                putObjectRequest.getMetadata().getContentLength());
+        this.objects.put(normalizeKey(putObjectRequest.getKey()), data);
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(DigestUtils.md5Hex(data));
+        result.setRequestId("fake-" + PUT_OBJECT);
+        return result;
+    }
+
+    @Override
+    public COSObject getObject(GetObjectRequest getObjectRequest) {
+        countRequest(GET_OBJECT);
+        byte[] data = this.objects.get(normalizeKey(getObjectRequest.getKey()));
+        if (null == data) {
+            throw buildServiceException(404, "NoSuchKey");
+        }
+        int start = 0;
+        int end = data.length - 1;
+        long[] range = getObjectRequest.getRange();
+        if (null != range) {
+            start = (int) range[0];
+            end = (int) Math.min(range[1], data.length - 1);
+        }
+        // COSObjectInputStream关闭时会释放httpRequest的连接，不能为null
+        COSObject cosObject = new COSObject();
+        cosObject.setObjectContent(new COSObjectInputStream(new ByteArrayInputStream(
+                data, start, end - start + 1), new HttpGet()));
+        return cosObject;
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        countRequest(DELETE_OBJECT);
+        this.objects.remove(normalizeKey(key));
+    }
+
+    @Override
+    public ObjectListing listObjects(ListObjectsRequest listObjectsRequest) {
+        countRequest(LIST_OBJECTS);
+        String prefix = null == listObjectsRequest.getPrefix()
+                ? "" : listObjectsRequest.getPrefix();
+        String marker = listObjectsRequest.getMarker();
+        String delimiter = listObjectsRequest.getDelimiter();
+        int maxKeys = null == listObjectsRequest.getMaxKeys()
+                ? 1000 : listObjectsRequest.getMaxKeys();
+
+        ObjectListing objectListing = new ObjectListing();
+        List<String> commonPrefixes = new ArrayList<String>();
+        int keyNum = 0;
+        String lastKey = null;
+        String lastCommonPrefix = null;
+        if (null != marker && null != delimiter && marker.endsWith(delimiter)) {
+            lastCommonPrefix = marker;
+        }
+        for (String key : new TreeSet<String>(this.objects.keySet())) {
+            if (!key.startsWith(prefix)
+                    || (null != marker && key.compareTo(marker) <= 0)
+                    || (null != lastCommonPrefix && key.startsWith(lastCommonPrefix))) {
+                continue;
+            }
+            if (keyNum == maxKeys) {
+                objectListing.setTruncated(true);
+                objectListing.setNextMarker(lastKey);
+                break;
+            }
+            int delimiterIndex = null == delimiter || delimiter.isEmpty()
+                    ? -1 : key.indexOf(delimiter, prefix.length());
+            if (delimiterIndex >= 0) {
+                lastKey = key.substring(0, delimiterIndex + delimiter.length());
+                lastCommonPrefix = lastKey;
+                commonPrefixes.add(lastKey);
+            } else {
+                lastKey = key;
+                byte[] data = this.objects.get(key);
+                COSObjectSummary summary = new COSObjectSummary();
+                summary.setKey(key);
+                summary.setSize(data.length);
+                summary.setETag(DigestUtils.md5Hex(data));
+                objectListing.getObjectSummaries().add(summary);
+            }
+            keyNum++;
+        }
+        objectListing.setCommonPrefixes(commonPrefixes);
+        return objectListing;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(
+            GetObjectMetadataRequest getObjectMetadataRequest) {
+        return getObjectMetadata(getObjectMetadataRequest.getBucketName(),
+                getObjectMetadataRequest.getKey());
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        countRequest(HEAD_OBJECT);
+        byte[] data = this.objects.get(normalizeKey(key));
+        if (null == data) {
+            throw buildServiceException(404, "NoSuchKey");
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        metadata.setHeader("ETag", DigestUtils.md5Hex(data));
+        metadata.setHeader(FileToCosTask.CRC64_HEADER,
+                new BigInteger(1, longToBytes(bitwiseCrc64(data))).toString());
+        return metadata;
+    }
+
+    /**
+     * 逐比特计算的CRC64-ECMA，与被测试的查表实现相互独立
+     */
+    static long bitwiseCrc64(byte[] data) {
+        long crc = ~0L;
+        for (byte b : data) {
+            crc ^= b & 0xff;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xC96C5795D7870F42L : crc >>> 1;
+            }
+        }
+        return ~crc;
+    }
+
+    private static byte[] longToBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(
+            InitiateMultipartUploadRequest request) {
+        countRequest(INIT_MULTIPART);
+        String uploadId = "upload-" + this.uploadIdSeq.incrementAndGet();
+        this.uploads.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+        InitiateMultipartUploadResult result =
+                new InitiateMultipartUploadResult();
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) {
+        countRequest(UPLOAD_PART);
+        Map<Integer, byte[]> parts =
+                this.uploads.get(uploadPartRequest.getUploadId());
+        if (null == parts) {
+            throw buildServiceException(404, "NoSuchUpload");
+        }
+        try {
+            if (this.concurrentPartNum.incrementAndGet() > this.maxConcurrentPartNum) {
+                throw buildServiceException(503, "SlowDown");
+            }
+            if (this.partLatencyMillis > 0) {
+                Thread.sleep(this.partLatencyMillis);
+            }
+            String partKey = normalizeKey(uploadPartRequest.getKey()) + "#"
+                    + uploadPartRequest.getPartNumber();
+            Long delayMillis = this.slowParts.remove(partKey);
+            if (null != delayMillis) {
+                Thread.sleep(delayMillis);
+                if (this.resetParts.remove(partKey)) {
+                    throw new CosClientException("Connection reset");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new CosClientException("upload part is interrupted", e);
+        } finally {
+            this.concurrentPartNum.decrementAndGet();
+        }
+        byte[] data = readFully(uploadPartRequest.getInputStream(),
+                uploadPartRequest.getPartSize());
+        parts.put(uploadPartRequest.getPartNumber(), data);
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(uploadPartRequest.getPartNumber());
+        result.setETag(DigestUtils.md5Hex(data));
+        return result;
+    }
+
+    @Override
+    public PartListing listParts(ListPartsRequest listPartsRequest) {
+        countRequest(LIST_PARTS);
+        Map<Integer, byte[]> parts =
+                this.uploads.get(listPartsRequest.getUploadId());
+        if (null == parts) {
+            throw buildServiceException(404, "NoSuchUpload");
+        }
+        List<PartSummary> partSummaries = new ArrayList<PartSummary>();
+        for (Map.Entry<Integer, byte[]> entry
+                : new TreeMap<Integer, byte[]>(parts).entrySet()) {
+            PartSummary partSummary = new PartSummary();
+            partSummary.setPartNumber(entry.getKey());
+            partSummary.setETag(DigestUtils.md5Hex(entry.getValue()));
+            partSummary.setSize(entry.getValue().length);
+            partSummaries.add(partSummary);
+        }
+        PartListing partListing = new PartListing();
+        partListing.setParts(partSummaries);
+        partListing.setTruncated(false);
+        return partListing;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(
+            CompleteMultipartUploadRequest request) {
+        countRequest(COMPLETE_MULTIPART);
+        Map<Integer, byte[]> parts = this.uploads.remove(request.getUploadId());
+        if (null == parts) {
+            throw buildServiceException(404, "NoSuchUpload");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder partMd5s = new StringBuilder();
+        List<PartETag> partETags = new ArrayList<PartETag>(request.getPartETags());
+        Collections.sort(partETags, new Comparator<PartETag>() {
+            @Override
+            public int compare(PartETag o1, PartETag o2) {
+                return o1.getPartNumber() - o2.getPartNumber();
+            }
+        });
+        for (PartETag partETag : partETags) {
+            byte[] data = parts.get(partETag.getPartNumber());
+            if (null == data) {
+                throw buildServiceException(400, "InvalidPart");
+            }
+            out.write(data, 0, data.length);
+            partMd5s.append(partETag.getETag());
+        }
+        this.objects.put(normalizeKey(request.getKey()), out.toByteArray());
+        CompleteMultipartUploadResult result =
+                new CompleteMultipartUploadResult();
+        result.setETag(DigestUtils.md5Hex(partMd5s.toString()) + "-"
+                + partETags.size());
+        result.setRequestId("fake-" + COMPLETE_MULTIPART);
+        return result;
+    }
+}
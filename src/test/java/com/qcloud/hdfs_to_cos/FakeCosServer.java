@@ -0,0 +1,932 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内模拟COS XML API的HTTP服务，用于端到端的吞吐量测试，COSClient通过自定义的EndpointBuilder访问。
+ * 直接在socket上实现HTTP/1.1(长连接、100-continue和chunked请求)，响应头保持ETag等原始的大小写，
+ * SDK按照原始名称读取这些响应头。
+ * 支持PUT、HEAD(对象和bucket)、DELETE、分块上传的初始化/上传/列出/合并/取消以及listObjects，
+ * 对象只保存长度、MD5和CRC64，不保存数据，上传大文件时不占用内存。
+ * 可以设置每个请求的固定延迟、每个连接接收数据的带宽和注入503 SlowDown的比例，
+ * 并统计各类请求的次数以及每个对象从第一个请求到最后一个请求的耗时
+ */
+public class FakeCosServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int LIST_MAX_KEYS = 1000;
+    private static final String HEAD_BUCKET = "HeadBucket";
+    private static final String ABORT_MULTIPART = "AbortMultipartUpload";
+    private static final Pattern PART_NUMBER_PATTERN =
+            Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> sockets =
+            Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile boolean stopped = false;
+    private final ConcurrentSkipListMap<String, StoredObject> objects =
+            new ConcurrentSkipListMap<String, StoredObject>();
+    private final ConcurrentMap<String, Upload> uploads =
+            new ConcurrentHashMap<String, Upload>();
+    private final ConcurrentMap<String, long[]> requestNanos =
+            new ConcurrentHashMap<String, long[]>();
+    private final ConcurrentMap<String, AtomicInteger> requestNums =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger uploadIdSeq = new AtomicInteger();
+    private final AtomicInteger injectedErrorNum = new AtomicInteger();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private volatile long latencyMillis = 0;
+    private volatile long bytesPerSecond = 0;
+    private volatile double errorRate = 0;
+
+    private static class StoredObject {
+        final long length;
+        final String etag;
+        final long crc64;
+        final long lastModified;
+
+        StoredObject(long length, String etag, long crc64) {
+            this.length = length;
+            this.etag = etag;
+            this.crc64 = crc64;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    private static class Upload {
+        final ConcurrentSkipListMap<Integer, StoredObject> parts =
+                new ConcurrentSkipListMap<Integer, StoredObject>();
+    }
+
+    /**
+     * 一个请求和它的响应
+     */
+    private static class Exchange {
+        final String method;
+        final String rawPath;
+        final String rawQuery;
+        final InputStream body;
+        final Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+        int statusCode = 200;
+        byte[] responseBody = null;
+
+        Exchange(String method, String uri, InputStream body) {
+            this.method = method;
+            int index = uri.indexOf('?');
+            this.rawPath = index < 0 ? uri : uri.substring(0, index);
+            this.rawQuery = index < 0 ? null : uri.substring(index + 1);
+            this.body = body;
+        }
+
+        void send(int statusCode, byte[] responseBody) {
+            this.statusCode = statusCode;
+            this.responseBody = responseBody;
+        }
+    }
+
+    public FakeCosServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fake-cos-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        sockets.add(socket);
+                        executor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // stop时关闭了serverSocket
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        this.stopped = true;
+        closeQuietly(this.serverSocket);
+        for (Socket socket : this.sockets) {
+            closeQuietly(socket);
+        }
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * 作为COSClient的endpoint，形如127.0.0.1:port
+     */
+    public String getEndpoint() {
+        return this.serverSocket.getInetAddress().getHostAddress() + ":"
+                + this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * 每个请求在读取数据之前的固定延迟
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * 每个连接接收请求数据的速度上限，0表示不限速
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 按照该比例返回503 SlowDown
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public int getRequestNum(String requestName) {
+        AtomicInteger num = this.requestNums.get(requestName);
+        return null == num ? 0 : num.get();
+    }
+
+    public Map<String, Integer> getRequestNums() {
+        Map<String, Integer> nums = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : this.requestNums.entrySet()) {
+            nums.put(entry.getKey(), entry.getValue().get());
+        }
+        return nums;
+    }
+
+    public int getInjectedErrorNum() {
+        return this.injectedErrorNum.get();
+    }
+
+    public long getReceivedBytes() {
+        return this.receivedBytes.get();
+    }
+
+    /**
+     * 对象的长度，不存在时返回-1
+     */
+    public long getObjectLength(String key) {
+        StoredObject object = this.objects.get(trimKey(key));
+        return null == object ? -1 : object.length;
+    }
+
+    public String getObjectCrc64(String key) {
+        StoredObject object = this.objects.get(trimKey(key));
+        return null == object ? null : Crc64.toUnsignedString(object.crc64);
+    }
+
+    /**
+     * 不以/结尾的对象，即上传的文件
+     */
+    public List<String> getFileKeys() {
+        List<String> keys = new ArrayList<String>();
+        for (String key : this.objects.keySet()) {
+            if (!key.endsWith("/")) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 上传的文件从第一个请求开始到最后一个请求结束的耗时，包括检查是否存在和上传以后的校验
+     */
+    public long getFileLatencyQuantileMillis(double quantile) {
+        List<Long> latencies = new ArrayList<Long>();
+        for (String key : getFileKeys()) {
+            long[] nanos = this.requestNanos.get(key);
+            if (null != nanos) {
+                synchronized (nanos) {
+                    latencies.add(nanos[1] - nanos[0]);
+                }
+            }
+        }
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(latencies);
+        int index = (int) Math.ceil(quantile * latencies.size()) - 1;
+        return latencies.get(Math.max(0, index)) / 1000000;
+    }
+
+    /**
+     * 从第一个请求开始到最后一个请求结束的时间
+     */
+    public long getActiveNanos() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long[] nanos : this.requestNanos.values()) {
+            synchronized (nanos) {
+                first = Math.min(first, nanos[0]);
+                last = Math.max(last, nanos[1]);
+            }
+        }
+        return first == Long.MAX_VALUE ? 0 : last - first;
+    }
+
+    private static String trimKey(String key) {
+        return key.startsWith("/") ? key.substring(1) : key;
+    }
+
+    /**
+     * 处理一个长连接上的所有请求，直到客户端关闭连接
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream(),
+                    READ_BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String requestLine;
+            while (!this.stopped && null != (requestLine = readLine(in))) {
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                String[] items = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while (null != (line = readLine(in)) && !line.isEmpty()) {
+                    int index = line.indexOf(':');
+                    if (index > 0) {
+                        headers.put(line.substring(0, index).trim().toLowerCase(Locale.US),
+                                line.substring(index + 1).trim());
+                    }
+                }
+                if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+                    out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(UTF8));
+                    out.flush();
+                }
+                InputStream body;
+                if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                    body = new ChunkedInputStream(in);
+                } else {
+                    String contentLength = headers.get("content-length");
+                    body = new BoundedInputStream(in, null == contentLength ? 0
+                            : Long.parseLong(contentLength));
+                }
+
+                Exchange exchange = new Exchange(items[0], items[1], body);
+                dispatch(exchange);
+                // 错误的响应可能没有读取请求数据
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                while (body.read(buffer) != -1) {
+                }
+                writeResponse(out, exchange);
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 客户端关闭了连接
+        } finally {
+            this.sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Exchange exchange)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(exchange.statusCode).append(' ')
+                .append(getReasonPhrase(exchange.statusCode)).append("\r\n");
+        head.append("Date: ").append(formatHttpDate(System.currentTimeMillis()))
+                .append("\r\n");
+        head.append("Server: fake-cos\r\n");
+        byte[] body = null == exchange.responseBody ? new byte[0] : exchange.responseBody;
+        // HEAD请求的Content-Length为对象的长度，没有数据
+        if (!exchange.responseHeaders.containsKey("Content-Length")) {
+            exchange.responseHeaders.put("Content-Length", String.valueOf(body.length));
+        }
+        for (Map.Entry<String, String> entry : exchange.responseHeaders.entrySet()) {
+            head.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF8));
+        if (!"HEAD".equals(exchange.method)) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static String getReasonPhrase(int statusCode) {
+        switch (statusCode) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    /**
+     * 读取以CRLF结尾的一行，连接已经关闭时返回null
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void dispatch(Exchange exchange) throws IOException {
+        String method = exchange.method;
+        String key = trimKey(URLDecoder.decode(exchange.rawPath, "UTF-8"));
+        Map<String, String> params = parseQuery(exchange.rawQuery);
+        String requestName = getRequestName(method, key, params);
+        AtomicInteger num = this.requestNums.get(requestName);
+        if (null == num) {
+            this.requestNums.putIfAbsent(requestName, new AtomicInteger());
+            num = this.requestNums.get(requestName);
+        }
+        num.incrementAndGet();
+        long startNanos = System.nanoTime();
+        try {
+            if (this.latencyMillis > 0) {
+                Thread.sleep(this.latencyMillis);
+            }
+            if (this.errorRate > 0
+                    && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+                this.injectedErrorNum.incrementAndGet();
+                readBody(exchange, null, null, null);
+                sendError(exchange, 503, "SlowDown", "injected error");
+                return;
+            }
+            handle(exchange, method, requestName, key, params);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 500, "InternalError", "interrupted");
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, "InternalError", String.valueOf(e));
+        } finally {
+            if (!key.isEmpty()) {
+                recordRequest(key, startNanos);
+            }
+        }
+    }
+
+    private void recordRequest(String key, long startNanos) {
+        long endNanos = System.nanoTime();
+        long[] nanos = this.requestNanos.get(key);
+        if (null == nanos) {
+            this.requestNanos.putIfAbsent(key, new long[]{startNanos, endNanos});
+            nanos = this.requestNanos.get(key);
+        }
+        synchronized (nanos) {
+            nanos[0] = Math.min(nanos[0], startNanos);
+            nanos[1] = Math.max(nanos[1], endNanos);
+        }
+    }
+
+    private static String getRequestName(String method, String key,
+            Map<String, String> params) {
+        if ("HEAD".equals(method)) {
+            return key.isEmpty() ? HEAD_BUCKET : FakeCosClient.HEAD_OBJECT;
+        } else if ("PUT".equals(method)) {
+            return params.containsKey("uploadId") ? FakeCosClient.UPLOAD_PART
+                    : FakeCosClient.PUT_OBJECT;
+        } else if ("POST".equals(method)) {
+            return params.containsKey("uploads") ? FakeCosClient.INIT_MULTIPART
+                    : FakeCosClient.COMPLETE_MULTIPART;
+        } else if ("GET".equals(method)) {
+            if (key.isEmpty()) {
+                return FakeCosClient.LIST_OBJECTS;
+            }
+            return params.containsKey("uploadId") ? FakeCosClient.LIST_PARTS
+                    : FakeCosClient.GET_OBJECT;
+        } else if ("DELETE".equals(method)) {
+            return params.containsKey("uploadId") ? ABORT_MULTIPART
+                    : FakeCosClient.DELETE_OBJECT;
+        }
+        return method;
+    }
+
+    private void handle(Exchange exchange, String method, String requestName,
+            String key, Map<String, String> params)
+            throws IOException, InterruptedException {
+        if (HEAD_BUCKET.equals(requestName)) {
+            exchange.responseHeaders.put("x-cos-request-id", "fake-" + System.nanoTime());
+            exchange.send(200, null);
+        } else if (FakeCosClient.HEAD_OBJECT.equals(requestName)) {
+            StoredObject object = this.objects.get(key);
+            if (null == object) {
+                sendError(exchange, 404, "NoSuchKey", key);
+                return;
+            }
+            setObjectHeaders(exchange, object);
+            exchange.responseHeaders.put("Content-Length", String.valueOf(object.length));
+            exchange.send(200, null);
+        } else if (FakeCosClient.PUT_OBJECT.equals(requestName)) {
+            StoredObject object = readObject(exchange);
+            this.objects.put(key, object);
+            setObjectHeaders(exchange, object);
+            sendEmpty(exchange);
+        } else if (FakeCosClient.UPLOAD_PART.equals(requestName)) {
+            Upload upload = this.uploads.get(params.get("uploadId"));
+            StoredObject part = readObject(exchange);
+            if (null == upload) {
+                sendError(exchange, 404, "NoSuchUpload", params.get("uploadId"));
+                return;
+            }
+            upload.parts.put(Integer.valueOf(params.get("partNumber")), part);
+            setObjectHeaders(exchange, part);
+            sendEmpty(exchange);
+        } else if (FakeCosClient.INIT_MULTIPART.equals(requestName)) {
+            readBody(exchange, null, null, null);
+            String uploadId = "upload-" + this.uploadIdSeq.incrementAndGet();
+            this.uploads.put(uploadId, new Upload());
+            sendXml(exchange, "<InitiateMultipartUploadResult>"
+                    + element("Bucket", "examplebucket-1250000000")
+                    + element("Key", key) + element("UploadId", uploadId)
+                    + "</InitiateMultipartUploadResult>");
+        } else if (FakeCosClient.COMPLETE_MULTIPART.equals(requestName)) {
+            completeMultipartUpload(exchange, key, params.get("uploadId"));
+        } else if (FakeCosClient.LIST_PARTS.equals(requestName)) {
+            listParts(exchange, key, params);
+        } else if (FakeCosClient.LIST_OBJECTS.equals(requestName)) {
+            listObjects(exchange, params);
+        } else if (FakeCosClient.DELETE_OBJECT.equals(requestName)) {
+            this.objects.remove(key);
+            exchange.send(204, null);
+        } else if (ABORT_MULTIPART.equals(requestName)) {
+            this.uploads.remove(params.get("uploadId"));
+            exchange.send(204, null);
+        } else {
+            readBody(exchange, null, null, null);
+            sendError(exchange, 501, "NotImplemented", method + " " + key);
+        }
+    }
+
+    /**
+     * 按照请求中的分块列表顺序合并CRC64
+     */
+    private void completeMultipartUpload(Exchange exchange, String key,
+            String uploadId) throws IOException, InterruptedException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        readBody(exchange, null, null, body);
+        Upload upload = this.uploads.get(uploadId);
+        if (null == upload) {
+            sendError(exchange, 404, "NoSuchUpload", uploadId);
+            return;
+        }
+        Matcher matcher = PART_NUMBER_PATTERN.matcher(new String(body.toByteArray(), UTF8));
+        long length = 0;
+        long crc64 = 0;
+        int partNum = 0;
+        MessageDigest digest = newMd5();
+        while (matcher.find()) {
+            StoredObject part = upload.parts.get(Integer.valueOf(matcher.group(1)));
+            if (null == part) {
+                sendError(exchange, 400, "InvalidPart", matcher.group(1));
+                return;
+            }
+            crc64 = length == 0 ? part.crc64 : Crc64.combine(crc64, part.crc64,
+                    part.length);
+            length += part.length;
+            digest.update(part.etag.getBytes(UTF8));
+            partNum++;
+        }
+        StoredObject object = new StoredObject(length,
+                toHex(digest.digest()) + "-" + partNum, crc64);
+        this.objects.put(key, object);
+        this.uploads.remove(uploadId);
+        setObjectHeaders(exchange, object);
+        sendXml(exchange, "<CompleteMultipartUploadResult>"
+                + element("Location", "examplebucket-1250000000/" + key)
+                + element("Bucket", "examplebucket-1250000000")
+                + element("Key", key) + element("ETag", "\"" + object.etag + "\"")
+                + "</CompleteMultipartUploadResult>");
+    }
+
+    private void listParts(Exchange exchange, String key,
+            Map<String, String> params) throws IOException {
+        Upload upload = this.uploads.get(params.get("uploadId"));
+        if (null == upload) {
+            sendError(exchange, 404, "NoSuchUpload", params.get("uploadId"));
+            return;
+        }
+        int marker = params.containsKey("part-number-marker")
+                ? Integer.parseInt(params.get("part-number-marker")) : 0;
+        StringBuilder xml = new StringBuilder("<ListPartsResult>");
+        xml.append(element("Bucket", "examplebucket-1250000000"))
+                .append(element("Key", key))
+                .append(element("UploadId", params.get("uploadId")))
+                .append(element("StorageClass", "STANDARD"))
+                .append(element("PartNumberMarker", String.valueOf(marker)));
+        int count = 0;
+        int nextMarker = marker;
+        boolean truncated = false;
+        for (Map.Entry<Integer, StoredObject> entry
+                : upload.parts.tailMap(marker, false).entrySet()) {
+            if (count == LIST_MAX_KEYS) {
+                truncated = true;
+                break;
+            }
+            StoredObject part = entry.getValue();
+            xml.append("<Part>").append(element("PartNumber",
+                    String.valueOf(entry.getKey())))
+                    .append(element("LastModified", formatIsoDate(part.lastModified)))
+                    .append(element("ETag", "\"" + part.etag + "\""))
+                    .append(element("Size", String.valueOf(part.length)))
+                    .append("</Part>");
+            nextMarker = entry.getKey();
+            count++;
+        }
+        xml.append(element("NextPartNumberMarker", String.valueOf(nextMarker)))
+                .append(element("MaxParts", String.valueOf(LIST_MAX_KEYS)))
+                .append(element("IsTruncated", String.valueOf(truncated)))
+                .append("</ListPartsResult>");
+        sendXml(exchange, xml.toString());
+    }
+
+    private void listObjects(Exchange exchange, Map<String, String> params)
+            throws IOException {
+        String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+        String marker = params.containsKey("marker") ? params.get("marker") : "";
+        String delimiter = params.get("delimiter");
+        int maxKeys = params.containsKey("max-keys")
+                ? Math.min(LIST_MAX_KEYS, Integer.parseInt(params.get("max-keys")))
+                : LIST_MAX_KEYS;
+        boolean urlEncoding = "url".equals(params.get("encoding-type"));
+
+        NavigableMap<String, StoredObject> candidates = marker.compareTo(prefix) >= 0
+                ? this.objects.tailMap(marker, false)
+                : this.objects.tailMap(prefix, true);
+        StringBuilder contents = new StringBuilder();
+        List<String> commonPrefixes = new ArrayList<String>();
+        String nextMarker = null;
+        int count = 0;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (null != delimiter && !delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    String commonPrefix = key.substring(0, index + delimiter.length());
+                    if (!commonPrefixes.contains(commonPrefix)) {
+                        commonPrefixes.add(commonPrefix);
+                        count++;
+                    }
+                    nextMarker = key;
+                    continue;
+                }
+            }
+            StoredObject object = entry.getValue();
+            contents.append("<Contents>")
+                    .append(element("Key", encodeKey(key, urlEncoding)))
+                    .append(element("LastModified", formatIsoDate(object.lastModified)))
+                    .append(element("ETag", "\"" + object.etag + "\""))
+                    .append(element("Size", String.valueOf(object.length)))
+                    .append("<Owner>").append(element("ID", "1250000000"))
+                    .append(element("DisplayName", "1250000000")).append("</Owner>")
+                    .append(element("StorageClass", "STANDARD"))
+                    .append("</Contents>");
+            nextMarker = key;
+            count++;
+        }
+
+        StringBuilder xml = new StringBuilder("<ListBucketResult>");
+        xml.append(element("Name", "examplebucket-1250000000"))
+                .append(element("Prefix", encodeKey(prefix, urlEncoding)))
+                .append(element("Marker", encodeKey(marker, urlEncoding)))
+                .append(element("MaxKeys", String.valueOf(maxKeys)));
+        if (null != delimiter) {
+            xml.append(element("Delimiter", encodeKey(delimiter, urlEncoding)));
+        }
+        if (urlEncoding) {
+            xml.append(element("EncodingType", "url"));
+        }
+        xml.append(element("IsTruncated", String.valueOf(truncated)));
+        if (truncated) {
+            xml.append(element("NextMarker", encodeKey(nextMarker, urlEncoding)));
+        }
+        xml.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            xml.append("<CommonPrefixes>")
+                    .append(element("Prefix", encodeKey(commonPrefix, urlEncoding)))
+                    .append("</CommonPrefixes>");
+        }
+        xml.append("</ListBucketResult>");
+        sendXml(exchange, xml.toString());
+    }
+
+    /**
+     * 读取请求数据，计算长度、MD5和CRC64
+     */
+    private StoredObject readObject(Exchange exchange)
+            throws IOException, InterruptedException {
+        MessageDigest digest = newMd5();
+        Crc64 crc64 = new Crc64();
+        long length = readBody(exchange, digest, crc64, null);
+        return new StoredObject(length, toHex(digest.digest()), crc64.getValue());
+    }
+
+    /**
+     * 按照带宽限制读取请求数据，digest、crc64和out不为空时同时计算或者保存
+     */
+    private long readBody(Exchange exchange, MessageDigest digest, Crc64 crc64,
+            OutputStream out) throws IOException, InterruptedException {
+        InputStream in = exchange.body;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long length = 0;
+        long startNanos = System.nanoTime();
+        int nRead;
+        while ((nRead = in.read(buffer)) != -1) {
+            if (null != digest) {
+                digest.update(buffer, 0, nRead);
+            }
+            if (null != crc64) {
+                crc64.update(buffer, 0, nRead);
+            }
+            if (null != out) {
+                out.write(buffer, 0, nRead);
+            }
+            length += nRead;
+            long bandwidth = this.bytesPerSecond;
+            if (bandwidth > 0) {
+                long expectedNanos = length * 1000000000L / bandwidth;
+                long sleepNanos = expectedNanos - (System.nanoTime() - startNanos);
+                if (sleepNanos > 0) {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                }
+            }
+        }
+        this.receivedBytes.addAndGet(length);
+        return length;
+    }
+
+    private static void setObjectHeaders(Exchange exchange, StoredObject object) {
+        exchange.responseHeaders.put("ETag", "\"" + object.etag + "\"");
+        exchange.responseHeaders.put("x-cos-hash-crc64ecma",
+                Crc64.toUnsignedString(object.crc64));
+        exchange.responseHeaders.put("Last-Modified", formatHttpDate(object.lastModified));
+        exchange.responseHeaders.put("x-cos-request-id", "fake-" + System.nanoTime());
+    }
+
+    private static void sendEmpty(Exchange exchange) {
+        exchange.send(200, null);
+    }
+
+    private static void sendXml(Exchange exchange, String xml) {
+        exchange.responseHeaders.put("Content-Type", "application/xml");
+        exchange.send(200, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml)
+                .getBytes(UTF8));
+    }
+
+    private static void sendError(Exchange exchange, int statusCode, String code,
+            String message) {
+        exchange.responseHeaders.clear();
+        exchange.responseHeaders.put("x-cos-request-id", "fake-" + System.nanoTime());
+        exchange.responseHeaders.put("Content-Type", "application/xml");
+        exchange.send(statusCode, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error>"
+                + element("Code", code) + element("Message", message)
+                + element("RequestId", "fake") + "</Error>").getBytes(UTF8));
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (null == rawQuery || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String item : rawQuery.split("&")) {
+            int index = item.indexOf('=');
+            if (index < 0) {
+                params.put(URLDecoder.decode(item, "UTF-8"), "");
+            } else {
+                params.put(URLDecoder.decode(item.substring(0, index), "UTF-8"),
+                        URLDecoder.decode(item.substring(index + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String element(String name, String value) {
+        return "<" + name + ">" + escapeXml(value) + "</" + name + ">";
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String encodeKey(String key, boolean urlEncoding) throws IOException {
+        return urlEncoding ? URLEncoder.encode(key, "UTF-8").replace("+", "%20") : key;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        return hex.toString();
+    }
+
+    private static String formatIsoDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static String formatHttpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * 按照Content-Length读取请求数据
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = this.in.read();
+            if (b >= 0) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int nRead = this.in.read(b, off, (int) Math.min(len, this.remaining));
+            if (nRead > 0) {
+                this.remaining -= nRead;
+            }
+            return nRead;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 读取chunked编码的请求数据
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+        private long chunkRemaining = 0;
+        private boolean finished = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (this.finished) {
+                return false;
+            }
+            if (this.chunkRemaining == 0) {
+                String sizeLine = readLine(this.in);
+                if (null != sizeLine && sizeLine.isEmpty()) {
+                    sizeLine = readLine(this.in);       // 上一个chunk结尾的CRLF
+                }
+                if (null == sizeLine) {
+                    throw new IOException("unexpected end of chunked body");
+                }
+                int index = sizeLine.indexOf(';');
+                this.chunkRemaining = Long.parseLong((index < 0 ? sizeLine
+                        : sizeLine.substring(0, index)).trim(), 16);
+                if (this.chunkRemaining == 0) {
+                    String trailer;
+                    while (null != (trailer = readLine(this.in)) && !trailer.isEmpty()) {
+                    }
+                    this.finished = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int nRead = this.in.read(b, off, (int) Math.min(len, this.chunkRemaining));
+            if (nRead < 0) {
+                throw new IOException("unexpected end of chunked body");
+            }
+            this.chunkRemaining -= nRead;
+            return nRead;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
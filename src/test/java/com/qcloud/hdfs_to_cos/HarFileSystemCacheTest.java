@@ -0,0 +1,167 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.HarFileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * HarFileSystem缓存的测试。
+ * 对比测试默认使用较小的规模，可以通过-Dhar.bench.members=100000指定单个归档的成员数
+ */
+public class HarFileSystemCacheTest extends TestCase {
+    private static final String BENCH_MEMBERS_PROPERTY = "har.bench.members";
+    private static final int DEFAULT_BENCH_MEMBERS = 20000;
+
+    private File workDir;
+
+    /**
+     * 统计对底层文件系统的getFileStatus(包括exists)和open调用
+     */
+    private static class CountingFileSystem extends FilterFileSystem {
+        private AtomicLong getFileStatusNum = new AtomicLong();
+        private AtomicLong openNum = new AtomicLong();
+
+        CountingFileSystem(FileSystem fs) {
+            super(fs);
+        }
+
+        @Override
+        public FileStatus getFileStatus(Path f) throws IOException {
+            this.getFileStatusNum.incrementAndGet();
+            return super.getFileStatus(f);
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+            this.openNum.incrementAndGet();
+            return super.open(f, bufferSize);
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("har_cache_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private Path memberPath(File archive, int index) {
+        return new Path("har://" + archive.getAbsolutePath() + "/data/"
+                + HarTestUtils.getMemberName(index));
+    }
+
+    private CountingFileSystem newCountingFS() throws IOException {
+        CountingFileSystem fs = new CountingFileSystem(
+                FileSystem.getLocal(new Configuration()));
+        fs.initialize(FileSystem.getDefaultUri(new Configuration()),
+                new Configuration());
+        return fs;
+    }
+
+    public void testMembersOfAnArchiveShareOneInstance() throws Exception {
+        File archiveA = HarTestUtils.buildHar(new File(this.workDir, "a.har"), 10, 16);
+        File archiveB = HarTestUtils.buildHar(new File(this.workDir, "b.har"), 10, 16);
+        HarFileSystemCache cache = new HarFileSystemCache(
+                FileSystem.getLocal(new Configuration()), 1);
+
+        HarFileSystem fsA = cache.get(memberPath(archiveA, 0));
+        assertSame(fsA, cache.get(memberPath(archiveA, 9)));
+        assertSame(fsA, cache.get(new Path(archiveA.getAbsolutePath())));
+        assertEquals(16, fsA.getFileStatus(memberPath(archiveA, 3)).getLen());
+        assertEquals(1, cache.getInitNum());
+
+        // 容量为1时，访问另一个归档会淘汰前一个
+        assertNotSame(fsA, cache.get(memberPath(archiveB, 0)));
+        assertEquals(1, cache.size());
+        cache.get(memberPath(archiveA, 0));
+        assertEquals(3, cache.getInitNum());
+    }
+
+    public void testDecompressHarInitializesEachArchiveOnce() throws Exception {
+        File srcDir = new File(this.workDir, "src");
+        HarTestUtils.buildHar(new File(srcDir, "a.har"), 30, 100);
+        HarTestUtils.buildHar(new File(srcDir, "b.har"), 20, 200);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.DECOMPRESS_HAR);
+        FakeCosClient cosClient = new FakeCosClient();
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue, cosClient);
+        hdfsToCos.scanSrcPath();
+        for (FileToCosTask task : taskQueue) {
+            task.run();
+        }
+
+        assertEquals(2, hdfsToCos.getHarFileSystemCache().getInitNum());
+        assertEquals(100, cosClient.getObjectData("/dest/a.har/data/part-29").length);
+        assertEquals(200, cosClient.getObjectData("/dest/b.har/data/part-0").length);
+    }
+
+    /**
+     * 对比每个成员单独初始化HarFileSystem和使用缓存时对底层文件系统的访问次数和耗时，
+     * 只统计获取成员所在归档的HarFileSystem的开销，不包括访问成员本身。
+     * 顺序访问一个大归档时hadoop自带的元数据缓存可以命中，仍然需要每次stat索引文件；
+     * 交替访问超过其容量(默认10个)的归档时，每次初始化都要重新读取并解析整个_index
+     */
+    public void testCompareWithPerMemberInitialize() throws Exception {
+        int memberNum = Integer.getInteger(BENCH_MEMBERS_PROPERTY, DEFAULT_BENCH_MEMBERS);
+        File bigArchive = HarTestUtils.buildHar(new File(this.workDir, "big.har"),
+                memberNum, 1);
+        File[] archives = new File[12];
+        for (int i = 0; i < archives.length; i++) {
+            archives[i] = HarTestUtils.buildHar(new File(this.workDir,
+                    "small_" + i + ".har"), memberNum / 40, 1);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            boolean useCache = round == 1;
+            runComparison("sequential", useCache, new File[]{bigArchive}, memberNum);
+            runComparison("interleaved", useCache, archives, memberNum / 40);
+        }
+    }
+
+    private void runComparison(String name, boolean useCache, File[] archives,
+            int memberNumPerArchive) throws Exception {
+        CountingFileSystem fs = newCountingFS();
+        HarFileSystemCache cache = new HarFileSystemCache(fs, 16);
+        long start = System.nanoTime();
+        for (int i = 0; i < memberNumPerArchive; i++) {
+            for (File archive : archives) {
+                Path member = memberPath(archive, i);
+                HarFileSystem harFS;
+                if (useCache) {
+                    harFS = cache.get(member);
+                } else {
+                    harFS = new HarFileSystem(fs);
+                    harFS.initialize(CommonHarUtils.buildFsUri(member), fs.getConf());
+                }
+                assertTrue(member.toString().startsWith(harFS.getUri().toString()));
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format("[Har Bench: %s %s, %d members, "
+                        + "%d getFileStatus, %d open, %d ms]",
+                name, useCache ? "cached" : "per-member init",
+                memberNumPerArchive * archives.length,
+                fs.getFileStatusNum.get(), fs.openNum.get(), elapsedMs));
+        if (useCache) {
+            assertEquals(2 * archives.length, fs.openNum.get());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 按part文件顺序读取har成员并上传的测试
+ */
+public class HarPartToCosTaskTest extends TestCase {
+    private static final int MEMBER_NUM = 40;
+    private static final int MEMBER_LENGTH = 100;
+    private static final int PART_NUM = 3;
+
+    private File workDir;
+    private File srcDir;
+
+    /**
+     * 统计对part文件的open调用
+     */
+    private static class CountingFileSystem extends FilterFileSystem {
+        private AtomicLong partOpenNum = new AtomicLong();
+
+        CountingFileSystem(FileSystem fs) {
+            super(fs);
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+            if (f.getName().startsWith("part-")) {
+                this.partOpenNum.incrementAndGet();
+            }
+            return super.open(f, bufferSize);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("har_part_test");
+        this.srcDir = new File(this.workDir, "src");
+        HarTestUtils.buildHar(new File(this.srcDir, "a.har"), MEMBER_NUM,
+                MEMBER_LENGTH, PART_NUM);
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private ConfigReader buildConfigReader(String... extraArgs) throws Exception {
+        String[] args = new String[]{
+                "-" + OptionsArgsName.HDFS_PATH, this.srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.DECOMPRESS_HAR};
+        String[] allArgs = new String[args.length + extraArgs.length];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        System.arraycopy(extraArgs, 0, allArgs, args.length, extraArgs.length);
+        return TestUtils.buildConfigReader(this.workDir, allArgs);
+    }
+
+    private void assertMembersUploaded(FakeCosClient cosClient) {
+        for (int i = 0; i < MEMBER_NUM; i++) {
+            byte[] data = cosClient.getObjectData("/dest/a.har/data/"
+                    + HarTestUtils.getMemberName(i));
+            assertNotNull(data);
+            assertEquals(MEMBER_LENGTH, data.length);
+            assertEquals((byte) i, data[0]);
+        }
+    }
+
+    public void testEachPartFileIsOpenedOnce() throws Exception {
+        ConfigReader configReader = buildConfigReader();
+        CountingFileSystem fs = new CountingFileSystem(
+                FileSystem.getLocal(new Configuration()));
+        fs.initialize(FileSystem.getDefaultUri(new Configuration()),
+                new Configuration());
+        Path archivePath = new Path(new File(this.srcDir, "a.har").getAbsolutePath());
+        HarFileSystemCache harFileSystemCache = new HarFileSystemCache(fs, 1);
+        FakeCosClient cosClient = new FakeCosClient();
+
+        HarIndex harIndex = HarIndex.load(fs, archivePath, 0);
+        assertFalse(harIndex.hasNestedHar());
+        assertEquals(MEMBER_NUM, harIndex.getFileMembers().size());
+        Map<String, List<HarIndex.Member>> membersByPart =
+                harIndex.getFileMembersByPart();
+        assertEquals(PART_NUM, membersByPart.size());
+        for (Map.Entry<String, List<HarIndex.Member>> entry
+                : membersByPart.entrySet()) {
+            new HarPartToCosTask(configReader, cosClient,
+                    fs.getFileStatus(new Path(archivePath, entry.getKey())), fs,
+                    harFileSystemCache.get(archivePath), entry.getValue()).run();
+        }
+
+        assertEquals(PART_NUM, fs.partOpenNum.get());
+        assertEquals(MEMBER_NUM, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        assertMembersUploaded(cosClient);
+    }
+
+    public void testDecompressHarSubmitsOneTaskPerPartFile() throws Exception {
+        FakeCosClient cosClient = new FakeCosClient();
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(buildConfigReader(), taskQueue,
+                cosClient);
+        ProgressReporter progress = ProgressReporter.instance;
+        long discoveredBytes = progress.getDiscoveredBytes();
+        long doneBytes = progress.getDoneBytes();
+        hdfsToCos.scanSrcPath();
+
+        assertEquals(PART_NUM, taskQueue.size());
+        int memberNum = 0;
+        for (FileToCosTask task : taskQueue) {
+            assertTrue(task instanceof HarPartToCosTask);
+            memberNum += ((HarPartToCosTask) task).getMemberNum();
+            task.run();
+        }
+        assertEquals(MEMBER_NUM, memberNum);
+        assertMembersUploaded(cosClient);
+        // 进度按成员的长度统计，全部上传以后完成的字节等于扫描到的字节
+        assertEquals(progress.getDiscoveredBytes() - discoveredBytes,
+                progress.getDoneBytes() - doneBytes);
+    }
+
+    public void testPartFilesAreNotBundled() throws Exception {
+        ConfigReader configReader = buildConfigReader(
+                "-" + OptionsArgsName.BUNDLE_FILE_SIZE, "1048576");
+        FakeCosClient cosClient = new FakeCosClient();
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue, cosClient);
+        hdfsToCos.initSmallFileBundler(configReader.getDestCosPath());
+        hdfsToCos.scanSrcPath();
+        hdfsToCos.flushSmallFileBundler();
+
+        // part文件比bundle_file_size小，但仍然按成员上传，不打包
+        assertEquals(PART_NUM, taskQueue.size());
+        for (FileToCosTask task : taskQueue) {
+            assertTrue(task instanceof HarPartToCosTask);
+            task.run();
+        }
+        assertMembersUploaded(cosClient);
+    }
+}
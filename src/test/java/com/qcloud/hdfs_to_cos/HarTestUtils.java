@@ -0,0 +1,106 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+
+/**
+ * 直接按照har v3的格式生成归档，避免测试依赖hadoop archive的MapReduce作业。
+ * 归档中只有一个data目录，成员part-i的长度为memberLength，第一个字节为i，
+ * 成员的数据依次轮流存放在part-0到part-(partNum-1)中
+ */
+public class HarTestUtils {
+    private static final String PROPS_OWNER = "test";
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static String encodeProps(long modificationTime) throws IOException {
+        return encode(modificationTime + " 420 " + encode(PROPS_OWNER) + " "
+                + encode(PROPS_OWNER));
+    }
+
+    public static String getMemberName(int index) {
+        return "part-" + index;
+    }
+
+    /**
+     * 生成一个har归档
+     *
+     * @param archiveDir   归档目录，必须以.har结尾
+     * @param memberNum    成员数
+     * @param memberLength 每个成员的长度
+     */
+    public static File buildHar(File archiveDir, int memberNum, int memberLength)
+            throws IOException {
+        return buildHar(archiveDir, memberNum, memberLength, 1);
+    }
+
+    /**
+     * 生成一个成员分布在多个part文件中的har归档
+     *
+     * @param partNum part文件数
+     */
+    public static File buildHar(File archiveDir, int memberNum, int memberLength,
+            int partNum) throws IOException {
+        if (!archiveDir.mkdirs()) {
+            throw new IOException("create archive dir failed: " + archiveDir);
+        }
+        long now = System.currentTimeMillis();
+
+        OutputStream[] parts = new OutputStream[partNum];
+        try {
+            for (int i = 0; i < partNum; i++) {
+                parts[i] = new BufferedOutputStream(new FileOutputStream(
+                        new File(archiveDir, "part-" + i)));
+            }
+            byte[] data = new byte[memberLength];
+            for (int i = 0; i < memberNum; i++) {
+                data[0] = (byte) i;
+                parts[i % partNum].write(data);
+            }
+        } finally {
+            for (OutputStream part : parts) {
+                if (null != part) {
+                    part.close();
+                }
+            }
+        }
+
+        StringBuilder index = new StringBuilder();
+        index.append(encode("/")).append(" dir ").append(encodeProps(now))
+                .append(" 0 0 data\n");
+        index.append(encode("/data")).append(" dir ").append(encodeProps(now))
+                .append(" 0 0");
+        for (int i = 0; i < memberNum; i++) {
+            index.append(' ').append(encode(getMemberName(i)));
+        }
+        index.append('\n');
+        for (int i = 0; i < memberNum; i++) {
+            index.append(encode("/data/" + getMemberName(i))).append(" file part-")
+                    .append(i % partNum).append(' ')
+                    .append((long) (i / partNum) * memberLength).append(' ')
+                    .append(memberLength).append(' ')
+                    .append(encodeProps(now)).append('\n');
+        }
+        byte[] indexBytes = index.toString().getBytes("UTF-8");
+        writeBytes(new File(archiveDir, "_index"), indexBytes);
+        writeBytes(new File(archiveDir, "_masterindex"), ("3\n0 "
+                + Integer.MAX_VALUE + " 0 " + indexBytes.length + "\n")
+                .getBytes("UTF-8"));
+        return archiveDir;
+    }
+
+    private static void writeBytes(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+public class HdfsToCosTest extends TestCase {
+    private static final int DIR_NUM = 5;
+    private static final int FILE_NUM_PER_DIR = 20;
+
+    private File workDir;
+    private File srcDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("hdfs_to_cos_test");
+        this.srcDir = new File(this.workDir, "src");
+        for (int i = 0; i < DIR_NUM; i++) {
+            for (int j = 0; j < FILE_NUM_PER_DIR; j++) {
+                TestUtils.writeRandomFile(new File(this.srcDir,
+                        "dt=" + i + "/part-" + j), 1024 + j, i * 100 + j);
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testScanAndUploadWithoutRedundantNameNodeRpc() throws Exception {
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, this.srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/");
+        FakeCosClient cosClient = new FakeCosClient();
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue, cosClient);
+
+        // 扫描阶段：源路径一次getFileStatus，每个目录一次list
+        long rpcNumBeforeScan = Statistics.instance.getNameNodeRpcNum();
+        hdfsToCos.scanSrcPath();
+        assertEquals(1 + 1 + DIR_NUM,
+                Statistics.instance.getNameNodeRpcNum() - rpcNumBeforeScan);
+        assertEquals(DIR_NUM + DIR_NUM * FILE_NUM_PER_DIR, taskQueue.size());
+
+        List<FileToCosTask> tasks = new ArrayList<FileToCosTask>(taskQueue);
+        Map<String, FileToCosTask> tasksByCosPath =
+                new HashMap<String, FileToCosTask>();
+        for (FileToCosTask task : tasks) {
+            tasksByCosPath.put(task.cosPath, task);
+        }
+        assertTrue(tasksByCosPath.containsKey("/dest/dt=0"));
+        assertTrue(tasksByCosPath.containsKey("/dest/dt=4/part-19"));
+
+        // 上传阶段：每个文件只需要打开一次
+        long rpcNumBeforeUpload = Statistics.instance.getNameNodeRpcNum();
+        for (FileToCosTask task : tasks) {
+            task.run();
+        }
+        assertEquals(DIR_NUM * FILE_NUM_PER_DIR,
+                Statistics.instance.getNameNodeRpcNum() - rpcNumBeforeUpload);
+        assertEquals(1024 + 19,
+                cosClient.getObjectData("/dest/dt=4/part-19").length);
+    }
+
+    public void testPlanThenExecuteShardsWithoutListing() throws Exception {
+        File manifestFile = new File(this.workDir, "manifest");
+        ConfigReader planConfig = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, this.srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.RUN_MODE, ConfigReader.RUN_MODE_PLAN,
+                "-" + OptionsArgsName.MANIFEST_PATH, "file://" + manifestFile.getAbsolutePath());
+        LinkedBlockingQueue<FileToCosTask> planQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        new HdfsToCos(planConfig, planQueue, new FakeCosClient()).plan();
+        assertTrue(manifestFile.isFile());
+        assertEquals(0, planQueue.size());
+
+        // 分成两个分片执行，执行阶段不访问源路径做list
+        FakeCosClient cosClient = new FakeCosClient();
+        int taskNum = 0;
+        for (int shard = 0; shard < 2; shard++) {
+            ConfigReader executeConfig = TestUtils.buildConfigReader(this.workDir,
+                    "-" + OptionsArgsName.RUN_MODE, ConfigReader.RUN_MODE_EXECUTE,
+                    "-" + OptionsArgsName.MANIFEST_PATH, "file://" + manifestFile.getAbsolutePath(),
+                    "-" + OptionsArgsName.MANIFEST_SHARD, shard + "/2");
+            LinkedBlockingQueue<FileToCosTask> taskQueue =
+                    new LinkedBlockingQueue<FileToCosTask>();
+            long rpcNumBeforeExecute = Statistics.instance.getNameNodeRpcNum();
+            new HdfsToCos(executeConfig, taskQueue, cosClient).executeManifest();
+            assertEquals(0, Statistics.instance.getNameNodeRpcNum() - rpcNumBeforeExecute);
+            taskNum += taskQueue.size();
+            for (FileToCosTask task : taskQueue) {
+                task.run();
+            }
+        }
+        assertEquals(DIR_NUM + DIR_NUM * FILE_NUM_PER_DIR, taskNum);
+        assertEquals(1024 + 7,
+                cosClient.getObjectData("/dest/dt=3/part-7").length);
+    }
+}
@@ -0,0 +1,158 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * 目录遍历的测试，需要在固定的堆大小下运行(见pom.xml中surefire的argLine)
+ */
+public class HdfsTreeWalkerTest extends TestCase {
+    private static final int SYNTHETIC_MEMBER_NUM = 1000000;
+    private static final Path SYNTHETIC_DIR = new Path("/synthetic/flat");
+
+    /**
+     * 模拟一个包含大量文件的扁平目录，成员在迭代时才生成。
+     * listStatus会一次性构造全部成员，在限定的堆大小下会OOM。
+     */
+    private static class SyntheticFlatFileSystem extends RawLocalFileSystem {
+        private AtomicLong listStatusNum = new AtomicLong();
+
+        @Override
+        public FileStatus getFileStatus(Path f) throws IOException {
+            if (f.equals(SYNTHETIC_DIR)) {
+                return new FileStatus(0, true, 1, 0, 0, SYNTHETIC_DIR);
+            }
+            throw new FileNotFoundException(f.toString());
+        }
+
+        @Override
+        public FileStatus[] listStatus(Path f) throws IOException {
+            this.listStatusNum.incrementAndGet();
+            FileStatus[] members = new FileStatus[SYNTHETIC_MEMBER_NUM];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = buildMember(i);
+            }
+            return members;
+        }
+
+        @Override
+        public RemoteIterator<FileStatus> listStatusIterator(Path f) {
+            return new RemoteIterator<FileStatus>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return this.index < SYNTHETIC_MEMBER_NUM;
+                }
+
+                @Override
+                public FileStatus next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return buildMember(this.index++);
+                }
+            };
+        }
+
+        private static FileStatus buildMember(int index) {
+            return new FileStatus(1024, false, 3, 128 * 1024 * 1024L,
+                    System.currentTimeMillis(),
+                    new Path(SYNTHETIC_DIR, String.format("part-%08d", index)));
+        }
+    }
+
+    public void testWalkHugeFlatDirectoryWithBoundedMemory() throws Exception {
+        SyntheticFlatFileSystem fs = new SyntheticFlatFileSystem();
+        final AtomicLong visitedNum = new AtomicLong();
+        HdfsTreeWalker walker = new HdfsTreeWalker(fs, 4,
+                new HdfsTreeWalker.MemberVisitor() {
+                    @Override
+                    public boolean visit(FileStatus member) {
+                        visitedNum.incrementAndGet();
+                        return member.isDirectory();
+                    }
+                });
+
+        walker.walk(SYNTHETIC_DIR);
+
+        assertEquals(SYNTHETIC_MEMBER_NUM, visitedNum.get());
+        assertEquals(0, fs.listStatusNum.get());
+        assertEquals(0, walker.getFailedDirNum());
+    }
+
+    public void testInterruptedScanIsIncomplete() throws Exception {
+        SyntheticFlatFileSystem fs = new SyntheticFlatFileSystem();
+        final AtomicLong visitedNum = new AtomicLong();
+        HdfsTreeWalker walker = new HdfsTreeWalker(fs, 1,
+                new HdfsTreeWalker.MemberVisitor() {
+                    @Override
+                    public boolean visit(FileStatus member) throws Exception {
+                        if (visitedNum.incrementAndGet() == 10) {
+                            throw new InterruptedException();
+                        }
+                        return false;
+                    }
+                });
+
+        walker.walk(SYNTHETIC_DIR);
+
+        // 剩余的成员没有扫描，计为一个失败的目录
+        assertEquals(10, visitedNum.get());
+        assertEquals(1, walker.getFailedDirNum());
+    }
+
+    public void testWalkNestedDirectoriesInParallel() throws Exception {
+        File rootDir = new File(System.getProperty("java.io.tmpdir"),
+                "hdfs_tree_walker_" + System.nanoTime());
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 8; i++) {
+            File dir = new File(rootDir, "dt=" + i);
+            for (int j = 0; j < 4; j++) {
+                File subDir = new File(dir, "hour=" + j);
+                assertTrue(subDir.mkdirs());
+                File file = new File(subDir, "part-0");
+                assertTrue(file.createNewFile());
+                expected.add(subDir.getAbsolutePath());
+                expected.add(file.getAbsolutePath());
+            }
+            expected.add(dir.getAbsolutePath());
+        }
+
+        try {
+            FileSystem fs = FileSystem.getLocal(new Configuration()).getRawFileSystem();
+            final Set<String> visited = Collections.newSetFromMap(
+                    new ConcurrentHashMap<String, Boolean>());
+            HdfsTreeWalker walker = new HdfsTreeWalker(fs, 4,
+                    new HdfsTreeWalker.MemberVisitor() {
+                        @Override
+                        public boolean visit(FileStatus member) {
+                            assertTrue(visited.add(member.getPath().toUri().getPath()));
+                            return member.isDirectory();
+                        }
+                    });
+            walker.walk(new Path(rootDir.getAbsolutePath()));
+
+            assertEquals(expected, visited);
+        } finally {
+            FileSystem.getLocal(new Configuration()).delete(
+                    new Path(rootDir.getAbsolutePath()), true);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+public class IncrementalWatermarkTest extends TestCase {
+    private static final long HOUR_MS = 3600 * 1000L;
+
+    private File workDir;
+    private File srcDir;
+    private File watermarkDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("incremental_watermark_test");
+        this.srcDir = new File(this.workDir, "src");
+        this.watermarkDir = new File(this.workDir, "scp");
+        long oldTime = System.currentTimeMillis() - 24 * HOUR_MS;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 5; j++) {
+                File file = TestUtils.writeRandomFile(new File(this.srcDir,
+                        "dt=" + i + "/part-" + j), 100 + j, j);
+                assertTrue(file.setLastModified(oldTime));
+            }
+            assertTrue(new File(this.srcDir, "dt=" + i).setLastModified(oldTime));
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    /**
+     * 模拟上一次同步成功，水位线需要早于扫描开始时间减去安全余量
+     */
+    private void writeWatermark(long watermark) throws Exception {
+        IncrementalWatermark prev = IncrementalWatermark.load(this.watermarkDir,
+                this.srcDir.getAbsolutePath(), "/dest/");
+        prev.isModified(new FileStatus(0, false, 1, 0, watermark,
+                new Path("/")));
+        assertEquals(watermark, prev.getNextWatermark());
+        prev.commit();
+    }
+
+    private Set<String> scanCosPaths(String... extraArgs) throws Exception {
+        String[] args = new String[4 + extraArgs.length];
+        args[0] = "-" + OptionsArgsName.HDFS_PATH;
+        args[1] = this.srcDir.getAbsolutePath();
+        args[2] = "-" + OptionsArgsName.COS_PATH;
+        args[3] = "/dest/";
+        System.arraycopy(extraArgs, 0, args, 4, extraArgs.length);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir, args);
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue,
+                new FakeCosClient());
+        hdfsToCos.setWatermark(IncrementalWatermark.load(this.watermarkDir,
+                configReader.getSrcHdfsPath(), configReader.getDestCosPath()));
+        hdfsToCos.scanSrcPath();
+
+        Set<String> cosPaths = new HashSet<String>();
+        for (FileToCosTask task : taskQueue) {
+            cosPaths.add(task.cosPath);
+        }
+        return cosPaths;
+    }
+
+    public void testOnlyModifiedMembersAreSubmitted() throws Exception {
+        writeWatermark(System.currentTimeMillis() - HOUR_MS);
+        // 覆盖写已有文件不会改变目录的修改时间，新增文件会改变所在目录的修改时间
+        TestUtils.writeRandomFile(new File(this.srcDir, "dt=1/part-3"), 200, 1);
+        TestUtils.writeRandomFile(new File(this.srcDir, "dt=2/part-new"), 300, 2);
+
+        Set<String> expected = new HashSet<String>();
+        expected.add("/dest/dt=1/part-3");
+        expected.add("/dest/dt=2");
+        expected.add("/dest/dt=2/part-new");
+        assertEquals(expected, scanCosPaths(
+                "-" + OptionsArgsName.INCREMENTAL));
+    }
+
+    public void testPruneUnchangedDirectories() throws Exception {
+        writeWatermark(System.currentTimeMillis() - HOUR_MS);
+        TestUtils.writeRandomFile(new File(this.srcDir, "dt=2/part-new"), 300, 2);
+
+        long rpcNumBeforeScan = Statistics.instance.getNameNodeRpcNum();
+        Set<String> cosPaths = scanCosPaths(
+                "-" + OptionsArgsName.INCREMENTAL,
+                "-" + OptionsArgsName.INCREMENTAL_PRUNE_DIR);
+        // 源路径一次getFileStatus和一次list，只展开有变化的dt=2
+        assertEquals(3, Statistics.instance.getNameNodeRpcNum() - rpcNumBeforeScan);
+        assertTrue(cosPaths.contains("/dest/dt=2/part-new"));
+        assertEquals(2, cosPaths.size());
+    }
+
+    public void testWatermarkKeepsSafetyMargin() throws Exception {
+        IncrementalWatermark watermark = IncrementalWatermark.load(
+                this.watermarkDir, "/src", "/dest/");
+        long now = System.currentTimeMillis();
+        assertEquals(-1, watermark.getPrevWatermark());
+        watermark.isModified(new FileStatus(0, false, 1, 0, now,
+                new Path("/src/a")));
+        assertTrue(watermark.getNextWatermark()
+                <= now - IncrementalWatermark.SAFETY_MARGIN_MS);
+        watermark.commit();
+
+        IncrementalWatermark reloaded = IncrementalWatermark.load(
+                this.watermarkDir, "/src", "/dest/");
+        assertEquals(watermark.getNextWatermark(), reloaded.getPrevWatermark());
+        assertFalse(reloaded.isModified(new FileStatus(0, false, 1, 0,
+                reloaded.getPrevWatermark(), new Path("/src/a"))));
+        assertTrue(reloaded.isModified(new FileStatus(0, false, 1, 0,
+                reloaded.getPrevWatermark() + 1, new Path("/src/b"))));
+    }
+}
@@ -0,0 +1,194 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 分道任务队列的测试，并在大小混合的模拟负载上对比单个FIFO队列的完工时间
+ */
+public class LaneTaskQueueTest extends TestCase {
+    private static final long MB = 1024 * 1024L;
+
+    private File workDir;
+    private ConfigReader configReader;
+    // 最后一个任务完成的时间，线程停止前还要等待一个轮询周期，不计入完工时间
+    private final AtomicLong lastFinishNanos = new AtomicLong();
+
+    /**
+     * 不访问COS，执行时按照给定的耗时休眠
+     */
+    private static class SleepTask extends FileToCosTask {
+        private final long durationMs;
+        private final AtomicLong lastFinishNanos;
+
+        SleepTask(ConfigReader configReader, String name, long length,
+                long durationMs, AtomicLong lastFinishNanos) {
+            super(configReader, new FakeCosClient(), new FileStatus(length,
+                    false, 0, 0, 0, new Path("/bench/" + name)), null,
+                    "/dest/" + name);
+            this.durationMs = durationMs;
+            this.lastFinishNanos = lastFinishNanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(this.durationMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long now = System.nanoTime();
+            long last;
+            do {
+                last = this.lastFinishNanos.get();
+            } while (now > last && !this.lastFinishNanos.compareAndSet(last, now));
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("lane_test");
+        this.configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, "/src",
+                "-" + OptionsArgsName.COS_PATH, "/dest/");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private SleepTask task(String name, long length) {
+        return new SleepTask(this.configReader, name, length, 0,
+                this.lastFinishNanos);
+    }
+
+    private String pollName(LaneTaskQueue queue, int lane) throws Exception {
+        FileToCosTask task = queue.poll(lane, 0, TimeUnit.MILLISECONDS);
+        return null == task ? null : task.fileStatus.getPath().getName();
+    }
+
+    public void testLanesAndLargestFirst() throws Exception {
+        LaneTaskQueue queue = new LaneTaskQueue(new int[]{1, 1, 1});
+        queue.put(task("small_a", 1));
+        queue.put(task("large_a", 200 * MB));
+        queue.put(task("small_b", 2 * MB));
+        queue.put(task("medium_a", 10 * MB));
+        queue.put(task("large_b", 1024 * MB));
+        queue.put(task("medium_b", 100 * MB));
+        assertEquals(6, queue.size());
+        assertEquals(2, queue.size(LaneTaskQueue.SMALL_LANE));
+
+        // 小文件先进先出，大文件从大到小，中等文件车道的线程优先帮助大文件车道
+        assertEquals("small_a", pollName(queue, LaneTaskQueue.SMALL_LANE));
+        assertEquals("large_b", pollName(queue, LaneTaskQueue.LARGE_LANE));
+        assertEquals("large_a", pollName(queue, LaneTaskQueue.MEDIUM_LANE));
+        assertEquals("medium_b", pollName(queue, LaneTaskQueue.MEDIUM_LANE));
+        assertEquals("small_b", pollName(queue, LaneTaskQueue.SMALL_LANE));
+        // 小文件车道为空时帮助中等文件车道，但不接大文件
+        queue.put(task("large_c", 300 * MB));
+        assertEquals("medium_a", pollName(queue, LaneTaskQueue.SMALL_LANE));
+        assertNull(pollName(queue, LaneTaskQueue.SMALL_LANE));
+        assertEquals("large_c", pollName(queue, LaneTaskQueue.LARGE_LANE));
+        assertEquals(0, queue.size());
+    }
+
+    public void testLaneWithoutWorkerIsServedByOthers() throws Exception {
+        LaneTaskQueue queue = new LaneTaskQueue(LaneTaskQueue.splitWorkerNum(2));
+        assertEquals(0, queue.getWorkerNum(LaneTaskQueue.SMALL_LANE));
+        assertEquals(2, queue.getWorkerNum(LaneTaskQueue.MEDIUM_LANE));
+        queue.put(task("small_a", 1));
+        queue.put(task("large_a", 200 * MB));
+        assertEquals("large_a", pollName(queue, LaneTaskQueue.MEDIUM_LANE));
+        assertEquals("small_a", pollName(queue, LaneTaskQueue.MEDIUM_LANE));
+    }
+
+    public void testFullLaneDoesNotBlockOtherLanes() throws Exception {
+        LaneTaskQueue queue = new LaneTaskQueue(new int[]{1, 1, 1},
+                new int[]{1, 1, 1});
+        queue.put(task("small_a", 1));
+        assertFalse(queue.offer(task("small_b", 1)));
+        assertTrue(queue.offer(task("large_a", 200 * MB), 10, TimeUnit.MILLISECONDS));
+        assertEquals("large_a", queue.poll().fileStatus.getPath().getName());
+    }
+
+    /**
+     * 模拟扫描顺序：大量小文件中夹杂少量中等文件，大文件在扫描的最后才出现。
+     * 单个FIFO队列中大文件最后开始上传成为长尾，分道队列让大文件尽早开始
+     */
+    private List<FileToCosTask> buildMixedWorkload() {
+        List<FileToCosTask> tasks = new ArrayList<FileToCosTask>();
+        for (int i = 0; i < 2000; i++) {
+            tasks.add(new SleepTask(this.configReader, "small_" + i, MB, 2,
+                    this.lastFinishNanos));
+            if (i % 50 == 0) {
+                tasks.add(new SleepTask(this.configReader, "medium_" + i,
+                        64 * MB, 40, this.lastFinishNanos));
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            tasks.add(new SleepTask(this.configReader, "large_" + i,
+                    1024 * MB, 800, this.lastFinishNanos));
+        }
+        return tasks;
+    }
+
+    private long runWorkload(String name, BlockingQueue<FileToCosTask> queue,
+            int[] laneWorkerNums) throws Exception {
+        List<HdfsToCosExecutor> executors = new ArrayList<HdfsToCosExecutor>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int lane = 0; lane < laneWorkerNums.length; lane++) {
+            for (int i = 0; i < laneWorkerNums[lane]; i++) {
+                HdfsToCosExecutor executor = new HdfsToCosExecutor(queue, true,
+                        laneWorkerNums.length == 1 ? -1 : lane);
+                executors.add(executor);
+                threads.add(new Thread(executor));
+            }
+        }
+        List<FileToCosTask> tasks = buildMixedWorkload();
+        this.lastFinishNanos.set(0);
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (FileToCosTask task : tasks) {
+            queue.put(task);
+        }
+        // 与App相同，队列为空以后停止线程，再等待正在执行的任务完成
+        while (queue.size() != 0) {
+            Thread.sleep(1);
+        }
+        for (HdfsToCosExecutor executor : executors) {
+            executor.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long makespanMs = (this.lastFinishNanos.get() - start) / 1000000;
+        System.out.println(String.format("[Lane Bench: %s, %d tasks, %d "
+                + "workers, makespan %d ms]", name, tasks.size(),
+                threads.size(), makespanMs));
+        return makespanMs;
+    }
+
+    public void testMakespanOnMixedWorkload() throws Exception {
+        int workerNum = 8;
+        long fifoMs = runWorkload("single fifo",
+                new LinkedBlockingQueue<FileToCosTask>(workerNum * 2),
+                new int[]{workerNum});
+        int[] laneWorkerNums = LaneTaskQueue.splitWorkerNum(workerNum);
+        long laneMs = runWorkload("size lanes",
+                new LaneTaskQueue(laneWorkerNums), laneWorkerNums);
+        assertTrue(laneMs < fifoMs * 0.9);
+    }
+}
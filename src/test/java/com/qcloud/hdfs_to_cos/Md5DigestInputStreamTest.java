@@ -0,0 +1,85 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 上传时同步计算MD5的测试，通过文件系统的统计确认文件只读取了一遍
+ */
+public class Md5DigestInputStreamTest extends TestCase {
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("md5_digest_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private static long getBytesRead(String scheme) {
+        long bytesRead = 0;
+        for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+            if (scheme.equals(statistics.getScheme())) {
+                bytesRead += statistics.getBytesRead();
+            }
+        }
+        return bytesRead;
+    }
+
+    public void testDigestSurvivesMarkAndReset() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        Md5DigestInputStream in = new Md5DigestInputStream(
+                new ByteArrayInputStream(data));
+        byte[] buffer = new byte[30000];
+        assertEquals(30000, in.read(buffer));
+        in.mark(Integer.MAX_VALUE);
+        assertEquals(30000, in.read(buffer));
+        // 模拟SDK重试，从mark的位置重新读取
+        in.reset();
+        int nRead;
+        while ((nRead = in.read(buffer)) > 0) {
+            assertTrue(nRead <= buffer.length);
+        }
+        assertEquals(data.length, in.getBytesRead());
+        assertEquals(DigestUtils.md5Hex(data), in.getMd5Hex());
+    }
+
+    public void testForceCheckMd5ReadsFileOnce() throws Exception {
+        int length = 5 * 1024 * 1024 + 17;
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/data"), length, 11);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcFile.getParent(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.FORCE_CHECK_MD5SUM);
+        FileSystem fs = configReader.getHdfsFS();
+        FakeCosClient cosClient = new FakeCosClient();
+        FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs,
+                "/dest/data");
+
+        long bytesReadBefore = getBytesRead(fs.getUri().getScheme());
+        task.run();
+        long bytesRead = getBytesRead(fs.getUri().getScheme()) - bytesReadBefore;
+        System.out.println(String.format("[MD5 Bench: %d bytes uploaded, %d "
+                + "bytes read from source, ratio %.2f]", length, bytesRead,
+                (double) bytesRead / length));
+
+        assertEquals(length, bytesRead);
+        assertEquals(DigestUtils.md5Hex(Files.readAllBytes(srcFile.toPath())),
+                task.md5sum);
+        assertEquals(length, cosClient.getObjectData("/dest/data").length);
+    }
+}
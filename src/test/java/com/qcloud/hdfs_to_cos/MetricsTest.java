@@ -0,0 +1,124 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 指标注册表、Prometheus文本和JMX导出的测试，并检查上传过程记录的延迟和字节数
+ */
+public class MetricsTest extends TestCase {
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("metrics_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testCounterAndHistogram() throws Exception {
+        final Metrics.Counter counter = Metrics.instance.counter("test_total",
+                null, null, "test counter");
+        final Metrics.Histogram histogram = Metrics.instance.histogram(
+                "test_seconds", "op", "test", "test histogram");
+        assertSame(counter, Metrics.instance.counter("test_total", null, null, ""));
+
+        final int threadNum = 8;
+        final int addNum = 200000;
+        Thread[] threads = new Thread[threadNum];
+        long start = System.nanoTime();
+        for (int i = 0; i < threadNum; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < addNum; j++) {
+                        counter.add(1);
+                        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long costNanos = System.nanoTime() - start;
+        System.out.println(String.format("[Metrics Bench: %d threads, %.1f ns "
+                        + "per counter add and histogram record]", threadNum,
+                (double) costNanos / threadNum / addNum));
+        assertEquals(threadNum * addNum, counter.get());
+        assertEquals(threadNum * addNum, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), histogram.getQuantileNanos(0.99));
+
+        String text = Metrics.instance.toPrometheusText();
+        assertTrue(text.contains("# TYPE hdfs_to_cos_test_total counter\n"
+                + "hdfs_to_cos_test_total " + threadNum * addNum + "\n"));
+        assertTrue(text.contains("hdfs_to_cos_test_seconds_bucket{op=\"test\","
+                + "le=\"0.002\"} 0\n"));
+        assertTrue(text.contains("hdfs_to_cos_test_seconds_bucket{op=\"test\","
+                + "le=\"0.005\"} " + threadNum * addNum + "\n"));
+        assertTrue(text.contains("hdfs_to_cos_test_seconds_count{op=\"test\"} "
+                + threadNum * addNum + "\n"));
+    }
+
+    public void testUploadMetricsExport() throws Exception {
+        int length = 3 * 1024 * 1024 + 5;
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/data"), length, 3);
+        File metricsFile = new File(this.workDir, "metrics.prom");
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcFile.getParent(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.METRICS_FILE, metricsFile.getAbsolutePath());
+        MetricsExporter exporter = MetricsExporter.create(configReader);
+        exporter.start();
+
+        long partNum = Metrics.instance.cosLatency(Metrics.OP_UPLOAD_PART).getCount();
+        long uploadBytes = Metrics.instance.uploadBytes.get();
+        long readBytes = Metrics.instance.hdfsReadBytes.get();
+        FileSystem fs = configReader.getHdfsFS();
+        FakeCosClient cosClient = new FakeCosClient();
+        FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs,
+                "/dest/data");
+        assertTrue(task.uploadMultipartWithRetry(1024 * 1024));
+        assertTrue(task.checkFileExistsWithCrc64());
+
+        assertEquals(4, Metrics.instance.cosLatency(Metrics.OP_UPLOAD_PART).getCount()
+                - partNum);
+        assertTrue(Metrics.instance.cosLatency(Metrics.OP_COMPLETE).getCount() > 0);
+        assertTrue(Metrics.instance.cosLatency(Metrics.OP_HEAD).getCount() > 0);
+        assertTrue(Metrics.instance.hdfsLatency(Metrics.OP_OPEN).getCount() > 0);
+        assertEquals(length, Metrics.instance.uploadBytes.get() - uploadBytes);
+        assertEquals(length, Metrics.instance.hdfsReadBytes.get() - readBytes);
+
+        // JMX和指标文件导出同样的指标
+        Object jmxCount = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("com.qcloud.hdfs_to_cos:type=Metrics"),
+                "cos_request_seconds.upload_part.count");
+        assertEquals(Metrics.instance.cosLatency(Metrics.OP_UPLOAD_PART).getCount(),
+                ((Long) jmxCount).longValue());
+        exporter.stop();
+        String text = new String(Files.readAllBytes(metricsFile.toPath()),
+                Charset.forName("UTF-8"));
+        assertTrue(text.contains("hdfs_to_cos_cos_request_seconds_count"
+                + "{op=\"upload_part\"} "
+                + Metrics.instance.cosLatency(Metrics.OP_UPLOAD_PART).getCount()));
+        assertTrue(text.contains("# TYPE hdfs_to_cos_upload_bytes_per_second gauge"));
+        assertTrue(text.contains("hdfs_to_cos_hdfs_read_bytes_total "
+                + Metrics.instance.hdfsReadBytes.get()));
+    }
+}
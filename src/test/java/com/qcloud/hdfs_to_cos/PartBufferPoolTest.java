@@ -0,0 +1,114 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.InitiateMultipartUploadRequest;
+import com.qcloud.cos.model.PartETag;
+import com.qcloud.cos.model.UploadPartRequest;
+import com.qcloud.cos.model.UploadPartResult;
+
+/**
+ * 分块缓冲区池以及从缓冲区上传分块的测试
+ */
+public class PartBufferPoolTest extends TestCase {
+    private File workDir;
+
+    /**
+     * 第一次上传分块时读取一部分数据后失败
+     */
+    private static class FailOnceCosClient extends FakeCosClient {
+        private final AtomicInteger failNum = new AtomicInteger(1);
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) {
+            if (this.failNum.getAndDecrement() > 0) {
+                try {
+                    uploadPartRequest.getInputStream().read(new byte[16]);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                countRequest(UPLOAD_PART);
+                throw buildServiceException(500, "InternalError");
+            }
+            return super.uploadPart(uploadPartRequest);
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("part_buffer_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testPoolIsBounded() throws Exception {
+        final PartBufferPool pool = new PartBufferPool(1024, 2);
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        final List<byte[]> acquired = new ArrayList<byte[]>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    byte[] buffer = pool.acquire();
+                    synchronized (acquired) {
+                        acquired.add(buffer);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(200);
+        // 两个缓冲区都在使用，第三次获取必须等待
+        assertTrue(waiter.isAlive());
+        pool.release(first);
+        waiter.join();
+        assertSame(first, acquired.get(0));
+        pool.release(second);
+        pool.release(acquired.get(0));
+        assertEquals(2, pool.getAllocatedNum());
+    }
+
+    public void testRetryResendsFromBuffer() throws Exception {
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, "/src",
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.RETRY_INTERVAL, "1");
+        FailOnceCosClient cosClient = new FailOnceCosClient();
+        String uploadId = cosClient.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(configReader.getBucket(),
+                        "dest/big")).getUploadId();
+
+        PartBufferPool pool = new PartBufferPool(4096, 1);
+        byte[] partBuffer = pool.acquire();
+        byte[] expected = new byte[3000];
+        new Random(7).nextBytes(expected);
+        System.arraycopy(expected, 0, partBuffer, 0, expected.length);
+        UploadPartTask uploadPartTask = new UploadPartTask(partBuffer, pool,
+                "dest/big", uploadId, 1, expected.length, cosClient,
+                new PartUploadScheduler(1), configReader);
+        PartETag partETag = uploadPartTask.call();
+
+        assertEquals(2, cosClient.getRequestNum(FakeCosClient.UPLOAD_PART));
+        List<PartETag> partETags = new ArrayList<PartETag>();
+        partETags.add(partETag);
+        cosClient.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                configReader.getBucket(), "dest/big", uploadId, partETags));
+        assertTrue(Arrays.equals(expected, cosClient.getObjectData("dest/big")));
+        // 上传结束后缓冲区已经归还，可以立即再次取出
+        assertSame(partBuffer, pool.acquire());
+    }
+}
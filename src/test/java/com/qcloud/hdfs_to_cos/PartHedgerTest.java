@@ -0,0 +1,165 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 分块推测执行的测试，并在有慢连接的模拟COS上对比文件完成时间的p99
+ */
+public class PartHedgerTest extends TestCase {
+    private static final int PART_SIZE = 64 * 1024;
+    private static final int PART_NUM = 8;
+    private static final int WARMUP_FILE_NUM = 6;       // 积累分块耗时的样本
+    private static final int FILE_NUM = 20;
+    private static final int SLOW_FILE_PERIOD = 4;      // 每4个文件有一个分块遇到慢连接
+    private static final long SLOW_PART_DELAY = 1000;
+
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("hedge_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testHedgeDelayAndBudget() {
+        PartHedger hedger = new PartHedger(10);
+        long mb = 1024 * 1024L;
+        for (int i = 0; i < 19; i++) {
+            hedger.recordLatency(mb, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        // 样本不足时不推测执行
+        assertEquals(Long.MAX_VALUE, hedger.getHedgeDelayNanos(mb));
+        hedger.recordLatency(mb, TimeUnit.MILLISECONDS.toNanos(10));
+        // 至少等待100毫秒，大的分块按照大小放大p95
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), hedger.getHedgeDelayNanos(mb));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1280),
+                hedger.getHedgeDelayNanos(64 * mb));
+
+        // 重复上传的字节不超过提交的分块字节的10%
+        hedger.recordSubmittedPart(10 * mb);
+        assertTrue(hedger.tryAcquire(mb));
+        assertFalse(hedger.tryAcquire(mb));
+        hedger.recordSubmittedPart(10 * mb);
+        assertTrue(hedger.tryAcquire(mb));
+        assertEquals(2 * mb, hedger.getHedgedBytes());
+    }
+
+    /**
+     * 依次上传所有文件，返回测量的文件的完成时间，单位毫秒
+     */
+    private long[] uploadFiles(String name, String... extraArgs) throws Exception {
+        File srcDir = new File(this.workDir, name);
+        String[] args = new String[]{
+                "-" + OptionsArgsName.HDFS_PATH, srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.RETRY_INTERVAL, "10"};
+        args = Arrays.copyOf(args, args.length + extraArgs.length);
+        System.arraycopy(extraArgs, 0, args, args.length - extraArgs.length,
+                extraArgs.length);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir, args);
+        FileSystem fs = configReader.getHdfsFS();
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPartThrottle(Integer.MAX_VALUE, 10);
+
+        long[] costMs = new long[FILE_NUM];
+        for (int i = 0; i < WARMUP_FILE_NUM + FILE_NUM; i++) {
+            String key = "/dest/" + name + "/" + i;
+            File srcFile = TestUtils.writeRandomFile(new File(srcDir,
+                    String.valueOf(i)), PART_SIZE * PART_NUM, i);
+            if (i >= WARMUP_FILE_NUM && (i - WARMUP_FILE_NUM) % SLOW_FILE_PERIOD == 0) {
+                cosClient.setSlowPart(key, PART_NUM / 2, SLOW_PART_DELAY);
+            }
+            FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                    fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs, key);
+            long start = System.nanoTime();
+            assertTrue(task.uploadMultipartWithRetry(PART_SIZE));
+            if (i >= WARMUP_FILE_NUM) {
+                costMs[i - WARMUP_FILE_NUM] = (System.nanoTime() - start) / 1000000;
+            }
+            // 先完成的一份提供的ETag和CRC64与文件一致
+            byte[] data = Files.readAllBytes(srcFile.toPath());
+            assertTrue(Arrays.equals(data, cosClient.getObjectData(key)));
+            assertEquals(FakeCosClient.bitwiseCrc64(data), task.crc64.longValue());
+        }
+        Arrays.sort(costMs);
+        return costMs;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.ceil(sorted.length * p) - 1];
+    }
+
+    public void testHedgingCutsTailLatency() throws Exception {
+        long[] plainMs = uploadFiles("plain");
+        long[] hedgedMs = uploadFiles("hedged",
+                "-" + OptionsArgsName.HEDGE_PART_PERCENT, "10");
+        PartHedger hedger = PartHedger.getInstance(TestUtils.buildConfigReader(
+                this.workDir, "-" + OptionsArgsName.HDFS_PATH, this.workDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.HEDGE_PART_PERCENT, "10"));
+
+        System.out.println(String.format("[Hedge Bench: %d files of %d parts, "
+                + "1 in %d files has a part delayed %d ms, p50/p99 file time "
+                + "without hedging: %d/%d ms, with hedging: %d/%d ms, %d "
+                + "duplicate parts]", FILE_NUM, PART_NUM, SLOW_FILE_PERIOD,
+                SLOW_PART_DELAY, percentile(plainMs, 0.5), percentile(plainMs, 0.99),
+                percentile(hedgedMs, 0.5), percentile(hedgedMs, 0.99),
+                hedger.getHedgedPartNum()));
+        assertTrue(percentile(plainMs, 0.99) >= SLOW_PART_DELAY);
+        assertTrue(percentile(hedgedMs, 0.99) * 2 < SLOW_PART_DELAY);
+        assertTrue(hedger.getHedgedPartNum() >= FILE_NUM / SLOW_FILE_PERIOD);
+        assertTrue(hedger.getHedgedBytes() * 10
+                <= (long) (WARMUP_FILE_NUM + FILE_NUM) * PART_NUM * PART_SIZE);
+    }
+
+    /**
+     * 另一份成功以后落后的一份被取消，它最终失败时不再按照退避间隔重试，很快释放在途名额
+     */
+    public void testLosingDuplicateReleasesInflightSlot() throws Exception {
+        File srcDir = new File(this.workDir, "loser");
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.RETRY_INTERVAL, "2000",
+                "-" + OptionsArgsName.HEDGE_PART_PERCENT, "10");
+        FileSystem fs = configReader.getHdfsFS();
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPartThrottle(Integer.MAX_VALUE, 10);
+        PartUploadScheduler scheduler = PartUploadScheduler.getInstance(configReader);
+        long hedgedPartNum = PartHedger.getInstance(configReader).getHedgedPartNum();
+
+        for (int i = 0; i <= WARMUP_FILE_NUM; i++) {
+            String key = "/dest/loser/" + i;
+            File srcFile = TestUtils.writeRandomFile(new File(srcDir,
+                    String.valueOf(i)), PART_SIZE * PART_NUM, i);
+            if (i == WARMUP_FILE_NUM) {
+                cosClient.setResetPart(key, PART_NUM / 2, SLOW_PART_DELAY);
+            }
+            FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                    fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs, key);
+            assertTrue(task.uploadMultipartWithRetry(PART_SIZE));
+        }
+        assertTrue(PartHedger.getInstance(configReader).getHedgedPartNum()
+                > hedgedPartNum);
+
+        // 落后的一份在慢连接结束时失败，不等待至少1秒的退避间隔再重试
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(SLOW_PART_DELAY + 300);
+        while (scheduler.getInflightNum() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.getInflightNum());
+    }
+}
@@ -0,0 +1,173 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * 共享分块调度器的测试，并对比每个文件各自创建线程池时单个大文件的上传耗时
+ */
+public class PartUploadSchedulerTest extends TestCase {
+    private static final int PART_MS = 20;
+
+    /**
+     * 模拟上传一个分块，记录同时执行的分块数的峰值
+     */
+    private static class SleepPart implements Callable<Integer> {
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+
+        SleepPart(AtomicInteger running, AtomicInteger maxRunning) {
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            int now = this.running.incrementAndGet();
+            int max;
+            while (now > (max = this.maxRunning.get())
+                    && !this.maxRunning.compareAndSet(max, now)) {
+            }
+            try {
+                Thread.sleep(PART_MS);
+            } finally {
+                this.running.decrementAndGet();
+            }
+            return now;
+        }
+    }
+
+    private static void waitAll(List<Future<Integer>> futures) throws Exception {
+        for (Future<Integer> future : futures) {
+            future.get();
+        }
+    }
+
+    public void testGlobalInflightLimitAcrossFiles() throws Exception {
+        final PartUploadScheduler scheduler = new PartUploadScheduler(6);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        List<Thread> files = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            files.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int part = 0; part < 20; part++) {
+                            Future<Integer> future = scheduler.submit(
+                                    new SleepPart(running, maxRunning));
+                            synchronized (futures) {
+                                futures.add(future);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        for (Thread file : files) {
+            file.start();
+        }
+        for (Thread file : files) {
+            file.join();
+        }
+        waitAll(futures);
+        assertEquals(80, futures.size());
+        assertTrue(maxRunning.get() <= 6);
+        assertTrue(scheduler.getPoolSize() <= 6);
+        assertEquals(0, scheduler.getInflightNum());
+    }
+
+    public void testSingleFileUsesWholeCapacity() throws Exception {
+        PartUploadScheduler scheduler = new PartUploadScheduler(8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int part = 0; part < 40; part++) {
+            futures.add(scheduler.submit(new SleepPart(running, maxRunning)));
+        }
+        waitAll(futures);
+        assertEquals(8, maxRunning.get());
+    }
+
+    public void testFailedPartReleasesPermit() throws Exception {
+        PartUploadScheduler scheduler = new PartUploadScheduler(1);
+        Future<Integer> failed = scheduler.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new Exception("upload part failed");
+            }
+        });
+        try {
+            failed.get();
+            fail("part should fail");
+        } catch (Exception expected) {
+        }
+        AtomicInteger running = new AtomicInteger();
+        Future<Integer> next = scheduler.submit(new SleepPart(running,
+                new AtomicInteger()));
+        assertEquals(1, next.get(10, TimeUnit.SECONDS).intValue());
+    }
+
+    /**
+     * 一个大文件单独上传时，原来每个文件最多max_multipart_upload_task_num个分块并发，
+     * 共享调度器可以用满max_task_num * max_multipart_upload_task_num
+     */
+    public void testCompareWithPoolPerFile() throws Exception {
+        int maxTaskNum = 4;
+        int partTaskNum = 4;
+        int partNum = 64;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        long start = System.nanoTime();
+        ExecutorService service = Executors.newFixedThreadPool(partTaskNum);
+        Semaphore semaphore = new Semaphore(partTaskNum);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int part = 0; part < partNum; part++) {
+            semaphore.acquire();
+            final SleepPart sleepPart = new SleepPart(running, maxRunning);
+            final Semaphore partSemaphore = semaphore;
+            futures.add(service.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        return sleepPart.call();
+                    } finally {
+                        partSemaphore.release();
+                    }
+                }
+            }));
+        }
+        service.shutdown();
+        service.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        waitAll(futures);
+        long poolPerFileMs = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        PartUploadScheduler scheduler =
+                new PartUploadScheduler(maxTaskNum * partTaskNum);
+        futures.clear();
+        for (int part = 0; part < partNum; part++) {
+            futures.add(scheduler.submit(new SleepPart(running, maxRunning)));
+        }
+        waitAll(futures);
+        long sharedMs = (System.nanoTime() - start) / 1000000;
+
+        System.out.println(String.format("[Part Scheduler Bench: one file, %d "
+                + "parts of %d ms, pool per file %d ms, shared scheduler %d ms]",
+                partNum, PART_MS, poolPerFileMs, sharedMs));
+        assertTrue(sharedMs * 2 < poolPerFileMs);
+    }
+}
@@ -0,0 +1,101 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 上传进度和剩余时间的测试
+ */
+public class ProgressReporterTest extends TestCase {
+    private static final int MB = 1024 * 1024;
+
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("progress_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    public void testPartialProgressAndEta() throws Exception {
+        ProgressReporter reporter = new ProgressReporter();
+        reporter.addDiscovered(2, 3 * MB);
+        ProgressReporter.FileProgress progress = reporter.startFile(2 * MB);
+        InputStream in = ProgressReporter.track(progress,
+                new ByteArrayInputStream(new byte[2 * MB]));
+        byte[] buffer = new byte[MB / 2];
+
+        // 分块读取到一半时就计入进度
+        assertEquals(MB / 2, in.read(buffer));
+        assertEquals(MB / 2, reporter.getDoneBytes());
+        long start = System.nanoTime();
+        String line = reporter.report(start);
+        assertTrue(line, line.contains("[Progress: 512.0 KB / 3.0 MB(16.7%), 0 / 2 "
+                + "files, 0.00 MB/s, ETA unknown, scanning]"));
+
+        assertEquals(MB / 2, in.read(buffer));
+        line = reporter.report(start + TimeUnit.SECONDS.toNanos(1));
+        assertTrue(line, line.contains("1.0 MB / 3.0 MB(33.3%), 0 / 2 files, "
+                + "0.50 MB/s, ETA 00:00:04, scanning"));
+
+        // 关闭的输入流和结束的文件不会重复计算
+        in.close();
+        assertEquals(MB, reporter.getDoneBytes());
+        reporter.finishFile(progress, 2 * MB);
+        reporter.finishFile(progress, 2 * MB);
+        assertEquals(2 * MB, reporter.getDoneBytes());
+        reporter.finishFile(null, MB);
+        reporter.setScanFinished();
+        line = reporter.report(start + TimeUnit.SECONDS.toNanos(2));
+        assertTrue(line, line.contains("3.0 MB / 3.0 MB(100.0%), 2 / 2 files, "
+                + "0.95 MB/s, ETA 00:00:00]"));
+    }
+
+    public void testMultipartUploadProgress() throws Exception {
+        int length = 4 * MB + 7;
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/data"), length, 5);
+        ConfigReader configReader = TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, srcFile.getParent(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.UPLOAD_PART_SIZE, String.valueOf(MB));
+        FileSystem fs = configReader.getHdfsFS();
+        final FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPartThrottle(Integer.MAX_VALUE, 20);
+        final FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs,
+                "/dest/data");
+        final ProgressReporter reporter = ProgressReporter.instance;
+        long doneBytes = reporter.getDoneBytes();
+        long finishedFiles = reporter.getFinishedFiles();
+
+        Thread uploader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+            }
+        });
+        uploader.start();
+        long maxDoneBytes = 0;
+        while (uploader.isAlive()) {
+            maxDoneBytes = Math.max(maxDoneBytes, reporter.getDoneBytes() - doneBytes);
+            Thread.sleep(1);
+        }
+        uploader.join();
+        assertEquals(1, cosClient.getObjectNum());
+        assertTrue(maxDoneBytes <= length);
+        assertEquals(length, reporter.getDoneBytes() - doneBytes);
+        assertEquals(1, reporter.getFinishedFiles() - finishedFiles);
+    }
+}
@@ -0,0 +1,122 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * 重试调度的测试：退避间隔、客户端错误直接失败、连接异常重试、失败的文件等待重试时上传线程继续处理其他文件
+ */
+public class RetrySchedulerTest extends TestCase {
+    private static final long RETRY_INTERVAL = 500;
+
+    private File workDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("retry_test");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private FileToCosTask buildTask(ConfigReader configReader,
+            FakeCosClient cosClient, String name) throws Exception {
+        File srcFile = TestUtils.writeRandomFile(new File(this.workDir,
+                "src/" + name), 1024, name.hashCode());
+        FileSystem fs = configReader.getHdfsFS();
+        return new FileToCosTask(configReader, cosClient,
+                fs.getFileStatus(new Path(srcFile.getAbsolutePath())), fs,
+                "/dest/" + name);
+    }
+
+    private ConfigReader buildConfigReader() throws Exception {
+        return TestUtils.buildConfigReader(this.workDir,
+                "-" + OptionsArgsName.HDFS_PATH, new File(this.workDir, "src")
+                        .getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.MAX_RETRY_NUM, "5",
+                "-" + OptionsArgsName.RETRY_INTERVAL,
+                String.valueOf(RETRY_INTERVAL));
+    }
+
+    public void testExponentialBackoffWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            long first = Utils.getBackoffInterval(0, 100);
+            long third = Utils.getBackoffInterval(2, 100);
+            assertTrue(first >= 50 && first <= 100);
+            assertTrue(third >= 200 && third <= 400);
+            assertTrue(Utils.getBackoffInterval(20, 100) <= 30000);
+        }
+    }
+
+    public void testClientErrorFailsFast() throws Exception {
+        ConfigReader configReader = buildConfigReader();
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPutFailure("/dest/denied", 100, 403, "AccessDenied");
+        FileToCosTask task = buildTask(configReader, cosClient, "denied");
+        long start = System.nanoTime();
+        task.run();
+        long costMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(1, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        assertTrue(costMs < RETRY_INTERVAL);
+    }
+
+    public void testClientExceptionIsRetried() throws Exception {
+        ConfigReader configReader = buildConfigReader();
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPutClientFailure("/dest/reset", 2, "Connection reset");
+        FileToCosTask task = buildTask(configReader, cosClient, "reset");
+        task.run();
+        assertEquals(3, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        assertNotNull(cosClient.getObjectData("/dest/reset"));
+    }
+
+    public void testWorkerServesOtherFilesWhileRetrying() throws Exception {
+        ConfigReader configReader = buildConfigReader();
+        FakeCosClient cosClient = new FakeCosClient();
+        cosClient.setPutFailure("/dest/slow", 2, 503, "SlowDown");
+        BlockingQueue<FileToCosTask> queue = new LinkedBlockingQueue<FileToCosTask>();
+        queue.put(buildTask(configReader, cosClient, "slow"));
+        int otherNum = 5;
+        for (int i = 0; i < otherNum; i++) {
+            queue.put(buildTask(configReader, cosClient, "file" + i));
+        }
+
+        // 只有一个上传线程
+        HdfsToCosExecutor executor = new HdfsToCosExecutor(queue, true);
+        Thread worker = new Thread(executor);
+        long start = System.nanoTime();
+        worker.start();
+        try {
+            long othersDoneMs = -1;
+            while (null == cosClient.getObjectData("/dest/slow")) {
+                if (othersDoneMs < 0
+                        && null != cosClient.getObjectData("/dest/file" + (otherNum - 1))) {
+                    othersDoneMs = (System.nanoTime() - start) / 1000000;
+                }
+                assertTrue((System.nanoTime() - start) / 1000000 < 10000);
+                Thread.sleep(10);
+            }
+            long slowDoneMs = (System.nanoTime() - start) / 1000000;
+            System.out.println(String.format("[Retry Bench: 1 worker, other %d "
+                    + "files done at %d ms, throttled file done at %d ms after "
+                    + "2 retries]", otherNum, othersDoneMs, slowDoneMs));
+            // 其他文件不用等待失败文件的退避时间
+            assertTrue(othersDoneMs >= 0 && othersDoneMs < RETRY_INTERVAL / 2);
+            assertTrue(slowDoneMs >= RETRY_INTERVAL / 2 + RETRY_INTERVAL);
+        } finally {
+            executor.stop();
+            worker.join();
+        }
+        assertEquals(otherNum + 3, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        assertEquals(0, RetryScheduler.instance.getPendingNum());
+    }
+}
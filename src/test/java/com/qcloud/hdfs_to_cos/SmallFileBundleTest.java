@@ -0,0 +1,172 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+/**
+ * 小文件打包上传的测试。
+ * 请求数对比默认使用较小的规模，可以通过-Dbundle.bench.files=100000指定文件数
+ */
+public class SmallFileBundleTest extends TestCase {
+    private static final String BENCH_FILES_PROPERTY = "bundle.bench.files";
+    private static final int DEFAULT_BENCH_FILES = 2000;
+    private static final int SMALL_FILE_NUM = 200;
+    private static final int BUNDLE_FILE_SIZE = 4096;
+
+    private File workDir;
+    private File srcDir;
+
+    @Override
+    protected void setUp() {
+        this.workDir = TestUtils.createTempDir("bundle_test");
+        this.srcDir = new File(this.workDir, "src");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private static File smallFile(File srcDir, int index) {
+        return new File(srcDir, "dt=" + (index % 5) + "/part-" + index);
+    }
+
+    private static String smallCosPath(int index) {
+        return "/dest/dt=" + (index % 5) + "/part-" + index;
+    }
+
+    private ConfigReader buildConfigReader(String... extraArgs) throws Exception {
+        String[] args = new String[]{
+                "-" + OptionsArgsName.HDFS_PATH, this.srcDir.getAbsolutePath(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/"};
+        String[] allArgs = new String[args.length + extraArgs.length];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        System.arraycopy(extraArgs, 0, allArgs, args.length, extraArgs.length);
+        return TestUtils.buildConfigReader(this.workDir, allArgs);
+    }
+
+    /**
+     * 按照App的流程扫描并执行所有任务，不检查COS和bucket
+     */
+    private HdfsToCos upload(ConfigReader configReader, FakeCosClient cosClient)
+            throws Exception {
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue, cosClient);
+        hdfsToCos.initSmallFileBundler(configReader.getDestCosPath());
+        hdfsToCos.scanSrcPath();
+        hdfsToCos.flushSmallFileBundler();
+        for (FileToCosTask task : taskQueue) {
+            task.run();
+        }
+        return hdfsToCos;
+    }
+
+    public void testBundleAndReadBackByRange() throws Exception {
+        for (int i = 0; i < SMALL_FILE_NUM; i++) {
+            TestUtils.writeRandomFile(smallFile(this.srcDir, i), i * 17 % 3000, i);
+        }
+        TestUtils.writeRandomFile(new File(this.srcDir, "big"), 10000, 1);
+        ConfigReader configReader = buildConfigReader(
+                "-" + OptionsArgsName.BUNDLE_FILE_SIZE, String.valueOf(BUNDLE_FILE_SIZE),
+                "-" + OptionsArgsName.BUNDLE_SIZE, "65536");
+        FakeCosClient cosClient = new FakeCosClient();
+        upload(configReader, cosClient);
+
+        // 大文件单独上传，小文件只存在于bundle中
+        assertEquals(10000, cosClient.getObjectData("/dest/big").length);
+        assertNull(cosClient.getObjectData(smallCosPath(1)));
+        BundleReader reader = BundleReader.load(cosClient,
+                configReader.getBucket(), configReader.getDestCosPath());
+        assertEquals(SMALL_FILE_NUM, reader.size());
+        int getNum = cosClient.getRequestNum(FakeCosClient.GET_OBJECT);
+        for (int i = 0; i < SMALL_FILE_NUM; i++) {
+            byte[] expected = Files.readAllBytes(smallFile(this.srcDir, i).toPath());
+            assertTrue(Arrays.equals(expected, reader.read(smallCosPath(i))));
+        }
+        // 空文件不需要请求COS，其余每个文件一次范围GET
+        assertEquals(SMALL_FILE_NUM - 1,
+                cosClient.getRequestNum(FakeCosClient.GET_OBJECT) - getNum);
+
+        try {
+            reader.read("/dest/big");
+            fail("big file should not be bundled");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testBundleDir() {
+        assertEquals("/hdfs/20170224/_hdfs_to_cos_bundles/",
+                BundleIndex.getBundleDir("/hdfs/20170224/"));
+        assertEquals("/hdfs/20170224/_hdfs_to_cos_bundles/",
+                BundleIndex.getBundleDir("/hdfs/20170224"));
+        assertEquals("/_hdfs_to_cos_bundles/", BundleIndex.getBundleDir("/"));
+    }
+
+    public void testSkipAlreadyBundledFiles() throws Exception {
+        for (int i = 0; i < SMALL_FILE_NUM; i++) {
+            TestUtils.writeRandomFile(new File(this.srcDir, "part-" + i), 100, i);
+        }
+        ConfigReader configReader = buildConfigReader(
+                "-" + OptionsArgsName.BUNDLE_FILE_SIZE, String.valueOf(BUNDLE_FILE_SIZE),
+                "-" + OptionsArgsName.SKIP_IF_LENGTH_MATCH);
+        FakeCosClient cosClient = new FakeCosClient();
+        upload(configReader, cosClient);
+        // 所有小文件放在一个bundle中，再加上它的索引
+        assertEquals(2, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+
+        // 修改一个文件的长度以后再次上传，只打包这一个文件，跳过的文件同样计入进度
+        TestUtils.writeRandomFile(new File(this.srcDir, "part-7"), 200, 7);
+        ProgressReporter progress = ProgressReporter.instance;
+        long finishedFiles = progress.getFinishedFiles();
+        long discoveredBytes = progress.getDiscoveredBytes();
+        long doneBytes = progress.getDoneBytes();
+        upload(configReader, cosClient);
+        assertEquals(4, cosClient.getRequestNum(FakeCosClient.PUT_OBJECT));
+        assertEquals(SMALL_FILE_NUM, progress.getFinishedFiles() - finishedFiles);
+        assertEquals(progress.getDiscoveredBytes() - discoveredBytes,
+                progress.getDoneBytes() - doneBytes);
+        BundleReader reader = BundleReader.load(cosClient,
+                configReader.getBucket(), configReader.getDestCosPath());
+        assertEquals(200, reader.read("/dest/part-7").length);
+        assertEquals(100, reader.read("/dest/part-8").length);
+        assertFalse(reader.getEntry("/dest/part-7").getBundleKey().equals(
+                reader.getEntry("/dest/part-8").getBundleKey()));
+    }
+
+    /**
+     * 对比逐个上传和打包上传同样一批小文件时发给COS的请求数
+     */
+    public void testCompareRequestNum() throws Exception {
+        int fileNum = Integer.getInteger(BENCH_FILES_PROPERTY, DEFAULT_BENCH_FILES);
+        for (int i = 0; i < fileNum; i++) {
+            TestUtils.writeRandomFile(smallFile(this.srcDir, i), 1024, i);
+        }
+
+        long plainRequestNum = runComparison("per file", fileNum,
+                buildConfigReader());
+        long bundleRequestNum = runComparison("bundled", fileNum,
+                buildConfigReader("-" + OptionsArgsName.BUNDLE_FILE_SIZE,
+                        String.valueOf(BUNDLE_FILE_SIZE)));
+        assertTrue(bundleRequestNum * 100 <= plainRequestNum);
+    }
+
+    private long runComparison(String name, int fileNum,
+            ConfigReader configReader) throws Exception {
+        FakeCosClient cosClient = new FakeCosClient();
+        long start = System.nanoTime();
+        upload(configReader, cosClient);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long putNum = cosClient.getRequestNum(FakeCosClient.PUT_OBJECT);
+        long headNum = cosClient.getRequestNum(FakeCosClient.HEAD_OBJECT);
+        System.out.println(String.format("[Bundle Bench: %s, %d files, "
+                        + "%d PutObject, %d HeadObject, %d ms]",
+                name, fileNum, putNum, headNum, elapsedMs));
+        return putNum + headNum;
+    }
+}
@@ -0,0 +1,130 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+/**
+ * 快照差异模式的测试，运行在MiniDFSCluster上
+ */
+public class SnapshotDiffScannerTest extends TestCase {
+    private static final Path SRC_PATH = new Path("/src");
+
+    private File workDir;
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem dfs;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("snapshot_diff_test");
+        Configuration conf = new HdfsConfiguration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR,
+                new File(this.workDir, "dfs").getAbsolutePath());
+        this.cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        this.cluster.waitActive();
+        this.dfs = this.cluster.getFileSystem();
+
+        writeFile("a/f1", 100);
+        writeFile("a/f2", 200);
+        writeFile("b/f3", 300);
+        this.dfs.allowSnapshot(SRC_PATH);
+    }
+
+    @Override
+    protected void tearDown() {
+        if (null != this.cluster) {
+            this.cluster.shutdown();
+        }
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private void writeFile(String relativePath, int length) throws Exception {
+        FSDataOutputStream out = this.dfs.create(new Path(SRC_PATH, relativePath), true);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 执行一次快照差异同步，返回提交的任务对应的COS路径
+     */
+    private Set<String> runOnce(FakeCosClient cosClient) throws Exception {
+        ConfigReader configReader = TestUtils.buildConfigReaderWithFS(this.workDir,
+                this.dfs.getUri().toString(),
+                "-" + OptionsArgsName.HDFS_PATH, SRC_PATH.toString(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.SNAPSHOT_DIFF,
+                "-" + OptionsArgsName.SNAPSHOT_DELETE_REMOVED);
+        LinkedBlockingQueue<FileToCosTask> taskQueue =
+                new LinkedBlockingQueue<FileToCosTask>();
+        HdfsToCos hdfsToCos = new HdfsToCos(configReader, taskQueue, cosClient);
+        hdfsToCos.scanSnapshotDiff();
+
+        Set<String> cosPaths = new HashSet<String>();
+        for (FileToCosTask task : taskQueue) {
+            cosPaths.add(task.cosPath);
+            task.run();
+        }
+        hdfsToCos.finishIncrementalSync();
+        return cosPaths;
+    }
+
+    private Set<String> listSnapshotNames() throws Exception {
+        Set<String> names = new HashSet<String>();
+        for (FileStatus snapshot : this.dfs.listStatus(
+                new Path(SRC_PATH, ".snapshot"))) {
+            names.add(snapshot.getPath().getName());
+        }
+        return names;
+    }
+
+    public void testUploadOnlyChangesSinceLastSnapshot() throws Exception {
+        FakeCosClient cosClient = new FakeCosClient();
+        Set<String> firstRun = runOnce(cosClient);
+        assertEquals(5, firstRun.size());
+        assertTrue(firstRun.contains("/dest/b/f3"));
+        assertEquals(1, listSnapshotNames().size());
+
+        writeFile("a/f1", 150);                                     // 覆盖
+        writeFile("c/f4", 400);                                     // 新建目录和文件
+        this.dfs.delete(new Path(SRC_PATH, "b/f3"), false);         // 删除
+        this.dfs.rename(new Path(SRC_PATH, "a/f2"),
+                new Path(SRC_PATH, "a/f2r"));                       // 重命名
+        String firstSnapshot = listSnapshotNames().iterator().next();
+
+        Set<String> secondRun = runOnce(cosClient);
+        Set<String> expected = new HashSet<String>();
+        expected.add("/dest/a/f1");
+        expected.add("/dest/a/f2r");
+        expected.add("/dest/c");
+        expected.add("/dest/c/f4");
+        assertEquals(expected, secondRun);
+
+        assertEquals(150, cosClient.getObjectData("/dest/a/f1").length);
+        assertEquals(200, cosClient.getObjectData("/dest/a/f2r").length);
+        assertEquals(400, cosClient.getObjectData("/dest/c/f4").length);
+        assertNull(cosClient.getObjectData("/dest/a/f2"));
+        assertNull(cosClient.getObjectData("/dest/b/f3"));
+
+        // 成功以后只保留本次的快照作为下一次的基准
+        Set<String> snapshots = listSnapshotNames();
+        assertEquals(1, snapshots.size());
+        assertFalse(snapshots.contains(firstSnapshot));
+
+        // 没有变化时不提交任何任务
+        assertTrue(runOnce(cosClient).isEmpty());
+    }
+}
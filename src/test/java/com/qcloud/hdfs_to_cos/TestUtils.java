@@ -0,0 +1,108 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.cli.DefaultParser;
+
+/**
+ * 测试用的公共方法
+ */
+public class TestUtils {
+
+    /**
+     * 创建一个临时目录
+     */
+    public static File createTempDir(String prefix) {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                prefix + "_" + System.nanoTime());
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("create temp dir failed: " + dir);
+        }
+        return dir;
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 写入一个指定长度的随机内容文件
+     */
+    public static File writeRandomFile(File file, int length, long seed)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * 构造一个以本地文件系统作为源文件系统的配置
+     *
+     * @param workDir 存放core-site.xml和cos_info.conf的目录
+     * @param args    额外的命令行参数，如hdfs_path和cos_path
+     */
+    public static ConfigReader buildConfigReader(File workDir, String... args)
+            throws Exception {
+        return buildConfigReaderWithFS(workDir, "file:///", args);
+    }
+
+    /**
+     * 构造一个以指定文件系统作为源文件系统的配置，如MiniDFSCluster
+     */
+    public static ConfigReader buildConfigReaderWithFS(File workDir,
+            String defaultFS, String... args) throws Exception {
+        File coreSite = new File(workDir, "core-site.xml");
+        writeString(coreSite, "<?xml version=\"1.0\"?>\n<configuration>\n"
+                + "<property><name>fs.defaultFS</name><value>" + defaultFS
+                + "</value></property>\n</configuration>\n");
+        File cosInfo = new File(workDir, "cos_info.conf");
+        writeString(cosInfo, "appid=\nak=test_ak\nsk=test_sk\n"
+                + "bucket=examplebucket-1250000000\nregion=ap-guangzhou\n");
+
+        List<String> allArgs = new ArrayList<String>();
+        allArgs.add("-" + OptionsArgsName.HDFS_CONF_FILE);
+        allArgs.add(coreSite.getAbsolutePath());
+        allArgs.add("-" + OptionsArgsName.COS_CONF_FILE);
+        allArgs.add(cosInfo.getAbsolutePath());
+        allArgs.addAll(Arrays.asList(args));
+        ConfigReader configReader = new ConfigReader(new DefaultParser().parse(
+                OptionsArgsName.getAllSupportOption(),
+                allArgs.toArray(new String[allArgs.size()])));
+        if (!configReader.isInitConfigFlag()) {
+            throw new IllegalArgumentException(configReader.getInitErrMsg());
+        }
+        return configReader;
+    }
+
+    private static void writeString(File file, String content)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
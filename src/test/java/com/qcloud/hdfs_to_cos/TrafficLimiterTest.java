@@ -0,0 +1,88 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * 令牌桶限速的测试，测量多个上传流的总速率与目标速率的误差
+ */
+public class TrafficLimiterTest extends TestCase {
+    private static final double BYTES_PER_SECOND = 4 * 1024 * 1024;
+    private static final int STREAM_NUM = 8;
+    private static final int READ_SIZE = 8 * 1024;      // 与SDK每次读取的大小相近
+
+    /**
+     * 读取一个流的所有数据，模拟SDK发送请求体
+     */
+    private static Thread startReader(final InputStream in, final AtomicLong bytesRead) {
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[READ_SIZE];
+                try {
+                    int nRead;
+                    while ((nRead = in.read(buffer)) > 0) {
+                        bytesRead.addAndGet(nRead);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        return reader;
+    }
+
+    public void testAggregateRateAccuracy() throws Exception {
+        TrafficLimiter limiter = new TrafficLimiter(BYTES_PER_SECOND);
+        // 各个流的大小不同，先读完的流不再占用带宽，剩下的流分享全部带宽
+        List<Thread> readers = new ArrayList<Thread>();
+        List<AtomicLong> bytesReads = new ArrayList<AtomicLong>();
+        long totalBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < STREAM_NUM; i++) {
+            int length = (i + 1) * 200 * 1024;
+            totalBytes += length;
+            AtomicLong bytesRead = new AtomicLong();
+            bytesReads.add(bytesRead);
+            readers.add(startReader(limiter.wrap(new ByteArrayInputStream(
+                    new byte[length])), bytesRead));
+        }
+
+        // 所有流都在读取时，各个流分到的带宽接近
+        Thread.sleep(300);
+        long first = bytesReads.get(0).get();
+        long last = bytesReads.get(STREAM_NUM - 1).get();
+        assertTrue(first > 0 && last < first * 2);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = totalBytes / seconds;
+        System.out.println(String.format("[Traffic Limit Bench: %d streams, "
+                + "%d bytes, target %.0f bytes/s, actual %.0f bytes/s, error %.1f%%]",
+                STREAM_NUM, totalBytes, BYTES_PER_SECOND, rate,
+                (rate - BYTES_PER_SECOND) * 100 / BYTES_PER_SECOND));
+        assertEquals(BYTES_PER_SECOND, rate, BYTES_PER_SECOND * 0.05);
+    }
+
+    public void testIdleDoesNotBurst() throws Exception {
+        TrafficLimiter limiter = new TrafficLimiter(BYTES_PER_SECOND);
+        // 空闲一段时间后，突发的数据量不超过桶的容量
+        Thread.sleep(500);
+        long start = System.nanoTime();
+        InputStream in = limiter.wrap(new ByteArrayInputStream(
+                new byte[(int) BYTES_PER_SECOND]));
+        byte[] buffer = new byte[READ_SIZE];
+        while (in.read(buffer) > 0) {
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(seconds > 0.9);
+    }
+}
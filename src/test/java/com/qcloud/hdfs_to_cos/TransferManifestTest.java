@@ -0,0 +1,145 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * 传输清单的读写测试。
+ * 吞吐测试默认写入100万条记录，可以通过-Dmanifest.bench.records=10000000指定更大的规模
+ */
+public class TransferManifestTest extends TestCase {
+    private static final String BENCH_RECORDS_PROPERTY = "manifest.bench.records";
+    private static final long DEFAULT_BENCH_RECORDS = 1000000L;
+
+    private static List<TransferManifest.Record> buildRecords() {
+        List<TransferManifest.Record> records =
+                new ArrayList<TransferManifest.Record>();
+        long now = System.currentTimeMillis();
+        records.add(new TransferManifest.Record("hdfs://ns1/user/hive/dt=0",
+                "/dest/dt=0", 0, now, true, false));
+        records.add(new TransferManifest.Record("hdfs://ns1/user/hive/dt=0/part-0",
+                "/dest/dt=0/part-0", 12345, now - 1000, false, false));
+        records.add(new TransferManifest.Record("hdfs://ns1/user/hive/dt=0/part-1",
+                "/dest/dt=0/part-1", 5L * 1024 * 1024 * 1024, now + 5000, false, false));
+        records.add(new TransferManifest.Record("hdfs://ns1/user/中文目录/文件",
+                "/dest/中文目录/文件", 1, 0, false, false));
+        records.add(new TransferManifest.Record(
+                "har://hdfs-ns1/user/a.har/dir/file", "/dest/a/dir/file",
+                77, now, false, true));
+        records.add(new TransferManifest.Record("hdfs://ns1/a", "/a", 3, now,
+                false, false));
+        return records;
+    }
+
+    private static void assertRecordEquals(TransferManifest.Record expected,
+            TransferManifest.Record actual) {
+        assertEquals(expected.getPath(), actual.getPath());
+        assertEquals(expected.getCosPath(), actual.getCosPath());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getModificationTime(), actual.getModificationTime());
+        assertEquals(expected.isDirectory(), actual.isDirectory());
+        assertEquals(expected.isHarMember(), actual.isHarMember());
+    }
+
+    public void testRoundTrip() throws IOException {
+        List<TransferManifest.Record> records = buildRecords();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferManifestWriter writer = new TransferManifestWriter(out,
+                "hdfs://ns1/user", "/dest/");
+        for (TransferManifest.Record record : records) {
+            writer.append(record);
+        }
+        writer.close();
+
+        TransferManifestReader reader = new TransferManifestReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("hdfs://ns1/user", reader.getSrcPath());
+        assertEquals("/dest/", reader.getDestCosPath());
+        for (TransferManifest.Record expected : records) {
+            assertRecordEquals(expected, reader.next());
+        }
+        assertNull(reader.next());
+        assertNull(reader.next());
+        assertEquals(records.size(), reader.getRecordNum());
+        reader.close();
+    }
+
+    public void testTruncatedManifestIsRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferManifestWriter writer = new TransferManifestWriter(out, "", "");
+        for (TransferManifest.Record record : buildRecords()) {
+            writer.append(record);
+        }
+        writer.close();
+        byte[] data = out.toByteArray();
+
+        // 去掉结尾的记录数，读取到最后应当报错而不是当作读取完毕
+        TransferManifestReader reader = new TransferManifestReader(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length - 2)));
+        try {
+            while (null != reader.next()) {
+                continue;
+            }
+            fail("truncated manifest should be rejected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testThroughput() throws IOException {
+        long recordNum = Long.getLong(BENCH_RECORDS_PROPERTY, DEFAULT_BENCH_RECORDS);
+        File manifestFile = File.createTempFile("manifest_bench", ".bin");
+        try {
+            long baseTime = System.currentTimeMillis();
+            long writeStart = System.nanoTime();
+            TransferManifestWriter writer = new TransferManifestWriter(
+                    new BufferedOutputStream(new FileOutputStream(manifestFile)),
+                    "hdfs://ns1/user/hive/warehouse", "/warehouse/");
+            for (long i = 0; i < recordNum; i++) {
+                String relativePath = "db_" + i / 10000000 + "/tbl_"
+                        + i / 1000000 % 10 + "/dt=" + i / 1000 % 1000
+                        + "/part-" + (100000 + i % 1000);
+                writer.append(new TransferManifest.Record(
+                        "hdfs://ns1/user/hive/warehouse/" + relativePath,
+                        "/warehouse/" + relativePath, i * 31 % (256 * 1024 * 1024),
+                        baseTime + i % 7919, false, false));
+            }
+            writer.close();
+            long writeNanos = System.nanoTime() - writeStart;
+
+            long readStart = System.nanoTime();
+            TransferManifestReader reader = new TransferManifestReader(
+                    new BufferedInputStream(new FileInputStream(manifestFile)));
+            long readNum = 0;
+            long totalLength = 0;
+            TransferManifest.Record record;
+            while (null != (record = reader.next())) {
+                readNum++;
+                totalLength += record.getLength();
+            }
+            reader.close();
+            long readNanos = System.nanoTime() - readStart;
+
+            assertEquals(recordNum, readNum);
+            assertTrue(totalLength >= 0);
+            System.out.println(String.format("[Manifest Bench: %d records, "
+                            + "%.1f bytes/record, write %.0f records/s, "
+                            + "read %.0f records/s]",
+                    recordNum, (double) manifestFile.length() / recordNum,
+                    recordNum * 1e9 / writeNanos, recordNum * 1e9 / readNanos));
+        } finally {
+            manifestFile.delete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.qcloud.hdfs_to_cos;
+
+import junit.framework.TestCase;
+
+/**
+ * 上传方式和分块大小规划的测试
+ */
+public class UploadPlannerTest extends TestCase {
+    private static final long MB = 1024 * 1024L;
+    private static final long BLOCK_SIZE = 128 * MB;
+    private static final double BYTES_PER_SECOND = 8 * MB;
+
+    public void testMidSizedFileUsesAllConnections() {
+        // 120MB的文件按照固定规则是单文件上传
+        assertFalse(UploadPlanner.fixedPlan(120 * MB, 8 * MB).isMultipart());
+
+        UploadPlanner.Plan plan = UploadPlanner.plan(120 * MB, BLOCK_SIZE, 16,
+                BYTES_PER_SECOND, FileToCosTask.MAX_PART_SIZE);
+        assertTrue(plan.isMultipart());
+        // 分块不超过文件平分给16个连接的大小，并且是块大小的2的幂分之一
+        assertTrue(plan.getPartSize() <= 120 * MB / 16);
+        assertEquals(0, BLOCK_SIZE % plan.getPartSize());
+        assertEquals(4 * MB, plan.getPartSize());
+    }
+
+    public void testSingleUploadWhenMultipartDoesNotPay() {
+        // 小文件
+        assertFalse(UploadPlanner.plan(4 * MB, BLOCK_SIZE, 16, BYTES_PER_SECOND,
+                FileToCosTask.MAX_PART_SIZE).isMultipart());
+        // 只有一个连接可用时分块上传只会增加请求
+        assertFalse(UploadPlanner.plan(100 * MB, BLOCK_SIZE, 1, BYTES_PER_SECOND,
+                FileToCosTask.MAX_PART_SIZE).isMultipart());
+        // 吞吐量很高时请求开销占主导
+        assertFalse(UploadPlanner.plan(20 * MB, BLOCK_SIZE, 16, 1024 * MB,
+                FileToCosTask.MAX_PART_SIZE).isMultipart());
+        // 超过单文件上传的上限时总是分块上传
+        assertTrue(UploadPlanner.plan(6 * 1024 * MB, BLOCK_SIZE, 1, 1024 * MB,
+                FileToCosTask.MAX_PART_SIZE).isMultipart());
+    }
+
+    public void testHugeFileAvoidsTinyParts() {
+        long fileSize = 1024 * 1024 * MB;       // 1TB
+        UploadPlanner.Plan plan = UploadPlanner.plan(fileSize, BLOCK_SIZE, 16,
+                BYTES_PER_SECOND, FileToCosTask.MAX_PART_SIZE);
+        assertTrue(plan.isMultipart());
+        assertTrue((fileSize + plan.getPartSize() - 1) / plan.getPartSize()
+                <= FileToCosTask.MAX_PART_NUM);
+        // 按吞吐量只需要16MB，为了不超过10000块向上对齐到块大小
+        assertEquals(BLOCK_SIZE, plan.getPartSize());
+    }
+
+    public void testPartSizeLimitAndAlignment() {
+        // 开启预读时分块不超过缓冲区
+        UploadPlanner.Plan plan = UploadPlanner.plan(2048 * MB, BLOCK_SIZE, 4,
+                100 * MB, 8 * MB);
+        assertTrue(plan.isMultipart());
+        assertEquals(8 * MB, plan.getPartSize());
+        // 吞吐量很高时分块取块大小的整数倍
+        plan = UploadPlanner.plan(4096 * MB, BLOCK_SIZE, 4, 200 * MB,
+                FileToCosTask.MAX_PART_SIZE);
+        assertEquals(3 * BLOCK_SIZE, plan.getPartSize());
+
+        assertEquals(12 * MB, UploadPlanner.alignDown(12 * MB + 5, 0));
+        assertEquals(32 * MB, UploadPlanner.alignDown(40 * MB, BLOCK_SIZE));
+        assertEquals(2 * BLOCK_SIZE, UploadPlanner.alignDown(300 * MB, BLOCK_SIZE));
+        assertEquals(64 * MB, UploadPlanner.alignUp(40 * MB, BLOCK_SIZE));
+        assertEquals(3 * BLOCK_SIZE, UploadPlanner.alignUp(300 * MB, BLOCK_SIZE));
+    }
+}
@@ -0,0 +1,136 @@
+package com.qcloud.hdfs_to_cos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+/**
+ * 零拷贝读取的测试，运行在MiniDFSCluster上。
+ * 测试环境没有domain socket，读取走HDFS客户端的退回路径，与远端块的情况相同
+ */
+public class ZeroCopyInputStreamTest extends TestCase {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final Path SRC_FILE = new Path("/src/data");
+
+    private File workDir;
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem dfs;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.workDir = TestUtils.createTempDir("zero_copy_test");
+        Configuration conf = new HdfsConfiguration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR,
+                new File(this.workDir, "dfs").getAbsolutePath());
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        this.cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        this.cluster.waitActive();
+        this.dfs = this.cluster.getFileSystem();
+
+        // 跨越多个块，最后一个块不满
+        this.data = new byte[3 * BLOCK_SIZE + 123];
+        new Random(5).nextBytes(this.data);
+        FSDataOutputStream out = this.dfs.create(SRC_FILE, true);
+        try {
+            out.write(this.data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        if (null != this.cluster) {
+            this.cluster.shutdown();
+        }
+        TestUtils.deleteRecursively(this.workDir);
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100 * 1024];
+        int nRead;
+        while ((nRead = in.read(buffer)) > 0) {
+            out.write(buffer, 0, nRead);
+        }
+        return out.toByteArray();
+    }
+
+    public void testReadRangesFromSharedStream() throws Exception {
+        FSDataInputStream shared = this.dfs.open(SRC_FILE);
+        try {
+            long start = BLOCK_SIZE - 1000;
+            int length = 2 * BLOCK_SIZE + 77;
+            InputStream first = new ZeroCopyInputStream(shared, start, length,
+                    false, false);
+            InputStream second = new ZeroCopyInputStream(shared, 0,
+                    this.data.length, true, false);
+
+            // 交替读取两个分块，共享的输入流的位置不影响各自的数据
+            byte[] head = new byte[5000];
+            assertEquals(5000, second.read(head, 0, head.length));
+            byte[] firstData = readAll(first);
+            byte[] secondRest = readAll(second);
+            first.close();
+            second.close();
+
+            assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, (int) start,
+                    (int) start + length), firstData));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 0, 5000), head));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 5000,
+                    this.data.length), secondRest));
+        } finally {
+            shared.close();
+        }
+    }
+
+    public void testMarkAndReset() throws Exception {
+        InputStream in = new ZeroCopyInputStream(this.dfs.open(SRC_FILE), 10,
+                this.data.length - 10, false, true);
+        try {
+            in.mark(Integer.MAX_VALUE);
+            byte[] first = new byte[BLOCK_SIZE + 10];
+            int pos = 0;
+            while (pos < first.length) {
+                pos += in.read(first, pos, first.length - pos);
+            }
+            // SDK重试时从mark的位置重新发送
+            in.reset();
+            assertEquals(100, in.skip(100));
+            assertEquals(this.data[110] & 0xff, in.read());
+            assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 10,
+                    10 + first.length), first));
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testUploadWithZeroCopyRead() throws Exception {
+        ConfigReader configReader = TestUtils.buildConfigReaderWithFS(this.workDir,
+                this.dfs.getUri().toString(),
+                "-" + OptionsArgsName.HDFS_PATH, SRC_FILE.toString(),
+                "-" + OptionsArgsName.COS_PATH, "/dest/",
+                "-" + OptionsArgsName.ZERO_COPY_READ);
+        assertTrue(configReader.isZeroCopyRead());
+        FakeCosClient cosClient = new FakeCosClient();
+        FileToCosTask task = new FileToCosTask(configReader, cosClient,
+                this.dfs.getFileStatus(SRC_FILE), configReader.getHdfsFS(),
+                "/dest/data");
+        task.run();
+        assertTrue(Arrays.equals(this.data, cosClient.getObjectData("/dest/data")));
+    }
+}